@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.jmh;
+
+import java.util.Random;
+
+/**
+ * The key distributions that are being used by the benchmarks.
+ */
+public enum Distribution {
+  
+  /**
+   * Uniformly distributed random keys.
+   */
+  RANDOM {
+    @Override
+    int intKey(Random random, int index) {
+      return random.nextInt();
+    }
+
+    @Override
+    String stringKey(Random random, int index) {
+      return randomString(random, 16);
+    }
+  },
+  
+  /**
+   * Consecutive keys.
+   */
+  SEQUENTIAL {
+    @Override
+    int intKey(Random random, int index) {
+      return index;
+    }
+
+    @Override
+    String stringKey(Random random, int index) {
+      String value = Integer.toString(index);
+      StringBuilder buffer = new StringBuilder(10);
+      for (int i = value.length(); i < 10; i++) {
+        buffer.append('0');
+      }
+      return buffer.append(value).toString();
+    }
+  },
+  
+  /**
+   * Random keys that share a long common prefix (e.g. URLs).
+   */
+  SHARED_PREFIX {
+    @Override
+    int intKey(Random random, int index) {
+      return 0x5A000000 | (random.nextInt() & 0x00FFFFFF);
+    }
+
+    @Override
+    String stringKey(Random random, int index) {
+      return "http://www.example.com/some/long/shared/path/" 
+          + randomString(random, 8);
+    }
+  };
+  
+  private static final String ALPHABET 
+    = "abcdefghijklmnopqrstuvwxyz0123456789";
+  
+  /**
+   * Returns a key for the given index.
+   */
+  abstract int intKey(Random random, int index);
+  
+  /**
+   * Returns a key for the given index.
+   */
+  abstract String stringKey(Random random, int index);
+  
+  /**
+   * Creates {@code size} {@code int} keys starting at the given offset.
+   */
+  public int[] intKeys(int offset, int size, long seed) {
+    Random random = new Random(seed);
+    
+    int[] keys = new int[size];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = intKey(random, offset + i);
+    }
+    return keys;
+  }
+  
+  /**
+   * Creates {@code size} {@link String} keys starting at the given offset.
+   */
+  public String[] stringKeys(int offset, int size, long seed) {
+    Random random = new Random(seed);
+    
+    String[] keys = new String[size];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = stringKey(random, offset + i);
+    }
+    return keys;
+  }
+  
+  private static String randomString(Random random, int length) {
+    char[] value = new char[length];
+    for (int i = 0; i < value.length; i++) {
+      value[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+    }
+    return new String(value);
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.jmh;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.ardverk.collection.spt.IntegerKeyAnalyzer;
+import org.ardverk.collection.spt.PatriciaTrie;
+import org.ardverk.collection.spt.ints.IntMap;
+import org.ardverk.collection.spt.ints.PatriciaIntTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link PatriciaTrie} with {@link Integer} keys and the 
+ * {@link IntegerKeyAnalyzer} and the {@link PatriciaIntTrie} to 
+ * {@link HashMap} and {@link TreeMap}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IntKeyBenchmark {
+  
+  public static enum Impl {
+    PATRICIA_TRIE {
+      @Override
+      Table create() {
+        return new MapTable(new PatriciaTrie<Integer, Integer>(
+            IntegerKeyAnalyzer.INSTANCE));
+      }
+    },
+    
+    PATRICIA_INT_TRIE {
+      @Override
+      Table create() {
+        return new IntMapTable(new PatriciaIntTrie());
+      }
+    },
+    
+    HASH_MAP {
+      @Override
+      Table create() {
+        return new MapTable(new HashMap<Integer, Integer>());
+      }
+    },
+    
+    TREE_MAP {
+      @Override
+      Table create() {
+        return new MapTable(new TreeMap<Integer, Integer>(
+            Integer::compareUnsigned));
+      }
+    };
+    
+    abstract Table create();
+  }
+  
+  @Param
+  private Impl impl;
+  
+  @Param({ "1000", "100000", "10000000" })
+  private int size;
+  
+  @Param
+  private Distribution distribution;
+  
+  private Table table;
+  
+  private int[] keys;
+  
+  private int[] absent;
+  
+  private Lookups lookups;
+  
+  @Setup
+  public void setup() {
+    table = impl.create();
+    
+    keys = distribution.intKeys(0, size, 1L);
+    for (int key : keys) {
+      table.put(key, key);
+    }
+    
+    // Keys that are guaranteed not to be in the Table
+    int[] others = distribution.intKeys(size, size, 2L);
+    int count = 0;
+    for (int key : others) {
+      if (!table.containsKey(key)) {
+        others[count++] = key;
+      }
+    }
+    absent = Arrays.copyOf(others, count);
+    
+    lookups = new Lookups(Math.min(keys.length, absent.length), 3L);
+  }
+  
+  @Benchmark
+  public int get() {
+    return table.get(keys[lookups.next()]);
+  }
+  
+  @Benchmark
+  public int replace() {
+    int key = keys[lookups.next()];
+    return table.put(key, key);
+  }
+  
+  @Benchmark
+  public int putRemove() {
+    int key = absent[lookups.next()];
+    table.put(key, key);
+    return table.remove(key);
+  }
+  
+  @Benchmark
+  public long iterate() {
+    return table.iterate();
+  }
+  
+  /**
+   * A common interface for {@link Map}s and {@link IntMap}s.
+   */
+  private static interface Table {
+    
+    public int get(int key);
+    
+    public int put(int key, int value);
+    
+    public int remove(int key);
+    
+    public boolean containsKey(int key);
+    
+    /**
+     * Iterates over all values and returns their sum.
+     */
+    public long iterate();
+  }
+  
+  private static class MapTable implements Table {
+    
+    private final Map<Integer, Integer> map;
+    
+    public MapTable(Map<Integer, Integer> map) {
+      this.map = map;
+    }
+
+    @Override
+    public int get(int key) {
+      return intValue(map.get(key));
+    }
+
+    @Override
+    public int put(int key, int value) {
+      return intValue(map.put(key, value));
+    }
+
+    @Override
+    public int remove(int key) {
+      return intValue(map.remove(key));
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+      return map.containsKey(key);
+    }
+
+    @Override
+    public long iterate() {
+      long sum = 0L;
+      for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+        sum += entry.getValue();
+      }
+      return sum;
+    }
+    
+    private static int intValue(Integer value) {
+      return value != null ? value.intValue() : -1;
+    }
+  }
+  
+  private static class IntMapTable implements Table {
+    
+    private final PatriciaIntTrie trie;
+    
+    public IntMapTable(PatriciaIntTrie trie) {
+      this.trie = trie;
+    }
+
+    @Override
+    public int get(int key) {
+      return trie.get(key);
+    }
+
+    @Override
+    public int put(int key, int value) {
+      return trie.put(key, value);
+    }
+
+    @Override
+    public int remove(int key) {
+      return trie.remove(key);
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+      return trie.containsKey(key);
+    }
+
+    @Override
+    public long iterate() {
+      final long[] sum = { 0L };
+      trie.traverse((entry) -> {
+        sum[0] += entry.getValue();
+        return true;
+      });
+      return sum[0];
+    }
+  }
+}
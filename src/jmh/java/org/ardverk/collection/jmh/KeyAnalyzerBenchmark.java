@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ardverk.collection.spt.CharSequenceKeyAnalyzer;
+import org.ardverk.collection.spt.KeyAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link KeyAnalyzer}s' {@code bitIndex()} methods 
+ * against a bit by bit implementation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyAnalyzerBenchmark {
+  
+  /**
+   * The length of the common prefix of the two keys.
+   */
+  @Param({ "8", "64", "200" })
+  private int length;
+  
+  private String key;
+  
+  private String otherKey;
+  
+  @Setup
+  public void setup() {
+    StringBuilder buffer = new StringBuilder("http://www.example.com/");
+    while (buffer.length() < length) {
+      buffer.append((char)('a' + buffer.length() % 26));
+    }
+    buffer.setLength(length);
+    
+    key = buffer.toString() + "/index.html";
+    otherKey = buffer.toString() + "/index.htm";
+  }
+  
+  @Benchmark
+  public int charSequence() {
+    return CharSequenceKeyAnalyzer.INSTANCE.bitIndex(key, otherKey);
+  }
+  
+  @Benchmark
+  public int charSequenceBitwise() {
+    return bitIndex(CharSequenceKeyAnalyzer.INSTANCE, key, otherKey, 
+        key.length() * Character.SIZE, otherKey.length() * Character.SIZE);
+  }
+  
+  /**
+   * A bit by bit implementation of {@link KeyAnalyzer#bitIndex(Object, Object)}.
+   */
+  private static <K> int bitIndex(KeyAnalyzer<K> analyzer, 
+      K key, K otherKey, int lengthInBits, int otherLengthInBits) {
+    
+    boolean allNull = true;
+    if (0 < lengthInBits) {
+      int length = Math.max(lengthInBits, otherLengthInBits);
+      for (int i = 0; i < length; i++) {
+        boolean isSet = analyzer.isSet(key, i);
+        if (isSet) {
+          allNull = false;
+        }
+        
+        if (isSet != analyzer.isSet(otherKey, i)) {
+          return i;
+        }
+      }
+    }
+    
+    if (allNull) {
+      return KeyAnalyzer.NULL_KEY;
+    }
+    
+    return KeyAnalyzer.EQUAL_KEY;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.jmh;
+
+import java.util.Random;
+
+/**
+ * A fixed sequence of lookups that the benchmarks cycle through.
+ */
+class Lookups {
+  
+  /**
+   * The number of lookups (must be a power of two).
+   */
+  private static final int SIZE = 1 << 16;
+  
+  private static final int MASK = SIZE - 1;
+  
+  private final int[] indices = new int[SIZE];
+  
+  private int index = 0;
+  
+  public Lookups(int size, long seed) {
+    Random random = new Random(seed);
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = random.nextInt(size);
+    }
+  }
+  
+  /**
+   * Returns the next index into the keys.
+   */
+  public int next() {
+    return indices[index++ & MASK];
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ardverk.collection.spt.CharSequenceKeyAnalyzer;
+import org.ardverk.collection.spt.KeyAnalyzer;
+import org.ardverk.collection.spt.PatriciaTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link PatriciaTrie}'s loops against the recursive
+ * descents it used to have. The {@link RecursiveTrie} is a copy of the
+ * old {@code selectR()} and {@code putR()} that knows only how to get
+ * and put.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RecursionBenchmark {
+  
+  @Param({ "1000", "100000" })
+  private int size;
+  
+  @Param
+  private Distribution distribution;
+  
+  private final Integer value = Integer.valueOf(42);
+  
+  private final PatriciaTrie<String, Integer> iterative
+    = new PatriciaTrie<String, Integer>(CharSequenceKeyAnalyzer.INSTANCE);
+  
+  private final RecursiveTrie<String, Integer> recursive
+    = new RecursiveTrie<String, Integer>(CharSequenceKeyAnalyzer.INSTANCE);
+  
+  private String[] keys;
+  
+  private Lookups lookups;
+  
+  @Setup
+  public void setup() {
+    keys = distribution.stringKeys(0, size, 1L);
+    for (String key : keys) {
+      iterative.put(key, value);
+      recursive.put(key, value);
+    }
+    
+    lookups = new Lookups(keys.length, 3L);
+  }
+  
+  @Benchmark
+  public Integer get() {
+    return iterative.get(keys[lookups.next()]);
+  }
+  
+  @Benchmark
+  public Integer getRecursive() {
+    return recursive.get(keys[lookups.next()]);
+  }
+  
+  @Benchmark
+  public Integer put() {
+    return iterative.put(keys[lookups.next()], value);
+  }
+  
+  @Benchmark
+  public Integer putRecursive() {
+    return recursive.put(keys[lookups.next()], value);
+  }
+  
+  /**
+   * Inserts all keys into an empty {@link PatriciaTrie}.
+   */
+  @Benchmark
+  public int build() {
+    PatriciaTrie<String, Integer> trie
+      = new PatriciaTrie<String, Integer>(CharSequenceKeyAnalyzer.INSTANCE);
+    for (String key : keys) {
+      trie.put(key, value);
+    }
+    return trie.size();
+  }
+  
+  /**
+   * Inserts all keys into an empty {@link RecursiveTrie}.
+   */
+  @Benchmark
+  public int buildRecursive() {
+    RecursiveTrie<String, Integer> trie
+      = new RecursiveTrie<String, Integer>(CharSequenceKeyAnalyzer.INSTANCE);
+    for (String key : keys) {
+      trie.put(key, value);
+    }
+    return trie.size;
+  }
+  
+  /**
+   * The recursive get and put of the {@link PatriciaTrie} before it
+   * was turned into loops. Keys that are all 0s aren't supported.
+   */
+  private static class RecursiveTrie<K, V> {
+    
+    private final KeyAnalyzer<? super K> keyAnalyzer;
+    
+    private final Node<K, V> root = new Node<K, V>(null, null, -1);
+    
+    private int size = 0;
+    
+    public RecursiveTrie(KeyAnalyzer<? super K> keyAnalyzer) {
+      this.keyAnalyzer = keyAnalyzer;
+      root.left = root;
+    }
+    
+    public V get(K key) {
+      Node<K, V> entry = selectR(root.left, key, -1);
+      if (entry != root && keyAnalyzer.isEqual(key, entry.key)) {
+        return entry.value;
+      }
+      return null;
+    }
+    
+    private Node<K, V> selectR(Node<K, V> h, K key, int bitIndex) {
+      if (h.bitIndex <= bitIndex) {
+        return h;
+      }
+      
+      if (!keyAnalyzer.isSet(key, h.bitIndex)) {
+        return selectR(h.left, key, h.bitIndex);
+      } else {
+        return selectR(h.right, key, h.bitIndex);
+      }
+    }
+    
+    public V put(K key, V value) {
+      Node<K, V> entry = selectR(root.left, key, -1);
+      K existing = null;
+      if (entry != root) {
+        existing = entry.key;
+        if (keyAnalyzer.isEqual(key, existing)) {
+          V previous = entry.value;
+          entry.value = value;
+          return previous;
+        }
+      }
+      
+      int bitIndex = keyAnalyzer.bitIndex(key, existing);
+      if (bitIndex < 0) {
+        throw new IllegalArgumentException("Unsupported key: " + key);
+      }
+      
+      root.left = putR(root.left, key, value, bitIndex, root);
+      ++size;
+      
+      return null;
+    }
+    
+    private Node<K, V> putR(Node<K, V> h, K key, V value,
+        int bitIndex, Node<K, V> p) {
+      if ((h.bitIndex >= bitIndex) || (h.bitIndex <= p.bitIndex)) {
+        Node<K, V> t = new Node<K, V>(key, value, bitIndex);
+        
+        boolean isSet = keyAnalyzer.isSet(key, t.bitIndex);
+        t.left = isSet ? h : t;
+        t.right = isSet ? t : h;
+        return t;
+      }
+      
+      if (!keyAnalyzer.isSet(key, h.bitIndex)) {
+        h.left = putR(h.left, key, value, bitIndex, h);
+      } else {
+        h.right = putR(h.right, key, value, bitIndex, h);
+      }
+      return h;
+    }
+  }
+  
+  private static class Node<K, V> {
+    
+    private final K key;
+    
+    private V value;
+    
+    private final int bitIndex;
+    
+    private Node<K, V> left;
+    
+    private Node<K, V> right;
+    
+    private Node(K key, V value, int bitIndex) {
+      this.key = key;
+      this.value = value;
+      this.bitIndex = bitIndex;
+    }
+  }
+}
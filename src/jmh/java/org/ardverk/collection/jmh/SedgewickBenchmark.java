@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ardverk.collection.spt.CharSequenceKeyAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link org.ardverk.collection.sedgewick.PatriciaTrie} to 
+ * the {@link org.ardverk.collection.spt.PatriciaTrie}. The former knows 
+ * only how to search and insert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SedgewickBenchmark {
+  
+  @Param({ "1000", "100000", "10000000" })
+  private int size;
+  
+  @Param
+  private Distribution distribution;
+  
+  private final Integer value = Integer.valueOf(42);
+  
+  private final org.ardverk.collection.sedgewick.PatriciaTrie sedgewick 
+    = new org.ardverk.collection.sedgewick.PatriciaTrie();
+  
+  private final org.ardverk.collection.spt.PatriciaTrie<String, Integer> spt 
+    = new org.ardverk.collection.spt.PatriciaTrie<String, Integer>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+  
+  private String[] keys;
+  
+  private Lookups lookups;
+  
+  @Setup
+  public void setup() {
+    keys = distribution.stringKeys(0, size, 1L);
+    for (String key : keys) {
+      sedgewick.insert(key, value);
+      spt.put(key, value);
+    }
+    
+    lookups = new Lookups(keys.length, 3L);
+  }
+  
+  @Benchmark
+  public Object sedgewickSearch() {
+    return sedgewick.search(keys[lookups.next()]);
+  }
+  
+  @Benchmark
+  public Object sedgewickInsert() {
+    sedgewick.insert(keys[lookups.next()], value);
+    return sedgewick;
+  }
+  
+  @Benchmark
+  public Object sptGet() {
+    return spt.get(keys[lookups.next()]);
+  }
+  
+  @Benchmark
+  public Object sptPut() {
+    return spt.put(keys[lookups.next()], value);
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.jmh;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ardverk.collection.spt.CharSequenceKeyAnalyzer;
+import org.ardverk.collection.spt.Cursor;
+import org.ardverk.collection.spt.IntegerKeyAnalyzer;
+import org.ardverk.collection.spt.PatriciaTrie;
+import org.ardverk.collection.spt.ints.IntMap;
+import org.ardverk.collection.spt.ints.PatriciaIntTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the closest-key operations {@code select(key)} and 
+ * {@code select(key, cursor)} that have no equivalent in 
+ * {@link java.util.HashMap} or {@link java.util.TreeMap}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SelectBenchmark {
+  
+  /**
+   * The number of entries that are being visited by the closest 
+   * traverse benchmarks.
+   */
+  private static final int CLOSEST = 16;
+  
+  @State(Scope.Benchmark)
+  public static class StringTrie {
+    
+    @Param({ "1000", "100000", "10000000" })
+    private int size;
+    
+    @Param
+    private Distribution distribution;
+    
+    private final PatriciaTrie<String, Integer> trie 
+      = new PatriciaTrie<String, Integer>(CharSequenceKeyAnalyzer.INSTANCE);
+    
+    private String[] keys;
+    
+    private Lookups lookups;
+    
+    @Setup
+    public void setup() {
+      for (String key : distribution.stringKeys(0, size, 1L)) {
+        trie.put(key, size);
+      }
+      
+      // Keys that are most likely not in the Trie
+      keys = distribution.stringKeys(size, size, 2L);
+      lookups = new Lookups(keys.length, 3L);
+    }
+    
+    public String next() {
+      return keys[lookups.next()];
+    }
+  }
+  
+  @State(Scope.Benchmark)
+  public static class IntegerTrie {
+    
+    @Param({ "1000", "100000", "10000000" })
+    private int size;
+    
+    @Param
+    private Distribution distribution;
+    
+    private final PatriciaTrie<Integer, Integer> trie 
+      = new PatriciaTrie<Integer, Integer>(IntegerKeyAnalyzer.INSTANCE);
+    
+    private int[] keys;
+    
+    private Lookups lookups;
+    
+    @Setup
+    public void setup() {
+      for (int key : distribution.intKeys(0, size, 1L)) {
+        trie.put(key, key);
+      }
+      
+      keys = distribution.intKeys(size, size, 2L);
+      lookups = new Lookups(keys.length, 3L);
+    }
+    
+    public Integer next() {
+      return keys[lookups.next()];
+    }
+  }
+  
+  @State(Scope.Benchmark)
+  public static class IntTrie {
+    
+    @Param({ "1000", "100000", "10000000" })
+    private int size;
+    
+    @Param
+    private Distribution distribution;
+    
+    private final PatriciaIntTrie trie = new PatriciaIntTrie();
+    
+    private int[] keys;
+    
+    private Lookups lookups;
+    
+    @Setup
+    public void setup() {
+      for (int key : distribution.intKeys(0, size, 1L)) {
+        trie.put(key, key);
+      }
+      
+      keys = distribution.intKeys(size, size, 2L);
+      lookups = new Lookups(keys.length, 3L);
+    }
+    
+    public int next() {
+      return keys[lookups.next()];
+    }
+  }
+  
+  @Benchmark
+  public Object selectString(StringTrie state) {
+    return state.trie.select(state.next());
+  }
+  
+  @Benchmark
+  public int closestString(StringTrie state) {
+    Closest<String, Integer> cursor = new Closest<String, Integer>();
+    state.trie.select(state.next(), cursor);
+    return cursor.count;
+  }
+  
+  @Benchmark
+  public Object selectInteger(IntegerTrie state) {
+    return state.trie.select(state.next());
+  }
+  
+  @Benchmark
+  public int closestInteger(IntegerTrie state) {
+    Closest<Integer, Integer> cursor = new Closest<Integer, Integer>();
+    state.trie.select(state.next(), cursor);
+    return cursor.count;
+  }
+  
+  @Benchmark
+  public Object selectInt(IntTrie state) {
+    return state.trie.select(state.next());
+  }
+  
+  @Benchmark
+  public int closestInt(IntTrie state) {
+    IntClosest cursor = new IntClosest();
+    state.trie.select(state.next(), cursor);
+    return cursor.count;
+  }
+  
+  /**
+   * A {@link Cursor} that stops after {@link SelectBenchmark#CLOSEST} entries.
+   */
+  private static class Closest<K, V> implements Cursor<K, V> {
+    
+    private int count = 0;
+    
+    @Override
+    public boolean select(Map.Entry<? extends K, ? extends V> entry) {
+      return ++count < CLOSEST;
+    }
+  }
+  
+  /**
+   * A {@link org.ardverk.collection.spt.ints.Cursor} that stops after 
+   * {@link SelectBenchmark#CLOSEST} entries.
+   */
+  private static class IntClosest implements org.ardverk.collection.spt.ints.Cursor {
+    
+    private int count = 0;
+    
+    @Override
+    public boolean select(IntMap.Entry entry) {
+      return ++count < CLOSEST;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.jmh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.ardverk.collection.spt.CharSequenceKeyAnalyzer;
+import org.ardverk.collection.spt.PatriciaTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link PatriciaTrie} with {@link String} keys and the
+ * {@link CharSequenceKeyAnalyzer} to {@link HashMap} and {@link TreeMap}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StringKeyBenchmark {
+  
+  public static enum Impl {
+    PATRICIA_TRIE {
+      @Override
+      Map<String, Integer> create() {
+        return new PatriciaTrie<String, Integer>(
+            CharSequenceKeyAnalyzer.INSTANCE);
+      }
+    },
+    
+    HASH_MAP {
+      @Override
+      Map<String, Integer> create() {
+        return new HashMap<String, Integer>();
+      }
+    },
+    
+    TREE_MAP {
+      @Override
+      Map<String, Integer> create() {
+        return new TreeMap<String, Integer>();
+      }
+    };
+    
+    abstract Map<String, Integer> create();
+  }
+  
+  @Param
+  private Impl impl;
+  
+  @Param({ "1000", "100000", "10000000" })
+  private int size;
+  
+  @Param
+  private Distribution distribution;
+  
+  private final Integer value = Integer.valueOf(42);
+  
+  private Map<String, Integer> map;
+  
+  private String[] keys;
+  
+  private String[] absent;
+  
+  private Lookups lookups;
+  
+  @Setup
+  public void setup() {
+    map = impl.create();
+    
+    keys = distribution.stringKeys(0, size, 1L);
+    for (String key : keys) {
+      map.put(key, value);
+    }
+    
+    // Keys that are guaranteed not to be in the Map
+    List<String> others = new ArrayList<String>();
+    for (String key : distribution.stringKeys(size, size, 2L)) {
+      if (!map.containsKey(key)) {
+        others.add(key);
+      }
+    }
+    absent = others.toArray(new String[0]);
+    
+    lookups = new Lookups(Math.min(keys.length, absent.length), 3L);
+  }
+  
+  @Benchmark
+  public Integer get() {
+    return map.get(keys[lookups.next()]);
+  }
+  
+  @Benchmark
+  public Integer replace() {
+    return map.put(keys[lookups.next()], value);
+  }
+  
+  @Benchmark
+  public Integer putRemove() {
+    String key = absent[lookups.next()];
+    map.put(key, value);
+    return map.remove(key);
+  }
+  
+  @Benchmark
+  public long iterate() {
+    long sum = 0L;
+    for (Map.Entry<String, Integer> entry : map.entrySet()) {
+      sum += entry.getValue();
+    }
+    return sum;
+  }
+}
@@ -18,6 +18,7 @@ package org.ardverk.collection.spt;
 
 import java.io.Serializable;
 import java.util.Map;
+import java.util.SortedMap;
 
 /**
  * An abstract implementation of {@link Trie}.
@@ -32,12 +33,19 @@ abstract class AbstractTrie<K, V> implements Trie<K, V>, Serializable {
    */
   Entry<K, V> entry(K key) {
     Entry<K, V> entry = select(key);
-    if (entry != null && equals(key, entry.getKey())) {
+    if (entry != null && isEqual(key, entry.getKey())) {
       return entry;
     }
     return null;
   }
   
+  /**
+   * Returns {@code true} if the two keys are equal.
+   */
+  boolean isEqual(K key, K otherKey) {
+    return equals(key, otherKey);
+  }
+  
   @Override
   public V get(Object key) {
     @SuppressWarnings("unchecked")
@@ -97,6 +105,45 @@ abstract class AbstractTrie<K, V> implements Trie<K, V>, Serializable {
     return entry != null ? entry.getKey() : null;
   }
   
+  @Override
+  public K ceilingKey(K key) {
+    Entry<K, V> entry = ceilingEntry(key);
+    return entry != null ? entry.getKey() : null;
+  }
+  
+  @Override
+  public K floorKey(K key) {
+    Entry<K, V> entry = floorEntry(key);
+    return entry != null ? entry.getKey() : null;
+  }
+  
+  @Override
+  public K higherKey(K key) {
+    Entry<K, V> entry = higherEntry(key);
+    return entry != null ? entry.getKey() : null;
+  }
+  
+  @Override
+  public K lowerKey(K key) {
+    Entry<K, V> entry = lowerEntry(key);
+    return entry != null ? entry.getKey() : null;
+  }
+  
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, K toKey) {
+    return subMap(fromKey, true, toKey, false);
+  }
+  
+  @Override
+  public SortedMap<K, V> headMap(K toKey) {
+    return headMap(toKey, false);
+  }
+  
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey) {
+    return tailMap(fromKey, true);
+  }
+  
   @Override
   public Entry<K, V> pollFirstEntry() {
     Entry<K, V> entry = firstEntry();
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A {@link KeyAnalyzer} for {@code byte[]} keys. The bits are being 
+ * compared a {@code long} (i.e. 8 bytes) at a time.
+ * 
+ * NOTE: The bits past the end of a key are 0s. Keys that differ only 
+ * in trailing 0 bytes (e.g. {@code {10, 0}} and {@code {10, 0, 0}}) 
+ * can't be told apart and the {@link Trie} rejects the second one with
+ * an {@link IllegalArgumentException}. Use fixed-length or prefix-free 
+ * keys.
+ */
+public class ByteArrayKeyAnalyzer implements KeyAnalyzer<byte[]>, Serializable {
+
+  private static final long serialVersionUID = 8107395493614282741L;
+
+  public static final ByteArrayKeyAnalyzer INSTANCE 
+    = new ByteArrayKeyAnalyzer();
+  
+  /**
+   * The most significant bit of a {@code byte}.
+   */
+  private static final int MSB = 1 << Byte.SIZE-1;
+  
+  public int lengthInBits(byte[] key) {
+    return key != null ? key.length * Byte.SIZE : 0;
+  }
+  
+  @Override
+  public boolean isSet(byte[] key, int bitIndex) {
+    if (key == null) {
+      return false;
+    }
+    
+    int index = bitIndex / Byte.SIZE;
+    int bit = bitIndex % Byte.SIZE;
+    
+    if (index >= key.length) {
+      return false;
+    }
+    
+    int mask = (MSB >>> bit);
+    return (key[index] & mask) != 0;
+  }
+  
+  @Override
+  public int bitIndex(byte[] key, byte[] otherKey) {
+    
+    int length = key != null ? key.length : 0;
+    if (length == 0) {
+      return NULL_KEY;
+    }
+    
+    int otherLength = otherKey != null ? otherKey.length : 0;
+    
+    boolean allNull = true;
+    for (int i = 0; i < length || i < otherLength; i += Long.BYTES) {
+      long word = word(key, i, length);
+      long otherWord = word(otherKey, i, otherLength);
+      
+      if (word != otherWord) {
+        return i * Byte.SIZE + Long.numberOfLeadingZeros(word ^ otherWord);
+      }
+      
+      if (word != 0L) {
+        allNull = false;
+      }
+    }
+    
+    // This is a special case. This key was maybe not null
+    // but it's possible to have keys whose bits are all 0s.
+    if (allNull) {
+      return NULL_KEY;
+    }
+    
+    return EQUAL_KEY;
+  }
+  
+  /**
+   * Compares the content of the two {@code byte[]}s.
+   */
+  @Override
+  public boolean isEqual(byte[] key, byte[] otherKey) {
+    return Arrays.equals(key, otherKey);
+  }
+  
+  /**
+   * Returns the 8 bytes at the given index as a big-endian {@code long}.
+   * Bytes past the end of the key are 0s.
+   */
+  private static long word(byte[] key, int index, int length) {
+    if (index + Long.BYTES <= length) {
+      return (key[index] & 0xFFL) << 56
+          | (key[index + 1] & 0xFFL) << 48
+          | (key[index + 2] & 0xFFL) << 40
+          | (key[index + 3] & 0xFFL) << 32
+          | (key[index + 4] & 0xFFL) << 24
+          | (key[index + 5] & 0xFFL) << 16
+          | (key[index + 6] & 0xFFL) << 8
+          | (key[index + 7] & 0xFFL);
+    }
+    
+    long word = 0L;
+    for (int i = 0; i < Long.BYTES; i++) {
+      word <<= Byte.SIZE;
+      if (index + i < length) {
+        word |= (key[index + i] & 0xFFL);
+      }
+    }
+    return word;
+  }
+}
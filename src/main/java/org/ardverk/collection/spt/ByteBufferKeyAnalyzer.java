@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link KeyAnalyzer} for {@link ByteBuffer} keys. The key is the 
+ * content between the {@link ByteBuffer}'s position and limit. The bits
+ * are being read in place (i.e. the {@link ByteBuffer}'s position, limit
+ * and order are never changed) and compared a {@code long} (i.e. 8 bytes) 
+ * at a time.
+ * 
+ * NOTE: The {@link Trie} doesn't copy the keys. Don't change the content 
+ * or position of a {@link ByteBuffer} once it's been used as a key in 
+ * a {@link Trie}. It's fine to look up keys with buffers that are being 
+ * re-used though.
+ * 
+ * NOTE: The bits past the end of a key are 0s. Keys that differ only 
+ * in trailing 0 bytes (e.g. {@code {10, 0}} and {@code {10, 0, 0}}) 
+ * can't be told apart and the {@link Trie} rejects the second one with
+ * an {@link IllegalArgumentException}. Use fixed-length or prefix-free 
+ * keys.
+ */
+public class ByteBufferKeyAnalyzer implements KeyAnalyzer<ByteBuffer> {
+
+  public static final ByteBufferKeyAnalyzer INSTANCE 
+    = new ByteBufferKeyAnalyzer();
+  
+  /**
+   * The most significant bit of a {@code byte}.
+   */
+  private static final int MSB = 1 << Byte.SIZE-1;
+  
+  public int lengthInBits(ByteBuffer key) {
+    return key != null ? key.remaining() * Byte.SIZE : 0;
+  }
+  
+  @Override
+  public boolean isSet(ByteBuffer key, int bitIndex) {
+    if (key == null) {
+      return false;
+    }
+    
+    int index = bitIndex / Byte.SIZE;
+    int bit = bitIndex % Byte.SIZE;
+    
+    if (index >= key.remaining()) {
+      return false;
+    }
+    
+    int mask = (MSB >>> bit);
+    return (key.get(key.position() + index) & mask) != 0;
+  }
+  
+  @Override
+  public int bitIndex(ByteBuffer key, ByteBuffer otherKey) {
+    
+    int length = key != null ? key.remaining() : 0;
+    if (length == 0) {
+      return NULL_KEY;
+    }
+    
+    int otherLength = otherKey != null ? otherKey.remaining() : 0;
+    
+    boolean allNull = true;
+    for (int i = 0; i < length || i < otherLength; i += Long.BYTES) {
+      long word = word(key, i, length);
+      long otherWord = word(otherKey, i, otherLength);
+      
+      if (word != otherWord) {
+        return i * Byte.SIZE + Long.numberOfLeadingZeros(word ^ otherWord);
+      }
+      
+      if (word != 0L) {
+        allNull = false;
+      }
+    }
+    
+    // This is a special case. This key was maybe not null
+    // but it's possible to have keys whose bits are all 0s.
+    if (allNull) {
+      return NULL_KEY;
+    }
+    
+    return EQUAL_KEY;
+  }
+  
+  /**
+   * Returns the 8 bytes at the given index (relative to the key's 
+   * position) as a big-endian {@code long}. Bytes past the end of 
+   * the key are 0s.
+   */
+  private static long word(ByteBuffer key, int index, int length) {
+    if (index + Long.BYTES <= length) {
+      long word = key.getLong(key.position() + index);
+      if (key.order() == ByteOrder.LITTLE_ENDIAN) {
+        word = Long.reverseBytes(word);
+      }
+      return word;
+    }
+    
+    long word = 0L;
+    for (int i = 0; i < Long.BYTES; i++) {
+      word <<= Byte.SIZE;
+      if (index + i < length) {
+        word |= (key.get(key.position() + index + i) & 0xFFL);
+      }
+    }
+    return word;
+  }
+}
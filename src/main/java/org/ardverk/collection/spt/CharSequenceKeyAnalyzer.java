@@ -53,20 +53,27 @@ public class CharSequenceKeyAnalyzer implements KeyAnalyzer<CharSequence> {
   @Override
   public int bitIndex(CharSequence key, CharSequence otherKey) {
     
-    boolean allNull = true;
-    int lengthInBits = lengthInBits(key);
+    int length = key != null ? key.length() : 0;
+    if (length == 0) {
+      return NULL_KEY;
+    }
     
-    if (0 < lengthInBits) {
-      int length = Math.max(lengthInBits, lengthInBits(otherKey));
-      for(int i = 0; i < length; i++) {
-        boolean isSet = isSet(key, i);
-        if (isSet) {
-          allNull = false;
-        }
-        
-        if (isSet != isSet(otherKey, i)) {
-          return i;
-        }
+    int otherLength = otherKey != null ? otherKey.length() : 0;
+    
+    // Compare the keys a char at a time and find the first different 
+    // bit of the first different char.
+    boolean allNull = true;
+    for (int i = 0; i < length || i < otherLength; i++) {
+      char ch = i < length ? key.charAt(i) : 0;
+      char otherCh = i < otherLength ? otherKey.charAt(i) : 0;
+      
+      if (ch != otherCh) {
+        return i * Character.SIZE + Integer.numberOfLeadingZeros(ch ^ otherCh) 
+            - (Integer.SIZE - Character.SIZE);
+      }
+      
+      if (ch != 0) {
+        allNull = false;
       }
     }
     
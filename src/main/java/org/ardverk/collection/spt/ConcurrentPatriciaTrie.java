@@ -0,0 +1,642 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ardverk.collection.spt.PersistentPatriciaTrie.Leaf;
+import org.ardverk.collection.spt.PersistentPatriciaTrie.PrefixMap;
+import org.ardverk.collection.spt.PersistentPatriciaTrie.SubMap;
+
+/**
+ * A thread-safe implementation of a PATRICIA {@link Trie}.
+ *
+ * The {@link ConcurrentPatriciaTrie} is a {@link PersistentPatriciaTrie}
+ * behind an {@link AtomicReference}. Readers never take a lock and always
+ * see a consistent version of the {@link Trie}. Writers create a new
+ * version (which copies the path from the root down to the changed
+ * {@link Entry}) and publish it with a compare-and-set (and try again
+ * if another writer was faster).
+ *
+ * The {@link Iterator}s walk the version of the {@link Trie} that was
+ * current when they were created. They never throw a
+ * {@link ConcurrentModificationException} and their {@link Entry}s
+ * are read-only.
+ */
+public class ConcurrentPatriciaTrie<K, V> extends AbstractTrie<K, V>
+    implements ConcurrentMap<K, V>, Serializable {
+  
+  private static final long serialVersionUID = -3290146475416093620L;
+  
+  private final KeyAnalyzer<? super K> keyAnalyzer;
+  
+  /**
+   * The empty version. The views use it as a template for the ranges 
+   * so they don't hold on to an old version.
+   */
+  private final PersistentPatriciaTrie<K, V> empty;
+  
+  private final AtomicReference<PersistentPatriciaTrie<K, V>> trie;
+  
+  private transient volatile EntrySet entrySet = null;
+  
+  private transient volatile KeySet keySet = null;
+  
+  private transient volatile Values values = null;
+  
+  public ConcurrentPatriciaTrie(KeyAnalyzer<? super K> keyAnalyzer) {
+    this.keyAnalyzer = keyAnalyzer;
+    this.empty = new PersistentPatriciaTrie<K, V>(keyAnalyzer);
+    this.trie = new AtomicReference<PersistentPatriciaTrie<K, V>>(empty);
+  }
+  
+  public ConcurrentPatriciaTrie(KeyAnalyzer<? super K> keyAnalyzer,
+      Map<? extends K, ? extends V> m) {
+    this(keyAnalyzer);
+    
+    putAll(m);
+  }
+  
+  /**
+   * Returns the {@link KeyAnalyzer}.
+   */
+  public KeyAnalyzer<? super K> getKeyAnalyzer() {
+    return keyAnalyzer;
+  }
+  
+  /**
+   * Returns the current version of the {@link ConcurrentPatriciaTrie}.
+   * It's an O(1) operation and the returned {@link PersistentPatriciaTrie}
+   * doesn't see any later modifications.
+   */
+  public PersistentPatriciaTrie<K, V> snapshot() {
+    return trie.get();
+  }
+  
+  @Override
+  public Entry<K, V> select(K key) {
+    return trie.get().select(key);
+  }
+  
+  @Override
+  public V put(K key, V value) {
+    while (true) {
+      PersistentPatriciaTrie<K, V> current = trie.get();
+      Leaf<K, V> closest = current.selectLeaf(key);
+      
+      if (trie.compareAndSet(current, current.with(closest, key, value))) {
+        if (closest != null && isEqual(key, closest.getKey())) {
+          return closest.getValue();
+        }
+        return null;
+      }
+    }
+  }
+  
+  @Override
+  public V putIfAbsent(K key, V value) {
+    while (true) {
+      PersistentPatriciaTrie<K, V> current = trie.get();
+      Leaf<K, V> closest = current.selectLeaf(key);
+      
+      if (closest != null && isEqual(key, closest.getKey())) {
+        return closest.getValue();
+      }
+      
+      if (trie.compareAndSet(current, current.with(closest, key, value))) {
+        return null;
+      }
+    }
+  }
+  
+  @Override
+  public V replace(K key, V value) {
+    while (true) {
+      PersistentPatriciaTrie<K, V> current = trie.get();
+      Leaf<K, V> existing = current.selectLeaf(key);
+      
+      if (existing == null || !isEqual(key, existing.getKey())) {
+        return null;
+      }
+      
+      if (trie.compareAndSet(current, current.with(existing, key, value))) {
+        return existing.getValue();
+      }
+    }
+  }
+  
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    while (true) {
+      PersistentPatriciaTrie<K, V> current = trie.get();
+      Leaf<K, V> existing = current.selectLeaf(key);
+      
+      if (existing == null || !isEqual(key, existing.getKey())
+          || !equals(oldValue, existing.getValue())) {
+        return false;
+      }
+      
+      if (trie.compareAndSet(current, current.with(existing, key, newValue))) {
+        return true;
+      }
+    }
+  }
+  
+  @Override
+  public V remove(Object key) {
+    @SuppressWarnings("unchecked")
+    Entry<K, V> entry = removeEntry((K)key, null, false);
+    return entry != null ? entry.getValue() : null;
+  }
+  
+  @Override
+  public boolean remove(Object key, Object value) {
+    @SuppressWarnings("unchecked")
+    Entry<K, V> entry = removeEntry((K)key, value, true);
+    return entry != null;
+  }
+  
+  /**
+   * Removes the given key (if it's mapped to the given value in case
+   * {@code matchValue} is {@code true}) and returns the removed
+   * {@link Entry} or {@code null}.
+   */
+  private Entry<K, V> removeEntry(K key, Object value, boolean matchValue) {
+    while (true) {
+      PersistentPatriciaTrie<K, V> current = trie.get();
+      Entry<K, V> entry = current.entry(key);
+      
+      if (entry == null
+          || (matchValue && !equals(value, entry.getValue()))) {
+        return null;
+      }
+      
+      if (trie.compareAndSet(current, current.without(key))) {
+        return entry;
+      }
+    }
+  }
+  
+  @Override
+  public Entry<K, V> pollFirstEntry() {
+    while (true) {
+      PersistentPatriciaTrie<K, V> current = trie.get();
+      Entry<K, V> first = current.firstEntry();
+      if (first == null) {
+        return null;
+      }
+      
+      if (trie.compareAndSet(current, current.without(first.getKey()))) {
+        return first;
+      }
+    }
+  }
+  
+  @Override
+  public Entry<K, V> pollLastEntry() {
+    while (true) {
+      PersistentPatriciaTrie<K, V> current = trie.get();
+      Entry<K, V> last = current.lastEntry();
+      if (last == null) {
+        return null;
+      }
+      
+      if (trie.compareAndSet(current, current.without(last.getKey()))) {
+        return last;
+      }
+    }
+  }
+  
+  @Override
+  public void select(K key, Cursor<? super K, ? super V> cursor) {
+    trie.get().select(key, cursor);
+  }
+  
+  @Override
+  public void traverse(Cursor<? super K, ? super V> cursor) {
+    trie.get().traverse(cursor);
+  }
+  
+  @Override
+  public void prefixTraverse(K prefix, int lengthInBits,
+      Cursor<? super K, ? super V> cursor) {
+    trie.get().prefixTraverse(prefix, lengthInBits, cursor);
+  }
+  
+  @Override
+  public void clear() {
+    trie.set(empty);
+  }
+  
+  @Override
+  public int size() {
+    return trie.get().size();
+  }
+  
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+  
+  @Override
+  public Set<K> keySet() {
+    if (keySet == null) {
+      keySet = new KeySet();
+    }
+    return keySet;
+  }
+  
+  @Override
+  public Collection<V> values() {
+    if (values == null) {
+      values = new Values();
+    }
+    return values;
+  }
+  
+  @Override
+  public Map<K, V> prefixMap(K prefix, int lengthInBits) {
+    return new PrefixView((PrefixMap<K, V>)empty.prefixMap(prefix, lengthInBits));
+  }
+  
+  @Override
+  public Entry<K, V> firstEntry() {
+    return trie.get().firstEntry();
+  }
+  
+  @Override
+  public Entry<K, V> lastEntry() {
+    return trie.get().lastEntry();
+  }
+  
+  @Override
+  public Entry<K, V> ceilingEntry(K key) {
+    return trie.get().ceilingEntry(key);
+  }
+  
+  @Override
+  public Entry<K, V> floorEntry(K key) {
+    return trie.get().floorEntry(key);
+  }
+  
+  @Override
+  public Entry<K, V> higherEntry(K key) {
+    return trie.get().higherEntry(key);
+  }
+  
+  @Override
+  public Entry<K, V> lowerEntry(K key) {
+    return trie.get().lowerEntry(key);
+  }
+  
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, boolean fromInclusive,
+      K toKey, boolean toInclusive) {
+    return new SubView((SubMap<K, V>)empty.subMap(
+        fromKey, fromInclusive, toKey, toInclusive));
+  }
+  
+  @Override
+  public SortedMap<K, V> headMap(K toKey, boolean inclusive) {
+    return new SubView((SubMap<K, V>)empty.headMap(toKey, inclusive));
+  }
+  
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey, boolean inclusive) {
+    return new SubView((SubMap<K, V>)empty.tailMap(fromKey, inclusive));
+  }
+  
+  /**
+   * @see KeyAnalyzer#isEqual(Object, Object)
+   */
+  @Override
+  boolean isEqual(K key, K otherKey) {
+    return keyAnalyzer.isEqual(key, otherKey);
+  }
+  
+  /**
+   * An {@link Iterator} that walks a version of the
+   * {@link ConcurrentPatriciaTrie} and removes the {@link Entry}s
+   * from the current version.
+   */
+  private abstract class ViewIterator<E> implements Iterator<E> {
+    
+    private final Iterator<Entry<K, V>> it;
+    
+    private Entry<K, V> current = null;
+    
+    public ViewIterator(Iterator<Entry<K, V>> it) {
+      this.it = it;
+    }
+    
+    @Override
+    public boolean hasNext() {
+      return it.hasNext();
+    }
+    
+    @Override
+    public E next() {
+      current = it.next();
+      return next(current);
+    }
+    
+    /**
+     * Called for each {@link Entry}.
+     *
+     * @see #next()
+     */
+    protected abstract E next(Entry<K, V> entry);
+    
+    @Override
+    public void remove() {
+      if (current == null) {
+        throw new IllegalStateException();
+      }
+      
+      ConcurrentPatriciaTrie.this.remove(current.getKey());
+      current = null;
+    }
+  }
+  
+  /**
+   * An abstract base class for the various views.
+   */
+  private abstract class AbstractView<E> extends AbstractCollection<E> {
+    
+    @Override
+    public void clear() {
+      ConcurrentPatriciaTrie.this.clear();
+    }
+    
+    @Override
+    public int size() {
+      return ConcurrentPatriciaTrie.this.size();
+    }
+  }
+  
+  /**
+   * @see ConcurrentPatriciaTrie#entrySet()
+   */
+  private class EntrySet extends AbstractView<Entry<K, V>> implements Set<Entry<K, V>> {
+    
+    @Override
+    public boolean contains(Object o) {
+      return trie.get().entrySet().contains(o);
+    }
+    
+    @Override
+    public boolean remove(Object o) {
+      if (o instanceof Entry<?, ?>) {
+        Entry<?, ?> entry = (Entry<?, ?>)o;
+        return ConcurrentPatriciaTrie.this.remove(entry.getKey(), entry.getValue());
+      }
+      return false;
+    }
+    
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      return new ViewIterator<Entry<K, V>>(trie.get().entrySet().iterator()) {
+        @Override
+        protected Entry<K, V> next(Entry<K, V> entry) {
+          return entry;
+        }
+      };
+    }
+  }
+  
+  /**
+   * @see ConcurrentPatriciaTrie#keySet()
+   */
+  private class KeySet extends AbstractView<K> implements Set<K> {
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean remove(Object key) {
+      return removeEntry((K)key, null, false) != null;
+    }
+    
+    @Override
+    public boolean contains(Object o) {
+      return ConcurrentPatriciaTrie.this.containsKey(o);
+    }
+    
+    @Override
+    public Iterator<K> iterator() {
+      return new ViewIterator<K>(trie.get().entrySet().iterator()) {
+        @Override
+        protected K next(Entry<K, V> entry) {
+          return entry.getKey();
+        }
+      };
+    }
+  }
+  
+  /**
+   * @see ConcurrentPatriciaTrie#values()
+   */
+  private class Values extends AbstractView<V> {
+    
+    @Override
+    public boolean remove(Object value) {
+      for (Entry<K, V> entry : trie.get().entrySet()) {
+        if (AbstractTrie.equals(value, entry.getValue())
+            && ConcurrentPatriciaTrie.this.remove(entry.getKey(), value)) {
+          return true;
+        }
+      }
+      
+      return false;
+    }
+    
+    @Override
+    public Iterator<V> iterator() {
+      return new ViewIterator<V>(trie.get().entrySet().iterator()) {
+        @Override
+        protected V next(Entry<K, V> entry) {
+          return entry.getValue();
+        }
+      };
+    }
+  }
+  
+  /**
+   * An abstract base class for the {@link PrefixView} and {@link SubView}.
+   * They read from the current version's {@link PrefixMap} or 
+   * {@link SubMap} and write through to the {@link ConcurrentPatriciaTrie}.
+   */
+  private abstract class RangeView extends AbstractMap<K, V> {
+    
+    private volatile Set<Entry<K, V>> entrySet = null;
+    
+    /**
+     * Returns the range of the current version.
+     */
+    protected abstract Map<K, V> current();
+    
+    /**
+     * Returns {@code true} if the key is in the range.
+     */
+    protected abstract boolean inRange(K key);
+    
+    @Override
+    public V put(K key, V value) {
+      if (!inRange(key)) {
+        throw new IllegalArgumentException("Key out of range: " + key);
+      }
+      
+      return ConcurrentPatriciaTrie.this.put(key, value);
+    }
+    
+    @Override
+    public V get(Object key) {
+      return current().get(key);
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+      return current().containsKey(key);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key) {
+      if (inRange((K)key)) {
+        return ConcurrentPatriciaTrie.this.remove(key);
+      }
+      return null;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return current().isEmpty();
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new AbstractSet<Entry<K, V>>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return new ViewIterator<Entry<K, V>>(current().entrySet().iterator()) {
+              @Override
+              protected Entry<K, V> next(Entry<K, V> entry) {
+                return entry;
+              }
+            };
+          }
+          
+          @Override
+          public int size() {
+            return current().size();
+          }
+        };
+      }
+      return entrySet;
+    }
+  }
+  
+  /**
+   * @see ConcurrentPatriciaTrie#prefixMap(Object, int)
+   */
+  private class PrefixView extends RangeView {
+    
+    private final PrefixMap<K, V> range;
+    
+    public PrefixView(PrefixMap<K, V> range) {
+      this.range = range;
+    }
+    
+    @Override
+    protected PrefixMap<K, V> current() {
+      return range.of(trie.get());
+    }
+    
+    @Override
+    protected boolean inRange(K key) {
+      return range.inRange(key);
+    }
+  }
+  
+  /**
+   * @see ConcurrentPatriciaTrie#subMap(Object, boolean, Object, boolean)
+   * @see ConcurrentPatriciaTrie#headMap(Object, boolean)
+   * @see ConcurrentPatriciaTrie#tailMap(Object, boolean)
+   */
+  private class SubView extends RangeView implements SortedMap<K, V> {
+    
+    private final SubMap<K, V> range;
+    
+    public SubView(SubMap<K, V> range) {
+      this.range = range;
+    }
+    
+    @Override
+    protected SubMap<K, V> current() {
+      return range.of(trie.get());
+    }
+    
+    @Override
+    protected boolean inRange(K key) {
+      return range.inRange(key);
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+      return range.comparator();
+    }
+    
+    @Override
+    public K firstKey() {
+      return current().firstKey();
+    }
+    
+    @Override
+    public K lastKey() {
+      return current().lastKey();
+    }
+    
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+      return new SubView(range.subMap(fromKey, toKey));
+    }
+    
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+      return new SubView(range.headMap(toKey));
+    }
+    
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+      return new SubView(range.tailMap(fromKey));
+    }
+  }
+}
@@ -52,15 +52,8 @@ public class IntegerKeyAnalyzer implements KeyAnalyzer<Integer>, Serializable {
    */
   public int bitIndex(int key, int otherKey) {
     if (key != 0) {
-      
       int xor = key ^ otherKey;
-      for (int i = 0; i < Integer.SIZE; i++) {
-        if ((xor & (MSB >>> i)) != 0) {
-          return i;
-        }
-      }
-      
-      return EQUAL_KEY;
+      return xor != 0 ? Integer.numberOfLeadingZeros(xor) : EQUAL_KEY;
     }
     
     return NULL_KEY;
@@ -42,4 +42,16 @@ public interface KeyAnalyzer<K> {
    * Returns the first bit that's different in the given keys.
    */
   public int bitIndex(K key, K otherKey);
+  
+  /**
+   * Returns {@code true} if the given keys are equal. The default 
+   * implementation uses {@link Object#equals(Object)}.
+   */
+  public default boolean isEqual(K key, K otherKey) {
+    if (key == null) {
+      return (otherKey == null);
+    }
+    
+    return key.equals(otherKey);
+  }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt;
+
+import java.io.Serializable;
+
+/**
+ * A {@link KeyAnalyzer} for {@link Long} and {@code long} keys.
+ */
+public class LongKeyAnalyzer implements KeyAnalyzer<Long>, Serializable {
+
+  private static final long serialVersionUID = -4119639247588227409L;
+
+  public static final LongKeyAnalyzer INSTANCE = new LongKeyAnalyzer();
+  
+  private static final long MSB = 1L << Long.SIZE-1;
+  
+  @Override
+  public boolean isSet(Long key, int bitIndex) {
+    return isSet(longValue(key), bitIndex);
+  }
+  
+  @Override
+  public int bitIndex(Long key, Long otherKey) {
+    return bitIndex(longValue(key), longValue(otherKey));
+  }
+  
+  /**
+   * Returns {@code true} if the given bit is set.
+   */
+  public boolean isSet(long key, int bitIndex) {
+    return (key & (MSB >>> bitIndex)) != 0L;
+  }
+  
+  /**
+   * Returns the first different bit in the two keys or {@link KeyAnalyzer#EQUAL_KEY}
+   * if they're equal and {@link KeyAnalyzer#NULL_KEY} if the first argument is 0.
+   */
+  public int bitIndex(long key, long otherKey) {
+    if (key != 0L) {
+      long xor = key ^ otherKey;
+      return xor != 0L ? Long.numberOfLeadingZeros(xor) : EQUAL_KEY;
+    }
+    
+    return NULL_KEY;
+  }
+  
+  /**
+   * Turns a signed {@code long} into an unsigned {@code long} and back.
+   * 
+   * @see IntegerKeyAnalyzer#transform(int)
+   */
+  public static long transform(long value) {
+    return value + Long.MIN_VALUE; /* 0x8000000000000000 */
+  }
+
+  /**
+   * An utility method that will return 0 for {@code null}.
+   */
+  private static long longValue(Long value) {
+    return value != null ? value.longValue() : 0L;
+  }
+}
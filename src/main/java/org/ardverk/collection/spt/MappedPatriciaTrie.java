@@ -0,0 +1,1395 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * A read-only PATRICIA {@link Trie} that is backed by a memory-mapped
+ * image file.
+ *
+ * {@link #write(Path, Map, KeyAnalyzer, Codec, Codec)} flattens a
+ * {@link Map} whose keys are in the order of their bits (e.g. a
+ * {@link PatriciaTrie}) into an image of fixed-width node records whose
+ * links are record numbers and a blob area with the encoded keys and
+ * values. {@link #open(Path, KeyAnalyzer, Codec, Codec)} maps the image
+ * and the {@link MappedPatriciaTrie} looks up, traverses and navigates
+ * the {@link MappedByteBuffer}s right there. Opening an image is just
+ * an mmap and the JVMs on the same host share its pages through the
+ * OS page cache.
+ *
+ * NOTE: The nodes have the same shape as the {@link PersistentPatriciaTrie}'s
+ * (the inner nodes hold only the bit index and the leaves hold the key-values).
+ * The keys and values are being decoded whenever they're accessed. The node
+ * records and the blob area can't exceed 2GB each. The image is being unmapped
+ * by the garbage collector.
+ */
+public class MappedPatriciaTrie<K, V> extends AbstractTrie<K, V> {
+  
+  private static final long serialVersionUID = -3785624113496210117L;
+  
+  private static final int MAGIC = 0x5350544D;
+  
+  private static final int VERSION = 1;
+  
+  /**
+   * The magic number, version, size, root, number of nodes,
+   * (unused) and the length of the blob area.
+   */
+  private static final int HEADER_SIZE = 6 * Integer.BYTES + Long.BYTES;
+  
+  /**
+   * A node record is a bit index and two links for inner nodes.
+   * The leaves have the bit index {@link #LEAF} and the offsets of
+   * their key and value in the blob area instead of the links.
+   */
+  private static final int NODE_SIZE = 3 * Integer.BYTES;
+  
+  private static final int LEFT = Integer.BYTES;
+  
+  private static final int RIGHT = 2 * Integer.BYTES;
+  
+  private static final int LEAF = -1;
+  
+  /**
+   * A link or offset that points nowhere.
+   */
+  private static final int NULL = -1;
+  
+  private final KeyAnalyzer<? super K> keyAnalyzer;
+  
+  private final Codec<? extends K> keyCodec;
+  
+  private final Codec<? extends V> valueCodec;
+  
+  private final ByteBuffer nodes;
+  
+  private final ByteBuffer blobs;
+  
+  private final int root;
+  
+  private final int size;
+  
+  private transient volatile EntrySet entrySet = null;
+  
+  private transient volatile KeySet keySet = null;
+  
+  private transient volatile Values values = null;
+  
+  private MappedPatriciaTrie(KeyAnalyzer<? super K> keyAnalyzer,
+      Codec<? extends K> keyCodec, Codec<? extends V> valueCodec,
+      ByteBuffer nodes, ByteBuffer blobs, int root, int size) {
+    this.keyAnalyzer = keyAnalyzer;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.nodes = nodes;
+    this.blobs = blobs;
+    this.root = root;
+    this.size = size;
+  }
+  
+  /**
+   * Writes the key-values of the given {@link Map} to an image file. Its
+   * {@link Map#entrySet()} must return the keys in the order of their bits.
+   *
+   * @throws IllegalArgumentException if the keys are not sorted or the 
+   * encoded keys and values are bigger than 2GB.
+   */
+  public static <K, V> void write(Path path, Map<? extends K, ? extends V> m,
+      KeyAnalyzer<? super K> keyAnalyzer, Codec<? super K> keyCodec,
+      Codec<? super V> valueCodec) throws IOException {
+    
+    int size = m.size();
+    long count = size != 0 ? 2L * size - 1L : 0L;
+    if (count * NODE_SIZE > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many key-values: " + size);
+    }
+    
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      
+      MappedByteBuffer nodes = channel.map(FileChannel.MapMode.READ_WRITE,
+          HEADER_SIZE, count * NODE_SIZE);
+      
+      // The blobs are being appended after the node records
+      channel.position(HEADER_SIZE + count * NODE_SIZE);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Channels.newOutputStream(channel), 64 * 1024));
+      
+      // The Branches whose right link may still change
+      IntStack stack = new IntStack();
+      
+      int root = NULL;
+      int next = 0;
+      int previousLeaf = NULL;
+      K previous = null;
+      
+      long blobLength = 0L;
+      
+      for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+        if (next >= count) {
+          throw new IllegalArgumentException("The Map has more key-values than its size: " + size);
+        }
+        
+        K key = entry.getKey();
+        V value = entry.getValue();
+        
+        int bitIndex = LEAF;
+        if (previousLeaf != NULL) {
+          bitIndex = crit(keyAnalyzer, previous, key);
+          if (bitIndex < 0 || !isSet(keyAnalyzer, key, bitIndex)) {
+            throw new IllegalArgumentException("The keys are not sorted: "
+                + previous + ", " + key);
+          }
+        }
+        
+        int keyOffset = NULL;
+        if (key != null) {
+          keyOffset = offset(blobLength);
+          blobLength = offset(blobLength + writeBlob(out, keyCodec.encode(key)));
+        }
+        
+        int valueOffset = NULL;
+        if (value != null) {
+          valueOffset = offset(blobLength);
+          blobLength = offset(blobLength + writeBlob(out, valueCodec.encode(value)));
+        }
+        
+        int leaf = next++;
+        putNode(nodes, leaf, LEAF, keyOffset, valueOffset);
+        
+        if (previousLeaf == NULL) {
+          root = leaf;
+        } else {
+          // Pop the Branches that test bits after the bit index. The topmost
+          // of them becomes the new Branch's left sub-tree.
+          int h = previousLeaf;
+          while (!stack.isEmpty() && nodes.getInt(stack.peek() * NODE_SIZE) > bitIndex) {
+            h = stack.pop();
+          }
+          
+          int branch = next++;
+          putNode(nodes, branch, bitIndex, h, leaf);
+          
+          if (stack.isEmpty()) {
+            root = branch;
+          } else {
+            nodes.putInt(stack.peek() * NODE_SIZE + RIGHT, branch);
+          }
+          
+          stack.push(branch);
+        }
+        
+        previousLeaf = leaf;
+        previous = key;
+      }
+      
+      if (next != count) {
+        throw new IllegalArgumentException("The Map has fewer key-values than its size: " + size);
+      }
+      
+      out.flush();
+      
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(root)
+        .putInt((int)count).putInt(0).putLong(blobLength).flip();
+      
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+      
+      nodes.force();
+      channel.force(false);
+    }
+  }
+  
+  /**
+   * Maps the given image file and returns a {@link MappedPatriciaTrie} for it.
+   *
+   * @see #write(Path, Map, KeyAnalyzer, Codec, Codec)
+   */
+  public static <K, V> MappedPatriciaTrie<K, V> open(Path path,
+      KeyAnalyzer<? super K> keyAnalyzer, Codec<? extends K> keyCodec,
+      Codec<? extends V> valueCodec) throws IOException {
+    
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          throw new EOFException();
+        }
+      }
+      header.flip();
+      
+      int magic = header.getInt();
+      int version = header.getInt();
+      if (magic != MAGIC || version != VERSION) {
+        throw new IOException("Not a MappedPatriciaTrie image: magic="
+            + magic + ", version=" + version);
+      }
+      
+      int size = header.getInt();
+      int root = header.getInt();
+      long count = header.getInt();
+      header.getInt();
+      long blobLength = header.getLong();
+      
+      long nodesLength = count * NODE_SIZE;
+      if (channel.size() < HEADER_SIZE + nodesLength + blobLength) {
+        throw new EOFException("The image is truncated: " + channel.size());
+      }
+      
+      ByteBuffer nodes = channel.map(FileChannel.MapMode.READ_ONLY,
+          HEADER_SIZE, nodesLength);
+      ByteBuffer blobs = channel.map(FileChannel.MapMode.READ_ONLY,
+          HEADER_SIZE + nodesLength, blobLength);
+      
+      return new MappedPatriciaTrie<K, V>(keyAnalyzer,
+          keyCodec, valueCodec, nodes, blobs, root, size);
+    }
+  }
+  
+  /**
+   * Returns the {@link KeyAnalyzer}.
+   */
+  public KeyAnalyzer<? super K> getKeyAnalyzer() {
+    return keyAnalyzer;
+  }
+  
+  @Override
+  public Entry<K, V> select(K key) {
+    int node = selectLeaf(key);
+    return node != NULL ? leaf(node) : null;
+  }
+  
+  /**
+   * Follows the key's bits from the root to the leaf that is
+   * closest to the key.
+   */
+  private int selectLeaf(K key) {
+    int h = root;
+    if (h == NULL) {
+      return NULL;
+    }
+    
+    int bitIndex;
+    while ((bitIndex = getBitIndex(h)) != LEAF) {
+      h = !isSet(key, bitIndex) ? getLeft(h) : getRight(h);
+    }
+    
+    return h;
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public V put(K key, V value) {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m) {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public V remove(Object key) {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public Entry<K, V> pollFirstEntry() {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public Entry<K, V> pollLastEntry() {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+  
+  @Override
+  public void select(K key, Cursor<? super K, ? super V> cursor) {
+    int h = root;
+    if (h == NULL) {
+      return;
+    }
+    
+    // The far sides of the Branches that haven't been visited yet
+    IntStack stack = new IntStack();
+    
+    while (true) {
+      int bitIndex;
+      while ((bitIndex = getBitIndex(h)) != LEAF) {
+        if (!isSet(key, bitIndex)) {
+          stack.push(getRight(h));
+          h = getLeft(h);
+        } else {
+          stack.push(getLeft(h));
+          h = getRight(h);
+        }
+      }
+      
+      if (!cursor.select(leaf(h))) {
+        return;
+      }
+      
+      if (stack.isEmpty()) {
+        return;
+      }
+      h = stack.pop();
+    }
+  }
+  
+  @Override
+  public void traverse(Cursor<? super K, ? super V> cursor) {
+    traverse(root, cursor);
+  }
+  
+  @Override
+  public void prefixTraverse(K prefix, int lengthInBits,
+      Cursor<? super K, ? super V> cursor) {
+    traverse(prefixNode(prefix, lengthInBits), cursor);
+  }
+  
+  /**
+   * Traverses the sub-tree that starts at the given node.
+   */
+  private void traverse(int h, Cursor<? super K, ? super V> cursor) {
+    if (h == NULL) {
+      return;
+    }
+    
+    // The right sides of the Branches that haven't been visited yet
+    IntStack stack = new IntStack();
+    
+    while (true) {
+      while (getBitIndex(h) != LEAF) {
+        stack.push(getRight(h));
+        h = getLeft(h);
+      }
+      
+      if (!cursor.select(leaf(h))) {
+        return;
+      }
+      
+      if (stack.isEmpty()) {
+        return;
+      }
+      h = stack.pop();
+    }
+  }
+  
+  /**
+   * Returns the sub-tree whose keys share the first {@code lengthInBits}
+   * bits with the given prefix or {@link #NULL} if there is none.
+   */
+  private int prefixNode(K prefix, int lengthInBits) {
+    int h = root;
+    if (h == NULL) {
+      return NULL;
+    }
+    
+    int bitIndex;
+    while ((bitIndex = getBitIndex(h)) != LEAF) {
+      if (bitIndex >= lengthInBits) {
+        break;
+      }
+      h = !isSet(prefix, bitIndex) ? getLeft(h) : getRight(h);
+    }
+    
+    // All keys in the sub-tree share the same prefix. It's
+    // enough to look at one of them.
+    if (!isPrefix(prefix, lengthInBits, getKey(followLeft(h)))) {
+      return NULL;
+    }
+    
+    return h;
+  }
+  
+  @Override
+  public int size() {
+    return size;
+  }
+  
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+  
+  @Override
+  public Set<K> keySet() {
+    if (keySet == null) {
+      keySet = new KeySet();
+    }
+    return keySet;
+  }
+  
+  @Override
+  public Collection<V> values() {
+    if (values == null) {
+      values = new Values();
+    }
+    return values;
+  }
+  
+  @Override
+  public Map<K, V> prefixMap(K prefix, int lengthInBits) {
+    return new PrefixMap(prefix, lengthInBits);
+  }
+  
+  @Override
+  public Entry<K, V> firstEntry() {
+    return leaf(followLeft(root));
+  }
+  
+  @Override
+  public Entry<K, V> lastEntry() {
+    return leaf(followRight(root));
+  }
+  
+  @Override
+  public Entry<K, V> ceilingEntry(K key) {
+    return navigate(key, true, true);
+  }
+  
+  @Override
+  public Entry<K, V> floorEntry(K key) {
+    return navigate(key, false, true);
+  }
+  
+  @Override
+  public Entry<K, V> higherEntry(K key) {
+    return navigate(key, true, false);
+  }
+  
+  @Override
+  public Entry<K, V> lowerEntry(K key) {
+    return navigate(key, false, false);
+  }
+  
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, boolean fromInclusive,
+      K toKey, boolean toInclusive) {
+    if (compare(fromKey, toKey) > 0) {
+      throw new IllegalArgumentException("fromKey > toKey");
+    }
+    
+    return new SubMap(false, fromKey, fromInclusive,
+        false, toKey, toInclusive);
+  }
+  
+  @Override
+  public SortedMap<K, V> headMap(K toKey, boolean inclusive) {
+    return new SubMap(true, null, false, false, toKey, inclusive);
+  }
+  
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey, boolean inclusive) {
+    return new SubMap(false, fromKey, inclusive, true, null, false);
+  }
+  
+  /**
+   * Returns the first {@link Leaf} that is greater (or less if
+   * {@code higher} is {@code false}) than the given key or equal to
+   * it if {@code inclusive} is {@code true}.
+   *
+   * @see PersistentPatriciaTrie#ceilingEntry(Object)
+   */
+  private Leaf navigate(K key, boolean higher, boolean inclusive) {
+    int closest = selectLeaf(key);
+    if (closest == NULL) {
+      return null;
+    }
+    
+    // The first bit where the key differs from the keys in
+    // the Trie or a negative value if it's in the Trie.
+    K closestKey = getKey(closest);
+    int index = isEqual(key, closestKey)
+        ? KeyAnalyzer.EQUAL_KEY : crit(key, closestKey);
+    
+    IntStack path = new IntStack();
+    int h = root;
+    
+    int bitIndex;
+    while ((bitIndex = getBitIndex(h)) != LEAF) {
+      if (index >= 0 && bitIndex >= index) {
+        break;
+      }
+      
+      path.push(h);
+      h = !isSet(key, bitIndex) ? getLeft(h) : getRight(h);
+    }
+    
+    if (index < 0) {
+      if (inclusive) {
+        return leaf(h);
+      }
+    
+    // The keys in the sub-tree are all greater (or less) than the key.
+    } else if (higher != isSet(key, index)) {
+      return leaf(higher ? followLeft(h) : followRight(h));
+    }
+    
+    // Walk back up and look at the other side of the Branches
+    while (!path.isEmpty()) {
+      int b = path.pop();
+      if (higher) {
+        if (!isSet(key, getBitIndex(b))) {
+          return leaf(followLeft(getRight(b)));
+        }
+      } else if (isSet(key, getBitIndex(b))) {
+        return leaf(followRight(getLeft(b)));
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Returns the left-most leaf of the given node.
+   */
+  private int followLeft(int h) {
+    if (h == NULL) {
+      return NULL;
+    }
+    
+    while (getBitIndex(h) != LEAF) {
+      h = getLeft(h);
+    }
+    return h;
+  }
+  
+  /**
+   * Returns the right-most leaf of the given node.
+   */
+  private int followRight(int h) {
+    if (h == NULL) {
+      return NULL;
+    }
+    
+    while (getBitIndex(h) != LEAF) {
+      h = getRight(h);
+    }
+    return h;
+  }
+  
+  private int getBitIndex(int node) {
+    return nodes.getInt(node * NODE_SIZE);
+  }
+  
+  private int getLeft(int node) {
+    return nodes.getInt(node * NODE_SIZE + LEFT);
+  }
+  
+  private int getRight(int node) {
+    return nodes.getInt(node * NODE_SIZE + RIGHT);
+  }
+  
+  /**
+   * Decodes the key of the given leaf.
+   */
+  private K getKey(int leaf) {
+    return readBlob(keyCodec, getLeft(leaf));
+  }
+  
+  /**
+   * Decodes the value of the given leaf.
+   */
+  private V getValue(int leaf) {
+    return readBlob(valueCodec, getRight(leaf));
+  }
+  
+  /**
+   * Returns a {@link Leaf} for the given leaf or {@code null}.
+   */
+  private Leaf leaf(int node) {
+    return node != NULL ? new Leaf(node) : null;
+  }
+  
+  /**
+   * Decodes the blob at the given offset.
+   */
+  private <T> T readBlob(Codec<? extends T> codec, int offset) {
+    if (offset == NULL) {
+      return null;
+    }
+    
+    ByteBuffer buffer = blobs.duplicate();
+    buffer.position(offset);
+    
+    int length = readVarInt(buffer);
+    buffer.limit(buffer.position() + length);
+    return codec.decode(buffer.slice());
+  }
+  
+  private boolean isSet(K key, int bitIndex) {
+    return isSet(keyAnalyzer, key, bitIndex);
+  }
+  
+  private int crit(K key, K otherKey) {
+    return crit(keyAnalyzer, key, otherKey);
+  }
+  
+  /**
+   * Compares the two keys bit by bit (i.e. in the order of the {@link Trie}).
+   */
+  private int compare(K key, K otherKey) {
+    int bitIndex = crit(key, otherKey);
+    if (bitIndex == KeyAnalyzer.EQUAL_KEY) {
+      return 0;
+    }
+    
+    return isSet(key, bitIndex) ? 1 : -1;
+  }
+  
+  /**
+   * Returns {@code true} if the key shares the first {@code lengthInBits}
+   * bits with the given prefix.
+   */
+  private boolean isPrefix(K prefix, int lengthInBits, K key) {
+    if (lengthInBits <= 0) {
+      return true;
+    }
+    
+    int bitIndex = crit(prefix, key);
+    return bitIndex < 0 || bitIndex >= lengthInBits;
+  }
+  
+  /**
+   * @see KeyAnalyzer#isEqual(Object, Object)
+   */
+  @Override
+  boolean isEqual(K key, K otherKey) {
+    return keyAnalyzer.isEqual(key, otherKey);
+  }
+  
+  /**
+   * A {@link MappedPatriciaTrie} is just a view of its image file. Copy
+   * it into a {@link PatriciaTrie} or share the file instead.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    throw new NotSerializableException(getClass().getName());
+  }
+  
+  /**
+   * @see KeyAnalyzer#isSet(Object, int)
+   */
+  private static <K> boolean isSet(KeyAnalyzer<? super K> keyAnalyzer,
+      K key, int bitIndex) {
+    return key != null && keyAnalyzer.isSet(key, bitIndex);
+  }
+  
+  /**
+   * Returns the first bit where the two keys differ or
+   * {@link KeyAnalyzer#EQUAL_KEY} if there is none.
+   *
+   * @see PersistentPatriciaTrie
+   */
+  private static <K> int crit(KeyAnalyzer<? super K> keyAnalyzer,
+      K key, K otherKey) {
+    int bitIndex = bitIndex(keyAnalyzer, key, otherKey);
+    if (bitIndex == KeyAnalyzer.NULL_KEY) {
+      bitIndex = bitIndex(keyAnalyzer, otherKey, key);
+      if (bitIndex == KeyAnalyzer.NULL_KEY) {
+        return KeyAnalyzer.EQUAL_KEY;
+      }
+    }
+    return bitIndex;
+  }
+  
+  /**
+   * @see KeyAnalyzer#bitIndex(Object, Object)
+   */
+  private static <K> int bitIndex(KeyAnalyzer<? super K> keyAnalyzer,
+      K key, K otherKey) {
+    if (key == null) {
+      return KeyAnalyzer.NULL_KEY;
+    }
+    return keyAnalyzer.bitIndex(key, otherKey);
+  }
+  
+  private static void putNode(ByteBuffer nodes, int node,
+      int bitIndex, int left, int right) {
+    int offset = node * NODE_SIZE;
+    nodes.putInt(offset, bitIndex);
+    nodes.putInt(offset + LEFT, left);
+    nodes.putInt(offset + RIGHT, right);
+  }
+  
+  /**
+   * Returns the given position in the blob area as an offset. The
+   * {@link #open(Path, KeyAnalyzer, Codec, Codec)} maps the blob area 
+   * as a single {@link MappedByteBuffer} and the end of the last blob 
+   * must be within its 2GB as well.
+   */
+  private static int offset(long position) {
+    if (position > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The blob area is too big: " + position);
+    }
+    return (int)position;
+  }
+  
+  /**
+   * Writes the length of the blob as a varint followed by the blob
+   * and returns the number of bytes that were written.
+   */
+  private static int writeBlob(DataOutput out, byte[] blob) throws IOException {
+    int length = writeVarInt(out, blob.length);
+    out.write(blob);
+    return length + blob.length;
+  }
+  
+  /**
+   * Writes the given value as an unsigned varint (7 bits per byte)
+   * and returns the number of bytes that were written.
+   */
+  private static int writeVarInt(DataOutput out, int value) throws IOException {
+    int length = 1;
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+      ++length;
+    }
+    out.writeByte(value);
+    return length;
+  }
+  
+  /**
+   * Reads an unsigned varint.
+   */
+  private static int readVarInt(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+  
+  /**
+   * A {@link Codec} turns keys or values into bytes and back.
+   */
+  public static interface Codec<T> {
+    
+    /**
+     * Encodes keys and values as UTF-8.
+     */
+    public static final Codec<String> UTF_8 = new Codec<String>() {
+      @Override
+      public byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+      }
+      
+      @Override
+      public String decode(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+      }
+    };
+    
+    /**
+     * Returns the bytes of the given (non-null) key or value.
+     */
+    public byte[] encode(T value);
+    
+    /**
+     * Decodes a key or value from the remaining bytes of the
+     * given {@link ByteBuffer}.
+     */
+    public T decode(ByteBuffer buffer);
+  }
+  
+  /**
+   * A growable stack of node numbers.
+   */
+  private static class IntStack {
+    
+    private int[] elements = new int[Integer.SIZE];
+    
+    private int size = 0;
+    
+    public boolean isEmpty() {
+      return size == 0;
+    }
+    
+    public void push(int node) {
+      if (size == elements.length) {
+        elements = Arrays.copyOf(elements, 2 * size);
+      }
+      elements[size++] = node;
+    }
+    
+    public int peek() {
+      return elements[size - 1];
+    }
+    
+    public int pop() {
+      return elements[--size];
+    }
+  }
+  
+  /**
+   * A read-only {@link Iterator} that walks the
+   * {@link MappedPatriciaTrie} one leaf at a time.
+   */
+  private abstract class ViewIterator<E> implements Iterator<E> {
+    
+    private final IntStack stack = new IntStack();
+    
+    private final SubMap range;
+    
+    private Leaf next;
+    
+    /**
+     * Creates a {@link ViewIterator} for the given sub-tree.
+     */
+    public ViewIterator(int h) {
+      this.range = null;
+      next = follow(h);
+    }
+    
+    /**
+     * Creates a {@link ViewIterator} that starts at the first leaf
+     * of the given {@link SubMap} and ends at its upper bound.
+     */
+    public ViewIterator(SubMap range) {
+      this.range = range;
+      
+      next = range.first();
+      if (next != null) {
+        // Push the right sides of the Branches along the path
+        K key = next.key;
+        int h = root;
+        int bitIndex;
+        while ((bitIndex = getBitIndex(h)) != LEAF) {
+          if (!isSet(key, bitIndex)) {
+            stack.push(getRight(h));
+            h = getLeft(h);
+          } else {
+            h = getRight(h);
+          }
+        }
+      }
+    }
+    
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+    
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      
+      Leaf current = next;
+      next = !stack.isEmpty() ? follow(stack.pop()) : null;
+      
+      if (next != null && range != null && range.tooHigh(next.key)) {
+        next = null;
+      }
+      
+      return next(current);
+    }
+    
+    /**
+     * Called for each {@link Entry}.
+     *
+     * @see #next()
+     */
+    protected abstract E next(Entry<K, V> entry);
+    
+    /**
+     * Follows the left links from the given node to the first
+     * leaf and pushes the right links on the stack.
+     */
+    private Leaf follow(int h) {
+      if (h == NULL) {
+        return null;
+      }
+      
+      while (getBitIndex(h) != LEAF) {
+        stack.push(getRight(h));
+        h = getLeft(h);
+      }
+      return leaf(h);
+    }
+  }
+  
+  /**
+   * An abstract base class for the various views.
+   */
+  private abstract class AbstractView<E> extends AbstractCollection<E> {
+    
+    @Override
+    public int size() {
+      return MappedPatriciaTrie.this.size();
+    }
+  }
+  
+  /**
+   * @see MappedPatriciaTrie#entrySet()
+   */
+  private class EntrySet extends AbstractView<Entry<K, V>> implements Set<Entry<K, V>> {
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains(Object o) {
+      if (o instanceof Entry<?, ?>) {
+        Entry<K, V> entry = (Entry<K, V>)o;
+        Entry<K, V> other = entry(entry.getKey());
+        return other != null && AbstractTrie.equals(other.getValue(), entry.getValue());
+      }
+      return false;
+    }
+    
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      return new ViewIterator<Entry<K, V>>(root) {
+        @Override
+        protected Entry<K, V> next(Entry<K, V> entry) {
+          return entry;
+        }
+      };
+    }
+  }
+  
+  /**
+   * @see MappedPatriciaTrie#keySet()
+   */
+  private class KeySet extends AbstractView<K> implements Set<K> {
+    
+    @Override
+    public boolean contains(Object o) {
+      return MappedPatriciaTrie.this.containsKey(o);
+    }
+    
+    @Override
+    public Iterator<K> iterator() {
+      return new ViewIterator<K>(root) {
+        @Override
+        protected K next(Entry<K, V> entry) {
+          return entry.getKey();
+        }
+      };
+    }
+  }
+  
+  /**
+   * @see MappedPatriciaTrie#values()
+   */
+  private class Values extends AbstractView<V> {
+    
+    @Override
+    public Iterator<V> iterator() {
+      return new ViewIterator<V>(root) {
+        @Override
+        protected V next(Entry<K, V> entry) {
+          return entry.getValue();
+        }
+      };
+    }
+  }
+  
+  /**
+   * A read-only view of the {@link Entry}s in a {@link PrefixMap} or
+   * {@link SubMap}.
+   */
+  private static abstract class RangeEntrySet<K, V> extends AbstractSet<Entry<K, V>> {
+    
+    @Override
+    public int size() {
+      int size = 0;
+      for (Iterator<Entry<K, V>> it = iterator(); it.hasNext(); it.next()) {
+        ++size;
+      }
+      return size;
+    }
+  }
+  
+  /**
+   * A read-only view of the keys that share a prefix.
+   *
+   * @see MappedPatriciaTrie#prefixMap(Object, int)
+   */
+  private class PrefixMap extends AbstractMap<K, V> {
+    
+    private final K prefix;
+    
+    private final int lengthInBits;
+    
+    private volatile Set<Entry<K, V>> entrySet = null;
+    
+    private PrefixMap(K prefix, int lengthInBits) {
+      this.prefix = prefix;
+      this.lengthInBits = lengthInBits;
+    }
+    
+    /**
+     * Returns {@code true} if the key has the prefix.
+     */
+    private boolean inRange(K key) {
+      return isPrefix(prefix, lengthInBits, key);
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return prefixNode(prefix, lengthInBits) == NULL;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      if (inRange((K)key)) {
+        return MappedPatriciaTrie.this.get(key);
+      }
+      return null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return inRange((K)key) && MappedPatriciaTrie.this.containsKey(key);
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new RangeEntrySet<K, V>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return new ViewIterator<Entry<K, V>>(
+                prefixNode(prefix, lengthInBits)) {
+              @Override
+              protected Entry<K, V> next(Entry<K, V> entry) {
+                return entry;
+              }
+            };
+          }
+        };
+      }
+      return entrySet;
+    }
+  }
+  
+  /**
+   * A read-only view of the keys between two bounds.
+   *
+   * @see MappedPatriciaTrie#subMap(Object, boolean, Object, boolean)
+   * @see MappedPatriciaTrie#headMap(Object, boolean)
+   * @see MappedPatriciaTrie#tailMap(Object, boolean)
+   */
+  private class SubMap extends AbstractMap<K, V> implements SortedMap<K, V> {
+    
+    private final boolean fromStart;
+    
+    private final K fromKey;
+    
+    private final boolean fromInclusive;
+    
+    private final boolean toEnd;
+    
+    private final K toKey;
+    
+    private final boolean toInclusive;
+    
+    private volatile Set<Entry<K, V>> entrySet = null;
+    
+    private SubMap(boolean fromStart, K fromKey, boolean fromInclusive,
+        boolean toEnd, K toKey, boolean toInclusive) {
+      this.fromStart = fromStart;
+      this.fromKey = fromKey;
+      this.fromInclusive = fromInclusive;
+      this.toEnd = toEnd;
+      this.toKey = toKey;
+      this.toInclusive = toInclusive;
+    }
+    
+    /**
+     * Returns {@code true} if the key is below the lower bound.
+     */
+    private boolean tooLow(K key) {
+      if (!fromStart) {
+        int c = compare(key, fromKey);
+        return c < 0 || (c == 0 && !fromInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is above the upper bound.
+     */
+    private boolean tooHigh(K key) {
+      if (!toEnd) {
+        int c = compare(key, toKey);
+        return c > 0 || (c == 0 && !toInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is within the bounds.
+     */
+    private boolean inRange(K key) {
+      return !tooLow(key) && !tooHigh(key);
+    }
+    
+    /**
+     * Returns {@code true} if the key is within the bounds
+     * including the bounds themselves.
+     */
+    private boolean inClosedRange(K key) {
+      return (fromStart || compare(key, fromKey) >= 0)
+          && (toEnd || compare(key, toKey) <= 0);
+    }
+    
+    /**
+     * Returns the first {@link Leaf} in the range or {@code null}.
+     */
+    private Leaf first() {
+      Leaf leaf = fromStart ? leaf(followLeft(root))
+          : navigate(fromKey, true, fromInclusive);
+      
+      if (leaf != null && tooHigh(leaf.key)) {
+        return null;
+      }
+      return leaf;
+    }
+    
+    /**
+     * Returns the last {@link Leaf} in the range or {@code null}.
+     */
+    private Leaf last() {
+      Leaf leaf = toEnd ? leaf(followRight(root))
+          : navigate(toKey, false, toInclusive);
+      
+      if (leaf != null && tooLow(leaf.key)) {
+        return null;
+      }
+      return leaf;
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+      return MappedPatriciaTrie.this::compare;
+    }
+    
+    @Override
+    public K firstKey() {
+      Leaf leaf = first();
+      if (leaf == null) {
+        throw new NoSuchElementException();
+      }
+      return leaf.key;
+    }
+    
+    @Override
+    public K lastKey() {
+      Leaf leaf = last();
+      if (leaf == null) {
+        throw new NoSuchElementException();
+      }
+      return leaf.key;
+    }
+    
+    @Override
+    public SubMap subMap(K fromKey, K toKey) {
+      if (!inClosedRange(fromKey)) {
+        throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+      }
+      
+      if (!inClosedRange(toKey)) {
+        throw new IllegalArgumentException("toKey out of range: " + toKey);
+      }
+      
+      if (compare(fromKey, toKey) > 0) {
+        throw new IllegalArgumentException("fromKey > toKey");
+      }
+      
+      return new SubMap(false, fromKey, !tooLow(fromKey),
+          false, toKey, false);
+    }
+    
+    @Override
+    public SubMap headMap(K toKey) {
+      if (!inClosedRange(toKey)) {
+        throw new IllegalArgumentException("toKey out of range: " + toKey);
+      }
+      
+      return new SubMap(fromStart, fromKey, fromInclusive,
+          false, toKey, false);
+    }
+    
+    @Override
+    public SubMap tailMap(K fromKey) {
+      if (!inClosedRange(fromKey)) {
+        throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+      }
+      
+      return new SubMap(false, fromKey, !tooLow(fromKey),
+          toEnd, toKey, toInclusive);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      if (inRange((K)key)) {
+        return MappedPatriciaTrie.this.get(key);
+      }
+      return null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return inRange((K)key) && MappedPatriciaTrie.this.containsKey(key);
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return first() == null;
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new RangeEntrySet<K, V>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return new ViewIterator<Entry<K, V>>(SubMap.this) {
+              @Override
+              protected Entry<K, V> next(Entry<K, V> entry) {
+                return entry;
+              }
+            };
+          }
+        };
+      }
+      return entrySet;
+    }
+  }
+  
+  /**
+   * A leaf of the image. The key is being decoded right away and
+   * the value whenever it's being accessed.
+   */
+  private class Leaf implements Entry<K, V> {
+    
+    private final int node;
+    
+    private final K key;
+    
+    private Leaf(int node) {
+      this.node = node;
+      this.key = MappedPatriciaTrie.this.getKey(node);
+    }
+    
+    @Override
+    public K getKey() {
+      return key;
+    }
+    
+    @Override
+    public V getValue() {
+      return MappedPatriciaTrie.this.getValue(node);
+    }
+    
+    /**
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public V setValue(V value) {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public int hashCode() {
+      V value = getValue();
+      return 31 * (key != null ? key.hashCode() : 0)
+          + (value != null ? value.hashCode() : 0);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      } else if (!(o instanceof Entry<?, ?>)) {
+        return false;
+      }
+      
+      Entry<?, ?> other = (Entry<?, ?>)o;
+      return AbstractTrie.equals(key, other.getKey())
+        && AbstractTrie.equals(getValue(), other.getValue());
+    }
+    
+    @Override
+    public String toString() {
+      return key + " -> " + getValue();
+    }
+  }
+}
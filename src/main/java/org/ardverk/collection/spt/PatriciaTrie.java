@@ -16,21 +16,48 @@
 
 package org.ardverk.collection.spt;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToLongFunction;
 
 /**
  * A simple/lightweight implementation of a PATRICIA {@link Trie}.
  */
 public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializable {
   
-  private static final long serialVersionUID = 7464215084236615537L;
+  private static final long serialVersionUID = -3133574326410393834L;
+  
+  /**
+   * The number of key-values below which the {@link NodeTask}s and 
+   * {@link LinkTask}s don't split any further.
+   */
+  private static final int THRESHOLD = 1 << 13;
 
   private static KeyAnalyzer<Object> DEFAULT = new KeyAnalyzer<Object>() {
     @Override
@@ -47,11 +74,9 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     
   private final KeyAnalyzer<? super K> keyAnalyzer;
   
-  private volatile RootNode<K, V> root = new RootNode<K, V>();
-  
-  private volatile int size = 0;
+  private transient volatile RootNode<K, V> root = new RootNode<K, V>();
   
-  private transient volatile Entry<? extends K, ? extends V>[] entries = null;
+  private transient volatile int size = 0;
   
   private transient volatile EntrySet entrySet = null;
   
@@ -87,25 +112,92 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     return keyAnalyzer;
   }
   
+  /**
+   * Returns a {@link Builder} that creates a {@link PatriciaTrie} from 
+   * keys that are in the order of their bits.
+   */
+  public static <K, V> Builder<K, V> builder(KeyAnalyzer<? super K> keyAnalyzer) {
+    return new Builder<K, V>(keyAnalyzer);
+  }
+  
+  /**
+   * Creates a {@link PatriciaTrie} from a {@link Map} whose keys are 
+   * in the order of their bits (e.g. another {@link PatriciaTrie}) on 
+   * the {@link ForkJoinPool#commonPool()}.
+   * 
+   * @see #parallelBuild(KeyAnalyzer, Map, ForkJoinPool)
+   */
+  public static <K, V> PatriciaTrie<K, V> parallelBuild(
+      KeyAnalyzer<? super K> keyAnalyzer, Map<? extends K, ? extends V> m) {
+    return parallelBuild(keyAnalyzer, m, ForkJoinPool.commonPool());
+  }
+  
+  /**
+   * Creates a {@link PatriciaTrie} from a {@link Map} whose keys are 
+   * in the order of their bits (e.g. another {@link PatriciaTrie}) on 
+   * the given {@link ForkJoinPool}. The {@link PatriciaTrie} is the 
+   * same as if the keys had been put one by one in their order.
+   * 
+   * @throws IllegalArgumentException if the keys are not sorted.
+   * @see Builder
+   */
+  public static <K, V> PatriciaTrie<K, V> parallelBuild(
+      KeyAnalyzer<? super K> keyAnalyzer, Map<? extends K, ? extends V> m, 
+      ForkJoinPool pool) {
+    
+    PatriciaTrie<K, V> trie = new PatriciaTrie<K, V>(keyAnalyzer);
+    
+    @SuppressWarnings("unchecked")
+    Entry<K, V>[] entries = (Entry<K, V>[])m.entrySet().toArray(new Entry<?, ?>[0]);
+    
+    // The null key and the key that is all 0s come first and 
+    // the root is the only place to store them!
+    int offset = 0;
+    while (offset < entries.length) {
+      K key = entries[offset].getKey();
+      if (key != null && trie.bitIndex(key, null) != KeyAnalyzer.NULL_KEY) {
+        break;
+      }
+      
+      trie.putForNullKey(key, entries[offset].getValue());
+      ++offset;
+    }
+    
+    if (offset < entries.length) {
+      @SuppressWarnings("unchecked")
+      Node<K, V>[] nodes = (Node<K, V>[])new Node<?, ?>[entries.length - offset];
+      
+      pool.invoke(new NodeTask<K, V>(trie, entries, offset, nodes, 0, nodes.length));
+      trie.root.left = pool.invoke(new LinkTask<K, V>(trie, nodes, 0, nodes.length));
+      trie.size += nodes.length;
+    }
+    
+    return trie;
+  }
+  
   @Override
   public Entry<K, V> select(K key) {
-    Node<K, V> entry = selectR(root.left, key, -1);
+    Node<K, V> entry = selectNode(key);
     if (!entry.isEmpty()) {
       return entry;
     }
     return null;
   }
   
-  private Node<K, V> selectR(Node<K, V> h, K key, int bitIndex) {
-    if (h.bitIndex <= bitIndex) { 
-      return h; 
-    }
+  /**
+   * Follows the key's bits from the root to the {@link Node} that is 
+   * closest to the key.
+   */
+  private Node<K, V> selectNode(K key) {
+    Node<K, V> h = root.left;
+    int bitIndex = -1;
     
-    if (!isSet(key, h.bitIndex)) {
-      return selectR(h.left, key, h.bitIndex);
-    } else {
-      return selectR(h.right, key, h.bitIndex);
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = !isSet(key, bitIndex) ? h.left : h.right;
     }
+    
+    return h;
   }
   
   @Override
@@ -119,7 +211,7 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     K existing = null;
     if (entry != null) {
       existing = entry.getKey();
-      if (equals(key, existing)) {
+      if (isEqual(key, existing)) {
         return entry.setValue(value);
       }
     }
@@ -129,8 +221,15 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
       return putForNullKey(key, value);
     }
     
+    // The KeyAnalyzer can't tell the keys apart but they're not
+    // equal. Inserting it would corrupt the Trie's links.
+    if (bitIndex == KeyAnalyzer.EQUAL_KEY) {
+      throw new IllegalArgumentException("The keys are indistinguishable: " 
+          + existing + ", " + key);
+    }
+    
     assert (bitIndex >= 0);
-    root.left = putR(root.left, key, value, bitIndex, root);
+    insert(key, value, bitIndex);
     incrementSize();
     
     return null;
@@ -147,22 +246,32 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     return root.setKeyValue(key, value);
   }
   
-  private Node<K, V> putR(Node<K, V> h, K key, V value, int bitIndex, Node<K, V> p) {
-    if ((h.bitIndex >= bitIndex) || (h.bitIndex <= p.bitIndex)) {
-      Node<K, V> t = new Node<K, V>(key, value, bitIndex);
-      
-      boolean isSet = isSet(key, t.bitIndex);
-      t.left = isSet ? h : t;
-      t.right = isSet ? t : h;
-      return t;
+  /**
+   * Inserts a new {@link Node} for the given key-value where the key 
+   * differs at the given bit index from the closest existing key.
+   */
+  private void insert(K key, V value, int bitIndex) {
+    Node<K, V> p = root;
+    Node<K, V> h = root.left;
+    boolean right = false;
+    
+    while (h.bitIndex < bitIndex && h.bitIndex > p.bitIndex) {
+      p = h;
+      right = isSet(key, h.bitIndex);
+      h = !right ? h.left : h.right;
     }
     
-    if (!isSet(key, h.bitIndex)) {
-      h.left = putR(h.left, key, value, bitIndex, h);
+    Node<K, V> t = new Node<K, V>(key, value, bitIndex);
+    
+    boolean isSet = isSet(key, t.bitIndex);
+    t.left = isSet ? h : t;
+    t.right = isSet ? t : h;
+    
+    if (!right) {
+      p.left = t;
     } else {
-      h.right = putR(h.right, key, value, bitIndex, h);
+      p.right = t;
     }
-    return h;
   }
   
   @Override
@@ -170,80 +279,296 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     @SuppressWarnings("unchecked")
     Entry<K, V> entry = entry((K)key);
     if (entry != null) {
-      return removeEntry(entry);
+      Entry<K, V> removed = removeEntry(entry);
+      if (removed != null) {
+        return removed.getValue();
+      }
     }
     
     return null;
   }
   
   /**
-   * Removes the given {@link Entry} from the Trie.
+   * Removes the given {@link Entry} from the Trie and returns it or
+   * {@code null} if it's not in the Trie.
+   * 
+   * NOTE: The {@link RootNode} is being re-used and the returned 
+   * {@link Entry} is a copy of its key-value.
    */
-  private V removeEntry(final Entry<? extends K, ? extends V> entry) {
-    // We're traversing the old Trie and adding elements to the new Trie!
-    RootNode<K, V> old = clear0();
-    traverseR(old.left, (e) -> {
-      if (!entry.equals(e)) {
-        put(e.getKey(), e.getValue());
+  private Entry<K, V> removeEntry(Entry<? extends K, ? extends V> entry) {
+    @SuppressWarnings("unchecked")
+    Node<K, V> node = (Node<K, V>)entry;
+    
+    // This is a shortcut! The root is the only place to store null!
+    if (node == root) {
+      if (root.isEmpty()) {
+        return null;
       }
-      return true;
-    }, -1);
+      
+      Entry<K, V> copy = new AbstractMap.SimpleImmutableEntry<K, V>(root);
+      
+      decrementSize();
+      root.removeKeyValue();
+      return copy;
+    }
+    
+    K key = node.key;
+    
+    // Walk down to the uplink that points to the node. Along the way 
+    // we're keeping track of the node's parent (the one with the downlink 
+    // to the node), the node with the uplink (p) and its parent (pp).
+    Node<K, V> parent = null;
+    Node<K, V> pp = root;
+    Node<K, V> p = root;
+    Node<K, V> h = root.left;
+    
+    while (h.bitIndex > p.bitIndex) {
+      if (h == node) {
+        parent = p;
+      }
+      
+      pp = p;
+      p = h;
+      h = !isSet(key, h.bitIndex) ? h.left : h.right;
+    }
+    
+    if (h != node) {
+      return null;
+    }
+    
+    // The link of p that is NOT pointing up to the node
+    Node<K, V> other = !isSet(key, p.bitIndex) ? p.right : p.left;
+    
+    if (p == node) {
+      // The node is pointing up to itself. Replace the downlink 
+      // from its parent with the node's other link.
+      replace(parent, node, other);
+      
+    } else {
+      // Remove p from its current position and move it into the
+      // position of the node that is being removed.
+      replace(pp, p, other);
+      
+      p.bitIndex = node.bitIndex;
+      p.left = node.left;
+      p.right = node.right;
+      replace(parent, node, p);
+    }
+    
+    node.left = null;
+    node.right = null;
     
-    return entry.getValue();
+    decrementSize();
+    return node;
   }
   
-  @Override
-  public void select(K key, Cursor<? super K, ? super V> cursor) {
-    selectR(root.left, key, cursor, -1);
+  /**
+   * Replaces the link from the parent {@link Node} to the existing 
+   * {@link Node} with a link to the replacement {@link Node}.
+   */
+  private static <K, V> void replace(Node<K, V> parent, 
+      Node<K, V> existing, Node<K, V> replacement) {
+    
+    if (parent.left == existing) {
+      parent.left = replacement;
+    } else {
+      parent.right = replacement;
+    }
   }
   
-  private boolean selectR(Node<K, V> h, K key, 
-      Cursor<? super K, ? super V> cursor, int bitIndex) {
+  @Override
+  public void select(K key, Cursor<? super K, ? super V> cursor) {
+    // The Nodes whose far link hasn't been visited yet
+    Deque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
     
-    if (h.bitIndex <= bitIndex) {
-      if (!h.isEmpty()) {
-        return cursor.select(h);
-      }
-      return true;
-    }
+    Node<K, V> h = root.left;
+    int bitIndex = -1;
     
-    if (!isSet(key, h.bitIndex)) {
-      if (selectR(h.left, key, cursor, h.bitIndex)) {
-        return selectR(h.right, key, cursor, h.bitIndex);
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack.push(h);
+        bitIndex = h.bitIndex;
+        h = !isSet(key, bitIndex) ? h.left : h.right;
+        continue;
       }
-    } else {
-      if (selectR(h.right, key, cursor, h.bitIndex)) {
-        return selectR(h.left, key, cursor, h.bitIndex);
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
+      }
+      
+      Node<K, V> p = stack.poll();
+      if (p == null) {
+        return;
       }
+      
+      bitIndex = p.bitIndex;
+      h = !isSet(key, bitIndex) ? p.right : p.left;
     }
-    
-    return false;
   }
   
   @Override
   public void traverse(Cursor<? super K, ? super V> cursor) {
-    traverseR(root.left, cursor, -1);
+    traverse(root.left, -1, cursor);
   }
   
-  private static <K, V> boolean traverseR(Node<K, V> h, 
-      Cursor<? super K, ? super V> cursor, int bitIndex) {
+  @Override
+  public void prefixTraverse(K prefix, int lengthInBits, 
+      Cursor<? super K, ? super V> cursor) {
     
-    if (h.bitIndex <= bitIndex) {
-      if (!h.isEmpty()) {
-        return cursor.select(h);
-      }
-      return true;
+    Node<K, V> h = root.left;
+    int bitIndex = -1;
+    
+    while (h.bitIndex > bitIndex && h.bitIndex < lengthInBits) {
+      bitIndex = h.bitIndex;
+      h = !isSet(prefix, bitIndex) ? h.left : h.right;
+    }
+    
+    // All keys in the sub-tree share the same prefix. It's
+    // enough to look at one of them.
+    Node<K, V> first = followLeft(h, bitIndex);
+    if (first != null && isPrefix(prefix, lengthInBits, first)) {
+      traverse(h, bitIndex, cursor);
     }
+  }
+  
+  /**
+   * Traverses the {@link PatriciaTrie} in parallel on the 
+   * {@link ForkJoinPool#commonPool()}. It splits the {@link PatriciaTrie} 
+   * into sub-trees of about {@code parallelismThreshold} {@link Entry}s 
+   * (use {@link Integer#MAX_VALUE} to traverse it sequentially).
+   * 
+   * NOTE: The {@link Cursor} is being called by multiple threads and 
+   * the {@link Entry}s are not in order. The traversal stops as soon 
+   * as possible after the {@link Cursor} returned {@code false}. The 
+   * {@link PatriciaTrie} must not be modified during the traversal.
+   */
+  public void parallelTraverse(Cursor<? super K, ? super V> cursor, 
+      int parallelismThreshold) {
+    ForkJoinPool.commonPool().invoke(new TraverseTask(
+        root.left, -1, size, parallelismThreshold, cursor, new AtomicBoolean()));
+  }
+  
+  /**
+   * Performs the given action for each key-value in parallel.
+   * 
+   * @see java.util.concurrent.ConcurrentHashMap#forEach(long, BiConsumer)
+   * @see #parallelTraverse(Cursor, int)
+   */
+  public void forEach(long parallelismThreshold, 
+      BiConsumer<? super K, ? super V> action) {
+    ForkJoinPool.commonPool().invoke(new TraverseTask(
+        root.left, -1, size, parallelismThreshold, (entry) -> {
+          action.accept(entry.getKey(), entry.getValue());
+          return true;
+        }, new AtomicBoolean()));
+  }
+  
+  /**
+   * Returns the result of accumulating the given transformation of all 
+   * {@link Entry}s in parallel or {@code null} if there are none. The 
+   * {@link Entry}s for which the transformation returns {@code null} 
+   * are skipped. The reducer combines the results in the order of the 
+   * {@link Entry}s.
+   * 
+   * @see java.util.concurrent.ConcurrentHashMap#reduceEntries(long, Function, BiFunction)
+   * @see #parallelTraverse(Cursor, int)
+   */
+  public <U> U reduceEntries(long parallelismThreshold, 
+      Function<? super Entry<K, V>, ? extends U> transformer, 
+      BiFunction<? super U, ? super U, ? extends U> reducer) {
+    return ForkJoinPool.commonPool().invoke(new ReduceTask<U>(
+        root.left, -1, size, parallelismThreshold, transformer, reducer));
+  }
+  
+  /**
+   * Returns the result of accumulating all {@link Entry}s in parallel 
+   * or {@code null} if there are none.
+   * 
+   * @see java.util.concurrent.ConcurrentHashMap#reduceEntries(long, BiFunction)
+   * @see #reduceEntries(long, Function, BiFunction)
+   */
+  public Entry<K, V> reduceEntries(long parallelismThreshold, 
+      BiFunction<Entry<K, V>, Entry<K, V>, ? extends Entry<K, V>> reducer) {
+    return reduceEntries(parallelismThreshold, Function.identity(), reducer);
+  }
+  
+  /**
+   * Returns the result of accumulating the given transformation of all 
+   * values in parallel or {@code null} if there are none.
+   * 
+   * @see java.util.concurrent.ConcurrentHashMap#reduceValues(long, Function, BiFunction)
+   * @see #reduceEntries(long, Function, BiFunction)
+   */
+  public <U> U reduceValues(long parallelismThreshold, 
+      Function<? super V, ? extends U> transformer, 
+      BiFunction<? super U, ? super U, ? extends U> reducer) {
+    return reduceEntries(parallelismThreshold, 
+        (entry) -> transformer.apply(entry.getValue()), reducer);
+  }
+  
+  /**
+   * Returns the result of accumulating all values in parallel or 
+   * {@code null} if there are none.
+   * 
+   * @see java.util.concurrent.ConcurrentHashMap#reduceValues(long, BiFunction)
+   * @see #reduceEntries(long, Function, BiFunction)
+   */
+  public V reduceValues(long parallelismThreshold, 
+      BiFunction<? super V, ? super V, ? extends V> reducer) {
+    return reduceEntries(parallelismThreshold, Entry::getValue, reducer);
+  }
+  
+  /**
+   * Returns the result of accumulating the given transformation of all 
+   * values in parallel with the given basis as the identity value (e.g. 
+   * to count or sum up the values).
+   * 
+   * @see java.util.concurrent.ConcurrentHashMap#reduceValuesToLong(long, ToLongFunction, long, LongBinaryOperator)
+   * @see #reduceEntries(long, Function, BiFunction)
+   */
+  public long reduceValuesToLong(long parallelismThreshold, 
+      ToLongFunction<? super V> transformer, long basis, 
+      LongBinaryOperator reducer) {
+    return ForkJoinPool.commonPool().invoke(new ReduceToLongTask(
+        root.left, -1, size, parallelismThreshold, transformer, basis, reducer));
+  }
+  
+  /**
+   * Traverses the sub-tree that starts at the given {@link Node}.
+   */
+  private void traverse(Node<K, V> h, int bitIndex, 
+      Cursor<? super K, ? super V> cursor) {
     
-    if (traverseR(h.left, cursor, h.bitIndex)) {
-      return traverseR(h.right, cursor, h.bitIndex);
+    // The Nodes whose right link hasn't been visited yet
+    Deque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
+    
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack.push(h);
+        bitIndex = h.bitIndex;
+        h = h.left;
+        continue;
+      }
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
+      }
+      
+      Node<K, V> p = stack.poll();
+      if (p == null) {
+        return;
+      }
+      
+      bitIndex = p.bitIndex;
+      h = p.right;
     }
-    return false;
   }
   
   @Override
   public void clear() {
-    clear0();
+    root = new RootNode<K, V>();
+    size = 0;
+    incrementModCount();
   }
   
   @Override
@@ -275,13 +600,14 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     return values;
   }
   
+  @Override
+  public Map<K, V> prefixMap(K prefix, int lengthInBits) {
+    return new PrefixMap(prefix, lengthInBits);
+  }
+  
   @Override
   public Entry<K, V> firstEntry() {
-    Node<K, V> entry = followLeft(root.left, -1, root);
-    if (!entry.isEmpty()) {
-      return entry;
-    }
-    return null;
+    return followLeft(root.left, -1);
   }
 
   @Override
@@ -293,55 +619,194 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     return null;
   }
   
-  private Node<K, V> followLeft(Node<K, V> h, int bitIndex, Node<K, V> p) {
-    if (h.bitIndex <= bitIndex) {
-      if (!h.isEmpty()) {
+  @Override
+  public Entry<K, V> pollFirstEntry() {
+    Entry<K, V> entry = firstEntry();
+    if (entry != null) {
+      return removeEntry(entry);
+    }
+    return null;
+  }
+  
+  @Override
+  public Entry<K, V> pollLastEntry() {
+    Entry<K, V> entry = lastEntry();
+    if (entry != null) {
+      return removeEntry(entry);
+    }
+    return null;
+  }
+  
+  @Override
+  public Entry<K, V> ceilingEntry(K key) {
+    return navigate(key, true, true);
+  }
+  
+  @Override
+  public Entry<K, V> floorEntry(K key) {
+    return navigate(key, false, true);
+  }
+  
+  @Override
+  public Entry<K, V> higherEntry(K key) {
+    return navigate(key, true, false);
+  }
+  
+  @Override
+  public Entry<K, V> lowerEntry(K key) {
+    return navigate(key, false, false);
+  }
+  
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, boolean fromInclusive, 
+      K toKey, boolean toInclusive) {
+    if (compare(fromKey, toKey) > 0) {
+      throw new IllegalArgumentException("fromKey > toKey");
+    }
+    
+    return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+  }
+  
+  @Override
+  public SortedMap<K, V> headMap(K toKey, boolean inclusive) {
+    return new SubMap(true, null, false, false, toKey, inclusive);
+  }
+  
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey, boolean inclusive) {
+    return new SubMap(false, fromKey, inclusive, true, null, false);
+  }
+  
+  /**
+   * Returns the first non-empty {@link Node} that is greater (or less 
+   * if {@code higher} is {@code false}) than the given key or equal to 
+   * it if {@code inclusive} is {@code true}. 
+   * 
+   * It walks down the key's path to the point where the key leaves the 
+   * {@link Trie}. The answer is either the sub-tree right there or the 
+   * closest sub-tree on the other side of one of the {@link Node}s along 
+   * the path.
+   */
+  private Node<K, V> navigate(K key, boolean higher, boolean inclusive) {
+    Node<K, V> closest = selectNode(key);
+    
+    // The first bit where the key differs from the keys in the Trie or 
+    // a negative value if it's in the Trie (or it's the null key whose 
+    // place is the RootNode).
+    int index;
+    if (!closest.isEmpty() && isEqual(key, closest.key)) {
+      index = KeyAnalyzer.EQUAL_KEY;
+    } else {
+      index = bitIndex(key, closest.key);
+    }
+    
+    Deque<Node<K, V>> path = new ArrayDeque<Node<K, V>>();
+    
+    Node<K, V> h = root.left;
+    int bitIndex = -1;
+    
+    while (h.bitIndex > bitIndex && (index < 0 || h.bitIndex < index)) {
+      path.push(h);
+      bitIndex = h.bitIndex;
+      h = !isSet(key, bitIndex) ? h.left : h.right;
+    }
+    
+    if (index < 0) {
+      if (inclusive && !h.isEmpty()) {
         return h;
       }
-      return p;
+      
+    // The keys in the sub-tree are all greater (or less) than the key.
+    } else if (higher != isSet(key, index)) {
+      Node<K, V> node = higher ? followLeft(h, bitIndex) : followRight(h, bitIndex);
+      if (node != null && !node.isEmpty()) {
+        return node;
+      }
+    }
+    
+    // Walk back up and look at the other side of the Nodes
+    for (Node<K, V> p : path) {
+      if (higher) {
+        if (!isSet(key, p.bitIndex)) {
+          Node<K, V> node = followLeft(p.right, p.bitIndex);
+          if (node != null) {
+            return node;
+          }
+        }
+      } else if (isSet(key, p.bitIndex)) {
+        Node<K, V> node = followRight(p.left, p.bitIndex);
+        if (!node.isEmpty()) {
+          return node;
+        }
+      }
     }
     
-    return followLeft(h.left, h.bitIndex, h);
+    return null;
   }
   
-  private Node<K, V> followRight(Node<K, V> h, int bitIndex) {
-    if (h.bitIndex <= bitIndex) {
+  /**
+   * Follows the left links from the given {@link Node} and returns the
+   * first non-empty {@link Node} or {@code null} if there is none.
+   */
+  private Node<K, V> followLeft(Node<K, V> h, int bitIndex) {
+    Node<K, V> p = null;
+    
+    while (h.bitIndex > bitIndex) {
+      p = h;
+      bitIndex = h.bitIndex;
+      h = h.left;
+    }
+    
+    if (!h.isEmpty()) {
       return h;
     }
     
-    return followRight(h.right, h.bitIndex);
+    if (p == null) {
+      return null;
+    }
+    
+    // It's the empty RootNode and it's followed by the 
+    // left-most Node of its parent's right link.
+    h = p.right;
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = h.left;
+    }
+    return h;
+  }
+  
+  /**
+   * Follows the right links from the given {@link Node} and returns 
+   * the last {@link Node}.
+   */
+  private Node<K, V> followRight(Node<K, V> h, int bitIndex) {
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = h.right;
+    }
+    return h;
   }
 
   /**
-   * Increments the {@link #size} counter and calls {@link #clearEntriesArray()}.
+   * Increments the {@link #size} counter and calls {@link #incrementModCount()}.
    */
   private void incrementSize() {
     ++size;
-    clearEntriesArray();
+    incrementModCount();
   }
   
   /**
-   * Clears the {@link PatriciaTrie} and returns the old {@link RootNode}.
-   * The {@link RootNode} may be used to {@link #traverse(RootNode, Cursor)}
-   * the old {@link PatriciaTrie}.
-   * 
-   * @see #remove(Object)
+   * Decrements the {@link #size} counter and calls {@link #incrementModCount()}.
    */
-  private RootNode<K, V> clear0() {
-    RootNode<K, V> previous = root;
-    
-    root = new RootNode<K, V>();
-    size = 0;
-    clearEntriesArray();
-    
-    return previous;
+  private void decrementSize() {
+    --size;
+    incrementModCount();
   }
   
   /**
-   * Clears the {@link #entries} array.
+   * Increments the {@link #modCount} counter.
    */
-  private void clearEntriesArray() {
-    entries = null;
+  private void incrementModCount() {
     ++modCount;
   }
   
@@ -360,64 +825,154 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
   }
   
   /**
-   * Turns the {@link PatriciaTrie} into an {@link Entry[]}. The array
-   * is being cached for as long as the {@link PatriciaTrie} isn't being
-   * modified.
-   * 
-   * @see ViewIterator
+   * Compares the two keys bit by bit (i.e. in the order of the {@link Trie}).
    */
-  private Entry<? extends K, ? extends V>[] toArray() {
-    if (entries == null) {
-      @SuppressWarnings("unchecked")
-      final Entry<? extends K, ? extends V>[] dst 
-        = new Entry[size()];
-      
-      traverse(new Cursor<K, V>() {
-        
-        private int index = 0;
-        
-        @Override
-        public boolean select(Entry<? extends K, ? extends V> entry) {
-          dst[index++] = entry;
-          return true;
-        }
-      });
-      
-      entries = dst;
+  private int compare(K key, K otherKey) {
+    int bitIndex = bitIndex(key, otherKey);
+    
+    // The key is all 0s and the other key is greater unless
+    // it's all 0s as well.
+    if (bitIndex == KeyAnalyzer.NULL_KEY) {
+      return bitIndex(otherKey, key) < 0 ? 0 : -1;
+    }
+    
+    if (bitIndex == KeyAnalyzer.EQUAL_KEY) {
+      return 0;
     }
-    return entries;
+    
+    return isSet(key, bitIndex) ? 1 : -1;
   }
   
   /**
-   * Returns a {@link KeyAnalyzer} for the given {@link Map}.
+   * @see KeyAnalyzer#isEqual(Object, Object)
    */
-  @SuppressWarnings({ "unchecked", "rawtypes" })
-  private static KeyAnalyzer<Object> keyAnalyzer(Map<?, ?> m) {
-    if (m instanceof PatriciaTrie<?, ?>) {
-      return ((PatriciaTrie)m).getKeyAnalyzer();
-    }
-    
-    return DEFAULT;
+  @Override
+  boolean isEqual(K key, K otherKey) {
+    return keyAnalyzer.isEqual(key, otherKey);
   }
   
   /**
-   * An {@link Iterator} for {@link Entry}s.
-   * 
-   * @see PatriciaTrie#toArray()
+   * Returns {@code true} if the {@link Node}'s key shares the first 
+   * {@code lengthInBits} bits with the given prefix.
+   */
+  private boolean isPrefix(K prefix, int lengthInBits, Node<K, V> node) {
+    if (lengthInBits <= 0) {
+      return true;
+    }
+    
+    // The RootNode's key is either null or all 0s
+    if (node == root) {
+      for (int i = 0; i < lengthInBits; i++) {
+        if (isSet(prefix, i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    
+    return isPrefix(prefix, lengthInBits, node.key);
+  }
+  
+  /**
+   * Returns {@code true} if the key shares the first {@code lengthInBits} 
+   * bits with the given prefix.
+   */
+  private boolean isPrefix(K prefix, int lengthInBits, K key) {
+    if (lengthInBits <= 0) {
+      return true;
+    }
+    
+    int bitIndex = bitIndex(prefix, key);
+    
+    // The prefix is either empty or all 0s. Look at it the other 
+    // way around to find the first bit that is set in the key.
+    if (bitIndex == KeyAnalyzer.NULL_KEY) {
+      bitIndex = bitIndex(key, prefix);
+    }
+    
+    return bitIndex < 0 || bitIndex >= lengthInBits;
+  }
+  
+  /**
+   * Returns a {@link KeyAnalyzer} for the given {@link Map}.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static KeyAnalyzer<Object> keyAnalyzer(Map<?, ?> m) {
+    if (m instanceof PatriciaTrie<?, ?>) {
+      return ((PatriciaTrie)m).getKeyAnalyzer();
+    }
+    
+    return DEFAULT;
+  }
+  
+  /**
+   * An {@link Iterator} for {@link Entry}s. It walks the {@link PatriciaTrie}
+   * one {@link Node} at a time and keeps track of the {@link Node}s whose 
+   * right link hasn't been visited yet.
    */
   private abstract class ViewIterator<E> implements Iterator<E> {
-        
-    private final Entry<? extends K, ? extends V>[] entries = toArray();
+    
+    private final Deque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
+    
+    private final int lengthInBits;
+    
+    private final SubMap range;
     
     private int expectedModCount = PatriciaTrie.this.modCount;
     
-    private int index = 0;
+    private Node<K, V> next;
+    
+    private Node<K, V> current = null;
+    
+    public ViewIterator() {
+      this(null, 0);
+    }
+    
+    /**
+     * Creates a {@link ViewIterator} for the entries whose keys share 
+     * the first {@code lengthInBits} bits with the given prefix.
+     */
+    public ViewIterator(K prefix, int lengthInBits) {
+      this.lengthInBits = lengthInBits;
+      this.range = null;
+      
+      // Find the top of the sub-tree whose Nodes are all 
+      // beyond the prefix.
+      Node<K, V> h = root.left;
+      int bitIndex = -1;
+      
+      while (h.bitIndex > bitIndex && h.bitIndex < lengthInBits) {
+        bitIndex = h.bitIndex;
+        h = !isSet(prefix, bitIndex) ? h.left : h.right;
+      }
+      
+      next = follow(h, bitIndex);
+      
+      // All keys in the sub-tree share the same prefix. It's
+      // enough to look at the first one.
+      if (next != null && !isPrefix(prefix, lengthInBits, next)) {
+        stack.clear();
+        next = null;
+      }
+    }
     
-    private Entry<? extends K, ? extends V> current = null;
+    /**
+     * Creates a {@link ViewIterator} that starts at the given {@link Node}
+     * and ends at the upper bound of the given {@link SubMap}.
+     */
+    public ViewIterator(Node<K, V> first, SubMap range) {
+      this.lengthInBits = 0;
+      this.range = range;
+      
+      next = first;
+      if (next != null) {
+        seek(next);
+      }
+    }
     
     @Override
     public boolean hasNext() {
-      return index < entries.length;
+      return next != null;
     }
 
     @Override
@@ -430,7 +985,13 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
         throw new ConcurrentModificationException();
       }
       
-      current = entries[index++];
+      current = next;
+      next = successor();
+      
+      if (next != null && range != null && range.tooHigh(next.key)) {
+        next = null;
+      }
+      
       return next(current);
     }
 
@@ -447,9 +1008,450 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
         throw new IllegalStateException();
       }
       
+      if (expectedModCount != PatriciaTrie.this.modCount) {
+        throw new ConcurrentModificationException();
+      }
+      
       removeEntry(current);
       expectedModCount = PatriciaTrie.this.modCount;
       current = null;
+      
+      // The removal may have moved Nodes around. Find our way 
+      // back to the next Node.
+      if (next != null) {
+        seek(next);
+      }
+    }
+    
+    /**
+     * Returns the next non-empty {@link Node} after the current one.
+     */
+    private Node<K, V> successor() {
+      Node<K, V> p = stack.poll();
+      if (p == null) {
+        return null;
+      }
+      
+      return follow(p.right, p.bitIndex);
+    }
+    
+    /**
+     * Follows the left links from the given {@link Node} to the first 
+     * non-empty {@link Node} and pushes the visited {@link Node}s on 
+     * the stack.
+     */
+    private Node<K, V> follow(Node<K, V> h, int bitIndex) {
+      while (true) {
+        while (h.bitIndex > bitIndex) {
+          stack.push(h);
+          bitIndex = h.bitIndex;
+          h = h.left;
+        }
+        
+        if (!h.isEmpty()) {
+          return h;
+        }
+        
+        // It's the empty RootNode, continue with the next right link.
+        Node<K, V> p = stack.poll();
+        if (p == null) {
+          return null;
+        }
+        
+        h = p.right;
+        bitIndex = p.bitIndex;
+      }
+    }
+    
+    /**
+     * Rebuilds the stack as if the given {@link Node} had just been
+     * returned by {@link #follow(Node, int)}.
+     */
+    private void seek(Node<K, V> node) {
+      stack.clear();
+      
+      // The RootNode's key is null or all 0s and it's 
+      // at the end of the left-most path.
+      boolean leftMost = (node == root);
+      
+      K key = node.key;
+      Node<K, V> h = root.left;
+      int bitIndex = -1;
+      
+      while (h.bitIndex > bitIndex) {
+        bitIndex = h.bitIndex;
+        if (leftMost || !isSet(key, h.bitIndex)) {
+          // Nodes above the sub-tree aren't part of the iteration
+          if (h.bitIndex >= lengthInBits) {
+            stack.push(h);
+          }
+          h = h.left;
+        } else {
+          h = h.right;
+        }
+      }
+      
+      assert (h == node);
+    }
+  }
+  
+  /**
+   * An abstract base class for the tasks that traverse the 
+   * {@link PatriciaTrie} in parallel. They split the sub-tree at 
+   * its top {@link Node} into the left and the right sub-tree and 
+   * assume that each of them has about half of the {@link Entry}s 
+   * until there are no more than {@code parallelismThreshold}.
+   * 
+   * @see PatriciaTrie#parallelTraverse(Cursor, int)
+   */
+  private abstract class SubTreeTask<T> extends RecursiveTask<T> {
+    
+    private static final long serialVersionUID = 3155618417962221557L;
+    
+    protected final Node<K, V> h;
+    
+    protected final int bitIndex;
+    
+    protected final long estimatedSize;
+    
+    protected final long parallelismThreshold;
+    
+    public SubTreeTask(Node<K, V> h, int bitIndex, 
+        long estimatedSize, long parallelismThreshold) {
+      this.h = h;
+      this.bitIndex = bitIndex;
+      this.estimatedSize = estimatedSize;
+      this.parallelismThreshold = parallelismThreshold;
+    }
+    
+    @Override
+    protected T compute() {
+      if (estimatedSize <= parallelismThreshold || h.bitIndex <= bitIndex) {
+        return traverse();
+      }
+      
+      long half = estimatedSize >>> 1;
+      SubTreeTask<T> left = split(h.left, h.bitIndex, half);
+      left.fork();
+      
+      T right = split(h.right, h.bitIndex, half).compute();
+      return reduce(left.join(), right);
+    }
+    
+    /**
+     * Creates a task for the given sub-tree.
+     */
+    protected abstract SubTreeTask<T> split(Node<K, V> h, int bitIndex, long estimatedSize);
+    
+    /**
+     * Traverses the sub-tree sequentially.
+     */
+    protected abstract T traverse();
+    
+    /**
+     * Combines the results of the left and the right sub-tree.
+     */
+    protected abstract T reduce(T left, T right);
+  }
+  
+  /**
+   * @see PatriciaTrie#parallelTraverse(Cursor, int)
+   */
+  private class TraverseTask extends SubTreeTask<Void> {
+    
+    private static final long serialVersionUID = -5519931398282981416L;
+    
+    private final Cursor<? super K, ? super V> cursor;
+    
+    private final AtomicBoolean stop;
+    
+    public TraverseTask(Node<K, V> h, int bitIndex, long estimatedSize, 
+        long parallelismThreshold, Cursor<? super K, ? super V> cursor, 
+        AtomicBoolean stop) {
+      super(h, bitIndex, estimatedSize, parallelismThreshold);
+      this.cursor = cursor;
+      this.stop = stop;
+    }
+    
+    @Override
+    protected TraverseTask split(Node<K, V> h, int bitIndex, long estimatedSize) {
+      return new TraverseTask(h, bitIndex, estimatedSize, 
+          parallelismThreshold, cursor, stop);
+    }
+    
+    @Override
+    protected Void traverse() {
+      if (!stop.get()) {
+        PatriciaTrie.this.traverse(h, bitIndex, (entry) -> {
+          if (stop.get() || !cursor.select(entry)) {
+            stop.set(true);
+            return false;
+          }
+          return true;
+        });
+      }
+      return null;
+    }
+    
+    @Override
+    protected Void reduce(Void left, Void right) {
+      return null;
+    }
+  }
+  
+  /**
+   * @see PatriciaTrie#reduceEntries(long, Function, BiFunction)
+   */
+  private class ReduceTask<U> extends SubTreeTask<U> {
+    
+    private static final long serialVersionUID = 1788426431624829446L;
+    
+    private final Function<? super Entry<K, V>, ? extends U> transformer;
+    
+    private final BiFunction<? super U, ? super U, ? extends U> reducer;
+    
+    private U result = null;
+    
+    public ReduceTask(Node<K, V> h, int bitIndex, long estimatedSize, 
+        long parallelismThreshold, 
+        Function<? super Entry<K, V>, ? extends U> transformer, 
+        BiFunction<? super U, ? super U, ? extends U> reducer) {
+      super(h, bitIndex, estimatedSize, parallelismThreshold);
+      this.transformer = transformer;
+      this.reducer = reducer;
+    }
+    
+    @Override
+    protected ReduceTask<U> split(Node<K, V> h, int bitIndex, long estimatedSize) {
+      return new ReduceTask<U>(h, bitIndex, estimatedSize, 
+          parallelismThreshold, transformer, reducer);
+    }
+    
+    @Override
+    protected U traverse() {
+      PatriciaTrie.this.traverse(h, bitIndex, (entry) -> {
+        @SuppressWarnings("unchecked")
+        U value = transformer.apply((Entry<K, V>)entry);
+        result = reduce(result, value);
+        return true;
+      });
+      return result;
+    }
+    
+    @Override
+    protected U reduce(U left, U right) {
+      if (left == null) {
+        return right;
+      } else if (right == null) {
+        return left;
+      }
+      return reducer.apply(left, right);
+    }
+  }
+  
+  /**
+   * @see PatriciaTrie#reduceValuesToLong(long, ToLongFunction, long, LongBinaryOperator)
+   */
+  private class ReduceToLongTask extends SubTreeTask<Long> {
+    
+    private static final long serialVersionUID = -2208474290954938286L;
+    
+    private final ToLongFunction<? super V> transformer;
+    
+    private final long basis;
+    
+    private final LongBinaryOperator reducer;
+    
+    private long result;
+    
+    public ReduceToLongTask(Node<K, V> h, int bitIndex, long estimatedSize, 
+        long parallelismThreshold, ToLongFunction<? super V> transformer, 
+        long basis, LongBinaryOperator reducer) {
+      super(h, bitIndex, estimatedSize, parallelismThreshold);
+      this.transformer = transformer;
+      this.basis = basis;
+      this.reducer = reducer;
+    }
+    
+    @Override
+    protected ReduceToLongTask split(Node<K, V> h, int bitIndex, long estimatedSize) {
+      return new ReduceToLongTask(h, bitIndex, estimatedSize, 
+          parallelismThreshold, transformer, basis, reducer);
+    }
+    
+    @Override
+    protected Long traverse() {
+      result = basis;
+      PatriciaTrie.this.traverse(h, bitIndex, (entry) -> {
+        result = reducer.applyAsLong(result, transformer.applyAsLong(entry.getValue()));
+        return true;
+      });
+      return result;
+    }
+    
+    @Override
+    protected Long reduce(Long left, Long right) {
+      return reducer.applyAsLong(left, right);
+    }
+  }
+  
+  /**
+   * A {@link Spliterator} for the {@link Entry}s. It walks the 
+   * {@link PatriciaTrie} lazily just like the {@link ViewIterator} 
+   * and splits it at its {@link Node}s into the left and the right 
+   * sub-tree.
+   */
+  private class ViewSpliterator<E> implements Spliterator<E> {
+    
+    /**
+     * The {@link Node}s whose right link hasn't been visited yet.
+     */
+    private final Deque<Node<K, V>> stack;
+    
+    private final Function<? super Node<K, V>, ? extends E> function;
+    
+    private final Comparator<? super E> comparator;
+    
+    /**
+     * The {@link ViewSpliterator} is {@link #SIZED} until it's being 
+     * split as the sizes of the two halves are only estimates.
+     */
+    private int characteristics;
+    
+    private final int expectedModCount;
+    
+    /**
+     * The link that will be followed next.
+     */
+    private Node<K, V> h;
+    
+    private int bitIndex;
+    
+    private long estimatedSize;
+    
+    /**
+     * Creates a {@link ViewSpliterator} for all {@link Entry}s. It's
+     * {@link #SORTED} if the given {@link Comparator} is not null.
+     */
+    public ViewSpliterator(Function<? super Node<K, V>, ? extends E> function, 
+        Comparator<? super E> comparator, int characteristics) {
+      this(new ArrayDeque<Node<K, V>>(), function, comparator, 
+          (comparator != null ? SORTED : 0) | characteristics | ORDERED | SIZED, 
+          root.left, -1, size);
+    }
+    
+    private ViewSpliterator(Deque<Node<K, V>> stack, 
+        Function<? super Node<K, V>, ? extends E> function, 
+        Comparator<? super E> comparator, int characteristics, 
+        Node<K, V> h, int bitIndex, long estimatedSize) {
+      this.stack = stack;
+      this.function = function;
+      this.comparator = comparator;
+      this.characteristics = characteristics;
+      this.expectedModCount = PatriciaTrie.this.modCount;
+      this.h = h;
+      this.bitIndex = bitIndex;
+      this.estimatedSize = estimatedSize;
+    }
+    
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+      while (h != null) {
+        while (h.bitIndex > bitIndex) {
+          stack.push(h);
+          bitIndex = h.bitIndex;
+          h = h.left;
+        }
+        
+        Node<K, V> node = h;
+        
+        Node<K, V> p = stack.poll();
+        if (p != null) {
+          bitIndex = p.bitIndex;
+          h = p.right;
+        } else {
+          h = null;
+        }
+        
+        // Skip the empty RootNode
+        if (!node.isEmpty()) {
+          if (expectedModCount != PatriciaTrie.this.modCount) {
+            throw new ConcurrentModificationException();
+          }
+          
+          if (estimatedSize > 0L) {
+            --estimatedSize;
+          }
+          
+          action.accept(function.apply(node));
+          return true;
+        }
+      }
+      
+      return false;
+    }
+    
+    /**
+     * Returns everything in front of the last right link on the stack or 
+     * the left sub-tree if the stack is empty. This {@link ViewSpliterator} 
+     * continues with the rest.
+     */
+    @Override
+    public Spliterator<E> trySplit() {
+      if (h == null) {
+        return null;
+      }
+      
+      Node<K, V> p = stack.pollLast();
+      if (p != null || h.bitIndex > bitIndex) {
+        estimatedSize >>>= 1;
+        characteristics &= ~(SIZED | SUBSIZED);
+      }
+      
+      if (p != null) {
+        Deque<Node<K, V>> prefix = new ArrayDeque<Node<K, V>>(stack);
+        Spliterator<E> split = new ViewSpliterator<E>(prefix, function, comparator, 
+            characteristics, h, bitIndex, estimatedSize);
+        
+        stack.clear();
+        h = p.right;
+        bitIndex = p.bitIndex;
+        return split;
+      }
+      
+      if (h.bitIndex > bitIndex) {
+        p = h;
+        Spliterator<E> split = new ViewSpliterator<E>(new ArrayDeque<Node<K, V>>(), 
+            function, comparator, characteristics, p.left, p.bitIndex, estimatedSize);
+        
+        h = p.right;
+        bitIndex = p.bitIndex;
+        return split;
+      }
+      
+      // It's a single Entry (or the empty RootNode)
+      if ((characteristics & SIZED) == 0) {
+        estimatedSize = 1L;
+      }
+      return null;
+    }
+    
+    @Override
+    public long estimateSize() {
+      return estimatedSize;
+    }
+    
+    @Override
+    public int characteristics() {
+      return characteristics;
+    }
+    
+    @Override
+    public Comparator<? super E> getComparator() {
+      if (comparator == null) {
+        throw new IllegalStateException();
+      }
+      return comparator;
     }
   }
   
@@ -477,7 +1479,8 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     private Entry<K, V> entry(Entry<K, V> entry) {
       Entry<K, V> other = PatriciaTrie.this.entry(entry.getKey());
       
-      if (other != null && other.equals(entry)) {
+      if (other != null && AbstractTrie.equals(
+          other.getValue(), entry.getValue())) {
         return other;
       }
       
@@ -517,8 +1520,15 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
         }
       };
     }
-  }
-  
+    
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+      return new ViewSpliterator<Entry<K, V>>((node) -> node, 
+          (entry, other) -> compare(entry.getKey(), other.getKey()), 
+          Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+  }
+  
   /**
    * @see PatriciaTrie#keySet()
    */
@@ -545,6 +1555,12 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
         }
       };
     }
+    
+    @Override
+    public Spliterator<K> spliterator() {
+      return new ViewSpliterator<K>((node) -> node.key, 
+          PatriciaTrie.this::compare, Spliterator.DISTINCT);
+    }
   }
   
   /**
@@ -574,6 +1590,653 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
         }
       };
     }
+    
+    @Override
+    public Spliterator<V> spliterator() {
+      return new ViewSpliterator<V>((node) -> node.value, null, 0);
+    }
+  }
+  
+  /**
+   * @see PatriciaTrie#prefixMap(Object, int)
+   */
+  private class PrefixMap extends AbstractMap<K, V> {
+    
+    private final K prefix;
+    
+    private final int lengthInBits;
+    
+    private volatile Set<Entry<K, V>> entrySet = null;
+    
+    public PrefixMap(K prefix, int lengthInBits) {
+      this.prefix = prefix;
+      this.lengthInBits = lengthInBits;
+    }
+    
+    @Override
+    public V put(K key, V value) {
+      if (!isPrefix(prefix, lengthInBits, key)) {
+        throw new IllegalArgumentException("Key is outside of the prefix range: " + key);
+      }
+      
+      return PatriciaTrie.this.put(key, value);
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return !entrySet().iterator().hasNext();
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      if (isPrefix(prefix, lengthInBits, (K)key)) {
+        return PatriciaTrie.this.get(key);
+      }
+      return null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return isPrefix(prefix, lengthInBits, (K)key) 
+          && PatriciaTrie.this.containsKey(key);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key) {
+      if (isPrefix(prefix, lengthInBits, (K)key)) {
+        return PatriciaTrie.this.remove(key);
+      }
+      return null;
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new AbstractSet<Entry<K, V>>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return new ViewIterator<Entry<K, V>>(prefix, lengthInBits) {
+              @SuppressWarnings("unchecked")
+              @Override
+              protected Entry<K, V> next(Entry<? extends K, ? extends V> entry) {
+                return (Entry<K, V>)entry;
+              }
+            };
+          }
+          
+          @Override
+          public int size() {
+            int size = 0;
+            for (Iterator<Entry<K, V>> it = iterator(); it.hasNext(); it.next()) {
+              ++size;
+            }
+            return size;
+          }
+        };
+      }
+      return entrySet;
+    }
+  }
+  
+  /**
+   * @see PatriciaTrie#subMap(Object, boolean, Object, boolean)
+   * @see PatriciaTrie#headMap(Object, boolean)
+   * @see PatriciaTrie#tailMap(Object, boolean)
+   */
+  private class SubMap extends AbstractMap<K, V> implements SortedMap<K, V> {
+    
+    private final boolean fromStart;
+    
+    private final K fromKey;
+    
+    private final boolean fromInclusive;
+    
+    private final boolean toEnd;
+    
+    private final K toKey;
+    
+    private final boolean toInclusive;
+    
+    private volatile Set<Entry<K, V>> entrySet = null;
+    
+    public SubMap(boolean fromStart, K fromKey, boolean fromInclusive, 
+        boolean toEnd, K toKey, boolean toInclusive) {
+      this.fromStart = fromStart;
+      this.fromKey = fromKey;
+      this.fromInclusive = fromInclusive;
+      this.toEnd = toEnd;
+      this.toKey = toKey;
+      this.toInclusive = toInclusive;
+    }
+    
+    /**
+     * Returns {@code true} if the key is below the lower bound.
+     */
+    private boolean tooLow(K key) {
+      if (!fromStart) {
+        int c = compare(key, fromKey);
+        return c < 0 || (c == 0 && !fromInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is above the upper bound.
+     */
+    private boolean tooHigh(K key) {
+      if (!toEnd) {
+        int c = compare(key, toKey);
+        return c > 0 || (c == 0 && !toInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is within the bounds.
+     */
+    private boolean inRange(K key) {
+      return !tooLow(key) && !tooHigh(key);
+    }
+    
+    /**
+     * Returns {@code true} if the key is within the bounds 
+     * including the bounds themselves.
+     */
+    private boolean inClosedRange(K key) {
+      return (fromStart || compare(key, fromKey) >= 0)
+          && (toEnd || compare(key, toKey) <= 0);
+    }
+    
+    /**
+     * Returns the first {@link Node} in the range or {@code null}.
+     */
+    private Node<K, V> first() {
+      Node<K, V> node = fromStart ? followLeft(root.left, -1)
+          : navigate(fromKey, true, fromInclusive);
+      
+      if (node != null && tooHigh(node.key)) {
+        return null;
+      }
+      return node;
+    }
+    
+    /**
+     * Returns the last {@link Node} in the range or {@code null}.
+     */
+    private Node<K, V> last() {
+      Node<K, V> node = toEnd ? followRight(root.left, -1)
+          : navigate(toKey, false, toInclusive);
+      
+      if (node == null || node.isEmpty() || tooLow(node.key)) {
+        return null;
+      }
+      return node;
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+      return PatriciaTrie.this::compare;
+    }
+    
+    @Override
+    public K firstKey() {
+      Node<K, V> node = first();
+      if (node == null) {
+        throw new NoSuchElementException();
+      }
+      return node.key;
+    }
+    
+    @Override
+    public K lastKey() {
+      Node<K, V> node = last();
+      if (node == null) {
+        throw new NoSuchElementException();
+      }
+      return node.key;
+    }
+    
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+      if (!inClosedRange(fromKey)) {
+        throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+      }
+      
+      if (!inClosedRange(toKey)) {
+        throw new IllegalArgumentException("toKey out of range: " + toKey);
+      }
+      
+      if (compare(fromKey, toKey) > 0) {
+        throw new IllegalArgumentException("fromKey > toKey");
+      }
+      
+      return new SubMap(false, fromKey, !tooLow(fromKey), 
+          false, toKey, false);
+    }
+    
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+      if (!inClosedRange(toKey)) {
+        throw new IllegalArgumentException("toKey out of range: " + toKey);
+      }
+      
+      return new SubMap(fromStart, fromKey, fromInclusive, 
+          false, toKey, false);
+    }
+    
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+      if (!inClosedRange(fromKey)) {
+        throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+      }
+      
+      return new SubMap(false, fromKey, !tooLow(fromKey), 
+          toEnd, toKey, toInclusive);
+    }
+    
+    @Override
+    public V put(K key, V value) {
+      if (!inRange(key)) {
+        throw new IllegalArgumentException("Key out of range: " + key);
+      }
+      
+      return PatriciaTrie.this.put(key, value);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      if (inRange((K)key)) {
+        return PatriciaTrie.this.get(key);
+      }
+      return null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return inRange((K)key) && PatriciaTrie.this.containsKey(key);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key) {
+      if (inRange((K)key)) {
+        return PatriciaTrie.this.remove(key);
+      }
+      return null;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return first() == null;
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new AbstractSet<Entry<K, V>>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return new ViewIterator<Entry<K, V>>(first(), SubMap.this) {
+              @SuppressWarnings("unchecked")
+              @Override
+              protected Entry<K, V> next(Entry<? extends K, ? extends V> entry) {
+                return (Entry<K, V>)entry;
+              }
+            };
+          }
+          
+          @Override
+          public int size() {
+            int size = 0;
+            for (Iterator<Entry<K, V>> it = iterator(); it.hasNext(); it.next()) {
+              ++size;
+            }
+            return size;
+          }
+        };
+      }
+      return entrySet;
+    }
+  }
+  
+  /**
+   * Writes the key-values in the order of their keys instead of the 
+   * {@link Node} graph. The {@link PatriciaTrie} is being re-built 
+   * from the sorted key-values upon deserialization.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    
+    out.writeInt(size());
+    for (Entry<K, V> entry : entrySet()) {
+      out.writeObject(entry.getKey());
+      out.writeObject(entry.getValue());
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) 
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    
+    int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("size=" + size);
+    }
+    
+    root = new RootNode<K, V>();
+    
+    Builder<K, V> builder = new Builder<K, V>(this);
+    for (int i = 0; i < size; i++) {
+      K key = (K)in.readObject();
+      V value = (V)in.readObject();
+      
+      try {
+        builder.add(key, value);
+      } catch (IllegalArgumentException err) {
+        throw new InvalidObjectException(err.getMessage());
+      }
+    }
+    builder.build();
+  }
+  
+  /**
+   * Creates a {@link PatriciaTrie} from keys that are in the order of 
+   * their bits (e.g. the keys of another {@link PatriciaTrie}).
+   * 
+   * The last key has the greatest bits of all keys and the next key 
+   * differs from all of them at its bit index with the last key. The 
+   * {@link Builder} keeps the {@link Node}s on the path down to the 
+   * last key on a stack and appends each {@link Node} in O(1) amortized 
+   * time without walking down from the root. The {@link PatriciaTrie} 
+   * is the same as if the keys had been put one by one.
+   */
+  public static class Builder<K, V> {
+    
+    private final Deque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
+    
+    private PatriciaTrie<K, V> trie;
+    
+    private Node<K, V> last = null;
+    
+    private Builder(KeyAnalyzer<? super K> keyAnalyzer) {
+      this(new PatriciaTrie<K, V>(keyAnalyzer));
+    }
+    
+    /**
+     * Creates a {@link Builder} that adds the key-values to the given 
+     * (empty) {@link PatriciaTrie}.
+     */
+    private Builder(PatriciaTrie<K, V> trie) {
+      this.trie = trie;
+    }
+    
+    /**
+     * Adds the given key-value. The key must be greater than the 
+     * previous key (or equal to it in which case it replaces the 
+     * previous value).
+     * 
+     * @throws IllegalArgumentException if the key is smaller than 
+     * the previous key.
+     */
+    public Builder<K, V> add(K key, V value) {
+      PatriciaTrie<K, V> trie = trie();
+      
+      // The root is the only place to store null!
+      if (key == null) {
+        trie.putForNullKey(key, value);
+        return this;
+      }
+      
+      K existing = null;
+      if (last != null) {
+        existing = last.key;
+        if (trie.isEqual(key, existing)) {
+          last.setValue(value);
+          return this;
+        }
+      }
+      
+      int bitIndex = trie.bitIndex(key, existing);
+      if (bitIndex == KeyAnalyzer.NULL_KEY) {
+        trie.putForNullKey(key, value);
+        return this;
+      }
+      
+      if (bitIndex < 0 || !trie.isSet(key, bitIndex)) {
+        throw new IllegalArgumentException("The keys are not sorted: " 
+            + existing + ", " + key);
+      }
+      
+      // Pop the Nodes that test bits after the bit index. The topmost 
+      // of them becomes the new Node's left sub-tree.
+      Node<K, V> h = last != null ? last : trie.root;
+      while (!stack.isEmpty() && stack.peek().bitIndex > bitIndex) {
+        h = stack.pop();
+      }
+      
+      Node<K, V> t = new Node<K, V>(key, value, bitIndex);
+      t.left = h;
+      t.right = t;
+      
+      if (stack.isEmpty()) {
+        trie.root.left = t;
+      } else {
+        stack.peek().right = t;
+      }
+      
+      stack.push(t);
+      last = t;
+      
+      trie.incrementSize();
+      return this;
+    }
+    
+    /**
+     * Adds all key-values of the given {@link Map}. Its {@link Map#entrySet()} 
+     * must return the keys in the order of their bits.
+     * 
+     * @see #add(Object, Object)
+     */
+    public Builder<K, V> addSorted(Map<? extends K, ? extends V> m) {
+      for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+        add(entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+    
+    /**
+     * Returns the {@link PatriciaTrie}. The {@link Builder} can't be 
+     * used anymore afterwards.
+     */
+    public PatriciaTrie<K, V> build() {
+      PatriciaTrie<K, V> trie = trie();
+      
+      this.trie = null;
+      stack.clear();
+      last = null;
+      
+      return trie;
+    }
+    
+    private PatriciaTrie<K, V> trie() {
+      if (trie == null) {
+        throw new IllegalStateException("build() has been called");
+      }
+      return trie;
+    }
+  }
+  
+  /**
+   * Creates the {@link Node}s for the sorted key-values in parallel. Each 
+   * {@link Node}'s bit index is where its key differs from the previous key.
+   * 
+   * @see PatriciaTrie#parallelBuild(KeyAnalyzer, Map, ForkJoinPool)
+   */
+  private static class NodeTask<K, V> extends RecursiveAction {
+    
+    private static final long serialVersionUID = -3375458187011858286L;
+    
+    private final PatriciaTrie<K, V> trie;
+    
+    private final Entry<K, V>[] entries;
+    
+    private final int offset;
+    
+    private final Node<K, V>[] nodes;
+    
+    private final int lo;
+    
+    private final int hi;
+    
+    public NodeTask(PatriciaTrie<K, V> trie, Entry<K, V>[] entries, int offset, 
+        Node<K, V>[] nodes, int lo, int hi) {
+      this.trie = trie;
+      this.entries = entries;
+      this.offset = offset;
+      this.nodes = nodes;
+      this.lo = lo;
+      this.hi = hi;
+    }
+    
+    @Override
+    protected void compute() {
+      if (hi - lo > THRESHOLD) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new NodeTask<K, V>(trie, entries, offset, nodes, lo, mid), 
+            new NodeTask<K, V>(trie, entries, offset, nodes, mid, hi));
+        return;
+      }
+      
+      for (int i = lo; i < hi; i++) {
+        Entry<K, V> entry = entries[offset + i];
+        K key = entry.getKey();
+        K previous = i > 0 ? entries[offset + i - 1].getKey() : null;
+        
+        int bitIndex = key != null ? trie.bitIndex(key, previous) : KeyAnalyzer.NULL_KEY;
+        if (bitIndex < 0 || !trie.isSet(key, bitIndex)) {
+          throw new IllegalArgumentException("The keys are not sorted: " 
+              + previous + ", " + key);
+        }
+        
+        nodes[i] = new Node<K, V>(key, entry.getValue(), bitIndex);
+      }
+    }
+  }
+  
+  /**
+   * Links the sorted {@link Node}s and returns the root of their sub-tree.
+   * 
+   * The {@link Node} with the smallest bit index is the root of the 
+   * sub-tree. The first and the last key differ at that bit and the 
+   * {@link LinkTask} finds the first key that has it set with a binary 
+   * search. The {@link Node}s on its left and right are two independent 
+   * sub-trees that are being linked in parallel.
+   * 
+   * @see PatriciaTrie#parallelBuild(KeyAnalyzer, Map, ForkJoinPool)
+   */
+  private static class LinkTask<K, V> extends RecursiveTask<Node<K, V>> {
+    
+    private static final long serialVersionUID = 6409186813795286532L;
+    
+    private final PatriciaTrie<K, V> trie;
+    
+    private final Node<K, V>[] nodes;
+    
+    private final int lo;
+    
+    private final int hi;
+    
+    public LinkTask(PatriciaTrie<K, V> trie, Node<K, V>[] nodes, int lo, int hi) {
+      this.trie = trie;
+      this.nodes = nodes;
+      this.lo = lo;
+      this.hi = hi;
+    }
+    
+    @Override
+    protected Node<K, V> compute() {
+      if (hi - lo <= THRESHOLD) {
+        return link();
+      }
+      
+      int index = split();
+      
+      LinkTask<K, V> left = null;
+      if (lo < index) {
+        left = new LinkTask<K, V>(trie, nodes, lo, index);
+        left.fork();
+      }
+      
+      Node<K, V> t = nodes[index];
+      t.right = index + 1 < hi 
+          ? new LinkTask<K, V>(trie, nodes, index + 1, hi).compute() : t;
+      t.left = left != null ? left.join() : previous(index);
+      return t;
+    }
+    
+    /**
+     * Returns the index of the {@link Node} with the smallest bit index.
+     */
+    private int split() {
+      Node<K, V> first = nodes[lo];
+      int bitIndex = trie.bitIndex(first.key, nodes[hi-1].key);
+      if (first.bitIndex < bitIndex) {
+        return lo;
+      }
+      
+      int low = lo + 1;
+      int high = hi - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (trie.isSet(nodes[mid].key, bitIndex)) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+      return low;
+    }
+    
+    /**
+     * Links the {@link Node}s one by one just like the {@link Builder}.
+     */
+    private Node<K, V> link() {
+      Deque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
+      
+      for (int i = lo; i < hi; i++) {
+        Node<K, V> t = nodes[i];
+        
+        Node<K, V> h = previous(i);
+        while (!stack.isEmpty() && stack.peek().bitIndex > t.bitIndex) {
+          h = stack.pop();
+        }
+        
+        t.left = h;
+        t.right = t;
+        
+        if (!stack.isEmpty()) {
+          stack.peek().right = t;
+        }
+        
+        stack.push(t);
+      }
+      
+      return stack.peekLast();
+    }
+    
+    /**
+     * Returns the {@link Node} before the given index. It's where a 
+     * {@link Node} without a left sub-tree points up to.
+     */
+    private Node<K, V> previous(int index) {
+      return index > 0 ? nodes[index-1] : trie.root;
+    }
   }
   
   /**
@@ -598,6 +2261,16 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
       this.empty = false;
       return setValue(value);
     }
+    
+    /**
+     * Removes the key and value from the root node.
+     */
+    public V removeKeyValue() {
+      V existing = setValue(null);
+      this.key = null;
+      this.empty = true;
+      return existing;
+    }
 
     @Override
     public boolean isEmpty() {
@@ -612,7 +2285,7 @@ public class PatriciaTrie<K, V> extends AbstractTrie<K, V> implements Serializab
     
     private static final long serialVersionUID = -2409938371345117780L;
 
-    private final int bitIndex;
+    private int bitIndex;
 
     protected K key;
     
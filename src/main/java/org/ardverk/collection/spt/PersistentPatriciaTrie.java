@@ -0,0 +1,1188 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * An immutable implementation of a PATRICIA {@link Trie}.
+ *
+ * The {@link PersistentPatriciaTrie} can't be modified through the
+ * {@link Map} interface. The {@link #with(Object, Object)} and
+ * {@link #without(Object)} operations return a new version of the
+ * {@link Trie} instead. They copy the path from the root down to the
+ * {@link Node} they're changing (i.e. they're O(depth)) and the new
+ * version shares all other {@link Node}s with the old one. A snapshot
+ * is therefore just a reference to a {@link PersistentPatriciaTrie}.
+ *
+ * NOTE: Unlike {@link PatriciaTrie} the {@link PersistentPatriciaTrie}
+ * keeps the keys in its leaves and the inner {@link Node}s hold only the
+ * bit index. There are no uplinks.
+ */
+public class PersistentPatriciaTrie<K, V> extends AbstractTrie<K, V>
+    implements Serializable {
+  
+  private static final long serialVersionUID = 5582943761049185306L;
+  
+  private final KeyAnalyzer<? super K> keyAnalyzer;
+  
+  private final Node<K, V> root;
+  
+  private final int size;
+  
+  private transient volatile EntrySet entrySet = null;
+  
+  private transient volatile KeySet keySet = null;
+  
+  private transient volatile Values values = null;
+  
+  public PersistentPatriciaTrie(KeyAnalyzer<? super K> keyAnalyzer) {
+    this(keyAnalyzer, null, 0);
+  }
+  
+  public PersistentPatriciaTrie(KeyAnalyzer<? super K> keyAnalyzer,
+      Map<? extends K, ? extends V> m) {
+    this(new PersistentPatriciaTrie<K, V>(keyAnalyzer).withAll(m));
+  }
+  
+  private PersistentPatriciaTrie(PersistentPatriciaTrie<K, V> trie) {
+    this(trie.keyAnalyzer, trie.root, trie.size);
+  }
+  
+  private PersistentPatriciaTrie(KeyAnalyzer<? super K> keyAnalyzer,
+      Node<K, V> root, int size) {
+    this.keyAnalyzer = keyAnalyzer;
+    this.root = root;
+    this.size = size;
+  }
+  
+  /**
+   * Returns the {@link KeyAnalyzer}.
+   */
+  public KeyAnalyzer<? super K> getKeyAnalyzer() {
+    return keyAnalyzer;
+  }
+  
+  @Override
+  public Entry<K, V> select(K key) {
+    return selectLeaf(key);
+  }
+  
+  /**
+   * Follows the key's bits from the root to the {@link Leaf}
+   * that is closest to the key.
+   */
+  Leaf<K, V> selectLeaf(K key) {
+    return selectLeaf(root, key);
+  }
+  
+  /**
+   * Follows the key's bits from the given {@link Node} to the
+   * {@link Leaf} that is closest to the key.
+   */
+  private Leaf<K, V> selectLeaf(Node<K, V> h, K key) {
+    if (h == null) {
+      return null;
+    }
+    
+    while (h instanceof Branch<?, ?>) {
+      Branch<K, V> b = (Branch<K, V>)h;
+      h = !isSet(key, b.bitIndex) ? b.left : b.right;
+    }
+    
+    return (Leaf<K, V>)h;
+  }
+  
+  /**
+   * Returns a {@link PersistentPatriciaTrie} that maps the given key to
+   * the given value and shares all {@link Node}s that are not on the
+   * key's path with this {@link PersistentPatriciaTrie}.
+   */
+  public PersistentPatriciaTrie<K, V> with(K key, V value) {
+    return with(selectLeaf(key), key, value);
+  }
+  
+  /**
+   * Returns a {@link PersistentPatriciaTrie} with all mappings of the
+   * given {@link Map}.
+   */
+  public PersistentPatriciaTrie<K, V> withAll(Map<? extends K, ? extends V> m) {
+    PersistentPatriciaTrie<K, V> trie = this;
+    for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+      trie = trie.with(entry.getKey(), entry.getValue());
+    }
+    return trie;
+  }
+  
+  /**
+   * Returns a {@link PersistentPatriciaTrie} with the given key-value.
+   * The closest {@link Leaf} is the one returned by
+   * {@link #selectLeaf(Object)}.
+   */
+  PersistentPatriciaTrie<K, V> with(Leaf<K, V> closest, K key, V value) {
+    if (closest == null) {
+      return new PersistentPatriciaTrie<K, V>(keyAnalyzer,
+          new Leaf<K, V>(key, value), 1);
+    }
+    
+    int bitIndex = KeyAnalyzer.EQUAL_KEY;
+    if (!isEqual(key, closest.key)) {
+      bitIndex = crit(key, closest.key);
+      if (bitIndex == KeyAnalyzer.EQUAL_KEY) {
+        throw new IllegalArgumentException("The keys are indistinguishable: " 
+            + closest.key + ", " + key);
+      }
+    }
+    
+    // Walk down to the Node that is beyond the bit index (or the
+    // Leaf if it's replacing an existing key).
+    Deque<Branch<K, V>> path = new ArrayDeque<Branch<K, V>>();
+    Node<K, V> h = root;
+    
+    while (h instanceof Branch<?, ?>) {
+      Branch<K, V> b = (Branch<K, V>)h;
+      if (bitIndex >= 0 && b.bitIndex >= bitIndex) {
+        break;
+      }
+      
+      path.push(b);
+      h = !isSet(key, b.bitIndex) ? b.left : b.right;
+    }
+    
+    Leaf<K, V> leaf = new Leaf<K, V>(key, value);
+    
+    if (bitIndex < 0) {
+      return new PersistentPatriciaTrie<K, V>(keyAnalyzer,
+          copyPath(path, key, leaf), size);
+    }
+    
+    Node<K, V> t = isSet(key, bitIndex)
+        ? new Branch<K, V>(bitIndex, h, leaf)
+        : new Branch<K, V>(bitIndex, leaf, h);
+    
+    return new PersistentPatriciaTrie<K, V>(keyAnalyzer,
+        copyPath(path, key, t), size + 1);
+  }
+  
+  /**
+   * Returns a {@link PersistentPatriciaTrie} without the given key or
+   * this {@link PersistentPatriciaTrie} if there is no such key.
+   */
+  public PersistentPatriciaTrie<K, V> without(K key) {
+    Node<K, V> h = root;
+    if (h == null) {
+      return this;
+    }
+    
+    Deque<Branch<K, V>> path = new ArrayDeque<Branch<K, V>>();
+    
+    while (h instanceof Branch<?, ?>) {
+      Branch<K, V> b = (Branch<K, V>)h;
+      path.push(b);
+      h = !isSet(key, b.bitIndex) ? b.left : b.right;
+    }
+    
+    Leaf<K, V> leaf = (Leaf<K, V>)h;
+    if (!isEqual(key, leaf.key)) {
+      return this;
+    }
+    
+    // Replace the Leaf's parent with the Leaf's sibling
+    Node<K, V> t = null;
+    Branch<K, V> p = path.poll();
+    if (p != null) {
+      Node<K, V> sibling = !isSet(key, p.bitIndex) ? p.right : p.left;
+      t = copyPath(path, key, sibling);
+    }
+    
+    return new PersistentPatriciaTrie<K, V>(keyAnalyzer, t, size - 1);
+  }
+  
+  /**
+   * Copies the {@link Branch}es along the key's path (the deepest one
+   * first) and replaces the link to the key's side of the deepest
+   * {@link Branch} with the given {@link Node}. Returns the new root.
+   */
+  private Node<K, V> copyPath(Deque<Branch<K, V>> path, K key, Node<K, V> node) {
+    for (Branch<K, V> b : path) {
+      node = !isSet(key, b.bitIndex)
+          ? new Branch<K, V>(b.bitIndex, node, b.right)
+          : new Branch<K, V>(b.bitIndex, b.left, node);
+    }
+    return node;
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   * @see #with(Object, Object)
+   */
+  @Override
+  public V put(K key, V value) {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   * @see #withAll(Map)
+   */
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m) {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   * @see #without(Object)
+   */
+  @Override
+  public V remove(Object key) {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public Entry<K, V> pollFirstEntry() {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public Entry<K, V> pollLastEntry() {
+    throw new UnsupportedOperationException();
+  }
+  
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+  
+  @Override
+  public void select(K key, Cursor<? super K, ? super V> cursor) {
+    Node<K, V> h = root;
+    if (h == null) {
+      return;
+    }
+    
+    // The far sides of the Branches that haven't been visited yet
+    Deque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
+    
+    while (true) {
+      while (h instanceof Branch<?, ?>) {
+        Branch<K, V> b = (Branch<K, V>)h;
+        if (!isSet(key, b.bitIndex)) {
+          stack.push(b.right);
+          h = b.left;
+        } else {
+          stack.push(b.left);
+          h = b.right;
+        }
+      }
+      
+      if (!cursor.select((Leaf<K, V>)h)) {
+        return;
+      }
+      
+      h = stack.poll();
+      if (h == null) {
+        return;
+      }
+    }
+  }
+  
+  @Override
+  public void traverse(Cursor<? super K, ? super V> cursor) {
+    traverse(root, cursor);
+  }
+  
+  @Override
+  public void prefixTraverse(K prefix, int lengthInBits,
+      Cursor<? super K, ? super V> cursor) {
+    traverse(prefixNode(prefix, lengthInBits), cursor);
+  }
+  
+  /**
+   * Traverses the sub-tree that starts at the given {@link Node}.
+   */
+  private void traverse(Node<K, V> h, Cursor<? super K, ? super V> cursor) {
+    if (h == null) {
+      return;
+    }
+    
+    // The right sides of the Branches that haven't been visited yet
+    Deque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
+    
+    while (true) {
+      while (h instanceof Branch<?, ?>) {
+        Branch<K, V> b = (Branch<K, V>)h;
+        stack.push(b.right);
+        h = b.left;
+      }
+      
+      if (!cursor.select((Leaf<K, V>)h)) {
+        return;
+      }
+      
+      h = stack.poll();
+      if (h == null) {
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Returns the sub-tree whose keys share the first {@code lengthInBits}
+   * bits with the given prefix or {@code null} if there is none.
+   */
+  private Node<K, V> prefixNode(K prefix, int lengthInBits) {
+    Node<K, V> h = root;
+    if (h == null) {
+      return null;
+    }
+    
+    while (h instanceof Branch<?, ?>) {
+      Branch<K, V> b = (Branch<K, V>)h;
+      if (b.bitIndex >= lengthInBits) {
+        break;
+      }
+      h = !isSet(prefix, b.bitIndex) ? b.left : b.right;
+    }
+    
+    // All keys in the sub-tree share the same prefix. It's
+    // enough to look at one of them.
+    if (!isPrefix(prefix, lengthInBits, followLeft(h).key)) {
+      return null;
+    }
+    
+    return h;
+  }
+  
+  @Override
+  public int size() {
+    return size;
+  }
+  
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+  
+  @Override
+  public Set<K> keySet() {
+    if (keySet == null) {
+      keySet = new KeySet();
+    }
+    return keySet;
+  }
+  
+  @Override
+  public Collection<V> values() {
+    if (values == null) {
+      values = new Values();
+    }
+    return values;
+  }
+  
+  @Override
+  public Map<K, V> prefixMap(K prefix, int lengthInBits) {
+    return new PrefixMap<K, V>(this, prefix, lengthInBits);
+  }
+  
+  @Override
+  public Entry<K, V> firstEntry() {
+    return followLeft(root);
+  }
+  
+  @Override
+  public Entry<K, V> lastEntry() {
+    return followRight(root);
+  }
+  
+  @Override
+  public Entry<K, V> ceilingEntry(K key) {
+    return navigate(key, true, true);
+  }
+  
+  @Override
+  public Entry<K, V> floorEntry(K key) {
+    return navigate(key, false, true);
+  }
+  
+  @Override
+  public Entry<K, V> higherEntry(K key) {
+    return navigate(key, true, false);
+  }
+  
+  @Override
+  public Entry<K, V> lowerEntry(K key) {
+    return navigate(key, false, false);
+  }
+  
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, boolean fromInclusive,
+      K toKey, boolean toInclusive) {
+    if (compare(fromKey, toKey) > 0) {
+      throw new IllegalArgumentException("fromKey > toKey");
+    }
+    
+    return new SubMap<K, V>(this, false, fromKey, fromInclusive,
+        false, toKey, toInclusive);
+  }
+  
+  @Override
+  public SortedMap<K, V> headMap(K toKey, boolean inclusive) {
+    return new SubMap<K, V>(this, true, null, false, false, toKey, inclusive);
+  }
+  
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey, boolean inclusive) {
+    return new SubMap<K, V>(this, false, fromKey, inclusive, true, null, false);
+  }
+  
+  /**
+   * Returns the first {@link Leaf} that is greater (or less if
+   * {@code higher} is {@code false}) than the given key or equal to
+   * it if {@code inclusive} is {@code true}.
+   *
+   * It walks down the key's path to the point where the key leaves the
+   * {@link Trie}. The answer is either the sub-tree right there or the
+   * closest sub-tree on the other side of one of the {@link Branch}es
+   * along the path.
+   */
+  private Leaf<K, V> navigate(K key, boolean higher, boolean inclusive) {
+    Leaf<K, V> closest = selectLeaf(key);
+    if (closest == null) {
+      return null;
+    }
+    
+    // The first bit where the key differs from the keys in
+    // the Trie or a negative value if it's in the Trie.
+    int index = isEqual(key, closest.key)
+        ? KeyAnalyzer.EQUAL_KEY : crit(key, closest.key);
+    
+    Deque<Branch<K, V>> path = new ArrayDeque<Branch<K, V>>();
+    Node<K, V> h = root;
+    
+    while (h instanceof Branch<?, ?>) {
+      Branch<K, V> b = (Branch<K, V>)h;
+      if (index >= 0 && b.bitIndex >= index) {
+        break;
+      }
+      
+      path.push(b);
+      h = !isSet(key, b.bitIndex) ? b.left : b.right;
+    }
+    
+    if (index < 0) {
+      if (inclusive) {
+        return (Leaf<K, V>)h;
+      }
+    
+    // The keys in the sub-tree are all greater (or less) than the key.
+    } else if (higher != isSet(key, index)) {
+      return higher ? followLeft(h) : followRight(h);
+    }
+    
+    // Walk back up and look at the other side of the Branches
+    for (Branch<K, V> b : path) {
+      if (higher) {
+        if (!isSet(key, b.bitIndex)) {
+          return followLeft(b.right);
+        }
+      } else if (isSet(key, b.bitIndex)) {
+        return followRight(b.left);
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Returns the left-most {@link Leaf} of the given {@link Node}.
+   */
+  private static <K, V> Leaf<K, V> followLeft(Node<K, V> h) {
+    if (h == null) {
+      return null;
+    }
+    
+    while (h instanceof Branch<?, ?>) {
+      h = ((Branch<K, V>)h).left;
+    }
+    return (Leaf<K, V>)h;
+  }
+  
+  /**
+   * Returns the right-most {@link Leaf} of the given {@link Node}.
+   */
+  private static <K, V> Leaf<K, V> followRight(Node<K, V> h) {
+    if (h == null) {
+      return null;
+    }
+    
+    while (h instanceof Branch<?, ?>) {
+      h = ((Branch<K, V>)h).right;
+    }
+    return (Leaf<K, V>)h;
+  }
+  
+  /**
+   * @see KeyAnalyzer#isSet(Object, int)
+   */
+  private boolean isSet(K key, int bitIndex) {
+    return key != null && keyAnalyzer.isSet(key, bitIndex);
+  }
+  
+  /**
+   * @see KeyAnalyzer#bitIndex(Object, Object)
+   */
+  private int bitIndex(K key, K otherKey) {
+    if (key == null) {
+      return KeyAnalyzer.NULL_KEY;
+    }
+    return keyAnalyzer.bitIndex(key, otherKey);
+  }
+  
+  /**
+   * Returns the first bit where the two keys differ or
+   * {@link KeyAnalyzer#EQUAL_KEY} if there is none. Unlike
+   * {@link #bitIndex(Object, Object)} it looks at the keys from
+   * both sides if the first one is all 0s.
+   */
+  private int crit(K key, K otherKey) {
+    int bitIndex = bitIndex(key, otherKey);
+    if (bitIndex == KeyAnalyzer.NULL_KEY) {
+      bitIndex = bitIndex(otherKey, key);
+      if (bitIndex == KeyAnalyzer.NULL_KEY) {
+        return KeyAnalyzer.EQUAL_KEY;
+      }
+    }
+    return bitIndex;
+  }
+  
+  /**
+   * Compares the two keys bit by bit (i.e. in the order of the {@link Trie}).
+   */
+  private int compare(K key, K otherKey) {
+    int bitIndex = crit(key, otherKey);
+    if (bitIndex == KeyAnalyzer.EQUAL_KEY) {
+      return 0;
+    }
+    
+    return isSet(key, bitIndex) ? 1 : -1;
+  }
+  
+  /**
+   * Returns {@code true} if the key shares the first {@code lengthInBits}
+   * bits with the given prefix.
+   */
+  private boolean isPrefix(K prefix, int lengthInBits, K key) {
+    if (lengthInBits <= 0) {
+      return true;
+    }
+    
+    int bitIndex = crit(prefix, key);
+    return bitIndex < 0 || bitIndex >= lengthInBits;
+  }
+  
+  /**
+   * @see KeyAnalyzer#isEqual(Object, Object)
+   */
+  @Override
+  boolean isEqual(K key, K otherKey) {
+    return keyAnalyzer.isEqual(key, otherKey);
+  }
+  
+  /**
+   * A read-only {@link Iterator} that walks the
+   * {@link PersistentPatriciaTrie} one {@link Leaf} at a time.
+   */
+  private static abstract class ViewIterator<K, V, E> implements Iterator<E> {
+    
+    private final Deque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
+    
+    private final SubMap<K, V> range;
+    
+    private Leaf<K, V> next;
+    
+    /**
+     * Creates a {@link ViewIterator} for the given sub-tree.
+     */
+    public ViewIterator(Node<K, V> h) {
+      this.range = null;
+      next = follow(h);
+    }
+    
+    /**
+     * Creates a {@link ViewIterator} that starts at the first {@link Leaf}
+     * of the given {@link SubMap} and ends at its upper bound.
+     */
+    public ViewIterator(SubMap<K, V> range) {
+      this.range = range;
+      
+      next = range.first();
+      if (next != null) {
+        // Push the right sides of the Branches along the path
+        PersistentPatriciaTrie<K, V> trie = range.trie;
+        K key = next.key;
+        Node<K, V> h = trie.root;
+        while (h instanceof Branch<?, ?>) {
+          Branch<K, V> b = (Branch<K, V>)h;
+          if (!trie.isSet(key, b.bitIndex)) {
+            stack.push(b.right);
+            h = b.left;
+          } else {
+            h = b.right;
+          }
+        }
+      }
+    }
+    
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+    
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      
+      Leaf<K, V> current = next;
+      next = follow(stack.poll());
+      
+      if (next != null && range != null && range.tooHigh(next.key)) {
+        next = null;
+      }
+      
+      return next(current);
+    }
+    
+    /**
+     * Called for each {@link Entry}.
+     *
+     * @see #next()
+     */
+    protected abstract E next(Entry<K, V> entry);
+    
+    /**
+     * Follows the left links from the given {@link Node} to the first
+     * {@link Leaf} and pushes the right links on the stack.
+     */
+    private Leaf<K, V> follow(Node<K, V> h) {
+      if (h == null) {
+        return null;
+      }
+      
+      while (h instanceof Branch<?, ?>) {
+        Branch<K, V> b = (Branch<K, V>)h;
+        stack.push(b.right);
+        h = b.left;
+      }
+      return (Leaf<K, V>)h;
+    }
+  }
+  
+  /**
+   * An abstract base class for the various views.
+   */
+  private abstract class AbstractView<E> extends AbstractCollection<E> {
+    
+    @Override
+    public int size() {
+      return PersistentPatriciaTrie.this.size();
+    }
+  }
+  
+  /**
+   * @see PersistentPatriciaTrie#entrySet()
+   */
+  private class EntrySet extends AbstractView<Entry<K, V>> implements Set<Entry<K, V>> {
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains(Object o) {
+      if (o instanceof Entry<?, ?>) {
+        Entry<K, V> entry = (Entry<K, V>)o;
+        Entry<K, V> other = entry(entry.getKey());
+        return other != null && AbstractTrie.equals(other.getValue(), entry.getValue());
+      }
+      return false;
+    }
+    
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      return new ViewIterator<K, V, Entry<K, V>>(root) {
+        @Override
+        protected Entry<K, V> next(Entry<K, V> entry) {
+          return entry;
+        }
+      };
+    }
+  }
+  
+  /**
+   * @see PersistentPatriciaTrie#keySet()
+   */
+  private class KeySet extends AbstractView<K> implements Set<K> {
+    
+    @Override
+    public boolean contains(Object o) {
+      return PersistentPatriciaTrie.this.containsKey(o);
+    }
+    
+    @Override
+    public Iterator<K> iterator() {
+      return new ViewIterator<K, V, K>(root) {
+        @Override
+        protected K next(Entry<K, V> entry) {
+          return entry.getKey();
+        }
+      };
+    }
+  }
+  
+  /**
+   * @see PersistentPatriciaTrie#values()
+   */
+  private class Values extends AbstractView<V> {
+    
+    @Override
+    public Iterator<V> iterator() {
+      return new ViewIterator<K, V, V>(root) {
+        @Override
+        protected V next(Entry<K, V> entry) {
+          return entry.getValue();
+        }
+      };
+    }
+  }
+  
+  /**
+   * A read-only view of the {@link Entry}s in a {@link PrefixMap} or
+   * {@link SubMap}.
+   */
+  private static abstract class RangeEntrySet<K, V> extends AbstractSet<Entry<K, V>> {
+    
+    @Override
+    public int size() {
+      int size = 0;
+      for (Iterator<Entry<K, V>> it = iterator(); it.hasNext(); it.next()) {
+        ++size;
+      }
+      return size;
+    }
+  }
+  
+  /**
+   * A read-only view of the keys that share a prefix.
+   *
+   * @see PersistentPatriciaTrie#prefixMap(Object, int)
+   */
+  static class PrefixMap<K, V> extends AbstractMap<K, V> {
+    
+    private final PersistentPatriciaTrie<K, V> trie;
+    
+    private final K prefix;
+    
+    private final int lengthInBits;
+    
+    private volatile Set<Entry<K, V>> entrySet = null;
+    
+    private PrefixMap(PersistentPatriciaTrie<K, V> trie,
+        K prefix, int lengthInBits) {
+      this.trie = trie;
+      this.prefix = prefix;
+      this.lengthInBits = lengthInBits;
+    }
+    
+    /**
+     * Returns a {@link PrefixMap} with the same prefix for the given
+     * {@link PersistentPatriciaTrie}.
+     */
+    PrefixMap<K, V> of(PersistentPatriciaTrie<K, V> trie) {
+      return new PrefixMap<K, V>(trie, prefix, lengthInBits);
+    }
+    
+    /**
+     * Returns {@code true} if the key has the prefix.
+     */
+    boolean inRange(K key) {
+      return trie.isPrefix(prefix, lengthInBits, key);
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return trie.prefixNode(prefix, lengthInBits) == null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      if (inRange((K)key)) {
+        return trie.get(key);
+      }
+      return null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return inRange((K)key) && trie.containsKey(key);
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new RangeEntrySet<K, V>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return new ViewIterator<K, V, Entry<K, V>>(
+                trie.prefixNode(prefix, lengthInBits)) {
+              @Override
+              protected Entry<K, V> next(Entry<K, V> entry) {
+                return entry;
+              }
+            };
+          }
+        };
+      }
+      return entrySet;
+    }
+  }
+  
+  /**
+   * A read-only view of the keys between two bounds.
+   *
+   * @see PersistentPatriciaTrie#subMap(Object, boolean, Object, boolean)
+   * @see PersistentPatriciaTrie#headMap(Object, boolean)
+   * @see PersistentPatriciaTrie#tailMap(Object, boolean)
+   */
+  static class SubMap<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+    
+    private final PersistentPatriciaTrie<K, V> trie;
+    
+    private final boolean fromStart;
+    
+    private final K fromKey;
+    
+    private final boolean fromInclusive;
+    
+    private final boolean toEnd;
+    
+    private final K toKey;
+    
+    private final boolean toInclusive;
+    
+    private volatile Set<Entry<K, V>> entrySet = null;
+    
+    private SubMap(PersistentPatriciaTrie<K, V> trie,
+        boolean fromStart, K fromKey, boolean fromInclusive,
+        boolean toEnd, K toKey, boolean toInclusive) {
+      this.trie = trie;
+      this.fromStart = fromStart;
+      this.fromKey = fromKey;
+      this.fromInclusive = fromInclusive;
+      this.toEnd = toEnd;
+      this.toKey = toKey;
+      this.toInclusive = toInclusive;
+    }
+    
+    /**
+     * Returns a {@link SubMap} with the same bounds for the given
+     * {@link PersistentPatriciaTrie}.
+     */
+    SubMap<K, V> of(PersistentPatriciaTrie<K, V> trie) {
+      return new SubMap<K, V>(trie, fromStart, fromKey, fromInclusive,
+          toEnd, toKey, toInclusive);
+    }
+    
+    /**
+     * Returns {@code true} if the key is below the lower bound.
+     */
+    private boolean tooLow(K key) {
+      if (!fromStart) {
+        int c = trie.compare(key, fromKey);
+        return c < 0 || (c == 0 && !fromInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is above the upper bound.
+     */
+    private boolean tooHigh(K key) {
+      if (!toEnd) {
+        int c = trie.compare(key, toKey);
+        return c > 0 || (c == 0 && !toInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is within the bounds.
+     */
+    boolean inRange(K key) {
+      return !tooLow(key) && !tooHigh(key);
+    }
+    
+    /**
+     * Returns {@code true} if the key is within the bounds
+     * including the bounds themselves.
+     */
+    private boolean inClosedRange(K key) {
+      return (fromStart || trie.compare(key, fromKey) >= 0)
+          && (toEnd || trie.compare(key, toKey) <= 0);
+    }
+    
+    /**
+     * Returns the first {@link Leaf} in the range or {@code null}.
+     */
+    private Leaf<K, V> first() {
+      Leaf<K, V> leaf = fromStart ? followLeft(trie.root)
+          : trie.navigate(fromKey, true, fromInclusive);
+      
+      if (leaf != null && tooHigh(leaf.key)) {
+        return null;
+      }
+      return leaf;
+    }
+    
+    /**
+     * Returns the last {@link Leaf} in the range or {@code null}.
+     */
+    private Leaf<K, V> last() {
+      Leaf<K, V> leaf = toEnd ? followRight(trie.root)
+          : trie.navigate(toKey, false, toInclusive);
+      
+      if (leaf != null && tooLow(leaf.key)) {
+        return null;
+      }
+      return leaf;
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+      return trie::compare;
+    }
+    
+    @Override
+    public K firstKey() {
+      Leaf<K, V> leaf = first();
+      if (leaf == null) {
+        throw new NoSuchElementException();
+      }
+      return leaf.key;
+    }
+    
+    @Override
+    public K lastKey() {
+      Leaf<K, V> leaf = last();
+      if (leaf == null) {
+        throw new NoSuchElementException();
+      }
+      return leaf.key;
+    }
+    
+    @Override
+    public SubMap<K, V> subMap(K fromKey, K toKey) {
+      if (!inClosedRange(fromKey)) {
+        throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+      }
+      
+      if (!inClosedRange(toKey)) {
+        throw new IllegalArgumentException("toKey out of range: " + toKey);
+      }
+      
+      if (trie.compare(fromKey, toKey) > 0) {
+        throw new IllegalArgumentException("fromKey > toKey");
+      }
+      
+      return new SubMap<K, V>(trie, false, fromKey, !tooLow(fromKey),
+          false, toKey, false);
+    }
+    
+    @Override
+    public SubMap<K, V> headMap(K toKey) {
+      if (!inClosedRange(toKey)) {
+        throw new IllegalArgumentException("toKey out of range: " + toKey);
+      }
+      
+      return new SubMap<K, V>(trie, fromStart, fromKey, fromInclusive,
+          false, toKey, false);
+    }
+    
+    @Override
+    public SubMap<K, V> tailMap(K fromKey) {
+      if (!inClosedRange(fromKey)) {
+        throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+      }
+      
+      return new SubMap<K, V>(trie, false, fromKey, !tooLow(fromKey),
+          toEnd, toKey, toInclusive);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      if (inRange((K)key)) {
+        return trie.get(key);
+      }
+      return null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return inRange((K)key) && trie.containsKey(key);
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return first() == null;
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new RangeEntrySet<K, V>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return new ViewIterator<K, V, Entry<K, V>>(SubMap.this) {
+              @Override
+              protected Entry<K, V> next(Entry<K, V> entry) {
+                return entry;
+              }
+            };
+          }
+        };
+      }
+      return entrySet;
+    }
+  }
+  
+  /**
+   * A node in the {@link PersistentPatriciaTrie}. It's either a
+   * {@link Branch} or a {@link Leaf}.
+   */
+  private static abstract class Node<K, V> implements Serializable {
+    
+    private static final long serialVersionUID = -4591725014722006335L;
+  }
+  
+  /**
+   * An inner {@link Node} that splits the keys at its bit index.
+   */
+  private static class Branch<K, V> extends Node<K, V> {
+    
+    private static final long serialVersionUID = 2384773785311380137L;
+    
+    private final int bitIndex;
+    
+    private final Node<K, V> left;
+    
+    private final Node<K, V> right;
+    
+    private Branch(int bitIndex, Node<K, V> left, Node<K, V> right) {
+      this.bitIndex = bitIndex;
+      this.left = left;
+      this.right = right;
+    }
+  }
+  
+  /**
+   * A {@link Node} that holds a key-value.
+   */
+  static class Leaf<K, V> extends Node<K, V> implements Entry<K, V> {
+    
+    private static final long serialVersionUID = -1566407624787098398L;
+    
+    private final K key;
+    
+    private final V value;
+    
+    private Leaf(K key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+    
+    @Override
+    public K getKey() {
+      return key;
+    }
+    
+    @Override
+    public V getValue() {
+      return value;
+    }
+    
+    /**
+     * The {@link Leaf}s are immutable and shared between versions.
+     *
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public V setValue(V value) {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public int hashCode() {
+      return 31 * (key != null ? key.hashCode() : 0)
+          + (value != null ? value.hashCode() : 0);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      } else if (!(o instanceof Entry<?, ?>)) {
+        return false;
+      }
+      
+      Entry<?, ?> other = (Entry<?, ?>)o;
+      return AbstractTrie.equals(key, other.getKey())
+        && AbstractTrie.equals(value, other.getValue());
+    }
+    
+    @Override
+    public String toString() {
+      return key + " -> " + value;
+    }
+  }
+}
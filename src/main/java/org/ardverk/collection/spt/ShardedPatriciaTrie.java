@@ -0,0 +1,830 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * A thread-safe PATRICIA {@link Trie} for write-heavy workloads.
+ *
+ * The {@link ShardedPatriciaTrie} splits the keys into 2^k
+ * {@link PatriciaTrie}s by their first k bits and each of them has its
+ * own lock. The first k bits are the most significant ones and the
+ * {@link Shard}s are therefore in the same order as the keys.
+ *
+ * NOTE: The operations that look at more than one {@link Shard} (such
+ * as {@link #size()} or {@link #traverse(Cursor)}) lock one {@link Shard}
+ * at a time and they're not atomic. The {@link Cursor}s are called with
+ * the {@link Shard}'s read lock held and must not modify the
+ * {@link ShardedPatriciaTrie}. The {@link Iterator}s copy a {@link Shard}'s
+ * {@link Entry}s when they get to it and their {@link Entry}s are read-only.
+ */
+public class ShardedPatriciaTrie<K, V> extends AbstractTrie<K, V> {
+  
+  private static final long serialVersionUID = 2110964416428101235L;
+  
+  /**
+   * The maximum number of bits that may be used to pick the {@link Shard}.
+   */
+  public static final int MAX_SHARD_BITS = 16;
+  
+  private final KeyAnalyzer<? super K> keyAnalyzer;
+  
+  private final int shardBits;
+  
+  private final Shard<K, V>[] shards;
+  
+  private transient volatile EntrySet entrySet = null;
+  
+  private transient volatile KeySet keySet = null;
+  
+  private transient volatile Values values = null;
+  
+  @SuppressWarnings("unchecked")
+  public ShardedPatriciaTrie(KeyAnalyzer<? super K> keyAnalyzer, int shardBits) {
+    if (shardBits < 0 || shardBits > MAX_SHARD_BITS) {
+      throw new IllegalArgumentException("shardBits=" + shardBits);
+    }
+    
+    this.keyAnalyzer = keyAnalyzer;
+    this.shardBits = shardBits;
+    
+    shards = (Shard<K, V>[])new Shard<?, ?>[1 << shardBits];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard<K, V>(keyAnalyzer);
+    }
+  }
+  
+  public ShardedPatriciaTrie(KeyAnalyzer<? super K> keyAnalyzer, int shardBits,
+      Map<? extends K, ? extends V> m) {
+    this(keyAnalyzer, shardBits);
+    
+    putAll(m);
+  }
+  
+  /**
+   * Returns the {@link KeyAnalyzer}.
+   */
+  public KeyAnalyzer<? super K> getKeyAnalyzer() {
+    return keyAnalyzer;
+  }
+  
+  /**
+   * Returns the number of bits that are used to pick the {@link Shard}.
+   */
+  public int getShardBits() {
+    return shardBits;
+  }
+  
+  /**
+   * Returns the index of the {@link Shard} for the given key.
+   */
+  private int shardIndex(K key) {
+    int index = 0;
+    for (int i = 0; i < shardBits; i++) {
+      index <<= 1;
+      if (key != null && keyAnalyzer.isSet(key, i)) {
+        index |= 1;
+      }
+    }
+    return index;
+  }
+  
+  /**
+   * Returns the {@link Shard} for the given key.
+   */
+  private Shard<K, V> shard(K key) {
+    return shards[shardIndex(key)];
+  }
+  
+  /**
+   * Applies the {@link Function} to the {@link Shard}'s {@link PatriciaTrie}
+   * with the {@link Shard}'s read lock held.
+   */
+  private static <K, V, T> T read(Shard<K, V> shard,
+      Function<? super PatriciaTrie<K, V>, T> function) {
+    Lock lock = shard.lock.readLock();
+    lock.lock();
+    try {
+      return function.apply(shard.trie);
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Applies the {@link Function} to the {@link Shard}'s {@link PatriciaTrie}
+   * with the {@link Shard}'s write lock held.
+   */
+  private static <K, V, T> T write(Shard<K, V> shard,
+      Function<? super PatriciaTrie<K, V>, T> function) {
+    Lock lock = shard.lock.writeLock();
+    lock.lock();
+    try {
+      return function.apply(shard.trie);
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  @Override
+  public Entry<K, V> select(K key) {
+    // The Shards in the order of their closeness to the key
+    int index = shardIndex(key);
+    for (int i = 0; i < shards.length; i++) {
+      Entry<K, V> entry = read(shards[index ^ i], (trie) -> copy(trie.select(key)));
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+  
+  @Override
+  public void select(K key, Cursor<? super K, ? super V> cursor) {
+    StopCursor c = new StopCursor(cursor);
+    
+    // The Shards in the order of their closeness to the key
+    int index = shardIndex(key);
+    for (int i = 0; i < shards.length && !c.stopped; i++) {
+      read(shards[index ^ i], (trie) -> {
+        trie.select(key, c);
+        return null;
+      });
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Override
+  public V get(Object key) {
+    return read(shard((K)key), (trie) -> trie.get(key));
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Override
+  public boolean containsKey(Object key) {
+    return read(shard((K)key), (trie) -> trie.containsKey(key));
+  }
+  
+  @Override
+  public V put(K key, V value) {
+    return write(shard(key), (trie) -> trie.put(key, value));
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Override
+  public V remove(Object key) {
+    return write(shard((K)key), (trie) -> trie.remove(key));
+  }
+  
+  @Override
+  public void traverse(Cursor<? super K, ? super V> cursor) {
+    StopCursor c = new StopCursor(cursor);
+    
+    for (int i = 0; i < shards.length && !c.stopped; i++) {
+      read(shards[i], (trie) -> {
+        trie.traverse(c);
+        return null;
+      });
+    }
+  }
+  
+  @Override
+  public void prefixTraverse(K prefix, int lengthInBits,
+      Cursor<? super K, ? super V> cursor) {
+    StopCursor c = new StopCursor(cursor);
+    
+    int toIndex = prefixToIndex(prefix, lengthInBits);
+    for (int i = prefixFromIndex(prefix, lengthInBits); i <= toIndex && !c.stopped; i++) {
+      read(shards[i], (trie) -> {
+        trie.prefixTraverse(prefix, lengthInBits, c);
+        return null;
+      });
+    }
+  }
+  
+  /**
+   * Returns the index of the first {@link Shard} whose keys may share
+   * the first {@code lengthInBits} bits with the given prefix.
+   */
+  private int prefixFromIndex(K prefix, int lengthInBits) {
+    if (lengthInBits <= 0) {
+      return 0;
+    }
+    
+    int shift = Math.max(shardBits - lengthInBits, 0);
+    return (shardIndex(prefix) >>> shift) << shift;
+  }
+  
+  /**
+   * Returns the index of the last {@link Shard} whose keys may share
+   * the first {@code lengthInBits} bits with the given prefix.
+   */
+  private int prefixToIndex(K prefix, int lengthInBits) {
+    if (lengthInBits <= 0) {
+      return shards.length-1;
+    }
+    
+    int shift = Math.max(shardBits - lengthInBits, 0);
+    return prefixFromIndex(prefix, lengthInBits) + (1 << shift) - 1;
+  }
+  
+  @Override
+  public void clear() {
+    for (Shard<K, V> shard : shards) {
+      write(shard, (trie) -> {
+        trie.clear();
+        return null;
+      });
+    }
+  }
+  
+  @Override
+  public int size() {
+    int size = 0;
+    for (Shard<K, V> shard : shards) {
+      size += read(shard, (trie) -> trie.size());
+    }
+    return size;
+  }
+  
+  @Override
+  public boolean isEmpty() {
+    for (Shard<K, V> shard : shards) {
+      if (!read(shard, (trie) -> trie.isEmpty())) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+  
+  @Override
+  public Set<K> keySet() {
+    if (keySet == null) {
+      keySet = new KeySet();
+    }
+    return keySet;
+  }
+  
+  @Override
+  public Collection<V> values() {
+    if (values == null) {
+      values = new Values();
+    }
+    return values;
+  }
+  
+  @Override
+  public Map<K, V> prefixMap(K prefix, int lengthInBits) {
+    return new RangeMap<Map<K, V>>(
+        prefixFromIndex(prefix, lengthInBits),
+        prefixToIndex(prefix, lengthInBits),
+        (trie) -> trie.prefixMap(prefix, lengthInBits));
+  }
+  
+  @Override
+  public Entry<K, V> firstEntry() {
+    return first(0, shards.length-1, (trie) -> trie.firstEntry());
+  }
+  
+  @Override
+  public Entry<K, V> lastEntry() {
+    return last(0, shards.length-1, (trie) -> trie.lastEntry());
+  }
+  
+  @Override
+  public Entry<K, V> ceilingEntry(K key) {
+    int index = shardIndex(key);
+    Entry<K, V> entry = read(shards[index], (trie) -> copy(trie.ceilingEntry(key)));
+    if (entry == null) {
+      entry = first(index+1, shards.length-1, (trie) -> trie.firstEntry());
+    }
+    return entry;
+  }
+  
+  @Override
+  public Entry<K, V> floorEntry(K key) {
+    int index = shardIndex(key);
+    Entry<K, V> entry = read(shards[index], (trie) -> copy(trie.floorEntry(key)));
+    if (entry == null) {
+      entry = last(0, index-1, (trie) -> trie.lastEntry());
+    }
+    return entry;
+  }
+  
+  @Override
+  public Entry<K, V> higherEntry(K key) {
+    int index = shardIndex(key);
+    Entry<K, V> entry = read(shards[index], (trie) -> copy(trie.higherEntry(key)));
+    if (entry == null) {
+      entry = first(index+1, shards.length-1, (trie) -> trie.firstEntry());
+    }
+    return entry;
+  }
+  
+  @Override
+  public Entry<K, V> lowerEntry(K key) {
+    int index = shardIndex(key);
+    Entry<K, V> entry = read(shards[index], (trie) -> copy(trie.lowerEntry(key)));
+    if (entry == null) {
+      entry = last(0, index-1, (trie) -> trie.lastEntry());
+    }
+    return entry;
+  }
+  
+  /**
+   * Returns a copy of the first {@link Entry} that the {@link Function}
+   * returns for the {@link Shard}s from {@code fromIndex} to {@code toIndex}.
+   */
+  private Entry<K, V> first(int fromIndex, int toIndex,
+      Function<PatriciaTrie<K, V>, Entry<K, V>> function) {
+    for (int i = fromIndex; i <= toIndex; i++) {
+      Entry<K, V> entry = read(shards[i], (trie) -> copy(function.apply(trie)));
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Returns a copy of the first {@link Entry} that the {@link Function}
+   * returns for the {@link Shard}s from {@code toIndex} down to {@code fromIndex}.
+   */
+  private Entry<K, V> last(int fromIndex, int toIndex,
+      Function<PatriciaTrie<K, V>, Entry<K, V>> function) {
+    for (int i = toIndex; i >= fromIndex; --i) {
+      Entry<K, V> entry = read(shards[i], (trie) -> copy(function.apply(trie)));
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+  
+  @Override
+  public Entry<K, V> pollFirstEntry() {
+    for (int i = 0; i < shards.length; i++) {
+      Entry<K, V> entry = write(shards[i], (trie) -> poll(trie, trie.firstEntry()));
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+  
+  @Override
+  public Entry<K, V> pollLastEntry() {
+    for (int i = shards.length-1; i >= 0; --i) {
+      Entry<K, V> entry = write(shards[i], (trie) -> poll(trie, trie.lastEntry()));
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Removes the given {@link Entry} from the {@link PatriciaTrie} and
+   * returns a copy of it.
+   */
+  private static <K, V> Entry<K, V> poll(PatriciaTrie<K, V> trie, Entry<K, V> entry) {
+    // The PatriciaTrie may reuse the Entry for another key-value
+    Entry<K, V> copy = copy(entry);
+    if (copy != null) {
+      trie.remove(copy.getKey());
+    }
+    return copy;
+  }
+  
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, boolean fromInclusive,
+      K toKey, boolean toInclusive) {
+    // Let the PatriciaTrie check the arguments
+    read(shards[0], (trie) -> trie.subMap(fromKey, fromInclusive, toKey, toInclusive));
+    
+    return new SubMap(shardIndex(fromKey), shardIndex(toKey),
+        (trie) -> trie.subMap(fromKey, fromInclusive, toKey, toInclusive));
+  }
+  
+  @Override
+  public SortedMap<K, V> headMap(K toKey, boolean inclusive) {
+    return new SubMap(0, shardIndex(toKey),
+        (trie) -> trie.headMap(toKey, inclusive));
+  }
+  
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey, boolean inclusive) {
+    return new SubMap(shardIndex(fromKey), shards.length-1,
+        (trie) -> trie.tailMap(fromKey, inclusive));
+  }
+  
+  /**
+   * Returns a read-only copy of the given {@link Entry}.
+   */
+  private static <K, V> Entry<K, V> copy(Entry<K, V> entry) {
+    if (entry == null) {
+      return null;
+    }
+    return new AbstractMap.SimpleImmutableEntry<K, V>(entry);
+  }
+  
+  /**
+   * @see KeyAnalyzer#isEqual(Object, Object)
+   */
+  @Override
+  boolean isEqual(K key, K otherKey) {
+    return keyAnalyzer.isEqual(key, otherKey);
+  }
+  
+  /**
+   * A {@link Shard} is a {@link PatriciaTrie} and its lock.
+   */
+  private static class Shard<K, V> implements Serializable {
+    
+    private static final long serialVersionUID = -1204526735658618453L;
+    
+    private final PatriciaTrie<K, V> trie;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private Shard(KeyAnalyzer<? super K> keyAnalyzer) {
+      this.trie = new PatriciaTrie<K, V>(keyAnalyzer);
+    }
+  }
+  
+  /**
+   * A {@link Cursor} that remembers if the given {@link Cursor} wanted
+   * to stop so the remaining {@link Shard}s can be skipped.
+   */
+  private class StopCursor implements Cursor<K, V> {
+    
+    private final Cursor<? super K, ? super V> cursor;
+    
+    private boolean stopped = false;
+    
+    public StopCursor(Cursor<? super K, ? super V> cursor) {
+      this.cursor = cursor;
+    }
+    
+    @Override
+    public boolean select(Entry<? extends K, ? extends V> entry) {
+      if (!cursor.select(entry)) {
+        stopped = true;
+        return false;
+      }
+      return true;
+    }
+  }
+  
+  /**
+   * An {@link Iterator} that walks the {@link Shard}s from {@code fromIndex}
+   * to {@code toIndex} and copies the {@link Entry}s of a {@link Shard}'s
+   * view when it gets to it.
+   */
+  private abstract class ViewIterator<E> implements Iterator<E> {
+    
+    private final Function<PatriciaTrie<K, V>, ? extends Map<K, V>> view;
+    
+    private final int toIndex;
+    
+    private int index;
+    
+    private Iterator<Entry<K, V>> it = Collections.emptyIterator();
+    
+    private Entry<K, V> current = null;
+    
+    public ViewIterator(int fromIndex, int toIndex,
+        Function<PatriciaTrie<K, V>, ? extends Map<K, V>> view) {
+      this.view = view;
+      this.index = fromIndex;
+      this.toIndex = toIndex;
+    }
+    
+    @Override
+    public boolean hasNext() {
+      while (!it.hasNext() && index <= toIndex) {
+        it = read(shards[index++], (trie) -> copy(view.apply(trie)));
+      }
+      return it.hasNext();
+    }
+    
+    /**
+     * Returns an {@link Iterator} over a copy of the given view.
+     */
+    private Iterator<Entry<K, V>> copy(Map<K, V> map) {
+      if (map.isEmpty()) {
+        return Collections.emptyIterator();
+      }
+      
+      List<Entry<K, V>> entries = new ArrayList<Entry<K, V>>(map.size());
+      for (Entry<K, V> entry : map.entrySet()) {
+        entries.add(ShardedPatriciaTrie.copy(entry));
+      }
+      return entries.iterator();
+    }
+    
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      
+      current = it.next();
+      return next(current);
+    }
+    
+    /**
+     * Called for each {@link Entry}.
+     *
+     * @see #next()
+     */
+    protected abstract E next(Entry<K, V> entry);
+    
+    @Override
+    public void remove() {
+      if (current == null) {
+        throw new IllegalStateException();
+      }
+      
+      ShardedPatriciaTrie.this.remove(current.getKey());
+      current = null;
+    }
+  }
+  
+  /**
+   * An abstract base class for the various views.
+   */
+  private abstract class AbstractView<E> extends AbstractCollection<E> {
+    
+    @Override
+    public void clear() {
+      ShardedPatriciaTrie.this.clear();
+    }
+    
+    @Override
+    public int size() {
+      return ShardedPatriciaTrie.this.size();
+    }
+  }
+  
+  /**
+   * @see ShardedPatriciaTrie#entrySet()
+   */
+  private class EntrySet extends AbstractView<Entry<K, V>> implements Set<Entry<K, V>> {
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains(Object o) {
+      if (o instanceof Entry<?, ?>) {
+        Entry<K, V> entry = (Entry<K, V>)o;
+        return read(shard(entry.getKey()), (trie) -> trie.entrySet().contains(entry));
+      }
+      return false;
+    }
+    
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      return new ViewIterator<Entry<K, V>>(0, shards.length-1, (trie) -> trie) {
+        @Override
+        protected Entry<K, V> next(Entry<K, V> entry) {
+          return entry;
+        }
+      };
+    }
+  }
+  
+  /**
+   * @see ShardedPatriciaTrie#keySet()
+   */
+  private class KeySet extends AbstractView<K> implements Set<K> {
+    
+    @Override
+    public boolean contains(Object o) {
+      return ShardedPatriciaTrie.this.containsKey(o);
+    }
+    
+    @Override
+    public Iterator<K> iterator() {
+      return new ViewIterator<K>(0, shards.length-1, (trie) -> trie) {
+        @Override
+        protected K next(Entry<K, V> entry) {
+          return entry.getKey();
+        }
+      };
+    }
+  }
+  
+  /**
+   * @see ShardedPatriciaTrie#values()
+   */
+  private class Values extends AbstractView<V> {
+    
+    @Override
+    public Iterator<V> iterator() {
+      return new ViewIterator<V>(0, shards.length-1, (trie) -> trie) {
+        @Override
+        protected V next(Entry<K, V> entry) {
+          return entry.getValue();
+        }
+      };
+    }
+  }
+  
+  /**
+   * A view of the {@link Shard}s from {@code fromIndex} to {@code toIndex}.
+   * The views of the {@link Shard}s' {@link PatriciaTrie}s check the bounds.
+   */
+  private class RangeMap<M extends Map<K, V>> extends AbstractMap<K, V> {
+    
+    protected final int fromIndex;
+    
+    protected final int toIndex;
+    
+    protected final Function<PatriciaTrie<K, V>, M> view;
+    
+    private volatile Set<Entry<K, V>> entrySet = null;
+    
+    public RangeMap(int fromIndex, int toIndex,
+        Function<PatriciaTrie<K, V>, M> view) {
+      this.fromIndex = fromIndex;
+      this.toIndex = toIndex;
+      this.view = view;
+    }
+    
+    @Override
+    public V put(K key, V value) {
+      return write(shard(key), (trie) -> view.apply(trie).put(key, value));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      return read(shard((K)key), (trie) -> view.apply(trie).get(key));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key) {
+      return read(shard((K)key), (trie) -> view.apply(trie).containsKey(key));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key) {
+      return write(shard((K)key), (trie) -> view.apply(trie).remove(key));
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      for (int i = fromIndex; i <= toIndex; i++) {
+        if (!read(shards[i], (trie) -> view.apply(trie).isEmpty())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new AbstractSet<Entry<K, V>>() {
+          @Override
+          public Iterator<Entry<K, V>> iterator() {
+            return new ViewIterator<Entry<K, V>>(fromIndex, toIndex, view) {
+              @Override
+              protected Entry<K, V> next(Entry<K, V> entry) {
+                return entry;
+              }
+            };
+          }
+          
+          @Override
+          public int size() {
+            int size = 0;
+            for (int i = fromIndex; i <= toIndex; i++) {
+              size += read(shards[i], (trie) -> view.apply(trie).size());
+            }
+            return size;
+          }
+        };
+      }
+      return entrySet;
+    }
+  }
+  
+  /**
+   * @see ShardedPatriciaTrie#subMap(Object, boolean, Object, boolean)
+   * @see ShardedPatriciaTrie#headMap(Object, boolean)
+   * @see ShardedPatriciaTrie#tailMap(Object, boolean)
+   */
+  private class SubMap extends RangeMap<SortedMap<K, V>> implements SortedMap<K, V> {
+    
+    public SubMap(int fromIndex, int toIndex,
+        Function<PatriciaTrie<K, V>, SortedMap<K, V>> view) {
+      super(fromIndex, toIndex, view);
+    }
+    
+    @Override
+    public Comparator<? super K> comparator() {
+      return read(shards[fromIndex], (trie) -> view.apply(trie).comparator());
+    }
+    
+    @Override
+    public K firstKey() {
+      for (int i = fromIndex; i <= toIndex; i++) {
+        // The key may be null and it's therefore in a List
+        List<K> key = read(shards[i], (trie) -> {
+          SortedMap<K, V> map = view.apply(trie);
+          return !map.isEmpty() ? Collections.singletonList(map.firstKey()) : null;
+        });
+        
+        if (key != null) {
+          return key.get(0);
+        }
+      }
+      throw new NoSuchElementException();
+    }
+    
+    @Override
+    public K lastKey() {
+      for (int i = toIndex; i >= fromIndex; --i) {
+        // The key may be null and it's therefore in a List
+        List<K> key = read(shards[i], (trie) -> {
+          SortedMap<K, V> map = view.apply(trie);
+          return !map.isEmpty() ? Collections.singletonList(map.lastKey()) : null;
+        });
+        
+        if (key != null) {
+          return key.get(0);
+        }
+      }
+      throw new NoSuchElementException();
+    }
+    
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+      // Let the PatriciaTrie check the arguments
+      read(shards[fromIndex], (trie) -> view.apply(trie).subMap(fromKey, toKey));
+      
+      return new SubMap(
+          Math.max(fromIndex, shardIndex(fromKey)),
+          Math.min(toIndex, shardIndex(toKey)),
+          (trie) -> view.apply(trie).subMap(fromKey, toKey));
+    }
+    
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+      read(shards[fromIndex], (trie) -> view.apply(trie).headMap(toKey));
+      
+      return new SubMap(fromIndex, Math.min(toIndex, shardIndex(toKey)),
+          (trie) -> view.apply(trie).headMap(toKey));
+    }
+    
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+      read(shards[fromIndex], (trie) -> view.apply(trie).tailMap(fromKey));
+      
+      return new SubMap(Math.max(fromIndex, shardIndex(fromKey)), toIndex,
+          (trie) -> view.apply(trie).tailMap(fromKey));
+    }
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Trie} for read-mostly workloads.
+ *
+ * The writers modify a private {@link PatriciaTrie} under a lock and
+ * the {@link SnapshotTrie} publishes its content as a read-only
+ * {@link PersistentPatriciaTrie} at most once per publish interval
+ * (or whenever {@link #publish()} is called). The readers look only
+ * at the published {@link PersistentPatriciaTrie} and don't coordinate
+ * with the writers or with each other.
+ *
+ * NOTE: The readers don't see the writes until they're published. A
+ * {@link #put(Object, Object)} returns the previous value of the
+ * private {@link PatriciaTrie} but a {@link #get(Object)} right after
+ * it may still return the published value. The views are read-only
+ * views of the published {@link PersistentPatriciaTrie}.
+ */
+public class SnapshotTrie<K, V> extends AbstractTrie<K, V> {
+  
+  private static final long serialVersionUID = -6000264137493744853L;
+  
+  private final KeyAnalyzer<? super K> keyAnalyzer;
+  
+  private final long publishInterval;
+  
+  /**
+   * The private {@link PatriciaTrie} of the writers.
+   */
+  private final PatriciaTrie<K, V> trie;
+  
+  /**
+   * The keys that were modified since the last publish.
+   */
+  private final PatriciaTrie<K, Boolean> modified;
+  
+  private volatile PersistentPatriciaTrie<K, V> published;
+  
+  private boolean cleared = false;
+  
+  private volatile long publishCount = 0L;
+  
+  private volatile long lastPublish = System.nanoTime();
+  
+  private volatile long firstPendingWrite = 0L;
+  
+  private volatile int pendingWrites = 0;
+  
+  public SnapshotTrie(KeyAnalyzer<? super K> keyAnalyzer,
+      long publishInterval, TimeUnit unit) {
+    this.keyAnalyzer = keyAnalyzer;
+    this.publishInterval = unit.toNanos(publishInterval);
+    this.trie = new PatriciaTrie<K, V>(keyAnalyzer);
+    this.modified = new PatriciaTrie<K, Boolean>(keyAnalyzer);
+    this.published = new PersistentPatriciaTrie<K, V>(keyAnalyzer);
+  }
+  
+  public SnapshotTrie(KeyAnalyzer<? super K> keyAnalyzer,
+      long publishInterval, TimeUnit unit, Map<? extends K, ? extends V> m) {
+    this(keyAnalyzer, publishInterval, unit);
+    
+    putAll(m);
+    publish();
+  }
+  
+  /**
+   * Returns the {@link KeyAnalyzer}.
+   */
+  public KeyAnalyzer<? super K> getKeyAnalyzer() {
+    return keyAnalyzer;
+  }
+  
+  /**
+   * Returns the publish interval in the given {@link TimeUnit}.
+   */
+  public long getPublishInterval(TimeUnit unit) {
+    return unit.convert(publishInterval, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Returns the number of writes that aren't published yet.
+   */
+  public int getPendingWrites() {
+    return pendingWrites;
+  }
+  
+  /**
+   * Returns how long the oldest write that isn't published yet has
+   * been waiting or 0 if there is none.
+   */
+  public long getStaleness(TimeUnit unit) {
+    if (pendingWrites == 0) {
+      return 0L;
+    }
+    return unit.convert(System.nanoTime() - firstPendingWrite, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Returns how long ago the last publish happened.
+   */
+  public long getTimeSincePublish(TimeUnit unit) {
+    return unit.convert(System.nanoTime() - lastPublish, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Returns the number of publishes.
+   */
+  public long getPublishCount() {
+    return publishCount;
+  }
+  
+  /**
+   * Returns the published {@link PersistentPatriciaTrie}.
+   */
+  public PersistentPatriciaTrie<K, V> snapshot() {
+    return published;
+  }
+  
+  /**
+   * Publishes the pending writes. It copies only the paths to the
+   * modified keys and the new {@link PersistentPatriciaTrie} shares
+   * all other nodes with the previous one.
+   */
+  public synchronized void publish() {
+    PersistentPatriciaTrie<K, V> next = published;
+    
+    if (cleared) {
+      next = new PersistentPatriciaTrie<K, V>(keyAnalyzer);
+      cleared = false;
+    }
+    
+    for (K key : modified.keySet()) {
+      Entry<K, V> entry = trie.entry(key);
+      next = entry != null ? next.with(key, entry.getValue())
+          : next.without(key);
+    }
+    
+    modified.clear();
+    pendingWrites = 0;
+    lastPublish = System.nanoTime();
+    
+    published = next;
+    ++publishCount;
+  }
+  
+  /**
+   * Schedules a task that publishes the pending writes once per
+   * publish interval. Cancel the returned {@link ScheduledFuture}
+   * to stop it.
+   */
+  public ScheduledFuture<?> schedule(ScheduledExecutorService executor) {
+    return executor.scheduleWithFixedDelay(() -> {
+      if (pendingWrites != 0) {
+        publish();
+      }
+    }, publishInterval, publishInterval, TimeUnit.NANOSECONDS);
+  }
+  
+  /**
+   * Records a write to the given key.
+   */
+  private void modified(K key) {
+    modified.put(key, Boolean.TRUE);
+    pending();
+  }
+  
+  /**
+   * Counts a write and publishes the pending writes if the publish
+   * interval has elapsed.
+   */
+  private void pending() {
+    if (pendingWrites++ == 0) {
+      firstPendingWrite = System.nanoTime();
+    }
+    
+    if (System.nanoTime() - lastPublish >= publishInterval) {
+      publish();
+    }
+  }
+  
+  @Override
+  public synchronized V put(K key, V value) {
+    V existing = trie.put(key, value);
+    modified(key);
+    return existing;
+  }
+  
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized V remove(Object key) {
+    Entry<K, V> entry = trie.entry((K)key);
+    if (entry == null) {
+      return null;
+    }
+    
+    // The PatriciaTrie clears the Entry in place if it's the root
+    V value = entry.getValue();
+    trie.remove(key);
+    modified((K)key);
+    return value;
+  }
+  
+  @Override
+  public synchronized Entry<K, V> pollFirstEntry() {
+    return poll(trie.firstEntry());
+  }
+  
+  @Override
+  public synchronized Entry<K, V> pollLastEntry() {
+    return poll(trie.lastEntry());
+  }
+  
+  /**
+   * Removes the given {@link Entry} from the private {@link PatriciaTrie}
+   * and returns a copy of it.
+   */
+  private Entry<K, V> poll(Entry<K, V> entry) {
+    if (entry == null) {
+      return null;
+    }
+    
+    // The PatriciaTrie may reuse the Entry for another key-value
+    Entry<K, V> copy = new AbstractMap.SimpleImmutableEntry<K, V>(entry);
+    trie.remove(copy.getKey());
+    modified(copy.getKey());
+    return copy;
+  }
+  
+  @Override
+  public synchronized void clear() {
+    trie.clear();
+    modified.clear();
+    cleared = true;
+    pending();
+  }
+  
+  @Override
+  public Entry<K, V> select(K key) {
+    return published.select(key);
+  }
+  
+  @Override
+  public void select(K key, Cursor<? super K, ? super V> cursor) {
+    published.select(key, cursor);
+  }
+  
+  @Override
+  public void traverse(Cursor<? super K, ? super V> cursor) {
+    published.traverse(cursor);
+  }
+  
+  @Override
+  public void prefixTraverse(K prefix, int lengthInBits,
+      Cursor<? super K, ? super V> cursor) {
+    published.prefixTraverse(prefix, lengthInBits, cursor);
+  }
+  
+  @Override
+  public int size() {
+    return published.size();
+  }
+  
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return published.entrySet();
+  }
+  
+  @Override
+  public Set<K> keySet() {
+    return published.keySet();
+  }
+  
+  @Override
+  public Collection<V> values() {
+    return published.values();
+  }
+  
+  @Override
+  public Map<K, V> prefixMap(K prefix, int lengthInBits) {
+    return published.prefixMap(prefix, lengthInBits);
+  }
+  
+  @Override
+  public Entry<K, V> firstEntry() {
+    return published.firstEntry();
+  }
+  
+  @Override
+  public Entry<K, V> lastEntry() {
+    return published.lastEntry();
+  }
+  
+  @Override
+  public Entry<K, V> ceilingEntry(K key) {
+    return published.ceilingEntry(key);
+  }
+  
+  @Override
+  public Entry<K, V> floorEntry(K key) {
+    return published.floorEntry(key);
+  }
+  
+  @Override
+  public Entry<K, V> higherEntry(K key) {
+    return published.higherEntry(key);
+  }
+  
+  @Override
+  public Entry<K, V> lowerEntry(K key) {
+    return published.lowerEntry(key);
+  }
+  
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, boolean fromInclusive,
+      K toKey, boolean toInclusive) {
+    return published.subMap(fromKey, fromInclusive, toKey, toInclusive);
+  }
+  
+  @Override
+  public SortedMap<K, V> headMap(K toKey, boolean inclusive) {
+    return published.headMap(toKey, inclusive);
+  }
+  
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey, boolean inclusive) {
+    return published.tailMap(fromKey, inclusive);
+  }
+  
+  /**
+   * @see KeyAnalyzer#isEqual(Object, Object)
+   */
+  @Override
+  boolean isEqual(K key, K otherKey) {
+    return keyAnalyzer.isEqual(key, otherKey);
+  }
+}
@@ -60,6 +60,46 @@ public interface Trie<K, V> extends Map<K, V> {
    */
   public K lastKey();
   
+  /**
+   * @see NavigableMap#ceilingEntry(Object)
+   */
+  public Map.Entry<K, V> ceilingEntry(K key);
+  
+  /**
+   * @see NavigableMap#ceilingKey(Object)
+   */
+  public K ceilingKey(K key);
+  
+  /**
+   * @see NavigableMap#floorEntry(Object)
+   */
+  public Map.Entry<K, V> floorEntry(K key);
+  
+  /**
+   * @see NavigableMap#floorKey(Object)
+   */
+  public K floorKey(K key);
+  
+  /**
+   * @see NavigableMap#higherEntry(Object)
+   */
+  public Map.Entry<K, V> higherEntry(K key);
+  
+  /**
+   * @see NavigableMap#higherKey(Object)
+   */
+  public K higherKey(K key);
+  
+  /**
+   * @see NavigableMap#lowerEntry(Object)
+   */
+  public Map.Entry<K, V> lowerEntry(K key);
+  
+  /**
+   * @see NavigableMap#lowerKey(Object)
+   */
+  public K lowerKey(K key);
+  
   /**
    * @see NavigableMap#pollFirstEntry()
    */
@@ -70,6 +110,37 @@ public interface Trie<K, V> extends Map<K, V> {
    */
   public Map.Entry<K, V> pollLastEntry();
   
+  /**
+   * @see SortedMap#subMap(Object, Object)
+   */
+  public SortedMap<K, V> subMap(K fromKey, K toKey);
+  
+  /**
+   * @see NavigableMap#subMap(Object, boolean, Object, boolean)
+   */
+  public SortedMap<K, V> subMap(K fromKey, boolean fromInclusive, 
+      K toKey, boolean toInclusive);
+  
+  /**
+   * @see SortedMap#headMap(Object)
+   */
+  public SortedMap<K, V> headMap(K toKey);
+  
+  /**
+   * @see NavigableMap#headMap(Object, boolean)
+   */
+  public SortedMap<K, V> headMap(K toKey, boolean inclusive);
+  
+  /**
+   * @see SortedMap#tailMap(Object)
+   */
+  public SortedMap<K, V> tailMap(K fromKey);
+  
+  /**
+   * @see NavigableMap#tailMap(Object, boolean)
+   */
+  public SortedMap<K, V> tailMap(K fromKey, boolean inclusive);
+  
   /**
    * Traverses the {@link Trie} by closeness to the given key.
    */
@@ -80,4 +151,17 @@ public interface Trie<K, V> extends Map<K, V> {
    * {@link #lastEntry()}
    */
   public void traverse(Cursor<? super K, ? super V> cursor);
+  
+  /**
+   * Returns a view of all entries whose keys share the first 
+   * {@code lengthInBits} bits with the given prefix.
+   */
+  public Map<K, V> prefixMap(K prefix, int lengthInBits);
+  
+  /**
+   * Traverses all entries whose keys share the first {@code lengthInBits} 
+   * bits with the given prefix.
+   */
+  public void prefixTraverse(K prefix, int lengthInBits, 
+      Cursor<? super K, ? super V> cursor);
 }
@@ -0,0 +1,1317 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.ints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import org.ardverk.collection.spt.IntegerKeyAnalyzer;
+import org.ardverk.collection.spt.KeyAnalyzer;
+
+/**
+ * An abstract {@link IntTrie} that is the same as the {@link PatriciaIntTrie}
+ * but without {@link Entry} objects for its nodes. A node is an index into 
+ * some storage (e.g. arrays or a buffer) and its links are the indices of 
+ * other nodes. The node at index 0 is the root.
+ * 
+ * The storage grows by half of its size when it's full and removed 
+ * nodes are being re-used for new mappings.
+ * 
+ * NOTE: The {@link Entry}s that are being returned by the 
+ * {@link AbstractCompactIntTrie} are views of its nodes. Don't hold 
+ * on to them as they may change their key and value once they've 
+ * been removed.
+ * 
+ * @see CompactIntTrie
+ * @see OffHeapIntTrie
+ */
+abstract class AbstractCompactIntTrie extends AbstractIntTrie {
+  
+  private static final long serialVersionUID = 4587212740946096207L;
+  
+  /**
+   * The index of the root node.
+   */
+  static final int ROOT = 0;
+  
+  /**
+   * The index of no node.
+   */
+  static final int NULL = -1;
+  
+  /**
+   * Whether or not the root node has no key-value.
+   */
+  private boolean empty = true;
+  
+  private int size = 0;
+  
+  /**
+   * The index of the first node that has never been used.
+   */
+  private int next = ROOT + 1;
+  
+  /**
+   * A list of removed nodes (linked through their left link) that
+   * are being re-used by {@link #newNode(int, int, int)}.
+   */
+  private int free = NULL;
+  
+  /**
+   * Returns the number of nodes the storage can hold.
+   */
+  abstract int length();
+  
+  /**
+   * Resizes the storage to the given number of nodes. It keeps the 
+   * first {@code length} nodes (or all of them if it grows).
+   */
+  abstract void resize(int length);
+  
+  abstract int getBitIndex(int node);
+  
+  abstract void setBitIndex(int node, int bitIndex);
+  
+  abstract int getKey(int node);
+  
+  abstract void setKey(int node, int key);
+  
+  abstract int getValue(int node);
+  
+  abstract void setValue(int node, int value);
+  
+  abstract int getLeft(int node);
+  
+  abstract void setLeft(int node, int left);
+  
+  abstract int getRight(int node);
+  
+  abstract void setRight(int node, int right);
+  
+  /**
+   * Initializes the root node. It's pointing up to itself.
+   */
+  void initRoot() {
+    setBitIndex(ROOT, -1);
+    setKey(ROOT, -1);
+    setValue(ROOT, -1);
+    setLeft(ROOT, ROOT);
+    setRight(ROOT, NULL);
+    empty = true;
+  }
+  
+  /**
+   * Returns the number of nodes that are or were in use. The nodes 
+   * at and after the returned index have never been used.
+   */
+  int used() {
+    return next;
+  }
+  
+  /**
+   * Returns the number of mappings the {@link IntTrie} can hold
+   * before its storage needs to grow.
+   */
+  public int capacity() {
+    return length() - 1;
+  }
+  
+  /**
+   * Shrinks the storage to the number of nodes that are in use. The
+   * removed nodes are being moved to the end of the storage first.
+   */
+  public void trimToSize() {
+    if (free != NULL) {
+      compact();
+    }
+    
+    int length = Math.max(next, ROOT + 2);
+    if (length < length()) {
+      resize(length);
+    }
+  }
+  
+  @Override
+  public Entry select(int key) {
+    int node = selectNode(key);
+    if (!isEmptyNode(node)) {
+      return new NodeEntry(node);
+    }
+    return null;
+  }
+  
+  /**
+   * Follows the key's bits from the root to the node that is
+   * closest to the key.
+   */
+  private int selectNode(int key) {
+    int h = getLeft(ROOT);
+    int bitIndex = -1;
+    
+    while (getBitIndex(h) > bitIndex) {
+      bitIndex = getBitIndex(h);
+      h = !isSet(key, bitIndex) ? getLeft(h) : getRight(h);
+    }
+    
+    return h;
+  }
+  
+  /**
+   * Returns the node for the given key or {@link #NULL}.
+   */
+  private int node(int key) {
+    int node = selectNode(key);
+    if (!isEmptyNode(node) && getKey(node) == key) {
+      return node;
+    }
+    return NULL;
+  }
+  
+  @Override
+  public int get(int key) {
+    int node = node(key);
+    return node != NULL ? getValue(node) : -1;
+  }
+  
+  @Override
+  public int getOrDefault(int key, int defaultValue) {
+    int node = node(key);
+    return node != NULL ? getValue(node) : defaultValue;
+  }
+  
+  @Override
+  public long find(int key) {
+    int node = node(key);
+    return node != NULL ? (getValue(node) & 0xFFFFFFFFL) : NOT_FOUND;
+  }
+  
+  @Override
+  public boolean containsKey(int key) {
+    return node(key) != NULL;
+  }
+  
+  @Override
+  public int put(int key, int value) {
+    // This is a shortcut! The root is the only place to store null!
+    if (key == 0) {
+      return putForNullKey(key, value);
+    }
+    
+    int node = selectNode(key);
+    int existing = 0;
+    if (!isEmptyNode(node)) {
+      existing = getKey(node);
+      if (equals(key, existing)) {
+        return replaceValue(node, value);
+      }
+    }
+    
+    int bitIndex = bitIndex(key, existing);
+    if (bitIndex == KeyAnalyzer.NULL_KEY) {
+      return putForNullKey(key, value);
+    }
+    
+    assert (bitIndex >= 0);
+    insert(key, value, bitIndex);
+    ++size;
+    
+    return -1;
+  }
+  
+  private int putForNullKey(int key, int value) {
+    if (empty) {
+      empty = false;
+      ++size;
+    }
+    
+    setKey(ROOT, key);
+    return replaceValue(ROOT, value);
+  }
+  
+  /**
+   * Inserts a new node for the given key-value where the key
+   * differs at the given bit index from the closest existing key.
+   */
+  private void insert(int key, int value, int bitIndex) {
+    int p = ROOT;
+    int h = getLeft(ROOT);
+    boolean isRight = false;
+    
+    while (getBitIndex(h) < bitIndex && getBitIndex(h) > getBitIndex(p)) {
+      p = h;
+      isRight = isSet(key, getBitIndex(h));
+      h = !isRight ? getLeft(h) : getRight(h);
+    }
+    
+    int t = newNode(key, value, bitIndex);
+    
+    boolean isSet = isSet(key, bitIndex);
+    setLeft(t, isSet ? h : t);
+    setRight(t, isSet ? t : h);
+    
+    if (!isRight) {
+      setLeft(p, t);
+    } else {
+      setRight(p, t);
+    }
+  }
+  
+  @Override
+  public int remove(int key) {
+    int node = node(key);
+    if (node != NULL) {
+      return removeNode(node);
+    }
+    
+    return -1;
+  }
+  
+  /**
+   * Removes the given node from the {@link AbstractCompactIntTrie}.
+   * 
+   * @see PatriciaIntTrie#remove(int)
+   */
+  private int removeNode(int node) {
+    // This is a shortcut! The root is the only place to store null!
+    if (node == ROOT) {
+      if (empty) {
+        return -1;
+      }
+      
+      int existing = replaceValue(ROOT, -1);
+      setKey(ROOT, -1);
+      empty = true;
+      
+      --size;
+      return existing;
+    }
+    
+    int key = getKey(node);
+    
+    // Walk down to the uplink that points to the node. Along the way
+    // we're keeping track of the node's parent (the one with the downlink
+    // to the node), the node with the uplink (p) and its parent (pp).
+    int parent = NULL;
+    int pp = ROOT;
+    int p = ROOT;
+    int h = getLeft(ROOT);
+    
+    while (getBitIndex(h) > getBitIndex(p)) {
+      if (h == node) {
+        parent = p;
+      }
+      
+      pp = p;
+      p = h;
+      h = !isSet(key, getBitIndex(h)) ? getLeft(h) : getRight(h);
+    }
+    
+    if (h != node) {
+      return -1;
+    }
+    
+    // The link of p that is NOT pointing up to the node
+    int other = !isSet(key, getBitIndex(p)) ? getRight(p) : getLeft(p);
+    
+    if (p == node) {
+      // The node is pointing up to itself. Replace the downlink
+      // from its parent with the node's other link.
+      replace(parent, node, other);
+    
+    } else {
+      // Remove p from its current position and move it into the
+      // position of the node that is being removed.
+      replace(pp, p, other);
+      
+      setBitIndex(p, getBitIndex(node));
+      setLeft(p, getLeft(node));
+      setRight(p, getRight(node));
+      replace(parent, node, p);
+    }
+    
+    int value = getValue(node);
+    freeNode(node);
+    
+    --size;
+    return value;
+  }
+  
+  /**
+   * Replaces the link from the parent node to the existing node
+   * with a link to the replacement node.
+   */
+  private void replace(int parent, int existing, int replacement) {
+    if (getLeft(parent) == existing) {
+      setLeft(parent, replacement);
+    } else {
+      setRight(parent, replacement);
+    }
+  }
+  
+  /**
+   * Returns a new node or takes one from the free list.
+   * 
+   * @see #freeNode(int)
+   */
+  private int newNode(int key, int value, int bitIndex) {
+    int node = free;
+    if (node != NULL) {
+      free = getLeft(node);
+    } else {
+      int length = length();
+      if (next == length) {
+        resize(length + (length >>> 1));
+      }
+      node = next++;
+    }
+    
+    setBitIndex(node, bitIndex);
+    setKey(node, key);
+    setValue(node, value);
+    setLeft(node, NULL);
+    setRight(node, NULL);
+    return node;
+  }
+  
+  /**
+   * Adds the given node to the free list.
+   * 
+   * @see #newNode(int, int, int)
+   */
+  private void freeNode(int node) {
+    setBitIndex(node, NULL);
+    setRight(node, NULL);
+    setLeft(node, free);
+    free = node;
+  }
+  
+  /**
+   * Moves the nodes in use into the slots of the removed nodes and
+   * empties the free list.
+   */
+  void compact() {
+    // The new index of each node
+    int[] index = new int[next];
+    for (int i = 0; i < next; i++) {
+      index[i] = i;
+    }
+    
+    // Move the last node in use into the first free slot until 
+    // all free slots are at the end. The free slots have a bit 
+    // index of -1.
+    int slot = ROOT + 1;
+    int last = next - 1;
+    
+    while (true) {
+      while (last > ROOT && getBitIndex(last) == NULL) {
+        --last;
+      }
+      
+      while (slot < last && getBitIndex(slot) != NULL) {
+        ++slot;
+      }
+      
+      if (slot >= last) {
+        break;
+      }
+      
+      setBitIndex(slot, getBitIndex(last));
+      setKey(slot, getKey(last));
+      setValue(slot, getValue(last));
+      setLeft(slot, getLeft(last));
+      setRight(slot, getRight(last));
+      
+      setBitIndex(last, NULL);
+      index[last] = slot;
+      --last;
+    }
+    
+    next = last + 1;
+    free = NULL;
+    
+    // Update the links to the moved nodes
+    setLeft(ROOT, index[getLeft(ROOT)]);
+    for (int i = ROOT + 1; i < next; i++) {
+      setLeft(i, index[getLeft(i)]);
+      setRight(i, index[getRight(i)]);
+    }
+  }
+  
+  @Override
+  public void select(int key, final Cursor cursor) {
+    selectNodes(key, (node) -> cursor.select(new NodeEntry(node)));
+  }
+  
+  @Override
+  public void select(int key, final IntIntPredicate visitor) {
+    selectNodes(key, (node) -> visitor.test(getKey(node), getValue(node)));
+  }
+  
+  /**
+   * Visits the non-empty nodes by closeness to the given key.
+   */
+  private void selectNodes(int key, IntPredicate visitor) {
+    // The nodes whose far link hasn't been visited yet. The bit
+    // indices are strictly increasing along a path and there are
+    // no more than Integer.SIZE of them.
+    int[] stack = new int[Integer.SIZE];
+    int depth = 0;
+    
+    int h = getLeft(ROOT);
+    int bitIndex = -1;
+    
+    while (true) {
+      if (getBitIndex(h) > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = getBitIndex(h);
+        h = !isSet(key, bitIndex) ? getLeft(h) : getRight(h);
+        continue;
+      }
+      
+      if (!isEmptyNode(h) && !visitor.test(h)) {
+        return;
+      }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      int p = stack[--depth];
+      bitIndex = getBitIndex(p);
+      h = !isSet(key, bitIndex) ? getRight(p) : getLeft(p);
+    }
+  }
+  
+  @Override
+  public void traverse(final Cursor cursor) {
+    traverse(getLeft(ROOT), -1, new int[Integer.SIZE], 0,
+        (node) -> cursor.select(new NodeEntry(node)));
+  }
+  
+  @Override
+  public void traverse(final IntIntPredicate visitor) {
+    traverse(getLeft(ROOT), -1, new int[Integer.SIZE], 0,
+        (node) -> visitor.test(getKey(node), getValue(node)));
+  }
+  
+  /**
+   * Traverses the {@link AbstractCompactIntTrie} from the given node through
+   * {@link #lastEntry()}.
+   */
+  private void traverse(int node, IntPredicate visitor) {
+    int[] stack = new int[Integer.SIZE];
+    int depth = 0;
+    
+    // Walk down to the node and push the nodes whose right
+    // link hasn't been visited yet.
+    int key = getKey(node);
+    int h = getLeft(ROOT);
+    int bitIndex = -1;
+    
+    while (getBitIndex(h) > bitIndex) {
+      bitIndex = getBitIndex(h);
+      if (!isSet(key, bitIndex)) {
+        stack[depth++] = h;
+        h = getLeft(h);
+      } else {
+        h = getRight(h);
+      }
+    }
+    
+    traverse(h, bitIndex, stack, depth, visitor);
+  }
+  
+  /**
+   * Visits the non-empty nodes of the sub-tree that starts at the given
+   * node and then the right sub-trees of the nodes on the stack.
+   */
+  private void traverse(int h, int bitIndex, int[] stack, int depth,
+      IntPredicate visitor) {
+    
+    while (true) {
+      if (getBitIndex(h) > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = getBitIndex(h);
+        h = getLeft(h);
+        continue;
+      }
+      
+      if (!isEmptyNode(h) && !visitor.test(h)) {
+        return;
+      }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      int p = stack[--depth];
+      bitIndex = getBitIndex(p);
+      h = getRight(p);
+    }
+  }
+  
+  @Override
+  public void clear() {
+    initRoot();
+    
+    size = 0;
+    next = ROOT + 1;
+    free = NULL;
+  }
+  
+  @Override
+  public int size() {
+    return size;
+  }
+  
+  @Override
+  public Entry[] entrySet() {
+    final Entry[] entries = new Entry[size];
+    final int[] index = { 0 };
+    
+    traverse(getLeft(ROOT), -1, new int[Integer.SIZE], 0, (node) -> {
+      entries[index[0]++] = new NodeEntry(node);
+      return true;
+    });
+    
+    return entries;
+  }
+  
+  @Override
+  public int[] keySet() {
+    final int[] keys = new int[size];
+    final int[] index = { 0 };
+    
+    traverse(getLeft(ROOT), -1, new int[Integer.SIZE], 0, (node) -> {
+      keys[index[0]++] = getKey(node);
+      return true;
+    });
+    
+    return keys;
+  }
+  
+  @Override
+  public int[] values() {
+    final int[] values = new int[size];
+    final int[] index = { 0 };
+    
+    traverse(getLeft(ROOT), -1, new int[Integer.SIZE], 0, (node) -> {
+      values[index[0]++] = getValue(node);
+      return true;
+    });
+    
+    return values;
+  }
+  
+  @Override
+  public IntStream keyStream() {
+    return StreamSupport.intStream(new NodeSpliterator(this::getKey, 
+        Spliterator.DISTINCT | Spliterator.SORTED), false);
+  }
+  
+  @Override
+  public IntStream valueStream() {
+    return StreamSupport.intStream(new NodeSpliterator(this::getValue, 0), false);
+  }
+  
+  @Override
+  public Entry firstEntry() {
+    return toEntry(followLeft(getLeft(ROOT), -1));
+  }
+  
+  @Override
+  public Entry lastEntry() {
+    int node = followRight(getLeft(ROOT), -1);
+    if (!isEmptyNode(node)) {
+      return new NodeEntry(node);
+    }
+    return null;
+  }
+  
+  @Override
+  public int firstKey(int defaultKey) {
+    int node = followLeft(getLeft(ROOT), -1);
+    return node != NULL ? getKey(node) : defaultKey;
+  }
+  
+  @Override
+  public int lastKey(int defaultKey) {
+    int node = followRight(getLeft(ROOT), -1);
+    return !isEmptyNode(node) ? getKey(node) : defaultKey;
+  }
+  
+  @Override
+  public Entry ceilingEntry(int key) {
+    return toEntry(navigate(key, true, true));
+  }
+  
+  @Override
+  public Entry floorEntry(int key) {
+    return toEntry(navigate(key, false, true));
+  }
+  
+  @Override
+  public Entry higherEntry(int key) {
+    return toEntry(navigate(key, true, false));
+  }
+  
+  @Override
+  public Entry lowerEntry(int key) {
+    return toEntry(navigate(key, false, false));
+  }
+  
+  @Override
+  public Entry pollFirstEntry() {
+    return poll(followLeft(getLeft(ROOT), -1));
+  }
+  
+  @Override
+  public Entry pollLastEntry() {
+    int node = followRight(getLeft(ROOT), -1);
+    return poll(!isEmptyNode(node) ? node : NULL);
+  }
+  
+  /**
+   * Removes the given node and returns a copy of its key-value.
+   */
+  private Entry poll(int node) {
+    if (node == NULL) {
+      return null;
+    }
+    
+    // The node may be re-used for another key-value
+    Entry entry = new SimpleEntry(getKey(node), getValue(node));
+    removeNode(node);
+    return entry;
+  }
+  
+  @Override
+  public IntMap subMap(int fromKey, boolean fromInclusive,
+      int toKey, boolean toInclusive) {
+    if (compare(fromKey, toKey) > 0) {
+      throw new IllegalArgumentException("fromKey > toKey");
+    }
+    return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+  }
+  
+  @Override
+  public IntMap headMap(int toKey, boolean inclusive) {
+    return new SubMap(true, 0, false, false, toKey, inclusive);
+  }
+  
+  @Override
+  public IntMap tailMap(int fromKey, boolean inclusive) {
+    return new SubMap(false, fromKey, inclusive, true, 0, false);
+  }
+  
+  /**
+   * Returns the first non-empty node that is greater (or less if
+   * {@code higher} is {@code false}) than the given key or equal to
+   * it if {@code inclusive} is {@code true}.
+   * 
+   * @see PatriciaIntTrie#ceilingEntry(int)
+   */
+  private int navigate(int key, boolean higher, boolean inclusive) {
+    int closest = selectNode(key);
+    
+    // The first bit where the key differs from the keys in the IntTrie
+    // or a negative value if it's in the IntTrie (or it's 0 whose place
+    // is the root).
+    int index;
+    if (!isEmptyNode(closest) && getKey(closest) == key) {
+      index = KeyAnalyzer.EQUAL_KEY;
+    } else {
+      index = bitIndex(key, !isEmptyNode(closest) ? getKey(closest) : 0);
+    }
+    
+    int[] path = new int[Integer.SIZE];
+    int depth = 0;
+    
+    int h = getLeft(ROOT);
+    int bitIndex = -1;
+    
+    while (getBitIndex(h) > bitIndex && (index < 0 || getBitIndex(h) < index)) {
+      path[depth++] = h;
+      bitIndex = getBitIndex(h);
+      h = !isSet(key, bitIndex) ? getLeft(h) : getRight(h);
+    }
+    
+    if (index < 0) {
+      if (inclusive && !isEmptyNode(h)) {
+        return h;
+      }
+    
+    // The keys in the sub-tree are all greater (or less) than the key.
+    } else if (higher != isSet(key, index)) {
+      int node = higher ? followLeft(h, bitIndex) : followRight(h, bitIndex);
+      if (node != NULL && !isEmptyNode(node)) {
+        return node;
+      }
+    }
+    
+    // Walk back up and look at the other side of the nodes
+    while (depth > 0) {
+      int p = path[--depth];
+      
+      if (higher) {
+        if (!isSet(key, getBitIndex(p))) {
+          int node = followLeft(getRight(p), getBitIndex(p));
+          if (node != NULL) {
+            return node;
+          }
+        }
+      } else if (isSet(key, getBitIndex(p))) {
+        int node = followRight(getLeft(p), getBitIndex(p));
+        if (!isEmptyNode(node)) {
+          return node;
+        }
+      }
+    }
+    
+    return NULL;
+  }
+  
+  /**
+   * Follows the left links from the given node and returns the
+   * first non-empty node or {@link #NULL} if there is none.
+   */
+  private int followLeft(int h, int bitIndex) {
+    int p = NULL;
+    while (getBitIndex(h) > bitIndex) {
+      p = h;
+      bitIndex = getBitIndex(h);
+      h = getLeft(h);
+    }
+    
+    if (!isEmptyNode(h)) {
+      return h;
+    }
+    
+    if (p == NULL) {
+      return NULL;
+    }
+    
+    // It's the empty root and it's followed by the
+    // left-most node of its parent's right link.
+    h = getRight(p);
+    while (getBitIndex(h) > bitIndex) {
+      bitIndex = getBitIndex(h);
+      h = getLeft(h);
+    }
+    return h;
+  }
+  
+  /**
+   * Follows the right links from the given node and returns
+   * the last node.
+   */
+  private int followRight(int h, int bitIndex) {
+    while (getBitIndex(h) > bitIndex) {
+      bitIndex = getBitIndex(h);
+      h = getRight(h);
+    }
+    return h;
+  }
+  
+  /**
+   * Returns {@code true} if the given node has no key-value.
+   */
+  private boolean isEmptyNode(int node) {
+    return node == ROOT && empty;
+  }
+  
+  /**
+   * Returns an {@link Entry} for the given node or {@code null}.
+   */
+  private Entry toEntry(int node) {
+    return node != NULL ? new NodeEntry(node) : null;
+  }
+  
+  /**
+   * Sets the value of the given node and returns the previous value.
+   */
+  private int replaceValue(int node, int value) {
+    int existing = getValue(node);
+    setValue(node, value);
+    return existing;
+  }
+  
+  /**
+   * @see IntegerKeyAnalyzer#isSet(int, int)
+   */
+  private static boolean isSet(int key, int bitIndex) {
+    return IntegerKeyAnalyzer.INSTANCE.isSet(key, bitIndex);
+  }
+  
+  /**
+   * @see IntegerKeyAnalyzer#bitIndex(int, int)
+   */
+  private static int bitIndex(int key, int otherKey) {
+    return IntegerKeyAnalyzer.INSTANCE.bitIndex(key, otherKey);
+  }
+  
+  /**
+   * Compares the two keys as unsigned values (i.e. in the
+   * order of the {@link IntTrie}).
+   */
+  private static int compare(int key, int otherKey) {
+    return Integer.compareUnsigned(key, otherKey);
+  }
+  
+  /**
+   * A {@link Spliterator} for the keys or values. It walks the 
+   * {@link AbstractCompactIntTrie} lazily and splits it at its 
+   * nodes into the left and the right sub-tree.
+   * 
+   * @see PatriciaIntTrie#keyStream()
+   */
+  private class NodeSpliterator implements Spliterator.OfInt {
+    
+    /**
+     * The nodes whose right link hasn't been visited yet.
+     */
+    private final int[] stack;
+    
+    private int depth;
+    
+    private final IntUnaryOperator function;
+    
+    /**
+     * The {@link NodeSpliterator} is {@link #SIZED} until it's being 
+     * split as the sizes of the two halves are only estimates.
+     */
+    private int characteristics;
+    
+    /**
+     * The link that will be followed next.
+     */
+    private int h;
+    
+    private int bitIndex;
+    
+    private long estimatedSize;
+    
+    /**
+     * Creates a {@link NodeSpliterator} for all nodes. It's in 
+     * unsigned order if it's {@link #SORTED}.
+     */
+    public NodeSpliterator(IntUnaryOperator function, int characteristics) {
+      this(new int[Integer.SIZE], 0, function, 
+          characteristics | ORDERED | NONNULL | SIZED, getLeft(ROOT), -1, size);
+    }
+    
+    private NodeSpliterator(int[] stack, int depth, IntUnaryOperator function, 
+        int characteristics, int h, int bitIndex, long estimatedSize) {
+      this.stack = stack;
+      this.depth = depth;
+      this.function = function;
+      this.characteristics = characteristics;
+      this.h = h;
+      this.bitIndex = bitIndex;
+      this.estimatedSize = estimatedSize;
+    }
+    
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+      while (h != NULL) {
+        while (getBitIndex(h) > bitIndex) {
+          stack[depth++] = h;
+          bitIndex = getBitIndex(h);
+          h = getLeft(h);
+        }
+        
+        int node = h;
+        
+        if (depth > 0) {
+          int p = stack[--depth];
+          bitIndex = getBitIndex(p);
+          h = getRight(p);
+        } else {
+          h = NULL;
+        }
+        
+        // Skip the empty root
+        if (!isEmptyNode(node)) {
+          if (estimatedSize > 0L) {
+            --estimatedSize;
+          }
+          
+          action.accept(function.applyAsInt(node));
+          return true;
+        }
+      }
+      
+      return false;
+    }
+    
+    /**
+     * Returns everything in front of the last right link on the stack or 
+     * the left sub-tree if the stack is empty. This {@link NodeSpliterator} 
+     * continues with the rest.
+     */
+    @Override
+    public Spliterator.OfInt trySplit() {
+      if (h == NULL) {
+        return null;
+      }
+      
+      if (depth > 0 || getBitIndex(h) > bitIndex) {
+        estimatedSize >>>= 1;
+        characteristics &= ~(SIZED | SUBSIZED);
+      }
+      
+      if (depth > 0) {
+        int p = stack[0];
+        
+        int[] prefix = Arrays.copyOfRange(stack, 1, Integer.SIZE);
+        Spliterator.OfInt split = new NodeSpliterator(prefix, depth - 1, 
+            function, characteristics, h, bitIndex, estimatedSize);
+        
+        depth = 0;
+        h = getRight(p);
+        bitIndex = getBitIndex(p);
+        return split;
+      }
+      
+      if (getBitIndex(h) > bitIndex) {
+        int p = h;
+        Spliterator.OfInt split = new NodeSpliterator(new int[Integer.SIZE], 0, 
+            function, characteristics, getLeft(p), getBitIndex(p), estimatedSize);
+        
+        h = getRight(p);
+        bitIndex = getBitIndex(p);
+        return split;
+      }
+      
+      // It's a single node (or the empty root)
+      if ((characteristics & SIZED) == 0) {
+        estimatedSize = 1L;
+      }
+      return null;
+    }
+    
+    @Override
+    public long estimateSize() {
+      return estimatedSize;
+    }
+    
+    @Override
+    public int characteristics() {
+      return characteristics;
+    }
+    
+    @Override
+    public Comparator<? super Integer> getComparator() {
+      if ((characteristics & SORTED) == 0) {
+        throw new IllegalStateException();
+      }
+      return Integer::compareUnsigned;
+    }
+  }
+  
+  /**
+   * @see AbstractCompactIntTrie#subMap(int, boolean, int, boolean)
+   * @see AbstractCompactIntTrie#headMap(int, boolean)
+   * @see AbstractCompactIntTrie#tailMap(int, boolean)
+   */
+  private class SubMap implements IntMap {
+    
+    private final boolean fromStart;
+    
+    private final int fromKey;
+    
+    private final boolean fromInclusive;
+    
+    private final boolean toEnd;
+    
+    private final int toKey;
+    
+    private final boolean toInclusive;
+    
+    public SubMap(boolean fromStart, int fromKey, boolean fromInclusive,
+        boolean toEnd, int toKey, boolean toInclusive) {
+      this.fromStart = fromStart;
+      this.fromKey = fromKey;
+      this.fromInclusive = fromInclusive;
+      this.toEnd = toEnd;
+      this.toKey = toKey;
+      this.toInclusive = toInclusive;
+    }
+    
+    /**
+     * Returns {@code true} if the key is below the lower bound.
+     */
+    private boolean tooLow(int key) {
+      if (!fromStart) {
+        int c = compare(key, fromKey);
+        return c < 0 || (c == 0 && !fromInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is above the upper bound.
+     */
+    private boolean tooHigh(int key) {
+      if (!toEnd) {
+        int c = compare(key, toKey);
+        return c > 0 || (c == 0 && !toInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is within the bounds.
+     */
+    private boolean inRange(int key) {
+      return !tooLow(key) && !tooHigh(key);
+    }
+    
+    /**
+     * Returns the first node in the range or {@link AbstractCompactIntTrie#NULL}.
+     */
+    private int first() {
+      int node = fromStart ? followLeft(getLeft(ROOT), -1)
+          : navigate(fromKey, true, fromInclusive);
+      
+      if (node != NULL && tooHigh(getKey(node))) {
+        return NULL;
+      }
+      return node;
+    }
+    
+    /**
+     * Visits the range from its first through its last node.
+     */
+    private void traverse(final IntPredicate visitor) {
+      int first = first();
+      if (first != NULL) {
+        AbstractCompactIntTrie.this.traverse(first,
+            (node) -> !tooHigh(getKey(node)) && visitor.test(node));
+      }
+    }
+    
+    @Override
+    public int put(int key, int value) {
+      if (!inRange(key)) {
+        throw new IllegalArgumentException("Key out of range: " + key);
+      }
+      
+      return AbstractCompactIntTrie.this.put(key, value);
+    }
+    
+    @Override
+    public int get(int key) {
+      if (inRange(key)) {
+        return AbstractCompactIntTrie.this.get(key);
+      }
+      return -1;
+    }
+    
+    @Override
+    public int remove(int key) {
+      if (inRange(key)) {
+        return AbstractCompactIntTrie.this.remove(key);
+      }
+      return -1;
+    }
+    
+    @Override
+    public boolean containsKey(int key) {
+      return inRange(key) && AbstractCompactIntTrie.this.containsKey(key);
+    }
+    
+    @Override
+    public boolean containsValue(final int value) {
+      final boolean[] contains = { false };
+      
+      traverse((node) -> {
+        if (AbstractIntTrie.equals(value, getValue(node))) {
+          contains[0] = true;
+          return false;
+        }
+        return true;
+      });
+      
+      return contains[0];
+    }
+    
+    @Override
+    public int size() {
+      final int[] size = { 0 };
+      
+      traverse((node) -> {
+        ++size[0];
+        return true;
+      });
+      
+      return size[0];
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return first() == NULL;
+    }
+    
+    @Override
+    public void clear() {
+      for (int key : keySet()) {
+        AbstractCompactIntTrie.this.remove(key);
+      }
+    }
+    
+    @Override
+    public Entry[] entrySet() {
+      final List<Entry> entries = new ArrayList<Entry>();
+      
+      traverse((node) -> {
+        entries.add(new NodeEntry(node));
+        return true;
+      });
+      
+      return entries.toArray(new Entry[0]);
+    }
+    
+    @Override
+    public int[] keySet() {
+      Entry[] entries = entrySet();
+      int[] keys = new int[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+        keys[i] = entries[i].getKey();
+      }
+      return keys;
+    }
+    
+    @Override
+    public int[] values() {
+      Entry[] entries = entrySet();
+      int[] values = new int[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+        values[i] = entries[i].getValue();
+      }
+      return values;
+    }
+    
+    @Override
+    public void putAll(IntMap m) {
+      for (Entry entry : m.entrySet()) {
+        put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+  
+  /**
+   * An abstract base class for the {@link Entry}s.
+   */
+  private static abstract class AbstractEntry implements Entry {
+    
+    @Override
+    public int hashCode() {
+      return 31*getKey() + getValue();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      } else if (!(o instanceof Entry)) {
+        return false;
+      }
+      
+      Entry other = (Entry)o;
+      return getKey() == other.getKey()
+        && getValue() == other.getValue();
+    }
+  }
+  
+  /**
+   * An {@link Entry} view of a node.
+   */
+  private class NodeEntry extends AbstractEntry {
+    
+    private final int node;
+    
+    private NodeEntry(int node) {
+      this.node = node;
+    }
+    
+    @Override
+    public int getKey() {
+      return AbstractCompactIntTrie.this.getKey(node);
+    }
+    
+    @Override
+    public int getValue() {
+      return AbstractCompactIntTrie.this.getValue(node);
+    }
+    
+    @Override
+    public int setValue(int value) {
+      return replaceValue(node, value);
+    }
+    
+    @Override
+    public String toString() {
+      return getKey() + " (" + getBitIndex(node) + ") -> " + getValue();
+    }
+  }
+  
+  /**
+   * A copy of a removed key-value.
+   */
+  private static class SimpleEntry extends AbstractEntry {
+    
+    private final int key;
+    
+    private int value;
+    
+    private SimpleEntry(int key, int value) {
+      this.key = key;
+      this.value = value;
+    }
+    
+    @Override
+    public int getKey() {
+      return key;
+    }
+    
+    @Override
+    public int getValue() {
+      return value;
+    }
+    
+    @Override
+    public int setValue(int value) {
+      int existing = this.value;
+      this.value = value;
+      return existing;
+    }
+    
+    @Override
+    public String toString() {
+      return key + " -> " + value;
+    }
+  }
+}
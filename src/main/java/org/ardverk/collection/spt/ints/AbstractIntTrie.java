@@ -17,6 +17,7 @@
 package org.ardverk.collection.spt.ints;
 
 import java.io.Serializable;
+import java.util.NoSuchElementException;
 
 /**
  * An abstract implementation of {@link IntTrie}.
@@ -43,6 +44,18 @@ abstract class AbstractIntTrie implements IntTrie, Serializable {
     return entry != null ? entry.getValue() : -1;
   }
   
+  @Override
+  public int getOrDefault(int key, int defaultValue) {
+    Entry entry = entry(key);
+    return entry != null ? entry.getValue() : defaultValue;
+  }
+  
+  @Override
+  public long find(int key) {
+    Entry entry = entry(key);
+    return entry != null ? (entry.getValue() & 0xFFFFFFFFL) : NOT_FOUND;
+  }
+  
   @Override
   public void putAll(IntMap m) {
     for (Entry entry : m.entrySet()) {
@@ -73,28 +86,79 @@ abstract class AbstractIntTrie implements IntTrie, Serializable {
     return contains[0];
   }
   
+  @Override
+  public void select(int key, final IntIntPredicate visitor) {
+    select(key, new Cursor() {
+      @Override
+      public boolean select(Entry entry) {
+        return visitor.test(entry.getKey(), entry.getValue());
+      }
+    });
+  }
+  
+  @Override
+  public void traverse(final IntIntPredicate visitor) {
+    traverse(new Cursor() {
+      @Override
+      public boolean select(Entry entry) {
+        return visitor.test(entry.getKey(), entry.getValue());
+      }
+    });
+  }
+  
+  @Override
+  public void forEach(final IntIntConsumer action) {
+    traverse((key, value) -> {
+      action.accept(key, value);
+      return true;
+    });
+  }
+  
   @Override
   public int selectKey(int key) {
-    Entry entry = select(key);
-    return entry != null ? entry.getKey() : null;
+    return notNull(select(key)).getKey();
   }
   
   @Override
   public int selectValue(int key) {
-    Entry entry = select(key);
-    return entry != null ? entry.getValue() : null;
+    return notNull(select(key)).getValue();
   }
   
   @Override
   public int firstKey() {
+    return notNull(firstEntry()).getKey();
+  }
+  
+  @Override
+  public int firstKey(int defaultKey) {
     Entry entry = firstEntry();
-    return entry != null ? entry.getKey() : null;
+    return entry != null ? entry.getKey() : defaultKey;
   }
   
   @Override
   public int lastKey() {
+    return notNull(lastEntry()).getKey();
+  }
+  
+  @Override
+  public int lastKey(int defaultKey) {
     Entry entry = lastEntry();
-    return entry != null ? entry.getKey() : null;
+    return entry != null ? entry.getKey() : defaultKey;
+  }
+  
+  @Override
+  public IntMap subMap(int fromKey, int toKey) {
+    return subMap(fromKey, true, toKey, false);
+  }
+  
+  @Override
+  public IntMap headMap(int toKey) {
+    return headMap(toKey, false);
+  }
+  
+  @Override
+  public IntMap tailMap(int fromKey) {
+    return tailMap(fromKey, true);
   }
   
   @Override
@@ -137,6 +201,17 @@ abstract class AbstractIntTrie implements IntTrie, Serializable {
     return buffer.toString();
   }
   
+  /**
+   * Returns the given {@link Entry} or throws a {@link NoSuchElementException}
+   * if it's {@code null} (i.e. the {@link IntTrie} is empty).
+   */
+  private static Entry notNull(Entry entry) {
+    if (entry == null) {
+      throw new NoSuchElementException();
+    }
+    return entry;
+  }
+  
   /**
    * Returns {@code true} if the two values are equal.
    */
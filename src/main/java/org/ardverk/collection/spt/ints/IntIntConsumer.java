@@ -0,0 +1,31 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.ints;
+
+/**
+ * An operation on the keys and values of an {@link IntTrie}.
+ * 
+ * @see IntTrie#forEach(IntIntConsumer)
+ */
+@FunctionalInterface
+public interface IntIntConsumer {
+  
+  /**
+   * Called for each key-value in the {@link IntTrie}.
+   */
+  public void accept(int key, int value);
+}
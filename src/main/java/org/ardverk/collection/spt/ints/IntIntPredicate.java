@@ -0,0 +1,34 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.ints;
+
+/**
+ * A {@link Cursor} for the keys and values of an {@link IntTrie}
+ * that doesn't look at its {@link IntMap.Entry}s.
+ * 
+ * @see IntTrie#traverse(IntIntPredicate)
+ * @see IntTrie#select(int, IntIntPredicate)
+ */
+@FunctionalInterface
+public interface IntIntPredicate {
+  
+  /**
+   * Called for each key-value in the {@link IntTrie}. Return {@code true}
+   * to continue with the traverse operation or {@code false} to exit.
+   */
+  public boolean test(int key, int value);
+}
@@ -26,6 +26,11 @@ import java.util.Map;
  */
 public interface IntMap {
 
+  /**
+   * Returned by {@link #find(int)} if there is no mapping for the key.
+   */
+  public static final long NOT_FOUND = -1L;
+  
   /**
    * @see Map#put(Object, Object)
    */
@@ -36,6 +41,33 @@ public interface IntMap {
    */
   public int get(int key);
   
+  /**
+   * Returns the value for the given key or the default value if there 
+   * is no mapping for the key.
+   * 
+   * @see Map#getOrDefault(Object, Object)
+   */
+  public default int getOrDefault(int key, int defaultValue) {
+    return containsKey(key) ? get(key) : defaultValue;
+  }
+  
+  /**
+   * Returns the value for the given key as an unsigned {@code long} or 
+   * {@link #NOT_FOUND} if there is no mapping for the key. Use it instead 
+   * of {@link #get(int)} if {@code -1} is a valid value and cast the 
+   * result to an {@code int} to get the value.
+   * 
+   * <pre>
+   * long found = m.find(key);
+   * if (found != IntMap.NOT_FOUND) {
+   *   int value = (int)found;
+   * }
+   * </pre>
+   */
+  public default long find(int key) {
+    return containsKey(key) ? (get(key) & 0xFFFFFFFFL) : NOT_FOUND;
+  }
+  
   /**
    * @see Map#remove(Object)
    */
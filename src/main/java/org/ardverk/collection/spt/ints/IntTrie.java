@@ -18,6 +18,7 @@ package org.ardverk.collection.spt.ints;
 
 import java.util.NavigableMap;
 import java.util.SortedMap;
+import java.util.stream.IntStream;
 
 
 /**
@@ -50,6 +51,11 @@ public interface IntTrie extends IntMap {
    */
   public int firstKey();
 
+  /**
+   * Returns the first key or the default key if the {@link IntTrie} is empty.
+   */
+  public int firstKey(int defaultKey);
+  
   /**
    * @see NavigableMap#lastEntry()
    */
@@ -60,6 +66,31 @@ public interface IntTrie extends IntMap {
    */
   public int lastKey();
   
+  /**
+   * Returns the last key or the default key if the {@link IntTrie} is empty.
+   */
+  public int lastKey(int defaultKey);
+  
+  /**
+   * @see NavigableMap#ceilingEntry(Object)
+   */
+  public IntMap.Entry ceilingEntry(int key);
+  
+  /**
+   * @see NavigableMap#floorEntry(Object)
+   */
+  public IntMap.Entry floorEntry(int key);
+  
+  /**
+   * @see NavigableMap#higherEntry(Object)
+   */
+  public IntMap.Entry higherEntry(int key);
+  
+  /**
+   * @see NavigableMap#lowerEntry(Object)
+   */
+  public IntMap.Entry lowerEntry(int key);
+  
   /**
    * @see NavigableMap#pollFirstEntry()
    */
@@ -70,6 +101,37 @@ public interface IntTrie extends IntMap {
    */
   public IntMap.Entry pollLastEntry();
   
+  /**
+   * @see SortedMap#subMap(Object, Object)
+   */
+  public IntMap subMap(int fromKey, int toKey);
+  
+  /**
+   * @see NavigableMap#subMap(Object, boolean, Object, boolean)
+   */
+  public IntMap subMap(int fromKey, boolean fromInclusive, 
+      int toKey, boolean toInclusive);
+  
+  /**
+   * @see SortedMap#headMap(Object)
+   */
+  public IntMap headMap(int toKey);
+  
+  /**
+   * @see NavigableMap#headMap(Object, boolean)
+   */
+  public IntMap headMap(int toKey, boolean inclusive);
+  
+  /**
+   * @see SortedMap#tailMap(Object)
+   */
+  public IntMap tailMap(int fromKey);
+  
+  /**
+   * @see NavigableMap#tailMap(Object, boolean)
+   */
+  public IntMap tailMap(int fromKey, boolean inclusive);
+  
   /**
    * Traverses the {@link IntTrie} by closeness to the given key.
    */
@@ -80,4 +142,37 @@ public interface IntTrie extends IntMap {
    * {@link #lastEntry()}
    */
   public void traverse(Cursor cursor);
+  
+  /**
+   * Traverses the {@link IntTrie} by closeness to the given key.
+   */
+  public void select(int key, IntIntPredicate visitor);
+  
+  /**
+   * Traverses the {@link IntTrie} from {@link #firstKey()} through 
+   * {@link #lastKey()}.
+   */
+  public void traverse(IntIntPredicate visitor);
+  
+  /**
+   * Calls the given {@link IntIntConsumer} for each key-value in the 
+   * order of the keys.
+   */
+  public void forEach(IntIntConsumer action);
+  
+  /**
+   * Returns a lazy {@link IntStream} of the keys in unsigned order. 
+   * It walks the {@link IntTrie} as it goes, splits it at its nodes 
+   * for parallel streams and must not outlive a modification of 
+   * the {@link IntTrie}.
+   */
+  public IntStream keyStream();
+  
+  /**
+   * Returns a lazy {@link IntStream} of the values in the order of 
+   * their keys.
+   * 
+   * @see #keyStream()
+   */
+  public IntStream valueStream();
 }
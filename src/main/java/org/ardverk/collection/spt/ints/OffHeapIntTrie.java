@@ -0,0 +1,386 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.ints;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * An {@link IntTrie} that is the same as the {@link CompactIntTrie} but 
+ * stores its nodes outside of the Java heap in a direct {@link ByteBuffer} 
+ * or in a {@link MappedByteBuffer} of a file. A node is a 20 byte record 
+ * (bit index, key, value, left and right link) and the links are the 
+ * record numbers of other nodes.
+ * 
+ * The heap footprint is the same no matter how many mappings there are 
+ * and the garbage collector doesn't see the nodes. The buffer is being 
+ * replaced with a buffer that is half as big again when it's full and 
+ * the memory is released right away (i.e. without waiting for the 
+ * garbage collector). Call {@link #close()} to release the memory of 
+ * an {@link OffHeapIntTrie} that isn't needed anymore.
+ * 
+ * NOTE: An {@link OffHeapIntTrie} can hold no more than 
+ * {@code Integer.MAX_VALUE / 20} (about 107 million) mappings. The 
+ * file of a memory-mapped {@link OffHeapIntTrie} is just its storage 
+ * and it can't be opened again.
+ */
+public class OffHeapIntTrie extends AbstractCompactIntTrie implements Closeable {
+  
+  private static final long serialVersionUID = -1650493618452233457L;
+  
+  private static final int DEFAULT_CAPACITY = 16;
+  
+  private static final int BIT_INDEX = 0;
+  
+  private static final int KEY = BIT_INDEX + Integer.BYTES;
+  
+  private static final int VALUE = KEY + Integer.BYTES;
+  
+  private static final int LEFT = VALUE + Integer.BYTES;
+  
+  private static final int RIGHT = LEFT + Integer.BYTES;
+  
+  /**
+   * The size of a node in bytes.
+   */
+  private static final int NODE_SIZE = RIGHT + Integer.BYTES;
+  
+  /**
+   * The maximum number of nodes.
+   */
+  private static final int MAX_LENGTH = Integer.MAX_VALUE / NODE_SIZE;
+  
+  /**
+   * Releases the memory of a direct or mapped {@link ByteBuffer} or 
+   * {@code null} if this JVM has no way of doing it.
+   */
+  private static final Consumer<ByteBuffer> CLEANER = cleaner();
+  
+  /**
+   * The file of a memory-mapped {@link OffHeapIntTrie} or {@code null}.
+   */
+  private transient FileChannel channel;
+  
+  private transient ByteBuffer buffer;
+  
+  private transient int length;
+  
+  public OffHeapIntTrie() {
+    this(DEFAULT_CAPACITY);
+  }
+  
+  /**
+   * Creates an {@link OffHeapIntTrie} in a direct {@link ByteBuffer} 
+   * with room for the given number of mappings.
+   */
+  public OffHeapIntTrie(int initialCapacity) {
+    init(initialCapacity);
+  }
+  
+  /**
+   * Creates an {@link OffHeapIntTrie} in a {@link MappedByteBuffer} of 
+   * the given file with room for the given number of mappings. The file 
+   * is being created or overwritten.
+   */
+  public OffHeapIntTrie(Path path, int initialCapacity) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, 
+        StandardOpenOption.TRUNCATE_EXISTING, 
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    
+    try {
+      init(initialCapacity);
+    } catch (UncheckedIOException err) {
+      channel.close();
+      throw err.getCause();
+    }
+  }
+  
+  public OffHeapIntTrie(IntMap m) {
+    this(m.size());
+    putAll(m);
+  }
+  
+  private void init(int initialCapacity) {
+    if (initialCapacity < 0 || initialCapacity >= MAX_LENGTH) {
+      throw new IllegalArgumentException("initialCapacity=" + initialCapacity);
+    }
+    
+    length = Math.max(initialCapacity, 1) + 1;
+    buffer = allocate(length);
+    initRoot();
+  }
+  
+  /**
+   * Returns {@code true} if the {@link OffHeapIntTrie} hasn't been closed.
+   */
+  public boolean isOpen() {
+    return buffer != null;
+  }
+  
+  /**
+   * Returns {@code true} if the memory of the buffers can be released 
+   * right away. It's left to the garbage collector otherwise.
+   */
+  public static boolean isCleanerAvailable() {
+    return CLEANER != null;
+  }
+  
+  /**
+   * Releases the memory (and closes the file) of the {@link OffHeapIntTrie}. 
+   * It can't be used anymore afterwards.
+   * 
+   * NOTE: The memory is being released by the garbage collector if 
+   * {@link #isCleanerAvailable()} is {@code false}.
+   * 
+   * @throws IllegalStateException if the memory couldn't be released.
+   */
+  @Override
+  public void close() throws IOException {
+    ByteBuffer buffer = this.buffer;
+    if (buffer != null) {
+      this.buffer = null;
+      try {
+        clean(buffer);
+      } finally {
+        if (channel != null) {
+          channel.close();
+        }
+      }
+    }
+  }
+  
+  @Override
+  int length() {
+    return length;
+  }
+  
+  @Override
+  void resize(int length) {
+    if (length > MAX_LENGTH) {
+      if (this.length == MAX_LENGTH) {
+        throw new IllegalStateException("The OffHeapIntTrie is full: " + size());
+      }
+      length = MAX_LENGTH;
+    }
+    
+    ByteBuffer existing = buffer();
+    ByteBuffer buffer = allocate(length);
+    
+    // A new mapping of the file sees its content already
+    if (channel == null) {
+      ByteBuffer src = existing.duplicate();
+      src.clear().limit(Math.min(this.length, length) * NODE_SIZE);
+      buffer.duplicate().put(src);
+    }
+    
+    boolean shrink = length < this.length;
+    
+    this.buffer = buffer;
+    this.length = length;
+    clean(existing);
+    
+    if (channel != null && shrink) {
+      try {
+        channel.truncate((long)length * NODE_SIZE);
+      } catch (IOException err) {
+        throw new UncheckedIOException(err);
+      }
+    }
+  }
+  
+  /**
+   * Allocates a {@link ByteBuffer} for the given number of nodes.
+   */
+  private ByteBuffer allocate(int length) {
+    int size = length * NODE_SIZE;
+    
+    ByteBuffer buffer;
+    if (channel != null) {
+      try {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+      } catch (IOException err) {
+        throw new UncheckedIOException(err);
+      }
+    } else {
+      buffer = ByteBuffer.allocateDirect(size);
+    }
+    
+    return buffer.order(ByteOrder.nativeOrder());
+  }
+  
+  /**
+   * Returns the {@link ByteBuffer} or throws an {@link IllegalStateException} 
+   * if the {@link OffHeapIntTrie} has been closed.
+   */
+  private ByteBuffer buffer() {
+    ByteBuffer buffer = this.buffer;
+    if (buffer == null) {
+      throw new IllegalStateException("The OffHeapIntTrie has been closed");
+    }
+    return buffer;
+  }
+  
+  @Override
+  int getBitIndex(int node) {
+    return buffer().getInt(node * NODE_SIZE + BIT_INDEX);
+  }
+  
+  @Override
+  void setBitIndex(int node, int bitIndex) {
+    buffer().putInt(node * NODE_SIZE + BIT_INDEX, bitIndex);
+  }
+  
+  @Override
+  int getKey(int node) {
+    return buffer().getInt(node * NODE_SIZE + KEY);
+  }
+  
+  @Override
+  void setKey(int node, int key) {
+    buffer().putInt(node * NODE_SIZE + KEY, key);
+  }
+  
+  @Override
+  int getValue(int node) {
+    return buffer().getInt(node * NODE_SIZE + VALUE);
+  }
+  
+  @Override
+  void setValue(int node, int value) {
+    buffer().putInt(node * NODE_SIZE + VALUE, value);
+  }
+  
+  @Override
+  int getLeft(int node) {
+    return buffer().getInt(node * NODE_SIZE + LEFT);
+  }
+  
+  @Override
+  void setLeft(int node, int left) {
+    buffer().putInt(node * NODE_SIZE + LEFT, left);
+  }
+  
+  @Override
+  int getRight(int node) {
+    return buffer().getInt(node * NODE_SIZE + RIGHT);
+  }
+  
+  @Override
+  void setRight(int node, int right) {
+    buffer().putInt(node * NODE_SIZE + RIGHT, right);
+  }
+  
+  /**
+   * Writes the nodes that are or were in use. A deserialized 
+   * {@link OffHeapIntTrie} is always in a direct {@link ByteBuffer}.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    
+    int used = used();
+    out.writeInt(length);
+    out.writeInt(used);
+    
+    ByteBuffer buffer = buffer();
+    for (int i = 0; i < used * NODE_SIZE; i += Integer.BYTES) {
+      out.writeInt(buffer.getInt(i));
+    }
+  }
+  
+  private void readObject(ObjectInputStream in) 
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    
+    length = in.readInt();
+    int used = in.readInt();
+    
+    buffer = allocate(length);
+    for (int i = 0; i < used * NODE_SIZE; i += Integer.BYTES) {
+      buffer.putInt(i, in.readInt());
+    }
+  }
+  
+  /**
+   * Releases the memory of the given {@link ByteBuffer} unless there is
+   * no {@link #CLEANER}.
+   */
+  private static void clean(ByteBuffer buffer) {
+    if (CLEANER != null) {
+      CLEANER.accept(buffer);
+    }
+  }
+  
+  /**
+   * Returns a function that releases the memory of a direct or mapped 
+   * {@link ByteBuffer} right away or {@code null} if there is none. It's 
+   * Unsafe#invokeCleaner() on Java 9 and later and the buffer's Cleaner 
+   * on Java 8. The function throws an {@link IllegalStateException} if 
+   * it fails to release the memory.
+   */
+  private static Consumer<ByteBuffer> cleaner() {
+    try {
+      Class<?> clazz = Class.forName("sun.misc.Unsafe");
+      Field field = clazz.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      
+      Object unsafe = field.get(null);
+      Method invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+      
+      return (buffer) -> {
+        try {
+          invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException err) {
+          throw new IllegalStateException("Failed to release the buffer", err);
+        }
+      };
+    } catch (ReflectiveOperationException | RuntimeException ignore) {
+      // It's Java 8 or the method isn't accessible
+    }
+    
+    try {
+      Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      
+      return (buffer) -> {
+        try {
+          Object value = cleaner.invoke(buffer);
+          if (value != null) {
+            clean.invoke(value);
+          }
+        } catch (ReflectiveOperationException err) {
+          throw new IllegalStateException("Failed to release the buffer", err);
+        }
+      };
+    } catch (ReflectiveOperationException | RuntimeException ignore) {
+      // Neither is available
+    }
+    
+    return null;
+  }
+}
@@ -16,18 +16,55 @@
 
 package org.ardverk.collection.spt.ints;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 import org.ardverk.collection.spt.IntegerKeyAnalyzer;
 import org.ardverk.collection.spt.KeyAnalyzer;
 
 public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
   
-  private static final long serialVersionUID = 7464215084236615537L;
+  private static final long serialVersionUID = 2280929924413386347L;
   
-  private volatile RootNode root = new RootNode();
+  /**
+   * The number of key-values below which the {@link NodeTask}s and 
+   * {@link LinkTask}s don't split any further.
+   */
+  private static final int THRESHOLD = 1 << 13;
+  
+  private final boolean recycleNodes;
+  
+  private transient volatile RootNode root = new RootNode();
   
-  private volatile int size = 0;
+  private transient volatile int size = 0;
+  
+  /**
+   * A list of removed {@link Node}s that are being re-used by 
+   * {@link #insert(int, int, int)}.
+   * 
+   * @see #recycleNodes
+   */
+  private transient Node free = null;
   
   private transient volatile Entry[] entrySet = null;
   
@@ -36,31 +73,115 @@ public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
   private transient volatile int[] values = null;
   
   public PatriciaIntTrie() {
+    this(false);
+  }
+  
+  /**
+   * Creates a {@link PatriciaIntTrie}. If {@code recycleNodes} is 
+   * {@code true} then removed {@link Node}s are being kept in a 
+   * free list and re-used for new mappings.
+   * 
+   * NOTE: The {@link Entry}s that are being returned by the 
+   * {@link PatriciaIntTrie} are its {@link Node}s. Don't hold on 
+   * to them if you're recycling {@link Node}s as they may change 
+   * their key and value once they've been removed.
+   */
+  public PatriciaIntTrie(boolean recycleNodes) {
+    this.recycleNodes = recycleNodes;
   }
   
   public PatriciaIntTrie(IntMap m) {
+    this();
     putAll(m);
   }
   
+  /**
+   * Returns a {@link Builder} that creates a {@link PatriciaIntTrie} 
+   * from keys that are in unsigned order.
+   */
+  public static Builder builder() {
+    return builder(false);
+  }
+  
+  /**
+   * Returns a {@link Builder} that creates a {@link PatriciaIntTrie} 
+   * from keys that are in unsigned order.
+   * 
+   * @see #PatriciaIntTrie(boolean)
+   */
+  public static Builder builder(boolean recycleNodes) {
+    return new Builder(recycleNodes);
+  }
+  
+  /**
+   * Creates a {@link PatriciaIntTrie} from an {@link IntMap} whose keys 
+   * are in unsigned order on the given {@link ForkJoinPool}.
+   * 
+   * @see #parallelBuild(int[], int[], ForkJoinPool)
+   */
+  public static PatriciaIntTrie parallelBuild(IntMap m, ForkJoinPool pool) {
+    return parallelBuild(m.keySet(), m.values(), pool);
+  }
+  
+  /**
+   * Creates a {@link PatriciaIntTrie} from keys that are in unsigned 
+   * order and their values on the given {@link ForkJoinPool}. The 
+   * {@link PatriciaIntTrie} is the same as if the keys had been put 
+   * one by one in their order.
+   * 
+   * @throws IllegalArgumentException if the keys are not sorted.
+   * @see Builder
+   * @see org.ardverk.collection.spt.PatriciaTrie#parallelBuild(KeyAnalyzer, java.util.Map, ForkJoinPool)
+   */
+  public static PatriciaIntTrie parallelBuild(int[] keys, int[] values, ForkJoinPool pool) {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("keys.length=" + keys.length 
+          + ", values.length=" + values.length);
+    }
+    
+    PatriciaIntTrie trie = new PatriciaIntTrie();
+    
+    // The root is the only place to store null!
+    int offset = 0;
+    if (keys.length > 0 && keys[0] == 0) {
+      trie.putForNullKey(keys[0], values[0]);
+      ++offset;
+    }
+    
+    if (offset < keys.length) {
+      Node[] nodes = new Node[keys.length - offset];
+      
+      pool.invoke(new NodeTask(keys, values, offset, nodes, 0, nodes.length));
+      trie.root.left = pool.invoke(new LinkTask(trie, nodes, 0, nodes.length));
+      trie.size += nodes.length;
+    }
+    
+    return trie;
+  }
+  
   @Override
   public Entry select(int key) {
-    Node entry = selectR(root.left, key, -1);
+    Node entry = selectNode(key);
     if (!entry.isEmpty()) {
       return entry;
     }
     return null;
   }
   
-  private Node selectR(Node h, int key, int bitIndex) {
-    if (h.bitIndex <= bitIndex) { 
-      return h; 
-    }
+  /**
+   * Follows the key's bits from the root to the {@link Node} that is 
+   * closest to the key.
+   */
+  private Node selectNode(int key) {
+    Node h = root.left;
+    int bitIndex = -1;
     
-    if (!isSet(key, h.bitIndex)) {
-      return selectR(h.left, key, h.bitIndex);
-    } else {
-      return selectR(h.right, key, h.bitIndex);
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = !isSet(key, bitIndex) ? h.left : h.right;
     }
+    
+    return h;
   }
   
   @Override
@@ -85,7 +206,7 @@ public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
     }
     
     assert (bitIndex >= 0);
-    root.left = putR(root.left, key, value, bitIndex, root);
+    insert(key, value, bitIndex);
     incrementSize();
     
     return -1;
@@ -99,22 +220,32 @@ public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
     return root.setKeyValue(key, value);
   }
   
-  private Node putR(Node h, int key, int value, int bitIndex, Node p) {
-    if ((h.bitIndex >= bitIndex) || (h.bitIndex <= p.bitIndex)) {
-      Node t = new Node(key, value, bitIndex);
-      
-      boolean isSet = isSet(key, t.bitIndex);
-      t.left = isSet ? h : t;
-      t.right = isSet ? t : h;
-      return t;
+  /**
+   * Inserts a new {@link Node} for the given key-value where the key 
+   * differs at the given bit index from the closest existing key.
+   */
+  private void insert(int key, int value, int bitIndex) {
+    Node p = root;
+    Node h = root.left;
+    boolean right = false;
+    
+    while (h.bitIndex < bitIndex && h.bitIndex > p.bitIndex) {
+      p = h;
+      right = isSet(key, h.bitIndex);
+      h = !right ? h.left : h.right;
     }
     
-    if (!isSet(key, h.bitIndex)) {
-      h.left = putR(h.left, key, value, bitIndex, h);
+    Node t = newNode(key, value, bitIndex);
+    
+    boolean isSet = isSet(key, t.bitIndex);
+    t.left = isSet ? h : t;
+    t.right = isSet ? t : h;
+    
+    if (!right) {
+      p.left = t;
     } else {
-      h.right = putR(h.right, key, value, bitIndex, h);
+      p.right = t;
     }
-    return h;
   }
   
   @Override
@@ -130,72 +261,233 @@ public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
   /**
    * Removes the given {@link Entry} from the {@link PatriciaIntTrie}.
    */
-  private int removeEntry(final Entry entry) {
-    // We're traversing the old Trie and adding elements to the new Trie!
-    RootNode old = clear0();
-    traverseR(old.left, new Cursor() {
-      @Override
-      public boolean select(Entry e) {
-        if (!entry.equals(e)) {
-          put(e.getKey(), e.getValue());
-        }
-        return true;
+  private int removeEntry(Entry entry) {
+    Node node = (Node)entry;
+    
+    // This is a shortcut! The root is the only place to store null!
+    if (node == root) {
+      if (root.isEmpty()) {
+        return -1;
+      }
+      
+      decrementSize();
+      return root.removeKeyValue();
+    }
+    
+    int key = node.key;
+    
+    // Walk down to the uplink that points to the node. Along the way 
+    // we're keeping track of the node's parent (the one with the downlink 
+    // to the node), the node with the uplink (p) and its parent (pp).
+    Node parent = null;
+    Node pp = root;
+    Node p = root;
+    Node h = root.left;
+    
+    while (h.bitIndex > p.bitIndex) {
+      if (h == node) {
+        parent = p;
       }
-    }, -1);
+      
+      pp = p;
+      p = h;
+      h = !isSet(key, h.bitIndex) ? h.left : h.right;
+    }
+    
+    if (h != node) {
+      return -1;
+    }
+    
+    // The link of p that is NOT pointing up to the node
+    Node other = !isSet(key, p.bitIndex) ? p.right : p.left;
+    
+    if (p == node) {
+      // The node is pointing up to itself. Replace the downlink 
+      // from its parent with the node's other link.
+      replace(parent, node, other);
+      
+    } else {
+      // Remove p from its current position and move it into the
+      // position of the node that is being removed.
+      replace(pp, p, other);
+      
+      p.bitIndex = node.bitIndex;
+      p.left = node.left;
+      p.right = node.right;
+      replace(parent, node, p);
+    }
+    
+    int value = node.value;
+    freeNode(node);
     
-    return entry.getValue();
+    decrementSize();
+    return value;
   }
   
-  @Override
-  public void select(int key, Cursor cursor) {
-    selectR(root.left, key, cursor, -1);
+  /**
+   * Replaces the link from the parent {@link Node} to the existing 
+   * {@link Node} with a link to the replacement {@link Node}.
+   */
+  private static void replace(Node parent, Node existing, Node replacement) {
+    if (parent.left == existing) {
+      parent.left = replacement;
+    } else {
+      parent.right = replacement;
+    }
   }
   
-  private boolean selectR(Node h, int key, Cursor cursor, int bitIndex) {
+  /**
+   * Creates a new {@link Node} or takes one from the free list.
+   * 
+   * @see #freeNode(Node)
+   */
+  private Node newNode(int key, int value, int bitIndex) {
+    Node node = free;
+    if (node == null) {
+      return new Node(key, value, bitIndex);
+    }
     
-    if (h.bitIndex <= bitIndex) {
-      if (!h.isEmpty()) {
-        return cursor.select(h); 
-      }
-      return true;
+    free = node.left;
+    
+    node.bitIndex = bitIndex;
+    node.key = key;
+    node.value = value;
+    node.left = null;
+    return node;
+  }
+  
+  /**
+   * Unlinks the given {@link Node} and adds it to the free list if 
+   * {@link #recycleNodes} is enabled.
+   * 
+   * @see #newNode(int, int, int)
+   */
+  private void freeNode(Node node) {
+    node.right = null;
+    
+    if (recycleNodes) {
+      node.left = free;
+      free = node;
+    } else {
+      node.left = null;
     }
+  }
+  
+  @Override
+  public void select(int key, Cursor cursor) {
+    // The Nodes whose far link hasn't been visited yet. The bit 
+    // indices are strictly increasing along a path and there are
+    // no more than Integer.SIZE of them.
+    Node[] stack = new Node[Integer.SIZE];
+    int depth = 0;
+    
+    Node h = root.left;
+    int bitIndex = -1;
     
-    if (!isSet(key, h.bitIndex)) {
-      if (selectR(h.left, key, cursor, h.bitIndex)) {
-        return selectR(h.right, key, cursor, h.bitIndex);
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = h.bitIndex;
+        h = !isSet(key, bitIndex) ? h.left : h.right;
+        continue;
       }
-    } else {
-      if (selectR(h.right, key, cursor, h.bitIndex)) {
-        return selectR(h.left, key, cursor, h.bitIndex);
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
       }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      Node p = stack[--depth];
+      bitIndex = p.bitIndex;
+      h = !isSet(key, bitIndex) ? p.right : p.left;
     }
-    
-    return false;
   }
   
   @Override
   public void traverse(Cursor cursor) {
-    traverseR(root.left, cursor, -1);
+    // The Nodes whose right link hasn't been visited yet
+    Node[] stack = new Node[Integer.SIZE];
+    int depth = 0;
+    
+    Node h = root.left;
+    int bitIndex = -1;
+    
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = h.bitIndex;
+        h = h.left;
+        continue;
+      }
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
+      }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      Node p = stack[--depth];
+      bitIndex = p.bitIndex;
+      h = p.right;
+    }
   }
   
-  private static boolean traverseR(Node h, Cursor cursor, int bitIndex) {
+  /**
+   * Traverses the {@link IntTrie} from the given {@link Node} through 
+   * {@link #lastEntry()}.
+   */
+  private void traverse(Node node, Cursor cursor) {
+    Node[] stack = new Node[Integer.SIZE];
+    int depth = 0;
+    
+    // Walk down to the Node and push the Nodes whose right 
+    // link hasn't been visited yet.
+    int key = node.key;
+    Node h = root.left;
+    int bitIndex = -1;
     
-    if (h.bitIndex <= bitIndex) {
-      if (!h.isEmpty()) {
-        return cursor.select(h); 
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      if (!isSet(key, bitIndex)) {
+        stack[depth++] = h;
+        h = h.left;
+      } else {
+        h = h.right;
       }
-      return true;
     }
     
-    if (traverseR(h.left, cursor, h.bitIndex)) {
-      return traverseR(h.right, cursor, h.bitIndex);
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = h.bitIndex;
+        h = h.left;
+        continue;
+      }
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
+      }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      Node p = stack[--depth];
+      bitIndex = p.bitIndex;
+      h = p.right;
     }
-    return false;
   }
   
   @Override
   public void clear() {
-    clear0();
+    root = new RootNode();
+    size = 0;
+    clearViews();
   }
   
   @Override
@@ -267,41 +559,215 @@ public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
     return values;
   }
   
+  @Override
+  public IntStream keyStream() {
+    return StreamSupport.intStream(new NodeSpliterator((node) -> node.key, 
+        Spliterator.DISTINCT | Spliterator.SORTED), false);
+  }
+  
+  @Override
+  public IntStream valueStream() {
+    return StreamSupport.intStream(new NodeSpliterator((node) -> node.value, 0), false);
+  }
+  
   @Override
   public Entry firstEntry() {
-    Node entry = followLeft(root.left, -1, root);
+    return followLeft(root.left, -1);
+  }
+
+  @Override
+  public Entry lastEntry() {
+    Node entry = followRight(root.left, -1);
     if (!entry.isEmpty()) {
       return entry;
     }
     return null;
   }
-
+  
   @Override
-  public Entry lastEntry() {
+  public Entry pollFirstEntry() {
+    Node entry = followLeft(root.left, -1);
+    if (entry != null) {
+      return pollEntry(entry);
+    }
+    return null;
+  }
+  
+  @Override
+  public Entry pollLastEntry() {
     Node entry = followRight(root.left, -1);
     if (!entry.isEmpty()) {
-      return entry;
+      return pollEntry(entry);
     }
     return null;
   }
   
-  private Node followLeft(Node h, int bitIndex, Node p) {
-    if (h.bitIndex <= bitIndex) {
-      if (!h.isEmpty()) {
+  /**
+   * Removes the given {@link Node} and returns it. The {@link RootNode}
+   * is being re-used and a copy of its key-value is returned instead.
+   */
+  private Entry pollEntry(Node node) {
+    if (node == root) {
+      Node copy = new Node(root.key, root.value, -1);
+      removeEntry(root);
+      return copy;
+    }
+    
+    removeEntry(node);
+    return node;
+  }
+  
+  @Override
+  public Entry ceilingEntry(int key) {
+    return navigate(key, true, true);
+  }
+  
+  @Override
+  public Entry floorEntry(int key) {
+    return navigate(key, false, true);
+  }
+  
+  @Override
+  public Entry higherEntry(int key) {
+    return navigate(key, true, false);
+  }
+  
+  @Override
+  public Entry lowerEntry(int key) {
+    return navigate(key, false, false);
+  }
+  
+  @Override
+  public IntMap subMap(int fromKey, boolean fromInclusive, 
+      int toKey, boolean toInclusive) {
+    if (compare(fromKey, toKey) > 0) {
+      throw new IllegalArgumentException("fromKey > toKey");
+    }
+    
+    return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+  }
+  
+  @Override
+  public IntMap headMap(int toKey, boolean inclusive) {
+    return new SubMap(true, 0, false, false, toKey, inclusive);
+  }
+  
+  @Override
+  public IntMap tailMap(int fromKey, boolean inclusive) {
+    return new SubMap(false, fromKey, inclusive, true, 0, false);
+  }
+  
+  /**
+   * Returns the first non-empty {@link Node} that is greater (or less 
+   * if {@code higher} is {@code false}) than the given key or equal to 
+   * it if {@code inclusive} is {@code true}. 
+   * 
+   * It walks down the key's path to the point where the key leaves the 
+   * {@link IntTrie}. The answer is either the sub-tree right there or the 
+   * closest sub-tree on the other side of one of the {@link Node}s along 
+   * the path.
+   */
+  private Node navigate(int key, boolean higher, boolean inclusive) {
+    Node closest = selectNode(key);
+    
+    // The first bit where the key differs from the keys in the IntTrie 
+    // or a negative value if it's in the IntTrie (or it's 0 whose place 
+    // is the RootNode).
+    int index;
+    if (!closest.isEmpty() && closest.key == key) {
+      index = KeyAnalyzer.EQUAL_KEY;
+    } else {
+      index = bitIndex(key, !closest.isEmpty() ? closest.key : 0);
+    }
+    
+    Node[] path = new Node[Integer.SIZE];
+    int depth = 0;
+    
+    Node h = root.left;
+    int bitIndex = -1;
+    
+    while (h.bitIndex > bitIndex && (index < 0 || h.bitIndex < index)) {
+      path[depth++] = h;
+      bitIndex = h.bitIndex;
+      h = !isSet(key, bitIndex) ? h.left : h.right;
+    }
+    
+    if (index < 0) {
+      if (inclusive && !h.isEmpty()) {
         return h;
       }
-      return p;
+      
+    // The keys in the sub-tree are all greater (or less) than the key.
+    } else if (higher != isSet(key, index)) {
+      Node node = higher ? followLeft(h, bitIndex) : followRight(h, bitIndex);
+      if (node != null && !node.isEmpty()) {
+        return node;
+      }
+    }
+    
+    // Walk back up and look at the other side of the Nodes
+    while (depth > 0) {
+      Node p = path[--depth];
+      
+      if (higher) {
+        if (!isSet(key, p.bitIndex)) {
+          Node node = followLeft(p.right, p.bitIndex);
+          if (node != null) {
+            return node;
+          }
+        }
+      } else if (isSet(key, p.bitIndex)) {
+        Node node = followRight(p.left, p.bitIndex);
+        if (!node.isEmpty()) {
+          return node;
+        }
+      }
     }
     
-    return followLeft(h.left, h.bitIndex, h);
+    return null;
   }
   
-  private Node followRight(Node h, int bitIndex) {
-    if (h.bitIndex <= bitIndex) {
+  /**
+   * Follows the left links from the given {@link Node} and returns the
+   * first non-empty {@link Node} or {@code null} if there is none.
+   */
+  private Node followLeft(Node h, int bitIndex) {
+    Node p = null;
+    
+    while (h.bitIndex > bitIndex) {
+      p = h;
+      bitIndex = h.bitIndex;
+      h = h.left;
+    }
+    
+    if (!h.isEmpty()) {
       return h;
     }
     
-    return followRight(h.right, h.bitIndex);
+    if (p == null) {
+      return null;
+    }
+    
+    // It's the empty RootNode and it's followed by the 
+    // left-most Node of its parent's right link.
+    h = p.right;
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = h.left;
+    }
+    return h;
+  }
+  
+  /**
+   * Follows the right links from the given {@link Node} and returns 
+   * the last {@link Node}.
+   */
+  private Node followRight(Node h, int bitIndex) {
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = h.right;
+    }
+    return h;
   }
   
   /**
@@ -313,20 +779,11 @@ public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
   }
   
   /**
-   * Clears the {@link PatriciaIntTrie} and returns the old {@link RootNode}.
-   * The {@link RootNode} may be used to {@link #traverse(RootNode, Cursor)}
-   * the old {@link PatriciaIntTrie}.
-   * 
-   * @see #remove(Object)
+   * Decrements the {@link #size} counter and calls {@link #clearViews()}.
    */
-  private RootNode clear0() {
-    RootNode previous = root;
-    
-    root = new RootNode();
-    size = 0;
+  private void decrementSize() {
+    --size;
     clearViews();
-    
-    return previous;
   }
   
   /**
@@ -354,26 +811,802 @@ public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
   }
   
   /**
-   * The root node of the {@link IntTrie}.
+   * Compares the two keys as unsigned values (i.e. in the 
+   * order of the {@link IntTrie}).
    */
-  private static class RootNode extends Node {
+  private static int compare(int key, int otherKey) {
+    return Integer.compareUnsigned(key, otherKey);
+  }
+  
+  /**
+   * A {@link Spliterator} for the keys or values. It walks the 
+   * {@link PatriciaIntTrie} lazily like {@link #traverse(Cursor)} 
+   * and splits it at its {@link Node}s into the left and the right 
+   * sub-tree.
+   */
+  private class NodeSpliterator implements Spliterator.OfInt {
     
-    private static final long serialVersionUID = -8857149853096688620L;
+    /**
+     * The {@link Node}s whose right link hasn't been visited yet. The 
+     * bit indices are strictly increasing along a path and there are 
+     * no more than {@link Integer#SIZE} of them.
+     */
+    private final Node[] stack;
     
-    private boolean empty = true;
+    private int depth;
     
-    public RootNode() {
-      super(-1, -1, -1);
-      this.left = this;
-    }
+    private final ToIntFunction<? super Node> function;
     
     /**
-     * Sets the key and value of the root node.
+     * The {@link NodeSpliterator} is {@link #SIZED} until it's being 
+     * split as the sizes of the two halves are only estimates.
      */
-    public int setKeyValue(int key, int value) {
-      this.key = key;
-      this.empty = false;
-      return setValue(value);
+    private int characteristics;
+    
+    /**
+     * The link that will be followed next.
+     */
+    private Node h;
+    
+    private int bitIndex;
+    
+    private long estimatedSize;
+    
+    /**
+     * Creates a {@link NodeSpliterator} for all {@link Node}s. It's 
+     * in unsigned order if it's {@link #SORTED}.
+     */
+    public NodeSpliterator(ToIntFunction<? super Node> function, int characteristics) {
+      this(new Node[Integer.SIZE], 0, function, 
+          characteristics | ORDERED | NONNULL | SIZED, root.left, -1, size);
+    }
+    
+    private NodeSpliterator(Node[] stack, int depth, 
+        ToIntFunction<? super Node> function, int characteristics, 
+        Node h, int bitIndex, long estimatedSize) {
+      this.stack = stack;
+      this.depth = depth;
+      this.function = function;
+      this.characteristics = characteristics;
+      this.h = h;
+      this.bitIndex = bitIndex;
+      this.estimatedSize = estimatedSize;
+    }
+    
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+      while (h != null) {
+        while (h.bitIndex > bitIndex) {
+          stack[depth++] = h;
+          bitIndex = h.bitIndex;
+          h = h.left;
+        }
+        
+        Node node = h;
+        
+        if (depth > 0) {
+          Node p = stack[--depth];
+          bitIndex = p.bitIndex;
+          h = p.right;
+        } else {
+          h = null;
+        }
+        
+        // Skip the empty RootNode
+        if (!node.isEmpty()) {
+          if (estimatedSize > 0L) {
+            --estimatedSize;
+          }
+          
+          action.accept(function.applyAsInt(node));
+          return true;
+        }
+      }
+      
+      return false;
+    }
+    
+    /**
+     * Returns everything in front of the last right link on the stack or 
+     * the left sub-tree if the stack is empty. This {@link NodeSpliterator} 
+     * continues with the rest.
+     */
+    @Override
+    public Spliterator.OfInt trySplit() {
+      if (h == null) {
+        return null;
+      }
+      
+      if (depth > 0 || h.bitIndex > bitIndex) {
+        estimatedSize >>>= 1;
+        characteristics &= ~(SIZED | SUBSIZED);
+      }
+      
+      if (depth > 0) {
+        Node p = stack[0];
+        
+        Node[] prefix = Arrays.copyOfRange(stack, 1, Integer.SIZE);
+        Spliterator.OfInt split = new NodeSpliterator(prefix, depth - 1, 
+            function, characteristics, h, bitIndex, estimatedSize);
+        
+        depth = 0;
+        h = p.right;
+        bitIndex = p.bitIndex;
+        return split;
+      }
+      
+      if (h.bitIndex > bitIndex) {
+        Node p = h;
+        Spliterator.OfInt split = new NodeSpliterator(new Node[Integer.SIZE], 0, 
+            function, characteristics, p.left, p.bitIndex, estimatedSize);
+        
+        h = p.right;
+        bitIndex = p.bitIndex;
+        return split;
+      }
+      
+      // It's a single Node (or the empty root)
+      if ((characteristics & SIZED) == 0) {
+        estimatedSize = 1L;
+      }
+      return null;
+    }
+    
+    @Override
+    public long estimateSize() {
+      return estimatedSize;
+    }
+    
+    @Override
+    public int characteristics() {
+      return characteristics;
+    }
+    
+    @Override
+    public Comparator<? super Integer> getComparator() {
+      if ((characteristics & SORTED) == 0) {
+        throw new IllegalStateException();
+      }
+      return Integer::compareUnsigned;
+    }
+  }
+  
+  /**
+   * @see PatriciaIntTrie#subMap(int, boolean, int, boolean)
+   * @see PatriciaIntTrie#headMap(int, boolean)
+   * @see PatriciaIntTrie#tailMap(int, boolean)
+   */
+  private class SubMap implements IntMap {
+    
+    private final boolean fromStart;
+    
+    private final int fromKey;
+    
+    private final boolean fromInclusive;
+    
+    private final boolean toEnd;
+    
+    private final int toKey;
+    
+    private final boolean toInclusive;
+    
+    public SubMap(boolean fromStart, int fromKey, boolean fromInclusive, 
+        boolean toEnd, int toKey, boolean toInclusive) {
+      this.fromStart = fromStart;
+      this.fromKey = fromKey;
+      this.fromInclusive = fromInclusive;
+      this.toEnd = toEnd;
+      this.toKey = toKey;
+      this.toInclusive = toInclusive;
+    }
+    
+    /**
+     * Returns {@code true} if the key is below the lower bound.
+     */
+    private boolean tooLow(int key) {
+      if (!fromStart) {
+        int c = compare(key, fromKey);
+        return c < 0 || (c == 0 && !fromInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is above the upper bound.
+     */
+    private boolean tooHigh(int key) {
+      if (!toEnd) {
+        int c = compare(key, toKey);
+        return c > 0 || (c == 0 && !toInclusive);
+      }
+      return false;
+    }
+    
+    /**
+     * Returns {@code true} if the key is within the bounds.
+     */
+    private boolean inRange(int key) {
+      return !tooLow(key) && !tooHigh(key);
+    }
+    
+    /**
+     * Returns the first {@link Node} in the range or {@code null}.
+     */
+    private Node first() {
+      Node node = fromStart ? followLeft(root.left, -1)
+          : navigate(fromKey, true, fromInclusive);
+      
+      if (node != null && tooHigh(node.key)) {
+        return null;
+      }
+      return node;
+    }
+    
+    /**
+     * Traverses the range from its first through its last {@link Entry}.
+     */
+    private void traverse(final Cursor cursor) {
+      Node first = first();
+      if (first != null) {
+        PatriciaIntTrie.this.traverse(first, new Cursor() {
+          @Override
+          public boolean select(Entry entry) {
+            return !tooHigh(entry.getKey()) && cursor.select(entry);
+          }
+        });
+      }
+    }
+    
+    @Override
+    public int put(int key, int value) {
+      if (!inRange(key)) {
+        throw new IllegalArgumentException("Key out of range: " + key);
+      }
+      
+      return PatriciaIntTrie.this.put(key, value);
+    }
+
+    @Override
+    public int get(int key) {
+      if (inRange(key)) {
+        return PatriciaIntTrie.this.get(key);
+      }
+      return -1;
+    }
+
+    @Override
+    public int remove(int key) {
+      if (inRange(key)) {
+        return PatriciaIntTrie.this.remove(key);
+      }
+      return -1;
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+      return inRange(key) && PatriciaIntTrie.this.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(final int value) {
+      final boolean[] contains = { false };
+      
+      traverse(new Cursor() {
+        @Override
+        public boolean select(Entry entry) {
+          if (AbstractIntTrie.equals(value, entry.getValue())) {
+            contains[0] = true;
+            return false;
+          }
+          return true;
+        }
+      });
+      
+      return contains[0];
+    }
+
+    @Override
+    public int size() {
+      final int[] size = { 0 };
+      
+      traverse(new Cursor() {
+        @Override
+        public boolean select(Entry entry) {
+          ++size[0];
+          return true;
+        }
+      });
+      
+      return size[0];
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return first() == null;
+    }
+
+    @Override
+    public void clear() {
+      for (int key : keySet()) {
+        PatriciaIntTrie.this.remove(key);
+      }
+    }
+
+    @Override
+    public Entry[] entrySet() {
+      final List<Entry> entries = new ArrayList<Entry>();
+      
+      traverse(new Cursor() {
+        @Override
+        public boolean select(Entry entry) {
+          entries.add(entry);
+          return true;
+        }
+      });
+      
+      return entries.toArray(new Entry[0]);
+    }
+
+    @Override
+    public int[] keySet() {
+      Entry[] entries = entrySet();
+      int[] keys = new int[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+        keys[i] = entries[i].getKey();
+      }
+      return keys;
+    }
+
+    @Override
+    public int[] values() {
+      Entry[] entries = entrySet();
+      int[] values = new int[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+        values[i] = entries[i].getValue();
+      }
+      return values;
+    }
+
+    @Override
+    public void putAll(IntMap m) {
+      for (Entry entry : m.entrySet()) {
+        put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+  
+  /**
+   * Writes the key-values in unsigned order of their keys instead of 
+   * the {@link Node} graph. The keys are written as the varint encoded 
+   * difference to the previous key and the values as zig-zag varints. 
+   * The {@link PatriciaIntTrie} is being re-built from the sorted 
+   * key-values upon deserialization.
+   */
+  private void writeObject(final ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    
+    writeVarInt(out, size());
+    
+    try {
+      traverse(new Cursor() {
+        
+        private int previous = 0;
+        
+        @Override
+        public boolean select(Entry entry) {
+          int key = entry.getKey();
+          int value = entry.getValue();
+          
+          try {
+            writeVarInt(out, key - previous);
+            writeVarInt(out, (value << 1) ^ (value >> 31));
+          } catch (IOException err) {
+            throw new UncheckedIOException(err);
+          }
+          
+          previous = key;
+          return true;
+        }
+      });
+    } catch (UncheckedIOException err) {
+      throw err.getCause();
+    }
+  }
+  
+  private void readObject(ObjectInputStream in) 
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    
+    int size = readVarInt(in);
+    if (size < 0) {
+      throw new InvalidObjectException("size=" + size);
+    }
+    
+    root = new RootNode();
+    
+    Builder builder = new Builder(this);
+    int key = 0;
+    for (int i = 0; i < size; i++) {
+      int delta = readVarInt(in);
+      if (i != 0 && delta == 0) {
+        throw new InvalidObjectException("Duplicate key: " + key);
+      }
+      
+      key += delta;
+      
+      int value = readVarInt(in);
+      value = (value >>> 1) ^ -(value & 1);
+      
+      try {
+        builder.add(key, value);
+      } catch (IllegalArgumentException err) {
+        throw new InvalidObjectException(err.getMessage());
+      }
+    }
+    builder.build();
+  }
+  
+  /**
+   * Writes the given value as an unsigned varint (7 bits per byte).
+   */
+  private static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+  
+  /**
+   * Reads an unsigned varint.
+   * 
+   * @see #writeVarInt(DataOutput, int)
+   */
+  private static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new InvalidObjectException("Malformed varint");
+  }
+  
+  /**
+   * Creates a {@link PatriciaIntTrie} from keys that are in unsigned 
+   * order (e.g. the keys of another {@link PatriciaIntTrie}).
+   * 
+   * @see org.ardverk.collection.spt.PatriciaTrie.Builder
+   */
+  public static class Builder {
+    
+    private final Deque<Node> stack = new ArrayDeque<Node>();
+    
+    private PatriciaIntTrie trie;
+    
+    private Node last = null;
+    
+    private Builder(boolean recycleNodes) {
+      this(new PatriciaIntTrie(recycleNodes));
+    }
+    
+    /**
+     * Creates a {@link Builder} that adds the key-values to the given 
+     * (empty) {@link PatriciaIntTrie}.
+     */
+    private Builder(PatriciaIntTrie trie) {
+      this.trie = trie;
+    }
+    
+    /**
+     * Adds the given key-value. The key must be greater than the 
+     * previous key (or equal to it in which case it replaces the 
+     * previous value).
+     * 
+     * @throws IllegalArgumentException if the key is smaller than 
+     * the previous key.
+     */
+    public Builder add(int key, int value) {
+      PatriciaIntTrie trie = trie();
+      
+      // The root is the only place to store null!
+      if (key == 0) {
+        trie.putForNullKey(key, value);
+        return this;
+      }
+      
+      int existing = 0;
+      if (last != null) {
+        existing = last.key;
+        if (AbstractIntTrie.equals(key, existing)) {
+          last.setValue(value);
+          return this;
+        }
+      }
+      
+      int bitIndex = bitIndex(key, existing);
+      if (bitIndex == KeyAnalyzer.NULL_KEY) {
+        trie.putForNullKey(key, value);
+        return this;
+      }
+      
+      if (bitIndex < 0 || !isSet(key, bitIndex)) {
+        throw new IllegalArgumentException("The keys are not sorted: " 
+            + Integer.toUnsignedString(existing) + ", " 
+            + Integer.toUnsignedString(key));
+      }
+      
+      // Pop the Nodes that test bits after the bit index. The topmost 
+      // of them becomes the new Node's left sub-tree.
+      Node h = last != null ? last : trie.root;
+      while (!stack.isEmpty() && stack.peek().bitIndex > bitIndex) {
+        h = stack.pop();
+      }
+      
+      Node t = trie.newNode(key, value, bitIndex);
+      t.left = h;
+      t.right = t;
+      
+      if (stack.isEmpty()) {
+        trie.root.left = t;
+      } else {
+        stack.peek().right = t;
+      }
+      
+      stack.push(t);
+      last = t;
+      
+      trie.incrementSize();
+      return this;
+    }
+    
+    /**
+     * Adds all key-values of the given {@link IntMap}. Its 
+     * {@link IntMap#entrySet()} must return the keys in unsigned order.
+     * 
+     * @see #add(int, int)
+     */
+    public Builder addSorted(IntMap m) {
+      for (Entry entry : m.entrySet()) {
+        add(entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+    
+    /**
+     * Adds the given keys and values. The keys must be in unsigned order.
+     * 
+     * @see #add(int, int)
+     */
+    public Builder addSorted(int[] keys, int[] values) {
+      if (keys.length != values.length) {
+        throw new IllegalArgumentException("keys.length=" + keys.length 
+            + ", values.length=" + values.length);
+      }
+      
+      for (int i = 0; i < keys.length; i++) {
+        add(keys[i], values[i]);
+      }
+      return this;
+    }
+    
+    /**
+     * Returns the {@link PatriciaIntTrie}. The {@link Builder} can't 
+     * be used anymore afterwards.
+     */
+    public PatriciaIntTrie build() {
+      PatriciaIntTrie trie = trie();
+      
+      this.trie = null;
+      stack.clear();
+      last = null;
+      
+      return trie;
+    }
+    
+    private PatriciaIntTrie trie() {
+      if (trie == null) {
+        throw new IllegalStateException("build() has been called");
+      }
+      return trie;
+    }
+  }
+  
+  /**
+   * Creates the {@link Node}s for the sorted key-values in parallel. Each 
+   * {@link Node}'s bit index is where its key differs from the previous key.
+   * 
+   * @see PatriciaIntTrie#parallelBuild(int[], int[], ForkJoinPool)
+   */
+  private static class NodeTask extends RecursiveAction {
+    
+    private static final long serialVersionUID = 2950243722455460178L;
+    
+    private final int[] keys;
+    
+    private final int[] values;
+    
+    private final int offset;
+    
+    private final Node[] nodes;
+    
+    private final int lo;
+    
+    private final int hi;
+    
+    public NodeTask(int[] keys, int[] values, int offset, 
+        Node[] nodes, int lo, int hi) {
+      this.keys = keys;
+      this.values = values;
+      this.offset = offset;
+      this.nodes = nodes;
+      this.lo = lo;
+      this.hi = hi;
+    }
+    
+    @Override
+    protected void compute() {
+      if (hi - lo > THRESHOLD) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new NodeTask(keys, values, offset, nodes, lo, mid), 
+            new NodeTask(keys, values, offset, nodes, mid, hi));
+        return;
+      }
+      
+      for (int i = lo; i < hi; i++) {
+        int key = keys[offset + i];
+        int previous = i > 0 ? keys[offset + i - 1] : 0;
+        
+        int bitIndex = bitIndex(key, previous);
+        if (bitIndex < 0 || !isSet(key, bitIndex)) {
+          throw new IllegalArgumentException("The keys are not sorted: " 
+              + Integer.toUnsignedString(previous) + ", " 
+              + Integer.toUnsignedString(key));
+        }
+        
+        nodes[i] = new Node(key, values[offset + i], bitIndex);
+      }
+    }
+  }
+  
+  /**
+   * Links the sorted {@link Node}s and returns the root of their sub-tree.
+   * 
+   * @see PatriciaIntTrie#parallelBuild(int[], int[], ForkJoinPool)
+   * @see org.ardverk.collection.spt.PatriciaTrie#parallelBuild(KeyAnalyzer, java.util.Map, ForkJoinPool)
+   */
+  private static class LinkTask extends RecursiveTask<Node> {
+    
+    private static final long serialVersionUID = -1453385950785765717L;
+    
+    private final PatriciaIntTrie trie;
+    
+    private final Node[] nodes;
+    
+    private final int lo;
+    
+    private final int hi;
+    
+    public LinkTask(PatriciaIntTrie trie, Node[] nodes, int lo, int hi) {
+      this.trie = trie;
+      this.nodes = nodes;
+      this.lo = lo;
+      this.hi = hi;
+    }
+    
+    @Override
+    protected Node compute() {
+      if (hi - lo <= THRESHOLD) {
+        return link();
+      }
+      
+      int index = split();
+      
+      LinkTask left = null;
+      if (lo < index) {
+        left = new LinkTask(trie, nodes, lo, index);
+        left.fork();
+      }
+      
+      Node t = nodes[index];
+      t.right = index + 1 < hi 
+          ? new LinkTask(trie, nodes, index + 1, hi).compute() : t;
+      t.left = left != null ? left.join() : previous(index);
+      return t;
+    }
+    
+    /**
+     * Returns the index of the {@link Node} with the smallest bit index.
+     */
+    private int split() {
+      Node first = nodes[lo];
+      int bitIndex = bitIndex(first.key, nodes[hi-1].key);
+      if (first.bitIndex < bitIndex) {
+        return lo;
+      }
+      
+      int low = lo + 1;
+      int high = hi - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (isSet(nodes[mid].key, bitIndex)) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+      return low;
+    }
+    
+    /**
+     * Links the {@link Node}s one by one just like the {@link Builder}.
+     */
+    private Node link() {
+      Deque<Node> stack = new ArrayDeque<Node>();
+      
+      for (int i = lo; i < hi; i++) {
+        Node t = nodes[i];
+        
+        Node h = previous(i);
+        while (!stack.isEmpty() && stack.peek().bitIndex > t.bitIndex) {
+          h = stack.pop();
+        }
+        
+        t.left = h;
+        t.right = t;
+        
+        if (!stack.isEmpty()) {
+          stack.peek().right = t;
+        }
+        
+        stack.push(t);
+      }
+      
+      return stack.peekLast();
+    }
+    
+    /**
+     * Returns the {@link Node} before the given index. It's where a 
+     * {@link Node} without a left sub-tree points up to.
+     */
+    private Node previous(int index) {
+      return index > 0 ? nodes[index-1] : trie.root;
+    }
+  }
+  
+  /**
+   * The root node of the {@link IntTrie}.
+   */
+  private static class RootNode extends Node {
+    
+    private static final long serialVersionUID = -8857149853096688620L;
+    
+    private boolean empty = true;
+    
+    public RootNode() {
+      super(-1, -1, -1);
+      this.left = this;
+    }
+    
+    /**
+     * Sets the key and value of the root node.
+     */
+    public int setKeyValue(int key, int value) {
+      this.key = key;
+      this.empty = false;
+      return setValue(value);
+    }
+    
+    /**
+     * Removes the key and value from the root node.
+     */
+    public int removeKeyValue() {
+      int existing = setValue(-1);
+      this.key = -1;
+      this.empty = true;
+      return existing;
     }
 
     @Override
@@ -389,7 +1622,7 @@ public class PatriciaIntTrie extends AbstractIntTrie implements Serializable {
     
     private static final long serialVersionUID = -2409938371345117780L;
 
-    private final int bitIndex;
+    private int bitIndex;
 
     protected int key;
     
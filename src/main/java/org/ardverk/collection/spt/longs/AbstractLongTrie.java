@@ -0,0 +1,148 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.longs;
+
+import java.io.Serializable;
+import java.util.NoSuchElementException;
+
+/**
+ * An abstract implementation of {@link LongTrie}.
+ */
+abstract class AbstractLongTrie implements LongTrie, Serializable {
+  
+  private static final long serialVersionUID = -3216391736016440185L;
+
+  /**
+   * Returns an {@link Entry} for the given key or {@code null} if no 
+   * such entry exists.
+   */
+  Entry entry(long key) {
+    Entry entry = select(key);
+    if (entry != null && equals(key, entry.getKey())) {
+      return entry;
+    }
+    return null;
+  }
+  
+  @Override
+  public long get(long key) {
+    Entry entry = entry(key);
+    return entry != null ? entry.getValue() : -1L;
+  }
+  
+  @Override
+  public void putAll(LongMap m) {
+    for (Entry entry : m.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+  
+  @Override
+  public boolean containsKey(long key) {
+    return entry(key) != null;
+  }
+  
+  @Override
+  public boolean containsValue(final long value) {
+    final boolean[] contains = { false };
+    
+    traverse((entry) -> {
+      if (AbstractLongTrie.equals(value, entry.getValue())) {
+        contains[0] = true;
+        return false;
+      }
+      return true;
+    });
+    
+    return contains[0];
+  }
+  
+  @Override
+  public long selectKey(long key) {
+    return notNull(select(key)).getKey();
+  }
+  
+  @Override
+  public long selectValue(long key) {
+    return notNull(select(key)).getValue();
+  }
+  
+  @Override
+  public long firstKey() {
+    return notNull(firstEntry()).getKey();
+  }
+  
+  @Override
+  public long lastKey() {
+    return notNull(lastEntry()).getKey();
+  }
+  
+  @Override
+  public Entry pollFirstEntry() {
+    Entry entry = firstEntry();
+    if (entry != null) {
+      remove(entry.getKey());
+    }
+    return entry;
+  }
+
+  @Override
+  public Entry pollLastEntry() {
+    Entry entry = lastEntry();
+    if (entry != null) {
+      remove(entry.getKey());
+    }
+    return entry;
+  }
+  
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+  
+  @Override
+  public String toString() {
+    final StringBuilder buffer = new StringBuilder();
+    buffer.append(getClass().getSimpleName()).append("[").append(size()).append("]={\n");
+    
+    traverse((entry) -> {
+      buffer.append("  ").append(entry).append("\n");
+      return true;
+    });
+    
+    buffer.append("}\n");
+    return buffer.toString();
+  }
+  
+  /**
+   * Returns the given {@link Entry} or throws a {@link NoSuchElementException}
+   * if it's {@code null} (i.e. the {@link LongTrie} is empty).
+   */
+  private static Entry notNull(Entry entry) {
+    if (entry == null) {
+      throw new NoSuchElementException();
+    }
+    return entry;
+  }
+  
+  /**
+   * Returns {@code true} if the two values are equal.
+   */
+  static boolean equals(long o1, long o2) {
+    return o1 == o2;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.longs;
+
+import java.util.Map;
+
+/**
+ * An interface that replicates the {@link Map} interface 
+ * but for {@code long} values.
+ * 
+ * @see Map
+ */
+public interface LongMap {
+
+  /**
+   * @see Map#put(Object, Object)
+   */
+  public long put(long key, long value);
+  
+  /**
+   * @see Map#get(Object)
+   */
+  public long get(long key);
+  
+  /**
+   * @see Map#remove(Object)
+   */
+  public long remove(long key);
+  
+  /**
+   * @see Map#containsKey(Object)
+   */
+  public boolean containsKey(long key);
+  
+  /**
+   * @see Map#containsValue(Object)
+   */
+  public boolean containsValue(long value);
+  
+  /**
+   * @see Map#size()
+   */
+  public int size();
+  
+  /**
+   * @see Map#isEmpty()
+   */
+  public boolean isEmpty();
+  
+  /**
+   * @see Map#clear()
+   */
+  public void clear();
+  
+  /**
+   * @see Map#entrySet()
+   */
+  public LongMap.Entry[] entrySet();
+  
+  /**
+   * @see Map#keySet()
+   */
+  public long[] keySet();
+  
+  /**
+   * @see Map#values()
+   */
+  public long[] values();
+  
+  /**
+   * @see Map#putAll(Map)
+   */
+  public void putAll(LongMap m);
+  
+  /**
+   * @see Map.Entry
+   */
+  public static interface Entry {
+    
+    /**
+     * @see Map.Entry#getKey()
+     */
+    public long getKey();
+    
+    /**
+     * @see Map.Entry#getValue()
+     */
+    public long getValue();
+    
+    /**
+     * @see Map.Entry#setValue(Object)
+     */
+    public long setValue(long value);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.longs;
+
+import java.util.NavigableMap;
+import java.util.SortedMap;
+
+
+/**
+ * A simple {@link LongTrie} interface.
+ */
+public interface LongTrie extends LongMap {
+  
+  /**
+   * Selects and returns the closest {@link Entry} to the given key.
+   */
+  public LongMap.Entry select(long key);
+  
+  /**
+   * Selects and returns the closest key to the given key.
+   */
+  public long selectKey(long key);
+  
+  /**
+   * Selects and returns the closest value to the given key.
+   */
+  public long selectValue(long key);
+  
+  /**
+   * @see NavigableMap#firstEntry()
+   */
+  public LongMap.Entry firstEntry();
+  
+  /**
+   * @see SortedMap#firstKey()
+   */
+  public long firstKey();
+
+  /**
+   * @see NavigableMap#lastEntry()
+   */
+  public LongMap.Entry lastEntry();
+  
+  /**
+   * @see SortedMap#lastKey()
+   */
+  public long lastKey();
+  
+  /**
+   * @see NavigableMap#pollFirstEntry()
+   */
+  public LongMap.Entry pollFirstEntry();
+  
+  /**
+   * @see NavigableMap#pollLastEntry()
+   */
+  public LongMap.Entry pollLastEntry();
+  
+  /**
+   * Traverses the {@link LongTrie} by closeness to the given key.
+   */
+  public void select(long key, Cursor cursor);
+  
+  /**
+   * Traverses the {@link LongTrie} from {@link #firstEntry()} through 
+   * {@link #lastEntry()}
+   */
+  public void traverse(Cursor cursor);
+}
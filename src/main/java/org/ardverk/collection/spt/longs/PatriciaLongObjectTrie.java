@@ -0,0 +1,839 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.longs;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import org.ardverk.collection.spt.LongKeyAnalyzer;
+import org.ardverk.collection.spt.KeyAnalyzer;
+
+/**
+ * A PATRICIA Trie that stores {@code long} to {@code Object} mappings.
+ * It's the same as the {@link PatriciaLongTrie} but for arbitrary values
+ * and unlike a {@code PatriciaTrie<Long, V>} it never boxes the keys.
+ *
+ * {@link #get(long)} and {@link #remove(long)} return {@code null} for
+ * missing keys. Use {@link #containsKey(long)} if {@code null} is a
+ * valid value.
+ *
+ * NOTE: The {@code ints.PatriciaIntObjectTrie} is the same code for
+ * {@code int} keys. Apply any fix to both of them.
+ */
+public class PatriciaLongObjectTrie<V> implements Serializable {
+  
+  private static final long serialVersionUID = 8530932645168925381L;
+  
+  private transient volatile RootNode<V> root = new RootNode<V>();
+  
+  private transient volatile int size = 0;
+  
+  public PatriciaLongObjectTrie() {
+  }
+  
+  public PatriciaLongObjectTrie(PatriciaLongObjectTrie<? extends V> m) {
+    this();
+    putAll(m);
+  }
+  
+  /**
+   * Selects and returns the closest {@link Entry} to the given key.
+   */
+  public Entry<V> select(long key) {
+    Node<V> entry = selectNode(key);
+    if (!entry.isEmpty()) {
+      return entry;
+    }
+    return null;
+  }
+  
+  /**
+   * Selects and returns the closest key to the given key.
+   */
+  public long selectKey(long key) {
+    return notNull(select(key)).getKey();
+  }
+  
+  /**
+   * Selects and returns the closest value to the given key.
+   */
+  public V selectValue(long key) {
+    return notNull(select(key)).getValue();
+  }
+  
+  /**
+   * Follows the key's bits from the root to the {@link Node} that is
+   * closest to the key.
+   */
+  private Node<V> selectNode(long key) {
+    Node<V> h = root.left;
+    int bitIndex = -1;
+    
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = !isSet(key, bitIndex) ? h.left : h.right;
+    }
+    
+    return h;
+  }
+  
+  /**
+   * Returns the {@link Node} for the given key or {@code null} if no
+   * such {@link Node} exists.
+   */
+  private Node<V> entry(long key) {
+    Node<V> entry = selectNode(key);
+    if (!entry.isEmpty() && entry.key == key) {
+      return entry;
+    }
+    return null;
+  }
+  
+  /**
+   * @see Map#get(Object)
+   */
+  public V get(long key) {
+    Node<V> entry = entry(key);
+    return entry != null ? entry.value : null;
+  }
+  
+  /**
+   * @see Map#getOrDefault(Object, Object)
+   */
+  public V getOrDefault(long key, V defaultValue) {
+    Node<V> entry = entry(key);
+    return entry != null ? entry.value : defaultValue;
+  }
+  
+  /**
+   * @see Map#containsKey(Object)
+   */
+  public boolean containsKey(long key) {
+    return entry(key) != null;
+  }
+  
+  /**
+   * @see Map#containsValue(Object)
+   */
+  public boolean containsValue(final Object value) {
+    final boolean[] contains = { false };
+    
+    traverse((entry) -> {
+      if (Objects.equals(value, entry.getValue())) {
+        contains[0] = true;
+        return false;
+      }
+      return true;
+    });
+    
+    return contains[0];
+  }
+  
+  /**
+   * @see Map#put(Object, Object)
+   */
+  public V put(long key, V value) {
+    // This is a shortcut! The root is the only place to store null!
+    if (key == 0L) {
+      return putForNullKey(key, value);
+    }
+    
+    Node<V> entry = selectNode(key);
+    long existing = 0L;
+    if (!entry.isEmpty()) {
+      existing = entry.key;
+      if (key == existing) {
+        return entry.setValue(value);
+      }
+    }
+    
+    int bitIndex = bitIndex(key, existing);
+    if (bitIndex == KeyAnalyzer.NULL_KEY) {
+      return putForNullKey(key, value);
+    }
+    
+    assert (bitIndex >= 0);
+    insert(key, value, bitIndex);
+    ++size;
+    
+    return null;
+  }
+  
+  private V putForNullKey(long key, V value) {
+    if (root.isEmpty()) {
+      ++size;
+    }
+    
+    return root.setKeyValue(key, value);
+  }
+  
+  /**
+   * Inserts a new {@link Node} for the given key-value where the key
+   * differs at the given bit index from the closest existing key.
+   */
+  private void insert(long key, V value, int bitIndex) {
+    Node<V> p = root;
+    Node<V> h = root.left;
+    boolean right = false;
+    
+    while (h.bitIndex < bitIndex && h.bitIndex > p.bitIndex) {
+      p = h;
+      right = isSet(key, h.bitIndex);
+      h = !right ? h.left : h.right;
+    }
+    
+    Node<V> t = new Node<V>(key, value, bitIndex);
+    
+    boolean isSet = isSet(key, t.bitIndex);
+    t.left = isSet ? h : t;
+    t.right = isSet ? t : h;
+    
+    if (!right) {
+      p.left = t;
+    } else {
+      p.right = t;
+    }
+  }
+  
+  /**
+   * @see Map#putAll(Map)
+   */
+  public void putAll(PatriciaLongObjectTrie<? extends V> m) {
+    m.traverse((entry) -> {
+      put(entry.getKey(), entry.getValue());
+      return true;
+    });
+  }
+  
+  /**
+   * @see Map#remove(Object)
+   */
+  public V remove(long key) {
+    Node<V> entry = entry(key);
+    if (entry != null) {
+      return removeEntry(entry);
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Removes the given {@link Node} from the {@link PatriciaLongObjectTrie}.
+   */
+  private V removeEntry(Node<V> node) {
+    // This is a shortcut! The root is the only place to store null!
+    if (node == root) {
+      if (root.isEmpty()) {
+        return null;
+      }
+      
+      --size;
+      return root.removeKeyValue();
+    }
+    
+    long key = node.key;
+    
+    // Walk down to the uplink that points to the node. Along the way
+    // we're keeping track of the node's parent (the one with the downlink
+    // to the node), the node with the uplink (p) and its parent (pp).
+    Node<V> parent = null;
+    Node<V> pp = root;
+    Node<V> p = root;
+    Node<V> h = root.left;
+    
+    while (h.bitIndex > p.bitIndex) {
+      if (h == node) {
+        parent = p;
+      }
+      
+      pp = p;
+      p = h;
+      h = !isSet(key, h.bitIndex) ? h.left : h.right;
+    }
+    
+    if (h != node) {
+      return null;
+    }
+    
+    // The link of p that is NOT pointing up to the node
+    Node<V> other = !isSet(key, p.bitIndex) ? p.right : p.left;
+    
+    if (p == node) {
+      // The node is pointing up to itself. Replace the downlink
+      // from its parent with the node's other link.
+      replace(parent, node, other);
+    
+    } else {
+      // Remove p from its current position and move it into the
+      // position of the node that is being removed.
+      replace(pp, p, other);
+      
+      p.bitIndex = node.bitIndex;
+      p.left = node.left;
+      p.right = node.right;
+      replace(parent, node, p);
+    }
+    
+    node.left = null;
+    node.right = null;
+    
+    --size;
+    return node.value;
+  }
+  
+  /**
+   * Replaces the link from the parent {@link Node} to the existing
+   * {@link Node} with a link to the replacement {@link Node}.
+   */
+  private static <V> void replace(Node<V> parent, Node<V> existing, Node<V> replacement) {
+    if (parent.left == existing) {
+      parent.left = replacement;
+    } else {
+      parent.right = replacement;
+    }
+  }
+  
+  /**
+   * Traverses the {@link PatriciaLongObjectTrie} by closeness to the given key.
+   */
+  public void select(long key, Cursor<? super V> cursor) {
+    // The Nodes whose far link hasn't been visited yet. The bit
+    // indices are strictly increasing along a path and there are
+    // no more than Long.SIZE of them.
+    @SuppressWarnings("unchecked")
+    Node<V>[] stack = (Node<V>[])new Node<?>[Long.SIZE];
+    int depth = 0;
+    
+    Node<V> h = root.left;
+    int bitIndex = -1;
+    
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = h.bitIndex;
+        h = !isSet(key, bitIndex) ? h.left : h.right;
+        continue;
+      }
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
+      }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      Node<V> p = stack[--depth];
+      bitIndex = p.bitIndex;
+      h = !isSet(key, bitIndex) ? p.right : p.left;
+    }
+  }
+  
+  /**
+   * Traverses the {@link PatriciaLongObjectTrie} from {@link #firstEntry()}
+   * through {@link #lastEntry()}.
+   */
+  public void traverse(Cursor<? super V> cursor) {
+    // The Nodes whose right link hasn't been visited yet
+    @SuppressWarnings("unchecked")
+    Node<V>[] stack = (Node<V>[])new Node<?>[Long.SIZE];
+    int depth = 0;
+    
+    Node<V> h = root.left;
+    int bitIndex = -1;
+    
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = h.bitIndex;
+        h = h.left;
+        continue;
+      }
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
+      }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      Node<V> p = stack[--depth];
+      bitIndex = p.bitIndex;
+      h = p.right;
+    }
+  }
+  
+  /**
+   * @see Map#clear()
+   */
+  public void clear() {
+    root = new RootNode<V>();
+    size = 0;
+  }
+  
+  /**
+   * @see Map#size()
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * @see Map#isEmpty()
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+  
+  /**
+   * @see NavigableMap#firstEntry()
+   */
+  public Entry<V> firstEntry() {
+    return followLeft(root.left, -1);
+  }
+  
+  /**
+   * @see NavigableMap#lastEntry()
+   */
+  public Entry<V> lastEntry() {
+    Node<V> entry = followRight(root.left, -1);
+    if (!entry.isEmpty()) {
+      return entry;
+    }
+    return null;
+  }
+  
+  /**
+   * @see NavigableMap#firstKey()
+   */
+  public long firstKey() {
+    return notNull(firstEntry()).getKey();
+  }
+  
+  /**
+   * @see NavigableMap#lastKey()
+   */
+  public long lastKey() {
+    return notNull(lastEntry()).getKey();
+  }
+  
+  /**
+   * @see NavigableMap#pollFirstEntry()
+   */
+  public Entry<V> pollFirstEntry() {
+    Node<V> entry = followLeft(root.left, -1);
+    if (entry != null) {
+      return pollEntry(entry);
+    }
+    return null;
+  }
+  
+  /**
+   * @see NavigableMap#pollLastEntry()
+   */
+  public Entry<V> pollLastEntry() {
+    Node<V> entry = followRight(root.left, -1);
+    if (!entry.isEmpty()) {
+      return pollEntry(entry);
+    }
+    return null;
+  }
+  
+  /**
+   * Removes the given {@link Node} and returns it. The {@link RootNode}
+   * is being re-used and a copy of its key-value is returned instead.
+   */
+  private Entry<V> pollEntry(Node<V> node) {
+    if (node == root) {
+      node = new Node<V>(node.key, node.value, node.bitIndex);
+      removeEntry(root);
+    } else {
+      removeEntry(node);
+    }
+    return node;
+  }
+  
+  /**
+   * @see NavigableMap#ceilingEntry(Object)
+   */
+  public Entry<V> ceilingEntry(long key) {
+    return navigate(key, true, true);
+  }
+  
+  /**
+   * @see NavigableMap#floorEntry(Object)
+   */
+  public Entry<V> floorEntry(long key) {
+    return navigate(key, false, true);
+  }
+  
+  /**
+   * @see NavigableMap#higherEntry(Object)
+   */
+  public Entry<V> higherEntry(long key) {
+    return navigate(key, true, false);
+  }
+  
+  /**
+   * @see NavigableMap#lowerEntry(Object)
+   */
+  public Entry<V> lowerEntry(long key) {
+    return navigate(key, false, false);
+  }
+  
+  /**
+   * Returns the first non-empty {@link Node} that is greater (or less
+   * if {@code higher} is {@code false}) than the given key or equal to
+   * it if {@code inclusive} is {@code true}.
+   *
+   * @see PatriciaLongTrie#ceilingEntry(long)
+   */
+  private Node<V> navigate(long key, boolean higher, boolean inclusive) {
+    Node<V> closest = selectNode(key);
+    
+    // The first bit where the key differs from the keys in the Trie
+    // or a negative value if it's in the Trie (or it's 0 whose place
+    // is the RootNode).
+    int index;
+    if (!closest.isEmpty() && closest.key == key) {
+      index = KeyAnalyzer.EQUAL_KEY;
+    } else {
+      index = bitIndex(key, !closest.isEmpty() ? closest.key : 0L);
+    }
+    
+    @SuppressWarnings("unchecked")
+    Node<V>[] path = (Node<V>[])new Node<?>[Long.SIZE];
+    int depth = 0;
+    
+    Node<V> h = root.left;
+    int bitIndex = -1;
+    
+    while (h.bitIndex > bitIndex && (index < 0 || h.bitIndex < index)) {
+      path[depth++] = h;
+      bitIndex = h.bitIndex;
+      h = !isSet(key, bitIndex) ? h.left : h.right;
+    }
+    
+    if (index < 0) {
+      if (inclusive && !h.isEmpty()) {
+        return h;
+      }
+    
+    // The keys in the sub-tree are all greater (or less) than the key.
+    } else if (higher != isSet(key, index)) {
+      Node<V> node = higher ? followLeft(h, bitIndex) : followRight(h, bitIndex);
+      if (node != null && !node.isEmpty()) {
+        return node;
+      }
+    }
+    
+    // Walk back up and look at the other side of the Nodes
+    while (depth > 0) {
+      Node<V> p = path[--depth];
+      
+      if (higher) {
+        if (!isSet(key, p.bitIndex)) {
+          Node<V> node = followLeft(p.right, p.bitIndex);
+          if (node != null) {
+            return node;
+          }
+        }
+      } else if (isSet(key, p.bitIndex)) {
+        Node<V> node = followRight(p.left, p.bitIndex);
+        if (!node.isEmpty()) {
+          return node;
+        }
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Follows the left links from the given {@link Node} and returns the
+   * first non-empty {@link Node} or {@code null} if there is none.
+   */
+  private static <V> Node<V> followLeft(Node<V> h, int bitIndex) {
+    Node<V> p = null;
+    
+    while (h.bitIndex > bitIndex) {
+      p = h;
+      bitIndex = h.bitIndex;
+      h = h.left;
+    }
+    
+    if (!h.isEmpty()) {
+      return h;
+    }
+    
+    if (p == null) {
+      return null;
+    }
+    
+    // It's the empty RootNode and it's followed by the
+    // left-most Node of its parent's right link.
+    h = p.right;
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = h.left;
+    }
+    return h;
+  }
+  
+  /**
+   * Follows the right links from the given {@link Node} and returns
+   * the last {@link Node}.
+   */
+  private static <V> Node<V> followRight(Node<V> h, int bitIndex) {
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = h.right;
+    }
+    return h;
+  }
+  
+  @Override
+  public String toString() {
+    final StringBuilder buffer = new StringBuilder();
+    buffer.append(getClass().getSimpleName()).append("[").append(size()).append("]={\n");
+    
+    traverse((entry) -> {
+      buffer.append("  ").append(entry).append("\n");
+      return true;
+    });
+    
+    buffer.append("}\n");
+    return buffer.toString();
+  }
+  
+  private void writeObject(final ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size());
+    
+    try {
+      traverse((entry) -> {
+        try {
+          out.writeLong(entry.getKey());
+          out.writeObject(entry.getValue());
+        } catch (IOException err) {
+          throw new UncheckedIOException(err);
+        }
+        return true;
+      });
+    } catch (UncheckedIOException err) {
+      throw err.getCause();
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    
+    int size = in.readInt();
+    if (size < 0) {
+      throw new InvalidObjectException("size=" + size);
+    }
+    
+    root = new RootNode<V>();
+    
+    for (int i = 0; i < size; i++) {
+      long key = in.readLong();
+      if (containsKey(key)) {
+        throw new InvalidObjectException("Duplicate key: " + key);
+      }
+      
+      put(key, (V)in.readObject());
+    }
+  }
+  
+  /**
+   * Returns the given {@link Entry} or throws a {@link NoSuchElementException}
+   * if it's {@code null} (i.e. the {@link PatriciaLongObjectTrie} is empty).
+   */
+  private static <V> Entry<V> notNull(Entry<V> entry) {
+    if (entry == null) {
+      throw new NoSuchElementException();
+    }
+    return entry;
+  }
+  
+  /**
+   * @see LongKeyAnalyzer#isSet(long, int)
+   */
+  private static boolean isSet(long key, int bitIndex) {
+    return LongKeyAnalyzer.INSTANCE.isSet(key, bitIndex);
+  }
+  
+  /**
+   * @see LongKeyAnalyzer#bitIndex(long, long)
+   */
+  private static int bitIndex(long key, long otherKey) {
+    return LongKeyAnalyzer.INSTANCE.bitIndex(key, otherKey);
+  }
+  
+  /**
+   * @see Map.Entry
+   */
+  public static interface Entry<V> {
+    
+    /**
+     * @see Map.Entry#getKey()
+     */
+    public long getKey();
+    
+    /**
+     * @see Map.Entry#getValue()
+     */
+    public V getValue();
+    
+    /**
+     * @see Map.Entry#setValue(Object)
+     */
+    public V setValue(V value);
+  }
+  
+  /**
+   * A callback interface for {@link PatriciaLongObjectTrie#traverse(Cursor)}
+   * and {@link PatriciaLongObjectTrie#select(long, Cursor)}.
+   */
+  @FunctionalInterface
+  public static interface Cursor<V> {
+    
+    /**
+     * Called for each {@link Entry} in the {@link PatriciaLongObjectTrie}.
+     * Return {@code true} to continue with the traverse operation or
+     * {@code false} to exit.
+     */
+    public boolean select(Entry<? extends V> entry);
+  }
+  
+  /**
+   * The root node of the {@link PatriciaLongObjectTrie}.
+   */
+  private static class RootNode<V> extends Node<V> {
+    
+    private boolean empty = true;
+    
+    public RootNode() {
+      super(0L, null, -1);
+      this.left = this;
+    }
+    
+    /**
+     * Sets the key and value of the root node.
+     */
+    public V setKeyValue(long key, V value) {
+      this.key = key;
+      this.empty = false;
+      return setValue(value);
+    }
+    
+    /**
+     * Removes the key and value from the root node.
+     */
+    public V removeKeyValue() {
+      V existing = setValue(null);
+      this.key = 0L;
+      this.empty = true;
+      return existing;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+      return empty;
+    }
+  }
+  
+  /**
+   * A node in the {@link PatriciaLongObjectTrie}.
+   */
+  private static class Node<V> implements Entry<V> {
+    
+    private int bitIndex;
+    
+    protected long key;
+    
+    protected V value;
+    
+    protected Node<V> left;
+    
+    protected Node<V> right;
+    
+    private Node(long key, V value, int bitIndex) {
+      this.bitIndex = bitIndex;
+      this.key = key;
+      this.value = value;
+    }
+    
+    /**
+     * Returns {@code true} if the {@link Node} has no key-value.
+     */
+    public boolean isEmpty() {
+      return false;
+    }
+    
+    @Override
+    public long getKey() {
+      return key;
+    }
+    
+    @Override
+    public V getValue() {
+      return value;
+    }
+    
+    @Override
+    public V setValue(V value) {
+      V existing = this.value;
+      this.value = value;
+      return existing;
+    }
+    
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(key) + Objects.hashCode(value);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      } else if (!(o instanceof Entry<?>)) {
+        return false;
+      }
+      
+      Entry<?> other = (Entry<?>)o;
+      return key == other.getKey()
+        && Objects.equals(value, other.getValue());
+    }
+    
+    @Override
+    public String toString() {
+      return key + " (" + bitIndex + ") -> " + value;
+    }
+  }
+}
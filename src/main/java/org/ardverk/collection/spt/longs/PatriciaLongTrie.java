@@ -0,0 +1,669 @@
+/*
+ * Copyright 2011 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.collection.spt.longs;
+
+import java.io.Serializable;
+
+import org.ardverk.collection.spt.LongKeyAnalyzer;
+import org.ardverk.collection.spt.KeyAnalyzer;
+
+/**
+ * A PATRICIA {@link LongTrie} that stores {@code long} to {@code long} 
+ * mappings. It's the same as the {@code PatriciaIntTrie} but for 64-bit
+ * keys and values.
+ */
+public class PatriciaLongTrie extends AbstractLongTrie implements Serializable {
+  
+  private static final long serialVersionUID = 2861583094415218773L;
+  
+  private final boolean recycleNodes;
+  
+  private volatile RootNode root = new RootNode();
+  
+  private volatile int size = 0;
+  
+  /**
+   * A list of removed {@link Node}s that are being re-used by 
+   * {@link #insert(long, long, int)}.
+   * 
+   * @see #recycleNodes
+   */
+  private transient Node free = null;
+  
+  private transient volatile Entry[] entrySet = null;
+  
+  private transient volatile long[] keySet = null;
+  
+  private transient volatile long[] values = null;
+  
+  public PatriciaLongTrie() {
+    this(false);
+  }
+  
+  /**
+   * Creates a {@link PatriciaLongTrie}. If {@code recycleNodes} is 
+   * {@code true} then removed {@link Node}s are being kept in a 
+   * free list and re-used for new mappings.
+   * 
+   * NOTE: The {@link Entry}s that are being returned by the 
+   * {@link PatriciaLongTrie} are its {@link Node}s. Don't hold on 
+   * to them if you're recycling {@link Node}s as they may change 
+   * their key and value once they've been removed.
+   */
+  public PatriciaLongTrie(boolean recycleNodes) {
+    this.recycleNodes = recycleNodes;
+  }
+  
+  public PatriciaLongTrie(LongMap m) {
+    this();
+    putAll(m);
+  }
+  
+  @Override
+  public Entry select(long key) {
+    Node entry = selectNode(key);
+    if (!entry.isEmpty()) {
+      return entry;
+    }
+    return null;
+  }
+  
+  /**
+   * Follows the key's bits from the root to the {@link Node} that is 
+   * closest to the key.
+   */
+  private Node selectNode(long key) {
+    Node h = root.left;
+    int bitIndex = -1;
+    
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = !isSet(key, bitIndex) ? h.left : h.right;
+    }
+    
+    return h;
+  }
+  
+  @Override
+  public long put(long key, long value) {
+    // This is a shortcut! The root is the only place to store null! 
+    if (key == 0L) {
+      return putForNullKey(key, value);
+    }
+    
+    Entry entry = select(key);
+    long existing = 0L;
+    if (entry != null) {
+      existing = entry.getKey();
+      if (equals(key, existing)) {
+        return entry.setValue(value);
+      }
+    }
+    
+    int bitIndex = bitIndex(key, existing);
+    if (bitIndex == KeyAnalyzer.NULL_KEY) {
+      return putForNullKey(key, value);
+    }
+    
+    assert (bitIndex >= 0);
+    insert(key, value, bitIndex);
+    incrementSize();
+    
+    return -1L;
+  }
+  
+  private long putForNullKey(long key, long value) {
+    if (root.isEmpty()) {
+      incrementSize();
+    }
+    
+    return root.setKeyValue(key, value);
+  }
+  
+  /**
+   * Inserts a new {@link Node} for the given key-value where the key 
+   * differs at the given bit index from the closest existing key.
+   */
+  private void insert(long key, long value, int bitIndex) {
+    Node p = root;
+    Node h = root.left;
+    boolean right = false;
+    
+    while (h.bitIndex < bitIndex && h.bitIndex > p.bitIndex) {
+      p = h;
+      right = isSet(key, h.bitIndex);
+      h = !right ? h.left : h.right;
+    }
+    
+    Node t = newNode(key, value, bitIndex);
+    
+    boolean isSet = isSet(key, t.bitIndex);
+    t.left = isSet ? h : t;
+    t.right = isSet ? t : h;
+    
+    if (!right) {
+      p.left = t;
+    } else {
+      p.right = t;
+    }
+  }
+  
+  @Override
+  public long remove(long key) {
+    Entry entry = entry(key);
+    if (entry != null) {
+      return removeEntry(entry);
+    }
+    
+    return -1L;
+  }
+  
+  /**
+   * Removes the given {@link Entry} from the {@link PatriciaLongTrie}.
+   */
+  private long removeEntry(Entry entry) {
+    Node node = (Node)entry;
+    
+    // This is a shortcut! The root is the only place to store null!
+    if (node == root) {
+      if (root.isEmpty()) {
+        return -1L;
+      }
+      
+      decrementSize();
+      return root.removeKeyValue();
+    }
+    
+    long key = node.key;
+    
+    // Walk down to the uplink that points to the node. Along the way 
+    // we're keeping track of the node's parent (the one with the downlink 
+    // to the node), the node with the uplink (p) and its parent (pp).
+    Node parent = null;
+    Node pp = root;
+    Node p = root;
+    Node h = root.left;
+    
+    while (h.bitIndex > p.bitIndex) {
+      if (h == node) {
+        parent = p;
+      }
+      
+      pp = p;
+      p = h;
+      h = !isSet(key, h.bitIndex) ? h.left : h.right;
+    }
+    
+    if (h != node) {
+      return -1L;
+    }
+    
+    // The link of p that is NOT pointing up to the node
+    Node other = !isSet(key, p.bitIndex) ? p.right : p.left;
+    
+    if (p == node) {
+      // The node is pointing up to itself. Replace the downlink 
+      // from its parent with the node's other link.
+      replace(parent, node, other);
+      
+    } else {
+      // Remove p from its current position and move it into the
+      // position of the node that is being removed.
+      replace(pp, p, other);
+      
+      p.bitIndex = node.bitIndex;
+      p.left = node.left;
+      p.right = node.right;
+      replace(parent, node, p);
+    }
+    
+    long value = node.value;
+    freeNode(node);
+    
+    decrementSize();
+    return value;
+  }
+  
+  /**
+   * Replaces the link from the parent {@link Node} to the existing 
+   * {@link Node} with a link to the replacement {@link Node}.
+   */
+  private static void replace(Node parent, Node existing, Node replacement) {
+    if (parent.left == existing) {
+      parent.left = replacement;
+    } else {
+      parent.right = replacement;
+    }
+  }
+  
+  /**
+   * Creates a new {@link Node} or takes one from the free list.
+   * 
+   * @see #freeNode(Node)
+   */
+  private Node newNode(long key, long value, int bitIndex) {
+    Node node = free;
+    if (node == null) {
+      return new Node(key, value, bitIndex);
+    }
+    
+    free = node.left;
+    
+    node.bitIndex = bitIndex;
+    node.key = key;
+    node.value = value;
+    node.left = null;
+    return node;
+  }
+  
+  /**
+   * Unlinks the given {@link Node} and adds it to the free list if 
+   * {@link #recycleNodes} is enabled.
+   * 
+   * @see #newNode(long, long, int)
+   */
+  private void freeNode(Node node) {
+    node.right = null;
+    
+    if (recycleNodes) {
+      node.left = free;
+      free = node;
+    } else {
+      node.left = null;
+    }
+  }
+  
+  @Override
+  public void select(long key, Cursor cursor) {
+    // The Nodes whose far link hasn't been visited yet. The bit 
+    // indices are strictly increasing along a path and there are
+    // no more than Long.SIZE of them.
+    Node[] stack = new Node[Long.SIZE];
+    int depth = 0;
+    
+    Node h = root.left;
+    int bitIndex = -1;
+    
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = h.bitIndex;
+        h = !isSet(key, bitIndex) ? h.left : h.right;
+        continue;
+      }
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
+      }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      Node p = stack[--depth];
+      bitIndex = p.bitIndex;
+      h = !isSet(key, bitIndex) ? p.right : p.left;
+    }
+  }
+  
+  @Override
+  public void traverse(Cursor cursor) {
+    // The Nodes whose right link hasn't been visited yet
+    Node[] stack = new Node[Long.SIZE];
+    int depth = 0;
+    
+    Node h = root.left;
+    int bitIndex = -1;
+    
+    while (true) {
+      if (h.bitIndex > bitIndex) {
+        stack[depth++] = h;
+        bitIndex = h.bitIndex;
+        h = h.left;
+        continue;
+      }
+      
+      if (!h.isEmpty() && !cursor.select(h)) {
+        return;
+      }
+      
+      if (depth == 0) {
+        return;
+      }
+      
+      Node p = stack[--depth];
+      bitIndex = p.bitIndex;
+      h = p.right;
+    }
+  }
+  
+  @Override
+  public void clear() {
+    root = new RootNode();
+    size = 0;
+    clearViews();
+  }
+  
+  @Override
+  public int size() {
+    return size;
+  }
+  
+  @Override
+  public Entry[] entrySet() {
+    if (entrySet == null) {
+      final Entry[] entries = new Entry[size()];
+      
+      traverse(new Cursor() {
+        
+        private int index = 0;
+        
+        @Override
+        public boolean select(Entry entry) {
+          entries[index++] = entry;
+          return true;
+        }
+      });
+      
+      entrySet = entries;
+    }
+    return entrySet;
+  }
+  
+  @Override
+  public long[] keySet() {
+    if (keySet == null) {
+      final long[] entries = new long[size()];
+      
+      traverse(new Cursor() {
+        
+        private int index = 0;
+        
+        @Override
+        public boolean select(Entry entry) {
+          entries[index++] = entry.getKey();
+          return true;
+        }
+      });
+      
+      keySet = entries;
+    }
+    return keySet;
+  }
+  
+  @Override
+  public long[] values() {
+    if (values == null) {
+      
+      final long[] entries = new long[size()];
+      
+      traverse(new Cursor() {
+        
+        private int index = 0;
+        
+        @Override
+        public boolean select(Entry entry) {
+          entries[index++] = entry.getValue();
+          return true;
+        }
+      });
+      
+      values = entries;
+    }
+    return values;
+  }
+  
+  @Override
+  public Entry firstEntry() {
+    return followLeft(root.left, -1);
+  }
+
+  @Override
+  public Entry lastEntry() {
+    Node entry = followRight(root.left, -1);
+    if (!entry.isEmpty()) {
+      return entry;
+    }
+    return null;
+  }
+  
+  @Override
+  public Entry pollFirstEntry() {
+    Node entry = followLeft(root.left, -1);
+    if (entry != null) {
+      return pollEntry(entry);
+    }
+    return null;
+  }
+  
+  @Override
+  public Entry pollLastEntry() {
+    Node entry = followRight(root.left, -1);
+    if (!entry.isEmpty()) {
+      return pollEntry(entry);
+    }
+    return null;
+  }
+  
+  /**
+   * Removes the given {@link Node} and returns it. The {@link RootNode}
+   * is being re-used and a copy of its key-value is returned instead.
+   */
+  private Entry pollEntry(Node node) {
+    if (node == root) {
+      Node copy = new Node(root.key, root.value, -1);
+      removeEntry(root);
+      return copy;
+    }
+    
+    removeEntry(node);
+    return node;
+  }
+  
+  /**
+   * Follows the left links from the given {@link Node} and returns the
+   * first non-empty {@link Node} or {@code null} if there is none.
+   */
+  private Node followLeft(Node h, int bitIndex) {
+    Node p = null;
+    
+    while (h.bitIndex > bitIndex) {
+      p = h;
+      bitIndex = h.bitIndex;
+      h = h.left;
+    }
+    
+    if (!h.isEmpty()) {
+      return h;
+    }
+    
+    if (p == null) {
+      return null;
+    }
+    
+    // It's the empty RootNode and it's followed by the 
+    // left-most Node of its parent's right link.
+    h = p.right;
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = h.left;
+    }
+    return h;
+  }
+  
+  /**
+   * Follows the right links from the given {@link Node} and returns 
+   * the last {@link Node}.
+   */
+  private Node followRight(Node h, int bitIndex) {
+    while (h.bitIndex > bitIndex) {
+      bitIndex = h.bitIndex;
+      h = h.right;
+    }
+    return h;
+  }
+  
+  /**
+   * Increments the {@link #size} counter and calls {@link #clearViews()}.
+   */
+  private void incrementSize() {
+    ++size;
+    clearViews();
+  }
+  
+  /**
+   * Decrements the {@link #size} counter and calls {@link #clearViews()}.
+   */
+  private void decrementSize() {
+    --size;
+    clearViews();
+  }
+  
+  /**
+   * Clears the various views as returned by {@link #entrySet()}, 
+   * {@link #keySet()} and {@link #values()}.
+   */
+  private void clearViews() {
+    entrySet = null;
+    keySet = null;
+    values = null;
+  }
+  
+  /**
+   * @see LongKeyAnalyzer#isSet(long, int)
+   */
+  private static boolean isSet(long key, int bitIndex) {
+    return LongKeyAnalyzer.INSTANCE.isSet(key, bitIndex);
+  }
+  
+  /**
+   * @see LongKeyAnalyzer#bitIndex(long, long)
+   */
+  private static int bitIndex(long key, long otherKey) {
+    return LongKeyAnalyzer.INSTANCE.bitIndex(key, otherKey);
+  }
+  
+  /**
+   * The root node of the {@link LongTrie}.
+   */
+  private static class RootNode extends Node {
+    
+    private static final long serialVersionUID = -8857149853096688620L;
+    
+    private boolean empty = true;
+    
+    public RootNode() {
+      super(-1L, -1L, -1);
+      this.left = this;
+    }
+    
+    /**
+     * Sets the key and value of the root node.
+     */
+    public long setKeyValue(long key, long value) {
+      this.key = key;
+      this.empty = false;
+      return setValue(value);
+    }
+    
+    /**
+     * Removes the key and value from the root node.
+     */
+    public long removeKeyValue() {
+      long existing = setValue(-1L);
+      this.key = -1L;
+      this.empty = true;
+      return existing;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return empty;
+    }
+  }
+  
+  /**
+   * A node in the {@link LongTrie}.
+   */
+  private static class Node implements Entry, Serializable {
+    
+    private static final long serialVersionUID = -2409938371345117780L;
+
+    private int bitIndex;
+
+    protected long key;
+    
+    protected long value;
+    
+    protected Node left;
+    
+    protected Node right;
+        
+    private Node(long key, long value, int bitIndex) {
+      this.bitIndex = bitIndex;
+      this.key = key;
+      this.value = value;
+    }
+
+    /**
+     * Returns {@code true} if the {@link Node} has no key-value.
+     */
+    public boolean isEmpty() {
+      return false;
+    }
+    
+    @Override
+    public long getKey() {
+      return key;
+    }
+
+    @Override
+    public long getValue() {
+      return value;
+    }
+
+    @Override
+    public long setValue(long value) {
+      long existing = this.value;
+      this.value = value;
+      return existing;
+    }
+    
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(key) + Long.hashCode(value);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      } else if (!(o instanceof Entry)) {
+        return false;
+      }
+      
+      Entry other = (Entry)o;
+      return key == other.getKey()
+        && value == other.getValue();
+    }
+    
+    @Override
+    public String toString() {
+      return key + " (" + bitIndex + ") -> " + value;
+    }
+  }
+}
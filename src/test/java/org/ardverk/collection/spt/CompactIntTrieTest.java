@@ -0,0 +1,118 @@
+package org.ardverk.collection.spt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.spt.ints.CompactIntTrie;
+import org.ardverk.collection.spt.ints.IntMap;
+import org.ardverk.collection.spt.ints.PatriciaIntTrie;
+import org.junit.Test;
+
+public class CompactIntTrieTest {
+  
+  @Test
+  public void random() {
+    CompactIntTrie m = new CompactIntTrie();
+    PatriciaIntTrie patricia = new PatriciaIntTrie();
+    
+    Random random = new Random(1L);
+    TreeMap<Integer, Integer> expected 
+      = IntMapAssert.putRemove(random, 100000, patricia, m);
+    
+    // Both have the same structure
+    TestCase.assertEquals(
+        patricia.toString().replace("PatriciaIntTrie", ""),
+        m.toString().replace("CompactIntTrie", ""));
+    
+    int capacity = m.capacity();
+    IntMapAssert.removeSome(random, expected, m);
+    
+    m.trimToSize();
+    TestCase.assertTrue(m.capacity() < capacity);
+    TestCase.assertTrue(m.capacity() <= expected.size());
+    
+    IntMapAssert.assertKeyValues(expected, m);
+    
+    m.put(1, 1);
+    TestCase.assertEquals(1, m.get(1));
+    
+    m.clear();
+    TestCase.assertTrue(m.isEmpty());
+    TestCase.assertNull(m.firstEntry());
+  }
+  
+  @Test
+  public void navigation() {
+    CompactIntTrie m = new CompactIntTrie();
+    TreeMap<Integer, Integer> expected
+      = new TreeMap<Integer, Integer>(Integer::compareUnsigned);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      int key = random.nextInt(4096) << random.nextInt(21);
+      m.put(key, i);
+      expected.put(key, i);
+    }
+    
+    for (int i = 0; i < 10000; i++) {
+      // Add and remove 0 every once in a while
+      if (i % 1000 == 0) {
+        if (expected.remove(0) != null) {
+          m.remove(0);
+        } else {
+          m.put(0, i);
+          expected.put(0, i);
+        }
+      }
+      
+      int key = i % 100 != 0 ? random.nextInt(4096) << random.nextInt(21) : 0;
+      
+      assertEntry(expected.ceilingEntry(key), m.ceilingEntry(key));
+      assertEntry(expected.floorEntry(key), m.floorEntry(key));
+      assertEntry(expected.higherEntry(key), m.higherEntry(key));
+      assertEntry(expected.lowerEntry(key), m.lowerEntry(key));
+    }
+    
+    for (int i = 0; i < 200; i++) {
+      int fromKey = random.nextInt(4096) << random.nextInt(21);
+      int toKey = random.nextInt(4096) << random.nextInt(21);
+      if (Integer.compareUnsigned(fromKey, toKey) > 0) {
+        int tmp = fromKey;
+        fromKey = toKey;
+        toKey = tmp;
+      }
+      
+      assertKeys(expected.subMap(fromKey, true, toKey, false), m.subMap(fromKey, toKey));
+      assertKeys(expected.headMap(toKey, true), m.headMap(toKey, true));
+      assertKeys(expected.tailMap(fromKey, false), m.tailMap(fromKey, false));
+    }
+    
+    assertEntry(expected.pollFirstEntry(), m.pollFirstEntry());
+    assertEntry(expected.pollLastEntry(), m.pollLastEntry());
+    assertKeys(expected, m);
+  }
+  
+  private static void assertEntry(Map.Entry<Integer, Integer> expected, IntMap.Entry entry) {
+    if (expected == null) {
+      TestCase.assertNull(entry);
+    } else {
+      TestCase.assertEquals(expected.getKey().intValue(), entry.getKey());
+      TestCase.assertEquals(expected.getValue().intValue(), entry.getValue());
+    }
+  }
+  
+  private static void assertKeys(Map<Integer, Integer> expected, IntMap m) {
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int key : m.keySet()) {
+      keys.add(key);
+    }
+    
+    TestCase.assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+    TestCase.assertEquals(expected.size(), m.size());
+  }
+}
@@ -0,0 +1,276 @@
+package org.ardverk.collection.spt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class ConcurrentPatriciaTrieTest {
+  
+  @Test
+  public void put() {
+    ConcurrentPatriciaTrie<String, String> trie
+      = new ConcurrentPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TestCase.assertNull(trie.put("1", "1"));
+    TestCase.assertNull(trie.put("2", "2"));
+    TestCase.assertNull(trie.put("3", "3"));
+    TestCase.assertEquals(3, trie.size());
+    
+    TestCase.assertEquals("2", trie.put("2", "two"));
+    TestCase.assertEquals(3, trie.size());
+    TestCase.assertEquals("two", trie.get("2"));
+    
+    TestCase.assertNull(trie.put(null, "null"));
+    TestCase.assertEquals(4, trie.size());
+    TestCase.assertEquals("null", trie.get(null));
+    
+    TestCase.assertEquals("1", trie.putIfAbsent("1", "one"));
+    TestCase.assertNull(trie.putIfAbsent("4", "4"));
+    TestCase.assertEquals(5, trie.size());
+    
+    TestCase.assertNull(trie.replace("5", "5"));
+    TestCase.assertEquals("3", trie.replace("3", "three"));
+    TestCase.assertFalse(trie.replace("3", "3", "drei"));
+    TestCase.assertTrue(trie.replace("3", "three", "drei"));
+    TestCase.assertEquals("drei", trie.get("3"));
+    TestCase.assertEquals(5, trie.size());
+  }
+  
+  @Test
+  public void remove() {
+    ConcurrentPatriciaTrie<String, String> trie
+      = new ConcurrentPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(5000), 36);
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    
+    TestCase.assertEquals(expected.size(), trie.size());
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.keySet()),
+        new ArrayList<String>(trie.keySet()));
+    
+    List<String> keys = new ArrayList<String>(expected.keySet());
+    Collections.shuffle(keys, random);
+    
+    for (String key : keys) {
+      TestCase.assertFalse(trie.remove(key, "wrong value"));
+      TestCase.assertEquals(key, trie.remove(key));
+      expected.remove(key);
+      
+      TestCase.assertNull(trie.get(key));
+      TestCase.assertEquals(expected.size(), trie.size());
+      
+      if (expected.size() % 100 == 0) {
+        TestCase.assertEquals(
+            new ArrayList<String>(expected.keySet()),
+            new ArrayList<String>(trie.keySet()));
+      }
+    }
+    
+    TestCase.assertTrue(trie.isEmpty());
+    TestCase.assertNull(trie.remove("1"));
+  }
+  
+  @Test
+  public void navigate() {
+    ConcurrentPatriciaTrie<String, String> trie
+      = new ConcurrentPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 1000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    
+    TestCase.assertEquals(expected.firstKey(), trie.firstKey());
+    TestCase.assertEquals(expected.lastKey(), trie.lastKey());
+    
+    for (int i = 0; i < 1000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      TestCase.assertEquals(expected.ceilingKey(key), trie.ceilingKey(key));
+      TestCase.assertEquals(expected.floorKey(key), trie.floorKey(key));
+      TestCase.assertEquals(expected.higherKey(key), trie.higherKey(key));
+      TestCase.assertEquals(expected.lowerKey(key), trie.lowerKey(key));
+    }
+    
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("1", true, "a", false).keySet()),
+        new ArrayList<String>(trie.subMap("1", "a").keySet()));
+    
+    Map<String, String> prefixMap = trie.prefixMap("1", Character.SIZE);
+    for (String key : prefixMap.keySet()) {
+      TestCase.assertTrue(key.startsWith("1"));
+    }
+    TestCase.assertEquals(
+        expected.subMap("1", "2").size(), prefixMap.size());
+    
+    String first = expected.firstKey();
+    TestCase.assertEquals(first, trie.pollFirstEntry().getKey());
+    TestCase.assertFalse(trie.containsKey(first));
+    
+    String last = expected.lastKey();
+    TestCase.assertEquals(last, trie.pollLastEntry().getKey());
+    TestCase.assertFalse(trie.containsKey(last));
+  }
+  
+  @Test
+  public void iterate() {
+    ConcurrentPatriciaTrie<String, String> trie
+      = new ConcurrentPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    trie.put("1", "1");
+    trie.put("2", "2");
+    trie.put("3", "3");
+    
+    // The Iterator walks the version that was current when it
+    // was created and doesn't see the later modifications.
+    Iterator<Entry<String, String>> it = trie.entrySet().iterator();
+    trie.put("4", "4");
+    trie.remove("2");
+    
+    List<String> keys = new ArrayList<String>();
+    while (it.hasNext()) {
+      keys.add(it.next().getKey());
+    }
+    
+    TestCase.assertEquals(3, keys.size());
+    TestCase.assertTrue(keys.contains("2"));
+    TestCase.assertFalse(keys.contains("4"));
+    
+    it = trie.entrySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().getKey().equals("3")) {
+        it.remove();
+      }
+    }
+    
+    TestCase.assertEquals(2, trie.size());
+    TestCase.assertFalse(trie.containsKey("3"));
+  }
+  
+  @Test
+  public void stress() throws Exception {
+    final ConcurrentPatriciaTrie<Integer, Integer> trie
+      = new ConcurrentPatriciaTrie<Integer, Integer>(
+        IntegerKeyAnalyzer.INSTANCE);
+    
+    final int threads = 8;
+    final int keys = 1024;
+    final int operations = 20000;
+    
+    // Every thread counts how often it added and removed each key.
+    // The sum over all threads must match the final content.
+    final AtomicInteger[] counts = new AtomicInteger[keys];
+    for (int i = 0; i < keys; i++) {
+      counts[i] = new AtomicInteger();
+    }
+    
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int t = 0; t < threads; t++) {
+        final Random random = new Random(t);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            
+            for (int i = 0; i < operations; i++) {
+              int key = random.nextInt(keys);
+              
+              switch (random.nextInt(4)) {
+                case 0:
+                  if (trie.putIfAbsent(key, key) == null) {
+                    counts[key].incrementAndGet();
+                  }
+                  break;
+                case 1:
+                  if (trie.remove(key) != null) {
+                    counts[key].decrementAndGet();
+                  }
+                  break;
+                case 2:
+                  Integer value = trie.get(key);
+                  if (value != null) {
+                    TestCase.assertEquals(key, value.intValue());
+                  }
+                  break;
+                default:
+                  // The Iterator must see a consistent version
+                  int size = 0;
+                  Integer previous = null;
+                  for (Integer other : trie.keySet()) {
+                    if (previous != null) {
+                      TestCase.assertTrue(Integer.compareUnsigned(previous, other) < 0);
+                    }
+                    previous = other;
+                    ++size;
+                  }
+                  TestCase.assertTrue(size <= keys);
+                  break;
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      
+      start.countDown();
+      
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    
+    int size = 0;
+    for (int i = 0; i < keys; i++) {
+      int count = counts[i].get();
+      TestCase.assertTrue(count == 0 || count == 1);
+      TestCase.assertEquals(count == 1, trie.containsKey(i));
+      size += count;
+    }
+    
+    TestCase.assertEquals(size, trie.size());
+    
+    int count = 0;
+    for (Entry<Integer, Integer> entry : trie.entrySet()) {
+      TestCase.assertEquals(entry.getKey(), entry.getValue());
+      ++count;
+    }
+    TestCase.assertEquals(size, count);
+  }
+}
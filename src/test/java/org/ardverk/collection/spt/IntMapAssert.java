@@ -0,0 +1,84 @@
+package org.ardverk.collection.spt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.spt.ints.IntMap;
+
+/**
+ * Random put and remove checks that are shared by the {@link IntMap} tests.
+ */
+class IntMapAssert {
+  
+  /**
+   * Puts (two out of three times) or removes the given number of random
+   * keys in each of the {@link IntMap}s and checks them against a
+   * {@link TreeMap} that is being returned.
+   */
+  static TreeMap<Integer, Integer> putRemove(Random random, int count,
+      IntMap... maps) {
+    TreeMap<Integer, Integer> expected
+      = new TreeMap<Integer, Integer>(Integer::compareUnsigned);
+    
+    for (int i = 0; i < count; i++) {
+      int key = random.nextInt(4096) << random.nextInt(20);
+      Integer existing;
+      if (random.nextInt(3) != 0) {
+        existing = expected.put(key, i);
+        for (IntMap m : maps) {
+          TestCase.assertEquals(existing != null ? existing : -1, m.put(key, i));
+        }
+      } else {
+        existing = expected.remove(key);
+        for (IntMap m : maps) {
+          TestCase.assertEquals(existing != null ? existing : -1, m.remove(key));
+        }
+      }
+      
+      for (IntMap m : maps) {
+        TestCase.assertEquals(expected.size(), m.size());
+      }
+    }
+    
+    return expected;
+  }
+  
+  /**
+   * Removes about half of the keys from the {@link TreeMap} and each of
+   * the {@link IntMap}s.
+   */
+  static void removeSome(Random random, TreeMap<Integer, Integer> expected,
+      IntMap... maps) {
+    for (Integer key : new ArrayList<Integer>(expected.keySet())) {
+      if (random.nextBoolean()) {
+        int existing = expected.remove(key);
+        for (IntMap m : maps) {
+          TestCase.assertEquals(existing, m.remove(key));
+        }
+      }
+    }
+  }
+  
+  /**
+   * Checks that the {@link IntMap} has the same key-values in the same
+   * order as the {@link Map}.
+   */
+  static void assertKeyValues(Map<Integer, Integer> expected, IntMap m) {
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int key : m.keySet()) {
+      keys.add(key);
+    }
+    
+    TestCase.assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+    TestCase.assertEquals(expected.size(), m.size());
+    
+    for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+      TestCase.assertEquals(entry.getValue().intValue(), m.get(entry.getKey()));
+    }
+  }
+}
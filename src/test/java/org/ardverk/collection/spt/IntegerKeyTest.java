@@ -1,7 +1,27 @@
 package org.ardverk.collection.spt;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
 import junit.framework.TestCase;
 
+import org.ardverk.collection.spt.ints.CompactIntTrie;
+import org.ardverk.collection.spt.ints.Cursor;
+import org.ardverk.collection.spt.ints.IntMap;
+import org.ardverk.collection.spt.ints.IntTrie;
+import org.ardverk.collection.spt.ints.OffHeapIntTrie;
 import org.ardverk.collection.spt.ints.PatriciaIntTrie;
 import org.junit.Test;
 
@@ -32,4 +52,432 @@ public class IntegerKeyTest {
     int key = IntegerKeyAnalyzer.transform(0);
     TestCase.assertEquals(0, m.get(key));
   }
+  
+  @Test
+  public void firstKey() {
+    PatriciaIntTrie m = new PatriciaIntTrie();
+    m.put(0x60000000, 1);
+    m.put(0x40000000, 2);
+    
+    TestCase.assertEquals(0x40000000, m.firstKey());
+    TestCase.assertEquals(0x60000000, m.lastKey());
+  }
+  
+  @Test
+  public void pollRoot() {
+    // The key 0 is stored in the RootNode
+    PatriciaIntTrie m = new PatriciaIntTrie();
+    m.put(0, 1);
+    m.put(5, 2);
+    
+    IntMap.Entry first = m.pollFirstEntry();
+    TestCase.assertEquals(0, first.getKey());
+    TestCase.assertEquals(1, first.getValue());
+    TestCase.assertFalse(m.containsKey(0));
+    
+    m.remove(5);
+    m.put(0, 3);
+    
+    IntMap.Entry last = m.pollLastEntry();
+    TestCase.assertEquals(0, last.getKey());
+    TestCase.assertEquals(3, last.getValue());
+    TestCase.assertTrue(m.isEmpty());
+    TestCase.assertNull(m.pollFirstEntry());
+    TestCase.assertNull(m.pollLastEntry());
+  }
+  
+  @Test
+  public void removeRandom() {
+    PatriciaIntTrie m = new PatriciaIntTrie(true);
+    
+    Random random = new Random(1L);
+    TreeMap<Integer, Integer> expected 
+      = IntMapAssert.putRemove(random, 100000, m);
+    
+    IntMapAssert.assertKeyValues(expected, m);
+  }
+  
+  @Test
+  public void navigation() {
+    PatriciaIntTrie m = new PatriciaIntTrie();
+    TreeMap<Integer, Integer> expected 
+      = new TreeMap<Integer, Integer>(Integer::compareUnsigned);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      int key = random.nextInt(4096) << random.nextInt(21);
+      m.put(key, i);
+      expected.put(key, i);
+    }
+    
+    for (int i = 0; i < 10000; i++) {
+      // Add and remove 0 every once in a while
+      if (i % 1000 == 0) {
+        if (expected.remove(0) != null) {
+          m.remove(0);
+        } else {
+          m.put(0, i);
+          expected.put(0, i);
+        }
+      }
+      
+      int key = i % 100 != 0 ? random.nextInt(4096) << random.nextInt(21) : 0;
+      
+      assertEntry(expected.ceilingEntry(key), m.ceilingEntry(key));
+      assertEntry(expected.floorEntry(key), m.floorEntry(key));
+      assertEntry(expected.higherEntry(key), m.higherEntry(key));
+      assertEntry(expected.lowerEntry(key), m.lowerEntry(key));
+    }
+  }
+  
+  @Test
+  public void subMap() {
+    PatriciaIntTrie m = new PatriciaIntTrie();
+    TreeMap<Integer, Integer> expected 
+      = new TreeMap<Integer, Integer>(Integer::compareUnsigned);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      int key = random.nextInt(4096) << random.nextInt(21);
+      m.put(key, i);
+      expected.put(key, i);
+    }
+    
+    for (int i = 0; i < 200; i++) {
+      int fromKey = random.nextInt(4096) << random.nextInt(21);
+      int toKey = random.nextInt(4096) << random.nextInt(21);
+      if (Integer.compareUnsigned(fromKey, toKey) > 0) {
+        int tmp = fromKey;
+        fromKey = toKey;
+        toKey = tmp;
+      }
+      
+      boolean fromInclusive = random.nextBoolean();
+      boolean toInclusive = random.nextBoolean();
+      
+      assertKeys(expected.subMap(fromKey, fromInclusive, toKey, toInclusive), 
+          m.subMap(fromKey, fromInclusive, toKey, toInclusive));
+      assertKeys(expected.headMap(toKey, toInclusive), m.headMap(toKey, toInclusive));
+      assertKeys(expected.tailMap(fromKey, fromInclusive), m.tailMap(fromKey, fromInclusive));
+    }
+    
+    IntMap subMap = m.subMap(0x1000, 0x100000);
+    Map<Integer, Integer> expectedSubMap = expected.subMap(0x1000, 0x100000);
+    
+    subMap.clear();
+    TestCase.assertTrue(subMap.isEmpty());
+    TestCase.assertEquals(expected.size() - expectedSubMap.size(), m.size());
+  }
+  
+  @Test
+  public void builder() {
+    PatriciaIntTrie unsorted = new PatriciaIntTrie();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 5000; i++) {
+      int key = random.nextInt();
+      unsorted.put(key, i);
+    }
+    unsorted.put(0, -2);
+    
+    // The same as putting the keys one by one in their order
+    PatriciaIntTrie expected = new PatriciaIntTrie();
+    for (IntMap.Entry entry : unsorted.entrySet()) {
+      expected.put(entry.getKey(), entry.getValue());
+    }
+    
+    PatriciaIntTrie m = PatriciaIntTrie.builder()
+        .addSorted(unsorted)
+        .build();
+    
+    TestCase.assertEquals(expected.size(), m.size());
+    TestCase.assertEquals(expected.toString(), m.toString());
+    
+    // Both have the same structure and select the keys in the same order
+    for (int i = 0; i < 100; i++) {
+      int key = random.nextInt();
+      
+      final List<Integer> selected = new ArrayList<Integer>();
+      m.select(key, (entry) -> {
+        selected.add(entry.getKey());
+        return selected.size() < 50;
+      });
+      
+      final List<Integer> closest = new ArrayList<Integer>();
+      expected.select(key, (entry) -> {
+        closest.add(entry.getKey());
+        return closest.size() < 50;
+      });
+      
+      TestCase.assertEquals(closest, selected);
+    }
+    
+    m = PatriciaIntTrie.builder()
+        .addSorted(new int[] { 1, 2, -1 }, new int[] { 1, 2, 3 })
+        .build();
+    TestCase.assertEquals(3, m.get(-1));
+    
+    try {
+      PatriciaIntTrie.builder().add(-1, -1).add(1, 1);
+      TestCase.fail("Should have failed");
+    } catch (IllegalArgumentException expectedException) {
+    }
+  }
+  
+  @Test
+  public void parallelBuild() {
+    PatriciaIntTrie unsorted = new PatriciaIntTrie();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 50000; i++) {
+      int key = random.nextInt();
+      unsorted.put(key, i);
+    }
+    unsorted.put(0, -2);
+    
+    // The same as putting the keys one by one in their order
+    PatriciaIntTrie expected = new PatriciaIntTrie();
+    for (IntMap.Entry entry : unsorted.entrySet()) {
+      expected.put(entry.getKey(), entry.getValue());
+    }
+    
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      PatriciaIntTrie m = PatriciaIntTrie.parallelBuild(unsorted, pool);
+      
+      TestCase.assertEquals(expected.size(), m.size());
+      TestCase.assertEquals(expected.toString(), m.toString());
+      TestCase.assertEquals(-2, m.get(0));
+      
+      try {
+        PatriciaIntTrie.parallelBuild(
+            new int[] { 1, -1, 2 }, new int[] { 1, 2, 3 }, pool);
+        TestCase.fail("Should have failed");
+      } catch (IllegalArgumentException expectedException) {
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void serialization() throws Exception {
+    PatriciaIntTrie m = new PatriciaIntTrie(true);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 10000; i++) {
+      int key = random.nextInt(4096) << random.nextInt(21);
+      m.put(key, random.nextBoolean() ? i : -i);
+    }
+    m.put(0, Integer.MIN_VALUE);
+    m.put(-1, Integer.MAX_VALUE);
+    
+    // The same as putting the keys one by one in their order
+    PatriciaIntTrie expected = new PatriciaIntTrie();
+    for (IntMap.Entry entry : m.entrySet()) {
+      expected.put(entry.getKey(), entry.getValue());
+    }
+    
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+      out.writeObject(m);
+    }
+    
+    // Less than the 8 bytes per key-value of two int[] arrays
+    TestCase.assertTrue(baos.size() < 8 * m.size());
+    
+    PatriciaIntTrie copy;
+    try (ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(baos.toByteArray()))) {
+      copy = (PatriciaIntTrie)in.readObject();
+    }
+    
+    TestCase.assertEquals(expected.size(), copy.size());
+    TestCase.assertEquals(expected.toString(), copy.toString());
+    TestCase.assertEquals(Integer.MIN_VALUE, copy.get(0));
+    TestCase.assertEquals(Integer.MAX_VALUE, copy.get(-1));
+    
+    copy.remove(-1);
+    copy.put(1, 1);
+    TestCase.assertEquals(1, copy.get(1));
+  }
+  
+  @Test
+  public void lookup() {
+    assertLookup(new PatriciaIntTrie());
+    assertLookup(new CompactIntTrie());
+  }
+  
+  private static void assertLookup(IntTrie m) {
+    TestCase.assertEquals(42, m.firstKey(42));
+    TestCase.assertEquals(42, m.lastKey(42));
+    
+    try {
+      m.firstKey();
+      TestCase.fail("Should have failed");
+    } catch (NoSuchElementException expected) {
+    }
+    
+    try {
+      m.selectValue(1);
+      TestCase.fail("Should have failed");
+    } catch (NoSuchElementException expected) {
+    }
+    
+    m.put(1, -1);
+    m.put(2, 2);
+    m.put(-1, Integer.MIN_VALUE);
+    
+    // -1 is a value and not the absence of one
+    TestCase.assertEquals(-1, m.getOrDefault(1, 42));
+    TestCase.assertEquals(42, m.getOrDefault(3, 42));
+    TestCase.assertEquals(-1, (int)m.find(1));
+    TestCase.assertEquals(Integer.MIN_VALUE, (int)m.find(-1));
+    TestCase.assertEquals(2L, m.find(2));
+    TestCase.assertEquals(IntMap.NOT_FOUND, m.find(3));
+    TestCase.assertEquals(IntMap.NOT_FOUND, m.find(0));
+    
+    m.put(0, -1);
+    TestCase.assertEquals(-1, (int)m.find(0));
+    TestCase.assertEquals(0, m.firstKey(42));
+    TestCase.assertEquals(-1, m.lastKey(42));
+    
+    m.remove(0);
+    TestCase.assertEquals(IntMap.NOT_FOUND, m.find(0));
+    TestCase.assertEquals(1, m.firstKey(42));
+    
+    // The views fall back to the default methods
+    IntMap subMap = m.subMap(1, 3);
+    TestCase.assertEquals(-1, subMap.getOrDefault(1, 42));
+    TestCase.assertEquals(42, subMap.getOrDefault(-1, 42));
+    TestCase.assertEquals(IntMap.NOT_FOUND, subMap.find(-1));
+  }
+  
+  @Test
+  public void streams() {
+    assertStreams(new PatriciaIntTrie());
+    assertStreams(new CompactIntTrie());
+  }
+  
+  @Test
+  public void parallelStreams() throws Exception {
+    assertParallelStreams(new PatriciaIntTrie());
+    assertParallelStreams(new CompactIntTrie());
+    
+    try (OffHeapIntTrie m = new OffHeapIntTrie()) {
+      assertParallelStreams(m);
+    }
+  }
+  
+  /**
+   * The {@link Spliterator}s must not claim an exact size once 
+   * they're split or {@code toArray()} fails.
+   */
+  private static void assertParallelStreams(IntTrie m) {
+    for (int count : new int[] { 0, 1, 2, 250, 20000 }) {
+      m.clear();
+      
+      Random random = new Random(count);
+      while (m.size() < count) {
+        m.put(random.nextInt(), random.nextInt());
+      }
+      
+      TestCase.assertTrue(Arrays.equals(m.keySet(), m.keyStream().parallel().toArray()));
+      TestCase.assertTrue(Arrays.equals(m.values(), m.valueStream().parallel().toArray()));
+      TestCase.assertEquals(Arrays.stream(m.keySet()).boxed().collect(Collectors.toList()), 
+          m.keyStream().parallel().boxed().collect(Collectors.toList()));
+      
+      Spliterator.OfInt spliterator = m.keyStream().spliterator();
+      if (spliterator.trySplit() != null) {
+        TestCase.assertFalse(spliterator.hasCharacteristics(Spliterator.SIZED));
+      }
+    }
+  }
+  
+  private static void assertStreams(IntTrie m) {
+    TestCase.assertEquals(0L, m.keyStream().count());
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 10000; i++) {
+      m.put(random.nextInt(), random.nextInt());
+    }
+    m.put(0, 0);
+    
+    TestCase.assertTrue(Arrays.equals(m.keySet(), m.keyStream().toArray()));
+    TestCase.assertTrue(Arrays.equals(m.values(), m.valueStream().toArray()));
+    TestCase.assertEquals(Arrays.stream(m.values()).asLongStream().sum(), 
+        m.valueStream().parallel().asLongStream().sum());
+    
+    // The splits cover all keys in their order
+    List<Spliterator.OfInt> splits = new ArrayList<Spliterator.OfInt>();
+    split(m.keyStream().spliterator(), 6, splits);
+    TestCase.assertTrue(splits.size() > 16);
+    
+    List<Integer> keys = new ArrayList<Integer>();
+    for (Spliterator.OfInt split : splits) {
+      TestCase.assertTrue(split.hasCharacteristics(Spliterator.SORTED));
+      split.forEachRemaining((int key) -> keys.add(key));
+    }
+    TestCase.assertEquals(Arrays.stream(m.keySet()).boxed().collect(Collectors.toList()), keys);
+    
+    final List<Integer> traversed = new ArrayList<Integer>();
+    m.traverse((key, value) -> {
+      TestCase.assertEquals(m.get(key), value);
+      traversed.add(key);
+      return traversed.size() < 100;
+    });
+    TestCase.assertEquals(keys.subList(0, 100), traversed);
+    
+    final long[] sum = { 0L };
+    m.forEach((key, value) -> sum[0] += value);
+    TestCase.assertEquals(m.valueStream().asLongStream().sum(), sum[0]);
+    
+    // Both visit the keys in the order of their closeness to the key
+    int key = random.nextInt();
+    final List<Integer> selected = new ArrayList<Integer>();
+    m.select(key, (k, value) -> {
+      selected.add(k);
+      return selected.size() < 50;
+    });
+    
+    final List<Integer> closest = new ArrayList<Integer>();
+    m.select(key, new Cursor() {
+      @Override
+      public boolean select(IntMap.Entry entry) {
+        closest.add(entry.getKey());
+        return closest.size() < 50;
+      }
+    });
+    TestCase.assertEquals(closest, selected);
+  }
+  
+  private static void split(Spliterator.OfInt spliterator, int depth, 
+      List<Spliterator.OfInt> splits) {
+    Spliterator.OfInt prefix = depth > 0 ? spliterator.trySplit() : null;
+    if (prefix != null) {
+      split(prefix, depth - 1, splits);
+      split(spliterator, depth - 1, splits);
+    } else {
+      splits.add(spliterator);
+    }
+  }
+  
+  private static void assertEntry(Map.Entry<Integer, Integer> expected, IntMap.Entry entry) {
+    if (expected == null) {
+      TestCase.assertNull(entry);
+    } else {
+      TestCase.assertEquals(expected.getKey().intValue(), entry.getKey());
+      TestCase.assertEquals(expected.getValue().intValue(), entry.getValue());
+    }
+  }
+  
+  private static void assertKeys(Map<Integer, Integer> expected, IntMap m) {
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int key : m.keySet()) {
+      keys.add(key);
+    }
+    
+    TestCase.assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+    TestCase.assertEquals(expected.size(), m.size());
+  }
 }
@@ -0,0 +1,180 @@
+package org.ardverk.collection.spt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class KeyAnalyzerTest {
+  
+  @Test
+  public void charSequenceBitIndex() {
+    CharSequenceKeyAnalyzer analyzer = CharSequenceKeyAnalyzer.INSTANCE;
+    
+    TestCase.assertEquals(KeyAnalyzer.NULL_KEY, analyzer.bitIndex(null, null));
+    TestCase.assertEquals(KeyAnalyzer.NULL_KEY, analyzer.bitIndex("", "a"));
+    TestCase.assertEquals(KeyAnalyzer.NULL_KEY, analyzer.bitIndex("\0\0", null));
+    TestCase.assertEquals(KeyAnalyzer.EQUAL_KEY, analyzer.bitIndex("a", "a"));
+    TestCase.assertEquals(KeyAnalyzer.EQUAL_KEY, analyzer.bitIndex("a\0", "a"));
+    TestCase.assertEquals(9, analyzer.bitIndex("a", null));
+    TestCase.assertEquals(14, analyzer.bitIndex("a", "b"));
+    TestCase.assertEquals(16 + 9, analyzer.bitIndex("a", "aa"));
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 10000; i++) {
+      String key = randomKey(random);
+      String otherKey = random.nextBoolean() ? randomKey(random) : key + randomKey(random);
+      
+      TestCase.assertEquals(bitIndex(analyzer, key, otherKey), 
+          analyzer.bitIndex(key, otherKey));
+      TestCase.assertEquals(bitIndex(analyzer, otherKey, key), 
+          analyzer.bitIndex(otherKey, key));
+    }
+  }
+  
+  @Test
+  public void byteArrayBitIndex() {
+    ByteArrayKeyAnalyzer analyzer = ByteArrayKeyAnalyzer.INSTANCE;
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 10000; i++) {
+      byte[] key = randomBytes(random);
+      byte[] otherKey = random.nextBoolean() ? randomBytes(random) : key.clone();
+      if (otherKey.length > 0 && random.nextBoolean()) {
+        otherKey[random.nextInt(otherKey.length)] ^= 1 << random.nextInt(8);
+      }
+      
+      TestCase.assertEquals(bitIndex(analyzer, key, otherKey, 
+          analyzer.lengthInBits(key), analyzer.lengthInBits(otherKey)), 
+          analyzer.bitIndex(key, otherKey));
+    }
+  }
+  
+  @Test
+  public void byteBufferBitIndex() {
+    ByteBufferKeyAnalyzer analyzer = ByteBufferKeyAnalyzer.INSTANCE;
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 10000; i++) {
+      byte[] key = randomBytes(random);
+      byte[] otherKey = randomBytes(random);
+      
+      // Put the keys at some offset into the buffer and mix the byte orders
+      ByteBuffer buffer = ByteBuffer.allocate(key.length + 3);
+      buffer.position(3);
+      buffer.put(key).position(3);
+      buffer.order(random.nextBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+      
+      ByteBuffer otherBuffer = ByteBuffer.allocateDirect(otherKey.length);
+      otherBuffer.put(otherKey).flip();
+      
+      TestCase.assertEquals(ByteArrayKeyAnalyzer.INSTANCE.bitIndex(key, otherKey), 
+          analyzer.bitIndex(buffer, otherBuffer));
+      TestCase.assertEquals(3, buffer.position());
+    }
+  }
+  
+  @Test
+  public void byteArrayKeys() {
+    PatriciaTrie<byte[], String> trie 
+      = new PatriciaTrie<byte[], String>(ByteArrayKeyAnalyzer.INSTANCE);
+    
+    trie.put(new byte[] { 10, 0, 0, 1 }, "10.0.0.1");
+    trie.put(new byte[] { 10, 0, 0, 2 }, "10.0.0.2");
+    trie.put(new byte[] { (byte)192, (byte)168, 0, 1 }, "192.168.0.1");
+    
+    TestCase.assertEquals("10.0.0.2", trie.get(new byte[] { 10, 0, 0, 2 }));
+    TestCase.assertNull(trie.get(new byte[] { 10, 0, 0, 3 }));
+    
+    TestCase.assertEquals("10.0.0.1", trie.remove(new byte[] { 10, 0, 0, 1 }));
+    TestCase.assertEquals(2, trie.size());
+  }
+  
+  @Test
+  public void trailingZeroKeys() {
+    byte[] key = { 10, 0 };
+    byte[] longer = { 10, 0, 0, 0 };
+    TestCase.assertEquals(KeyAnalyzer.EQUAL_KEY, 
+        ByteArrayKeyAnalyzer.INSTANCE.bitIndex(key, longer));
+    
+    PatriciaTrie<byte[], String> trie 
+      = new PatriciaTrie<byte[], String>(ByteArrayKeyAnalyzer.INSTANCE);
+    trie.put(key, "10.0");
+    trie.put(new byte[] { 11 }, "11");
+    
+    try {
+      trie.put(longer, "10.0.0.0");
+      TestCase.fail("Should have failed");
+    } catch (IllegalArgumentException expected) {
+    }
+    
+    // The Trie is still intact
+    TestCase.assertEquals(2, trie.size());
+    TestCase.assertEquals("10.0", trie.get(key));
+    TestCase.assertEquals("11", trie.get(new byte[] { 11 }));
+    TestCase.assertEquals(2, trie.keySet().size());
+    TestCase.assertEquals(2, trie.values().stream().count());
+    
+    PersistentPatriciaTrie<byte[], String> persistent 
+      = new PersistentPatriciaTrie<byte[], String>(ByteArrayKeyAnalyzer.INSTANCE)
+          .with(key, "10.0");
+    try {
+      persistent.with(longer, "10.0.0.0");
+      TestCase.fail("Should have failed");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+  
+  private static byte[] randomBytes(Random random) {
+    byte[] key = new byte[random.nextInt(20)];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = (byte)(random.nextBoolean() ? random.nextInt(2) : random.nextInt());
+    }
+    return key;
+  }
+  
+  private static String randomKey(Random random) {
+    char[] key = new char[random.nextInt(4)];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = (char)(random.nextBoolean() ? random.nextInt(4) : random.nextInt());
+    }
+    return new String(key);
+  }
+  
+  /**
+   * A bit by bit reference implementation of {@link KeyAnalyzer#bitIndex(Object, Object)}.
+   */
+  private static <K> int bitIndex(KeyAnalyzer<K> analyzer, 
+      K key, K otherKey, int lengthInBits, int otherLengthInBits) {
+    
+    boolean allNull = true;
+    if (0 < lengthInBits) {
+      int length = Math.max(lengthInBits, otherLengthInBits);
+      for (int i = 0; i < length; i++) {
+        boolean isSet = analyzer.isSet(key, i);
+        if (isSet) {
+          allNull = false;
+        }
+        
+        if (isSet != analyzer.isSet(otherKey, i)) {
+          return i;
+        }
+      }
+    }
+    
+    if (allNull) {
+      return KeyAnalyzer.NULL_KEY;
+    }
+    
+    return KeyAnalyzer.EQUAL_KEY;
+  }
+  
+  private static int bitIndex(CharSequenceKeyAnalyzer analyzer, 
+      CharSequence key, CharSequence otherKey) {
+    return bitIndex(analyzer, key, otherKey, 
+        analyzer.lengthInBits(key), analyzer.lengthInBits(otherKey));
+  }
+}
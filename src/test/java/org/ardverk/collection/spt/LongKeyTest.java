@@ -0,0 +1,101 @@
+package org.ardverk.collection.spt;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.spt.longs.LongMap;
+import org.ardverk.collection.spt.longs.PatriciaLongTrie;
+import org.junit.Test;
+
+public class LongKeyTest {
+
+  @Test
+  public void bitIndex() {
+    LongKeyAnalyzer analyzer = LongKeyAnalyzer.INSTANCE;
+    
+    TestCase.assertEquals(KeyAnalyzer.NULL_KEY, analyzer.bitIndex(0L, 1L));
+    TestCase.assertEquals(KeyAnalyzer.EQUAL_KEY, analyzer.bitIndex(5L, 5L));
+    TestCase.assertEquals(0, analyzer.bitIndex(-1L, 1L));
+    TestCase.assertEquals(63, analyzer.bitIndex(1L, 0L));
+    TestCase.assertEquals(31, IntegerKeyAnalyzer.INSTANCE.bitIndex(1, 0));
+  }
+  
+  @Test
+  public void putUnsigned() {
+    PatriciaLongTrie m = new PatriciaLongTrie();
+    m.put(-1L, -1L);
+    m.put(0L, 0L);
+    m.put(1L, 1L);
+    
+    TestCase.assertEquals(0L, m.firstKey());
+    TestCase.assertEquals(-1L, m.lastKey());
+  }
+  
+  @Test
+  public void pollRoot() {
+    // The key 0 is stored in the RootNode
+    PatriciaLongTrie m = new PatriciaLongTrie();
+    m.put(0L, 1L);
+    m.put(5L, 2L);
+    
+    LongMap.Entry first = m.pollFirstEntry();
+    TestCase.assertEquals(0L, first.getKey());
+    TestCase.assertEquals(1L, first.getValue());
+    TestCase.assertFalse(m.containsKey(0L));
+    
+    m.remove(5L);
+    m.put(0L, 3L);
+    
+    LongMap.Entry last = m.pollLastEntry();
+    TestCase.assertEquals(0L, last.getKey());
+    TestCase.assertEquals(3L, last.getValue());
+    TestCase.assertTrue(m.isEmpty());
+    TestCase.assertNull(m.pollFirstEntry());
+    TestCase.assertNull(m.pollLastEntry());
+  }
+  
+  @Test
+  public void putSigned() {
+    PatriciaLongTrie m = new PatriciaLongTrie();
+    m.put(LongKeyAnalyzer.transform(-1L), -1L);
+    m.put(LongKeyAnalyzer.transform(0L), 0L);
+    m.put(LongKeyAnalyzer.transform(1L), 1L);
+    
+    TestCase.assertEquals(-1L, LongKeyAnalyzer.transform(m.firstKey()));
+    TestCase.assertEquals(1L, LongKeyAnalyzer.transform(m.lastKey()));
+    
+    long key = LongKeyAnalyzer.transform(0L);
+    TestCase.assertEquals(0L, m.get(key));
+  }
+  
+  @Test
+  public void removeRandom() {
+    PatriciaLongTrie m = new PatriciaLongTrie(true);
+    TreeMap<Long, Long> expected 
+      = new TreeMap<Long, Long>(Long::compareUnsigned);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 100000; i++) {
+      long key = (long)random.nextInt(4096) << random.nextInt(52);
+      if (random.nextBoolean()) {
+        m.put(key, i);
+        expected.put(key, (long)i);
+      } else {
+        Long value = expected.remove(key);
+        TestCase.assertEquals(value != null ? value : -1L, m.remove(key));
+      }
+      
+      TestCase.assertEquals(expected.size(), m.size());
+    }
+    
+    int index = 0;
+    long[] keys = m.keySet();
+    for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+      TestCase.assertEquals(entry.getKey().longValue(), keys[index++]);
+      TestCase.assertEquals(entry.getValue().longValue(), m.get(entry.getKey()));
+    }
+  }
+}
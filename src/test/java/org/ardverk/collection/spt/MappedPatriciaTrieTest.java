@@ -0,0 +1,170 @@
+package org.ardverk.collection.spt;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.spt.MappedPatriciaTrie.Codec;
+import org.junit.Test;
+
+public class MappedPatriciaTrieTest {
+  
+  @Test
+  public void views() throws Exception {
+    PatriciaTrie<String, String> m 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      m.put(key, i % 10 != 0 ? Integer.toString(i) : null);
+    }
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>(m);
+    
+    MappedPatriciaTrie<String, String> trie = copy(m);
+    TestCase.assertEquals(expected.size(), trie.size());
+    TestCase.assertEquals(expected, trie);
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.keySet()),
+        new ArrayList<String>(trie.keySet()));
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.values()),
+        new ArrayList<String>(trie.values()));
+    
+    for (String key : expected.keySet()) {
+      TestCase.assertEquals(expected.get(key), trie.get(key));
+      TestCase.assertTrue(trie.containsKey(key));
+    }
+    
+    TestCase.assertEquals(expected.firstKey(), trie.firstKey());
+    TestCase.assertEquals(expected.lastKey(), trie.lastKey());
+    
+    for (int i = 0; i < 1000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      TestCase.assertEquals(expected.get(key), trie.get(key));
+      TestCase.assertEquals(expected.ceilingKey(key), trie.ceilingKey(key));
+      TestCase.assertEquals(expected.floorKey(key), trie.floorKey(key));
+      TestCase.assertEquals(expected.higherKey(key), trie.higherKey(key));
+      TestCase.assertEquals(expected.lowerKey(key), trie.lowerKey(key));
+      
+      // Both visit the keys in the order of their closeness to the key
+      final List<String> selected = new ArrayList<String>();
+      trie.select(key, (entry) -> {
+        selected.add(entry.getKey());
+        return selected.size() < 20;
+      });
+      
+      final List<String> closest = new ArrayList<String>();
+      m.select(key, (entry) -> {
+        closest.add(entry.getKey());
+        return closest.size() < 20;
+      });
+      
+      TestCase.assertEquals(closest, selected);
+    }
+    
+    SortedMap<String, String> subMap = trie.subMap("1", "a");
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("1", "a").keySet()),
+        new ArrayList<String>(subMap.keySet()));
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("2", "3").keySet()),
+        new ArrayList<String>(subMap.subMap("2", "3").keySet()));
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.headMap("5", true).keySet()),
+        new ArrayList<String>(trie.headMap("5", true).keySet()));
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.tailMap("5", false).keySet()),
+        new ArrayList<String>(trie.tailMap("5", false).keySet()));
+    
+    Map<String, String> prefixMap = trie.prefixMap("1", Character.SIZE);
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("1", "2").keySet()),
+        new ArrayList<String>(prefixMap.keySet()));
+    TestCase.assertTrue(trie.prefixMap("!", Character.SIZE).isEmpty());
+  }
+  
+  @Test
+  public void nullKey() throws Exception {
+    PatriciaTrie<String, String> m 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    m.put(null, "null");
+    TestCase.assertEquals("null", copy(m).get(null));
+    
+    m.put("1", "1");
+    m.put("2", "2");
+    
+    MappedPatriciaTrie<String, String> trie = copy(m);
+    TestCase.assertEquals(3, trie.size());
+    TestCase.assertEquals("null", trie.get(null));
+    TestCase.assertNull(trie.firstKey());
+    TestCase.assertEquals("1", trie.get("1"));
+    TestCase.assertEquals("2", trie.lastKey());
+    
+    trie = copy(new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE));
+    TestCase.assertTrue(trie.isEmpty());
+    TestCase.assertNull(trie.get("1"));
+    TestCase.assertNull(trie.firstEntry());
+    TestCase.assertNull(trie.ceilingEntry("1"));
+    TestCase.assertFalse(trie.keySet().iterator().hasNext());
+  }
+  
+  @Test
+  public void immutable() throws Exception {
+    Map<String, String> m = new LinkedHashMap<String, String>();
+    m.put("1", "1");
+    
+    MappedPatriciaTrie<String, String> trie = copy(m);
+    
+    try {
+      trie.put("2", "2");
+      TestCase.fail("Should have failed");
+    } catch (UnsupportedOperationException expectedException) {
+    }
+    
+    try {
+      trie.remove("1");
+      TestCase.fail("Should have failed");
+    } catch (UnsupportedOperationException expectedException) {
+    }
+    
+    try {
+      trie.firstEntry().setValue("2");
+      TestCase.fail("Should have failed");
+    } catch (UnsupportedOperationException expectedException) {
+    }
+    
+    // The keys must be in the order of their bits
+    m.put("0", "0");
+    try {
+      copy(m);
+      TestCase.fail("Should have failed");
+    } catch (IllegalArgumentException expectedException) {
+    }
+  }
+  
+  private static MappedPatriciaTrie<String, String> copy(
+      Map<String, String> m) throws Exception {
+    // The file stays mapped until the MappedPatriciaTrie is GC'ed
+    Path path = Files.createTempFile("MappedPatriciaTrieTest", ".trie");
+    path.toFile().deleteOnExit();
+    
+    MappedPatriciaTrie.write(path, m, CharSequenceKeyAnalyzer.INSTANCE, 
+        Codec.UTF_8, Codec.UTF_8);
+    return MappedPatriciaTrie.open(path, 
+        CharSequenceKeyAnalyzer.INSTANCE, Codec.UTF_8, Codec.UTF_8);
+  }
+}
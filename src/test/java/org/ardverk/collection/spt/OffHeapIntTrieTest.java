@@ -0,0 +1,98 @@
+package org.ardverk.collection.spt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.spt.ints.OffHeapIntTrie;
+import org.ardverk.collection.spt.ints.PatriciaIntTrie;
+import org.junit.Test;
+
+public class OffHeapIntTrieTest {
+  
+  @Test
+  public void direct() throws Exception {
+    try (OffHeapIntTrie m = new OffHeapIntTrie()) {
+      assertRandom(m);
+      
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+        out.writeObject(m);
+      }
+      
+      try (ObjectInputStream in = new ObjectInputStream(
+          new ByteArrayInputStream(baos.toByteArray()))) {
+        try (OffHeapIntTrie copy = (OffHeapIntTrie)in.readObject()) {
+          TestCase.assertEquals(m.size(), copy.size());
+          TestCase.assertEquals(m.toString(), copy.toString());
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void mapped() throws Exception {
+    Path path = Files.createTempFile("OffHeapIntTrieTest", ".trie");
+    try {
+      try (OffHeapIntTrie m = new OffHeapIntTrie(path, 0)) {
+        assertRandom(m);
+        
+        // 20 bytes per node plus the root node
+        TestCase.assertEquals((m.capacity() + 1) * 20L, Files.size(path));
+      }
+    } finally {
+      Files.delete(path);
+    }
+  }
+  
+  @Test
+  public void close() throws Exception {
+    // Java 8 and later have a way to release the memory right away
+    TestCase.assertTrue(OffHeapIntTrie.isCleanerAvailable());
+    
+    OffHeapIntTrie m = new OffHeapIntTrie();
+    m.put(1, 1);
+    TestCase.assertTrue(m.isOpen());
+    
+    m.close();
+    TestCase.assertFalse(m.isOpen());
+    
+    try {
+      m.get(1);
+      TestCase.fail("Should have failed");
+    } catch (IllegalStateException expected) {
+    }
+    
+    // It's a no-op
+    m.close();
+  }
+  
+  private static void assertRandom(OffHeapIntTrie m) {
+    PatriciaIntTrie patricia = new PatriciaIntTrie();
+    
+    Random random = new Random(1L);
+    TreeMap<Integer, Integer> expected 
+      = IntMapAssert.putRemove(random, 100000, patricia, m);
+    
+    // Both have the same structure
+    TestCase.assertEquals(
+        patricia.toString().replace("PatriciaIntTrie", ""),
+        m.toString().replace("OffHeapIntTrie", ""));
+    
+    int capacity = m.capacity();
+    IntMapAssert.removeSome(random, expected, m);
+    
+    m.trimToSize();
+    TestCase.assertTrue(m.capacity() < capacity);
+    TestCase.assertTrue(m.capacity() <= expected.size());
+    
+    IntMapAssert.assertKeyValues(expected, m);
+  }
+}
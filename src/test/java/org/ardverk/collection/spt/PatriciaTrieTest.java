@@ -1,9 +1,29 @@
 package org.ardverk.collection.spt;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import junit.framework.TestCase;
 
@@ -61,6 +81,33 @@ public class PatriciaTrieTest {
     TestCase.assertEquals("3", trie.selectKey("3"));
   }
   
+  @Test
+  public void deep() {
+    PatriciaTrie<String, Integer> trie 
+      = new PatriciaTrie<String, Integer>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    // Every key is a prefix of the next key
+    StringBuilder key = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      key.append('a');
+      trie.put(key.toString(), i);
+    }
+    
+    TestCase.assertEquals(2000, trie.size());
+    TestCase.assertEquals(0, trie.get("a").intValue());
+    TestCase.assertEquals(1999, trie.get(key.toString()).intValue());
+    TestCase.assertEquals("a", trie.firstKey());
+    TestCase.assertEquals(key.toString(), trie.lastKey());
+    
+    final int[] count = { 0 };
+    trie.select(key.toString(), (entry) -> {
+      TestCase.assertEquals(1999 - count[0]++, entry.getValue().intValue());
+      return true;
+    });
+    TestCase.assertEquals(2000, count[0]);
+  }
+  
   @Test
   public void remove() {
     PatriciaTrie<String, String> trie 
@@ -83,6 +130,275 @@ public class PatriciaTrieTest {
     TestCase.assertEquals("null-key", trie.get(null));
   }
   
+  @Test
+  public void pollRoot() {
+    // The null key and the all-zero key are both stored in the RootNode
+    for (String key : new String[] { null, "" }) {
+      PatriciaTrie<String, String> trie
+        = new PatriciaTrie<String, String>(
+          CharSequenceKeyAnalyzer.INSTANCE);
+      
+      trie.put("1", "1");
+      trie.put(key, "root");
+      
+      Entry<String, String> first = trie.pollFirstEntry();
+      TestCase.assertEquals(key, first.getKey());
+      TestCase.assertEquals("root", first.getValue());
+      TestCase.assertFalse(trie.containsKey(key));
+      TestCase.assertEquals(1, trie.size());
+      
+      trie.remove("1");
+      trie.put(key, "root");
+      
+      Entry<String, String> last = trie.pollLastEntry();
+      TestCase.assertEquals(key, last.getKey());
+      TestCase.assertEquals("root", last.getValue());
+      TestCase.assertTrue(trie.isEmpty());
+      TestCase.assertNull(trie.pollFirstEntry());
+      
+      trie.put(key, "root");
+      Entry<String, String> entry = trie.entry(key);
+      TestCase.assertEquals(key, entry.getKey());
+      TestCase.assertEquals("root", trie.remove(key));
+      TestCase.assertNull(trie.remove(key));
+      TestCase.assertTrue(trie.isEmpty());
+      
+      trie.put(key, "root");
+      TestCase.assertTrue(trie.entrySet().remove(
+          new AbstractMap.SimpleEntry<String, String>(key, "root")));
+      TestCase.assertTrue(trie.isEmpty());
+    }
+  }
+  
+  @Test
+  public void removeRandom() {
+    PatriciaTrie<String, String> trie 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(5000), 36);
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    
+    List<String> keys = new ArrayList<String>(expected.keySet());
+    Collections.shuffle(keys, random);
+    
+    for (String key : keys) {
+      TestCase.assertEquals(key, trie.remove(key));
+      expected.remove(key);
+      
+      TestCase.assertNull(trie.get(key));
+      TestCase.assertEquals(expected.size(), trie.size());
+      
+      if (expected.size() % 100 == 0) {
+        TestCase.assertEquals(
+            new ArrayList<String>(expected.keySet()), 
+            new ArrayList<String>(trie.keySet()));
+        
+        for (String other : expected.keySet()) {
+          TestCase.assertEquals(other, trie.get(other));
+        }
+      }
+    }
+    
+    TestCase.assertTrue(trie.isEmpty());
+    TestCase.assertNull(trie.remove("1"));
+  }
+  
+  @Test
+  public void prefixMap() {
+    PatriciaTrie<String, String> trie 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    
+    trie.put("", "empty");
+    expected.put("", "empty");
+    
+    String[] prefixes = { "", "1", "1a", "a", "zz", "zzzzz", "\u0000" };
+    for (String prefix : prefixes) {
+      Map<String, String> prefixMap = trie.prefixMap(prefix, prefix.length() * Character.SIZE);
+      
+      List<String> keys = new ArrayList<String>();
+      for (String key : expected.keySet()) {
+        if (key.startsWith(prefix) || prefix.equals("\u0000") && key.isEmpty()) {
+          keys.add(key);
+        }
+      }
+      
+      TestCase.assertEquals(keys, new ArrayList<String>(prefixMap.keySet()));
+      TestCase.assertEquals(keys.size(), prefixMap.size());
+      TestCase.assertEquals(keys.isEmpty(), prefixMap.isEmpty());
+      
+      final List<String> traversed = new ArrayList<String>();
+      trie.prefixTraverse(prefix, prefix.length() * Character.SIZE, (entry) -> {
+        traversed.add(entry.getKey());
+        return true;
+      });
+      TestCase.assertEquals(keys, traversed);
+      
+      for (String key : keys) {
+        TestCase.assertTrue(prefixMap.containsKey(key));
+      }
+    }
+    
+    Map<String, String> prefixMap = trie.prefixMap("1", Character.SIZE);
+    TestCase.assertNull(prefixMap.get("2"));
+    TestCase.assertNull(prefixMap.put("1-new", "1-new"));
+    TestCase.assertEquals("1-new", trie.get("1-new"));
+    
+    try {
+      prefixMap.put("2-new", "2-new");
+      TestCase.fail("Should have failed");
+    } catch (IllegalArgumentException expectedException) {
+      // OK
+    }
+    
+    // Removes all keys that start with "1" through the Iterator
+    int size = trie.size();
+    int count = prefixMap.size();
+    prefixMap.clear();
+    
+    TestCase.assertTrue(prefixMap.isEmpty());
+    TestCase.assertEquals(size - count, trie.size());
+    for (String key : trie.keySet()) {
+      TestCase.assertFalse(key.startsWith("1"));
+    }
+  }
+  
+  @Test
+  public void navigation() {
+    PatriciaTrie<String, String> trie 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    
+    for (int i = 0; i < 10000; i++) {
+      // Add and remove the empty key every once in a while
+      if (i % 1000 == 0) {
+        if (expected.containsKey("")) {
+          trie.remove("");
+          expected.remove("");
+        } else {
+          trie.put("", "");
+          expected.put("", "");
+        }
+      }
+      
+      String key = i % 100 != 0 ? Integer.toString(random.nextInt(60000), 36) : "";
+      
+      TestCase.assertEquals(expected.ceilingKey(key), trie.ceilingKey(key));
+      TestCase.assertEquals(expected.floorKey(key), trie.floorKey(key));
+      TestCase.assertEquals(expected.higherKey(key), trie.higherKey(key));
+      TestCase.assertEquals(expected.lowerKey(key), trie.lowerKey(key));
+    }
+    
+    TestCase.assertNull(trie.higherKey(expected.lastKey()));
+    TestCase.assertNull(new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE).ceilingEntry("1"));
+  }
+  
+  @Test
+  public void subMap() {
+    PatriciaTrie<String, String> trie 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    
+    trie.put("", "");
+    expected.put("", "");
+    
+    for (int i = 0; i < 200; i++) {
+      String fromKey = Integer.toString(random.nextInt(50000), 36);
+      String toKey = Integer.toString(random.nextInt(50000), 36);
+      if (fromKey.compareTo(toKey) > 0) {
+        String tmp = fromKey;
+        fromKey = toKey;
+        toKey = tmp;
+      }
+      
+      boolean fromInclusive = random.nextBoolean();
+      boolean toInclusive = random.nextBoolean();
+      
+      TestCase.assertEquals(
+          new ArrayList<String>(expected.subMap(fromKey, fromInclusive, toKey, toInclusive).keySet()), 
+          new ArrayList<String>(trie.subMap(fromKey, fromInclusive, toKey, toInclusive).keySet()));
+      
+      TestCase.assertEquals(
+          new ArrayList<String>(expected.headMap(toKey, toInclusive).keySet()), 
+          new ArrayList<String>(trie.headMap(toKey, toInclusive).keySet()));
+      
+      TestCase.assertEquals(
+          new ArrayList<String>(expected.tailMap(fromKey, fromInclusive).keySet()), 
+          new ArrayList<String>(trie.tailMap(fromKey, fromInclusive).keySet()));
+    }
+    
+    SortedMap<String, String> subMap = trie.subMap("a", "b");
+    SortedMap<String, String> expectedSubMap = expected.subMap("a", "b");
+    
+    TestCase.assertEquals(expectedSubMap.size(), subMap.size());
+    TestCase.assertEquals(expectedSubMap.firstKey(), subMap.firstKey());
+    TestCase.assertEquals(expectedSubMap.lastKey(), subMap.lastKey());
+    TestCase.assertEquals(
+        new ArrayList<String>(expectedSubMap.headMap("ak").keySet()), 
+        new ArrayList<String>(subMap.headMap("ak").keySet()));
+    TestCase.assertTrue(subMap.comparator().compare("a", "ab") < 0);
+    
+    try {
+      subMap.put("c", "c");
+      TestCase.fail("Should have failed");
+    } catch (IllegalArgumentException expectedException) {
+      // OK
+    }
+    
+    // Remove every other entry through the Iterator
+    boolean remove = false;
+    for (Iterator<String> it = subMap.keySet().iterator(); it.hasNext(); ) {
+      String key = it.next();
+      if (remove = !remove) {
+        it.remove();
+        expected.remove(key);
+      }
+    }
+    
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.keySet()), 
+        new ArrayList<String>(trie.keySet()));
+    
+    subMap.clear();
+    TestCase.assertTrue(subMap.isEmpty());
+    TestCase.assertEquals(expected.size() - expectedSubMap.size(), trie.size());
+  }
+  
   @Test
   public void replace() {
     PatriciaTrie<String, String> trie 
@@ -134,6 +450,57 @@ public class PatriciaTrieTest {
     TestCase.assertTrue(entrySet.isEmpty());
   }
   
+  @Test
+  public void iteratorRemove() {
+    PatriciaTrie<String, String> trie 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(2L);
+    for (int i = 0; i < 2000; i++) {
+      String key = "/" + Integer.toString(random.nextInt(5000), 2);
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    
+    Iterator<String> it = trie.keySet().iterator();
+    Iterator<String> other = expected.keySet().iterator();
+    while (other.hasNext()) {
+      TestCase.assertTrue(it.hasNext());
+      TestCase.assertEquals(other.next(), it.next());
+      
+      if (random.nextBoolean()) {
+        it.remove();
+        other.remove();
+      }
+    }
+    
+    TestCase.assertFalse(it.hasNext());
+    TestCase.assertEquals(expected.size(), trie.size());
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.keySet()), 
+        new ArrayList<String>(trie.keySet()));
+  }
+  
+  @Test(expected = ConcurrentModificationException.class)
+  public void iteratorFailFast() {
+    PatriciaTrie<String, String> trie 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    trie.put("1", "1");
+    trie.put("2", "2");
+    trie.put("3", "3");
+    
+    Iterator<String> it = trie.keySet().iterator();
+    it.next();
+    
+    trie.put("4", "4");
+    it.next();
+  }
+  
   @Test
   public void keySet() {
     PatriciaTrie<String, String> trie 
@@ -181,4 +548,310 @@ public class PatriciaTrieTest {
     TestCase.assertTrue(values.contains("1"));
     TestCase.assertTrue(values.contains("3"));
   }
+  
+  @Test
+  public void builder() {
+    PatriciaTrie<String, String> unsorted 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      unsorted.put(key, key);
+    }
+    unsorted.put("", "empty");
+    
+    // The same as putting the keys one by one in their order
+    PatriciaTrie<String, String> expected 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    for (Entry<String, String> entry : unsorted.entrySet()) {
+      expected.put(entry.getKey(), entry.getValue());
+}
+
+    PatriciaTrie<String, String> trie 
+      = PatriciaTrie.<String, String>builder(CharSequenceKeyAnalyzer.INSTANCE)
+        .addSorted(unsorted)
+        .build();
+    
+    TestCase.assertEquals(expected.size(), trie.size());
+    TestCase.assertEquals(expected.toString(), trie.toString());
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.keySet()), 
+        new ArrayList<String>(trie.keySet()));
+    TestCase.assertEquals("empty", trie.get(""));
+    
+    // Both have the same structure and select the keys in the same order
+    for (int i = 0; i < 100; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      
+      final List<String> selected = new ArrayList<String>();
+      trie.select(key, (entry) -> {
+        selected.add(entry.getKey());
+        return selected.size() < 50;
+      });
+      
+      final List<String> closest = new ArrayList<String>();
+      expected.select(key, (entry) -> {
+        closest.add(entry.getKey());
+        return closest.size() < 50;
+      });
+      
+      TestCase.assertEquals(closest, selected);
+    }
+    
+    trie.put("zzz", "zzz");
+    TestCase.assertEquals("zzz", trie.remove("zzz"));
+    TestCase.assertEquals("empty", trie.remove(trie.firstKey()));
+    TestCase.assertEquals(expected.size() - 1, trie.size());
+    
+    PatriciaTrie.Builder<String, String> builder 
+      = PatriciaTrie.builder(CharSequenceKeyAnalyzer.INSTANCE);
+    builder.add("2", "2").add("2", "two");
+    
+    try {
+      builder.add("1", "1");
+      TestCase.fail("Should have failed");
+    } catch (IllegalArgumentException expectedException) {
+    }
+    
+    TestCase.assertEquals("two", builder.build().get("2"));
+    
+    try {
+      builder.add("3", "3");
+      TestCase.fail("Should have failed");
+    } catch (IllegalStateException expectedException) {
+    }
+  }
+  
+  @Test
+  public void parallelBuild() {
+    TreeMap<String, String> sorted = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 50000; i++) {
+      String key = Integer.toString(random.nextInt(), 36);
+      sorted.put(key, key);
+}
+
+    // The same as putting the keys one by one in their order
+    PatriciaTrie<String, String> expected 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    expected.put(null, "null");
+    for (Entry<String, String> entry : new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE, sorted).entrySet()) {
+      expected.put(entry.getKey(), entry.getValue());
+    }
+    
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      PatriciaTrie<String, String> trie = PatriciaTrie.parallelBuild(
+          CharSequenceKeyAnalyzer.INSTANCE, expected, pool);
+      
+      TestCase.assertEquals(expected.size(), trie.size());
+      TestCase.assertEquals(expected.toString(), trie.toString());
+      TestCase.assertEquals("null", trie.get(null));
+      
+      for (String key : sorted.keySet()) {
+        TestCase.assertEquals(key, trie.get(key));
+      }
+      
+      Map<String, String> unsorted = new LinkedHashMap<String, String>();
+      unsorted.put("2", "2");
+      unsorted.put("1", "1");
+      
+      try {
+        PatriciaTrie.parallelBuild(CharSequenceKeyAnalyzer.INSTANCE, unsorted, pool);
+        TestCase.fail("Should have failed");
+      } catch (IllegalArgumentException expectedException) {
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  @Test
+  public void spliterator() {
+    PatriciaTrie<String, String> trie 
+      = new PatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TestCase.assertEquals(0L, trie.keySet().stream().count());
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 20000; i++) {
+      String key = Integer.toString(random.nextInt(), 36);
+      trie.put(key, key);
+    }
+    trie.put(null, "null");
+    
+    List<String> keys = new ArrayList<String>(trie.keySet());
+    
+    Spliterator<String> spliterator = trie.keySet().spliterator();
+    TestCase.assertTrue(spliterator.hasCharacteristics(
+        Spliterator.ORDERED | Spliterator.SORTED | Spliterator.SIZED | Spliterator.DISTINCT));
+    TestCase.assertEquals(trie.size(), spliterator.getExactSizeIfKnown());
+    
+    TestCase.assertEquals(keys, trie.keySet().parallelStream()
+        .collect(Collectors.toList()));
+    TestCase.assertEquals(keys, trie.entrySet().parallelStream()
+        .map(Entry::getKey).collect(Collectors.toList()));
+    TestCase.assertEquals(new ArrayList<String>(trie.values()), 
+        trie.values().parallelStream().collect(Collectors.toList()));
+    
+    // The halves are in order and cover all keys
+    Spliterator<String> prefix = spliterator.trySplit();
+    final List<String> split = new ArrayList<String>();
+    prefix.forEachRemaining(split::add);
+    spliterator.forEachRemaining(split::add);
+    TestCase.assertEquals(keys, split);
+    
+    TestCase.assertEquals(keys.size() - 1, trie.keySet().parallelStream()
+        .filter((key) -> key != null).count());
+    TestCase.assertTrue(trie.entrySet().parallelStream()
+        .allMatch((entry) -> trie.get(entry.getKey()) == entry.getValue()));
+    
+    try {
+      trie.keySet().stream().forEach((key) -> trie.put(key + "!", key));
+      TestCase.fail("Should have failed");
+    } catch (ConcurrentModificationException expected) {
+    }
+  }
+  
+  @Test
+  public void parallelToArray() {
+    for (int count : new int[] { 0, 1, 2, 250, 20000 }) {
+      PatriciaTrie<Integer, Integer> trie 
+        = new PatriciaTrie<Integer, Integer>(
+          IntegerKeyAnalyzer.INSTANCE);
+      
+      Random random = new Random(count);
+      while (trie.size() < count) {
+        int key = random.nextInt();
+        trie.put(key, key);
+      }
+      
+      // The Spliterators must not claim an exact size once they're split
+      Object[] keys = trie.keySet().stream().toArray();
+      TestCase.assertTrue(Arrays.equals(keys, 
+          trie.keySet().parallelStream().toArray()));
+      TestCase.assertTrue(Arrays.equals(keys, 
+          trie.values().parallelStream().toArray()));
+      TestCase.assertTrue(Arrays.equals(keys, 
+          trie.entrySet().parallelStream().map(Entry::getKey).toArray()));
+      
+      TestCase.assertEquals(Arrays.asList(keys), trie.keySet().parallelStream()
+          .collect(Collectors.toList()));
+      TestCase.assertEquals(Arrays.asList(keys), trie.values().parallelStream()
+          .collect(Collectors.toList()));
+      
+      Spliterator<Integer> spliterator = trie.keySet().spliterator();
+      if (spliterator.trySplit() != null) {
+        TestCase.assertFalse(spliterator.hasCharacteristics(Spliterator.SIZED));
+      }
+    }
+  }
+  
+  @Test
+  public void parallelTraverse() {
+    PatriciaTrie<Integer, Integer> trie 
+      = new PatriciaTrie<Integer, Integer>(
+        IntegerKeyAnalyzer.INSTANCE);
+    
+    long sum = 0L;
+    Random random = new Random(1L);
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt();
+      if (trie.put(key, i) == null) {
+        sum += i;
+      }
+}
+
+    final AtomicInteger count = new AtomicInteger();
+    trie.parallelTraverse((entry) -> {
+      count.incrementAndGet();
+      return true;
+    }, 100);
+    TestCase.assertEquals(trie.size(), count.get());
+    
+    final AtomicLong total = new AtomicLong();
+    trie.forEach(100L, (key, value) -> total.addAndGet(value));
+    TestCase.assertEquals(sum, total.get());
+    
+    TestCase.assertEquals(sum, trie.reduceValuesToLong(100L, 
+        Integer::longValue, 0L, Long::sum));
+    TestCase.assertEquals(trie.size(), trie.reduceValuesToLong(100L, 
+        (value) -> 1L, 0L, Long::sum));
+    TestCase.assertEquals(Collections.max(trie.values()), 
+        trie.reduceValues(100L, Math::max));
+    
+    // The reducer sees the Entries in order
+    TestCase.assertEquals(trie.firstKey(), trie.reduceEntries(100L, 
+        (entry, other) -> entry).getKey());
+    TestCase.assertEquals(new ArrayList<Integer>(trie.keySet()), 
+        trie.reduceEntries(100L, (entry) -> Collections.singletonList(entry.getKey()), 
+          (keys, other) -> {
+            List<Integer> both = new ArrayList<Integer>(keys);
+            both.addAll(other);
+            return both;
+          }));
+    
+    count.set(0);
+    trie.parallelTraverse((entry) -> count.incrementAndGet() < 10, Integer.MAX_VALUE);
+    TestCase.assertEquals(10, count.get());
+    
+    trie.clear();
+    TestCase.assertNull(trie.reduceValues(1L, Math::max));
+    TestCase.assertEquals(0L, trie.reduceValuesToLong(1L, 
+        Integer::longValue, 0L, Long::sum));
+  }
+  
+  @Test
+  public void serialization() throws Exception {
+    PatriciaTrie<Integer, String> trie 
+      = new PatriciaTrie<Integer, String>(
+        IntegerKeyAnalyzer.INSTANCE);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 10000; i++) {
+      trie.put(random.nextInt(), Integer.toString(i));
+    }
+    trie.put(null, "null");
+    
+    // The same as putting the keys one by one in their order
+    PatriciaTrie<Integer, String> expected 
+      = new PatriciaTrie<Integer, String>(
+        IntegerKeyAnalyzer.INSTANCE);
+    for (Entry<Integer, String> entry : trie.entrySet()) {
+      expected.put(entry.getKey(), entry.getValue());
+}
+
+    PatriciaTrie<Integer, String> copy = copy(trie);
+    TestCase.assertEquals(expected.size(), copy.size());
+    TestCase.assertEquals(expected.toString(), copy.toString());
+    TestCase.assertEquals("null", copy.get(null));
+    TestCase.assertSame(IntegerKeyAnalyzer.INSTANCE.getClass(), 
+        copy.getKeyAnalyzer().getClass());
+    
+    copy.put(42, "42");
+    TestCase.assertEquals("42", copy.get(42));
+    
+    TestCase.assertTrue(copy(new PatriciaTrie<Integer, String>(
+        IntegerKeyAnalyzer.INSTANCE)).isEmpty());
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static <T> T copy(T object) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+      out.writeObject(object);
+    }
+    
+    try (ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(baos.toByteArray()))) {
+      return (T)in.readObject();
+    }
+  }
 }
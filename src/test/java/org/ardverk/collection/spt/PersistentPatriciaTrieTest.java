@@ -0,0 +1,157 @@
+package org.ardverk.collection.spt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class PersistentPatriciaTrieTest {
+  
+  @Test
+  public void with() {
+    PersistentPatriciaTrie<String, String> empty
+      = new PersistentPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    PersistentPatriciaTrie<String, String> trie = empty
+        .with("1", "1")
+        .with("2", "2")
+        .with("3", "3");
+    
+    TestCase.assertTrue(empty.isEmpty());
+    TestCase.assertEquals(3, trie.size());
+    TestCase.assertEquals("2", trie.get("2"));
+    
+    PersistentPatriciaTrie<String, String> other = trie.with("2", "two");
+    TestCase.assertEquals(3, other.size());
+    TestCase.assertEquals("two", other.get("2"));
+    TestCase.assertEquals("2", trie.get("2"));
+    
+    other = other.with(null, "null");
+    TestCase.assertEquals(4, other.size());
+    TestCase.assertEquals("null", other.get(null));
+    TestCase.assertNull(trie.get(null));
+  }
+  
+  @Test
+  public void without() {
+    PersistentPatriciaTrie<String, String> trie
+      = new PersistentPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(5000), 36);
+      trie = trie.with(key, key);
+      expected.put(key, key);
+    }
+    
+    PersistentPatriciaTrie<String, String> snapshot = trie;
+    
+    List<String> keys = new ArrayList<String>(expected.keySet());
+    Collections.shuffle(keys, random);
+    
+    for (String key : keys) {
+      trie = trie.without(key);
+      expected.remove(key);
+      
+      TestCase.assertNull(trie.get(key));
+      TestCase.assertEquals(key, snapshot.get(key));
+      TestCase.assertEquals(expected.size(), trie.size());
+      
+      if (expected.size() % 100 == 0) {
+        TestCase.assertEquals(
+            new ArrayList<String>(expected.keySet()),
+            new ArrayList<String>(trie.keySet()));
+      }
+    }
+    
+    TestCase.assertTrue(trie.isEmpty());
+    TestCase.assertSame(trie, trie.without("1"));
+    TestCase.assertEquals(keys.size(), snapshot.size());
+  }
+  
+  @Test
+  public void views() {
+    Map<String, String> m = new TreeMap<String, String>();
+    Random random = new Random(1L);
+    for (int i = 0; i < 1000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      m.put(key, key);
+    }
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>(m);
+    PersistentPatriciaTrie<String, String> trie
+      = new PersistentPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE, m);
+    
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.keySet()),
+        new ArrayList<String>(trie.keySet()));
+    
+    for (int i = 0; i < 1000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      TestCase.assertEquals(expected.ceilingKey(key), trie.ceilingKey(key));
+      TestCase.assertEquals(expected.floorKey(key), trie.floorKey(key));
+      TestCase.assertEquals(expected.higherKey(key), trie.higherKey(key));
+      TestCase.assertEquals(expected.lowerKey(key), trie.lowerKey(key));
+    }
+    
+    SortedMap<String, String> subMap = trie.subMap("1", "a");
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("1", "a").keySet()),
+        new ArrayList<String>(subMap.keySet()));
+    
+    Map<String, String> prefixMap = trie.prefixMap("1", Character.SIZE);
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("1", "2").keySet()),
+        new ArrayList<String>(prefixMap.keySet()));
+    
+    // The views are bound to the version they were created from
+    PersistentPatriciaTrie<String, String> other = trie.with("1!", "1!");
+    TestCase.assertFalse(subMap.containsKey("1!"));
+    TestCase.assertTrue(other.subMap("1", "a").containsKey("1!"));
+  }
+  
+  @Test
+  public void immutable() {
+    PersistentPatriciaTrie<String, String> trie
+      = new PersistentPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE).with("1", "1");
+    
+    try {
+      trie.put("2", "2");
+      TestCase.fail("Should have failed");
+    } catch (UnsupportedOperationException expectedException) {
+    }
+    
+    try {
+      trie.remove("1");
+      TestCase.fail("Should have failed");
+    } catch (UnsupportedOperationException expectedException) {
+    }
+    
+    try {
+      trie.firstEntry().setValue("2");
+      TestCase.fail("Should have failed");
+    } catch (UnsupportedOperationException expectedException) {
+    }
+    
+    try {
+      trie.keySet().iterator().remove();
+      TestCase.fail("Should have failed");
+    } catch (UnsupportedOperationException expectedException) {
+    }
+    
+    TestCase.assertEquals(1, trie.size());
+  }
+}
@@ -0,0 +1,260 @@
+package org.ardverk.collection.spt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.ardverk.collection.spt.ints.PatriciaIntObjectTrie;
+import org.ardverk.collection.spt.ints.PatriciaIntTrie;
+import org.ardverk.collection.spt.longs.PatriciaLongObjectTrie;
+import org.ardverk.collection.spt.longs.PatriciaLongTrie;
+import org.junit.Test;
+
+public class PrimitiveObjectTrieTest {
+  
+  @Test
+  public void intRandom() throws Exception {
+    PatriciaIntObjectTrie<String> m = new PatriciaIntObjectTrie<String>();
+    TreeMap<Integer, String> expected
+      = new TreeMap<Integer, String>(Integer::compareUnsigned);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 100000; i++) {
+      int key = i % 1000 != 0 ? random.nextInt(4096) << random.nextInt(21) : 0;
+      if (random.nextInt(3) != 0) {
+        String value = Integer.toString(i);
+        TestCase.assertEquals(expected.put(key, value), m.put(key, value));
+      } else {
+        TestCase.assertEquals(expected.remove(key), m.remove(key));
+      }
+      
+      TestCase.assertEquals(expected.size(), m.size());
+    }
+    
+    for (int i = 0; i < 10000; i++) {
+      int key = i % 100 != 0 ? random.nextInt(4096) << random.nextInt(21) : 0;
+      TestCase.assertEquals(expected.get(key), m.get(key));
+      TestCase.assertEquals(expected.containsKey(key), m.containsKey(key));
+      
+      assertEntry(expected.ceilingEntry(key), m.ceilingEntry(key));
+      assertEntry(expected.floorEntry(key), m.floorEntry(key));
+      assertEntry(expected.higherEntry(key), m.higherEntry(key));
+      assertEntry(expected.lowerEntry(key), m.lowerEntry(key));
+    }
+    
+    TestCase.assertEquals(expected.firstKey().intValue(), m.firstKey());
+    TestCase.assertEquals(expected.lastKey().intValue(), m.lastKey());
+    
+    final List<Integer> keys = new ArrayList<Integer>();
+    m.traverse((entry) -> {
+      keys.add(entry.getKey());
+      return true;
+    });
+    TestCase.assertEquals(new ArrayList<Integer>(expected.keySet()), keys);
+    
+    @SuppressWarnings("unchecked")
+    PatriciaIntObjectTrie<String> copy = (PatriciaIntObjectTrie<String>)copy(m);
+    // The Nodes may have different bit indices but the same key-values
+    TestCase.assertEquals(m.size(), copy.size());
+    TestCase.assertEquals(
+        m.toString().replaceAll(" \\(-?\\d+\\)", ""),
+        copy.toString().replaceAll(" \\(-?\\d+\\)", ""));
+    
+    while (!expected.isEmpty()) {
+      assertEntry(expected.pollFirstEntry(), m.pollFirstEntry());
+      assertEntry(expected.pollLastEntry(), m.pollLastEntry());
+    }
+    
+    TestCase.assertTrue(m.isEmpty());
+    TestCase.assertNull(m.firstEntry());
+    TestCase.assertNull(m.lastEntry());
+  }
+  
+  @Test
+  public void intSelect() {
+    PatriciaIntObjectTrie<Integer> m = new PatriciaIntObjectTrie<Integer>();
+    PatriciaIntTrie expected = new PatriciaIntTrie();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 1000; i++) {
+      int key = random.nextInt();
+      m.put(key, i);
+      expected.put(key, i);
+    }
+    
+    for (int i = 0; i < 100; i++) {
+      int key = random.nextInt();
+      TestCase.assertEquals(expected.selectKey(key), m.selectKey(key));
+      TestCase.assertEquals(expected.selectValue(key), m.selectValue(key).intValue());
+      
+      // Both visit the keys in the order of their closeness to the key
+      final List<Integer> selected = new ArrayList<Integer>();
+      m.select(key, (entry) -> {
+        selected.add(entry.getKey());
+        return selected.size() < 50;
+      });
+      
+      final List<Integer> closest = new ArrayList<Integer>();
+      expected.select(key, (entry) -> {
+        closest.add(entry.getKey());
+        return closest.size() < 50;
+      });
+      
+      TestCase.assertEquals(closest, selected);
+    }
+  }
+  
+  @Test
+  public void longRandom() throws Exception {
+    PatriciaLongObjectTrie<String> m = new PatriciaLongObjectTrie<String>();
+    TreeMap<Long, String> expected
+      = new TreeMap<Long, String>(Long::compareUnsigned);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 100000; i++) {
+      long key = i % 1000 != 0 ? (long)random.nextInt(4096) << random.nextInt(52) : 0L;
+      if (random.nextInt(3) != 0) {
+        String value = Integer.toString(i);
+        TestCase.assertEquals(expected.put(key, value), m.put(key, value));
+      } else {
+        TestCase.assertEquals(expected.remove(key), m.remove(key));
+      }
+      
+      TestCase.assertEquals(expected.size(), m.size());
+    }
+    
+    for (int i = 0; i < 10000; i++) {
+      long key = i % 100 != 0 ? (long)random.nextInt(4096) << random.nextInt(52) : 0L;
+      TestCase.assertEquals(expected.get(key), m.get(key));
+      TestCase.assertEquals(expected.containsKey(key), m.containsKey(key));
+      
+      assertEntry(expected.ceilingEntry(key), m.ceilingEntry(key));
+      assertEntry(expected.floorEntry(key), m.floorEntry(key));
+      assertEntry(expected.higherEntry(key), m.higherEntry(key));
+      assertEntry(expected.lowerEntry(key), m.lowerEntry(key));
+    }
+    
+    TestCase.assertEquals(expected.firstKey().longValue(), m.firstKey());
+    TestCase.assertEquals(expected.lastKey().longValue(), m.lastKey());
+    
+    final List<Long> keys = new ArrayList<Long>();
+    m.traverse((entry) -> {
+      keys.add(entry.getKey());
+      return true;
+    });
+    TestCase.assertEquals(new ArrayList<Long>(expected.keySet()), keys);
+    
+    @SuppressWarnings("unchecked")
+    PatriciaLongObjectTrie<String> copy = (PatriciaLongObjectTrie<String>)copy(m);
+    // The Nodes may have different bit indices but the same key-values
+    TestCase.assertEquals(m.size(), copy.size());
+    TestCase.assertEquals(
+        m.toString().replaceAll(" \\(-?\\d+\\)", ""),
+        copy.toString().replaceAll(" \\(-?\\d+\\)", ""));
+    
+    while (!expected.isEmpty()) {
+      assertEntry(expected.pollFirstEntry(), m.pollFirstEntry());
+      assertEntry(expected.pollLastEntry(), m.pollLastEntry());
+    }
+    
+    TestCase.assertTrue(m.isEmpty());
+    TestCase.assertNull(m.firstEntry());
+    TestCase.assertNull(m.lastEntry());
+  }
+  
+  @Test
+  public void longSelect() {
+    PatriciaLongObjectTrie<Long> m = new PatriciaLongObjectTrie<Long>();
+    PatriciaLongTrie expected = new PatriciaLongTrie();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 1000; i++) {
+      long key = random.nextLong();
+      m.put(key, (long)i);
+      expected.put(key, i);
+    }
+    
+    for (int i = 0; i < 100; i++) {
+      long key = random.nextLong();
+      TestCase.assertEquals(expected.selectKey(key), m.selectKey(key));
+      TestCase.assertEquals(expected.selectValue(key), m.selectValue(key).longValue());
+      
+      // Both visit the keys in the order of their closeness to the key
+      final List<Long> selected = new ArrayList<Long>();
+      m.select(key, (entry) -> {
+        selected.add(entry.getKey());
+        return selected.size() < 50;
+      });
+      
+      final List<Long> closest = new ArrayList<Long>();
+      expected.select(key, (entry) -> {
+        closest.add(entry.getKey());
+        return closest.size() < 50;
+      });
+      
+      TestCase.assertEquals(closest, selected);
+    }
+  }
+  
+  @Test
+  public void pollRoot() {
+    // The key 0 is stored in the RootNode of both Tries
+    PatriciaIntObjectTrie<String> ints = new PatriciaIntObjectTrie<String>();
+    ints.put(0, "0");
+    ints.put(5, "5");
+    
+    PatriciaIntObjectTrie.Entry<String> first = ints.pollFirstEntry();
+    TestCase.assertEquals(0, first.getKey());
+    TestCase.assertEquals("0", first.getValue());
+    TestCase.assertFalse(ints.containsKey(0));
+    
+    PatriciaLongObjectTrie<String> longs = new PatriciaLongObjectTrie<String>();
+    longs.put(0L, "0");
+    longs.put(5L, "5");
+    
+    PatriciaLongObjectTrie.Entry<String> entry = longs.pollFirstEntry();
+    TestCase.assertEquals(0L, entry.getKey());
+    TestCase.assertEquals("0", entry.getValue());
+    TestCase.assertFalse(longs.containsKey(0L));
+  }
+  
+  private static void assertEntry(Map.Entry<Integer, String> expected,
+      PatriciaIntObjectTrie.Entry<String> entry) {
+    if (expected == null) {
+      TestCase.assertNull(entry);
+    } else {
+      TestCase.assertEquals(expected.getKey().intValue(), entry.getKey());
+      TestCase.assertEquals(expected.getValue(), entry.getValue());
+    }
+  }
+  
+  private static void assertEntry(Map.Entry<Long, String> expected,
+      PatriciaLongObjectTrie.Entry<String> entry) {
+    if (expected == null) {
+      TestCase.assertNull(entry);
+    } else {
+      TestCase.assertEquals(expected.getKey().longValue(), entry.getKey());
+      TestCase.assertEquals(expected.getValue(), entry.getValue());
+    }
+  }
+  
+  private static Object copy(Object o) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+      out.writeObject(o);
+    }
+    
+    try (ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(baos.toByteArray()))) {
+      return in.readObject();
+    }
+  }
+}
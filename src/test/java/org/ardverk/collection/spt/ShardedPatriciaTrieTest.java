@@ -0,0 +1,161 @@
+package org.ardverk.collection.spt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class ShardedPatriciaTrieTest {
+  
+  @Test
+  public void order() {
+    ShardedPatriciaTrie<String, String> trie
+      = new ShardedPatriciaTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE, 4);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 2000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      TestCase.assertEquals(expected.put(key, key), trie.put(key, key));
+    }
+    
+    trie.put(null, "null");
+    TestCase.assertEquals("null", trie.get(null));
+    TestCase.assertEquals("null", trie.remove(null));
+    
+    TestCase.assertEquals(expected.size(), trie.size());
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.keySet()),
+        new ArrayList<String>(trie.keySet()));
+    
+    final List<String> traversed = new ArrayList<String>();
+    trie.traverse((entry) -> {
+      traversed.add(entry.getKey());
+      return true;
+    });
+    TestCase.assertEquals(new ArrayList<String>(expected.keySet()), traversed);
+    
+    TestCase.assertEquals(expected.firstKey(), trie.firstKey());
+    TestCase.assertEquals(expected.lastKey(), trie.lastKey());
+    
+    for (int i = 0; i < 1000; i++) {
+      String key = Integer.toString(random.nextInt(50000), 36);
+      TestCase.assertEquals(expected.ceilingKey(key), trie.ceilingKey(key));
+      TestCase.assertEquals(expected.floorKey(key), trie.floorKey(key));
+      TestCase.assertEquals(expected.higherKey(key), trie.higherKey(key));
+      TestCase.assertEquals(expected.lowerKey(key), trie.lowerKey(key));
+    }
+    
+    SortedMap<String, String> subMap = trie.subMap("1", "a");
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("1", "a").keySet()),
+        new ArrayList<String>(subMap.keySet()));
+    TestCase.assertEquals(expected.subMap("1", "a").firstKey(), subMap.firstKey());
+    TestCase.assertEquals(expected.subMap("1", "a").lastKey(), subMap.lastKey());
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("2", "3").keySet()),
+        new ArrayList<String>(subMap.subMap("2", "3").keySet()));
+    
+    Map<String, String> prefixMap = trie.prefixMap("1", Character.SIZE);
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.subMap("1", "2").keySet()),
+        new ArrayList<String>(prefixMap.keySet()));
+    
+    try {
+      subMap.put("b", "b");
+      TestCase.fail("Should have failed");
+    } catch (IllegalArgumentException expectedException) {
+    }
+    
+    TestCase.assertEquals(expected.pollFirstEntry().getKey(), trie.pollFirstEntry().getKey());
+    TestCase.assertEquals(expected.pollLastEntry().getKey(), trie.pollLastEntry().getKey());
+    TestCase.assertEquals(expected.size(), trie.size());
+  }
+  
+  @Test
+  public void select() {
+    ShardedPatriciaTrie<Integer, Integer> trie
+      = new ShardedPatriciaTrie<Integer, Integer>(
+        IntegerKeyAnalyzer.INSTANCE, 3);
+    
+    PatriciaTrie<Integer, Integer> expected
+      = new PatriciaTrie<Integer, Integer>(
+        IntegerKeyAnalyzer.INSTANCE);
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 1000; i++) {
+      int key = random.nextInt();
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    
+    for (int i = 0; i < 100; i++) {
+      int key = random.nextInt();
+      TestCase.assertEquals(expected.selectKey(key), trie.selectKey(key));
+      
+      // Both visit the keys in the order of their closeness to the key
+      final List<Integer> selected = new ArrayList<Integer>();
+      trie.select(key, (entry) -> {
+        selected.add(entry.getKey());
+        return selected.size() < 50;
+      });
+      
+      final List<Integer> closest = new ArrayList<Integer>();
+      expected.select(key, (entry) -> {
+        closest.add(entry.getKey());
+        return closest.size() < 50;
+      });
+      
+      TestCase.assertEquals(closest, selected);
+    }
+  }
+  
+  @Test
+  public void concurrent() throws Exception {
+    final ShardedPatriciaTrie<Integer, Integer> trie
+      = new ShardedPatriciaTrie<Integer, Integer>(
+        IntegerKeyAnalyzer.INSTANCE, 4);
+    
+    final int threads = 8;
+    final int keys = 10000;
+    
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int t = 0; t < threads; t++) {
+        final int offset = t;
+        futures.add(executor.submit(() -> {
+          for (int i = offset; i < keys; i += threads) {
+            // Spread the keys over all Shards
+            int key = Integer.reverse(i);
+            trie.put(key, i);
+          }
+        }));
+      }
+      
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+    
+    TestCase.assertEquals(keys, trie.size());
+    for (int i = 0; i < keys; i++) {
+      TestCase.assertEquals(i, trie.get(Integer.reverse(i)).intValue());
+    }
+  }
+}
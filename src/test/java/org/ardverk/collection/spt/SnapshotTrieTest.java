@@ -0,0 +1,128 @@
+package org.ardverk.collection.spt;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class SnapshotTrieTest {
+  
+  @Test
+  public void publish() {
+    SnapshotTrie<String, String> trie
+      = new SnapshotTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE, 1L, TimeUnit.HOURS);
+    
+    TestCase.assertEquals(1L, trie.getPublishInterval(TimeUnit.HOURS));
+    
+    TestCase.assertNull(trie.put("1", "1"));
+    TestCase.assertNull(trie.put("2", "2"));
+    TestCase.assertEquals("2", trie.put("2", "two"));
+    
+    // The writes aren't visible until they're published
+    TestCase.assertEquals(3, trie.getPendingWrites());
+    TestCase.assertTrue(trie.isEmpty());
+    TestCase.assertNull(trie.get("1"));
+    
+    PersistentPatriciaTrie<String, String> snapshot = trie.snapshot();
+    
+    trie.publish();
+    TestCase.assertEquals(0, trie.getPendingWrites());
+    TestCase.assertEquals(0L, trie.getStaleness(TimeUnit.NANOSECONDS));
+    TestCase.assertEquals(1L, trie.getPublishCount());
+    
+    TestCase.assertEquals(2, trie.size());
+    TestCase.assertEquals("1", trie.get("1"));
+    TestCase.assertEquals("two", trie.get("2"));
+    TestCase.assertTrue(snapshot.isEmpty());
+    
+    TestCase.assertEquals("1", trie.remove("1"));
+    TestCase.assertNull(trie.remove("1"));
+    TestCase.assertEquals("1", trie.get("1"));
+    
+    trie.publish();
+    TestCase.assertNull(trie.get("1"));
+    TestCase.assertEquals(1, trie.size());
+    
+    trie.clear();
+    trie.put("3", "3");
+    TestCase.assertEquals(1, trie.size());
+    
+    trie.publish();
+    TestCase.assertEquals(1, trie.size());
+    TestCase.assertEquals("3", trie.get("3"));
+    TestCase.assertNull(trie.get("2"));
+  }
+  
+  @Test
+  public void removeRoot() {
+    SnapshotTrie<String, String> trie
+      = new SnapshotTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE, 1L, TimeUnit.HOURS);
+    
+    // The all-zero key "" is stored in the root of the PatriciaTrie
+    trie.put("b", "b");
+    trie.put("", "root");
+    trie.put("a", "a");
+    trie.publish();
+    TestCase.assertEquals(3, trie.size());
+    
+    TestCase.assertEquals("root", trie.remove(""));
+    trie.publish();
+    
+    TestCase.assertEquals(2, trie.size());
+    TestCase.assertFalse(trie.containsKey(""));
+    TestCase.assertFalse(trie.keySet().contains(""));
+  }
+  
+  @Test
+  public void interval() {
+    SnapshotTrie<String, String> trie
+      = new SnapshotTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE, 0L, TimeUnit.MILLISECONDS);
+    
+    // Every write is published right away
+    trie.put("1", "1");
+    TestCase.assertEquals("1", trie.get("1"));
+    TestCase.assertEquals(0, trie.getPendingWrites());
+    
+    TestCase.assertEquals("1", trie.pollFirstEntry().getKey());
+    TestCase.assertTrue(trie.isEmpty());
+  }
+  
+  @Test
+  public void random() {
+    SnapshotTrie<String, String> trie
+      = new SnapshotTrie<String, String>(
+        CharSequenceKeyAnalyzer.INSTANCE, 1L, TimeUnit.HOURS);
+    
+    TreeMap<String, String> expected = new TreeMap<String, String>();
+    
+    Random random = new Random(1L);
+    for (int i = 0; i < 5000; i++) {
+      String key = Integer.toString(random.nextInt(2000), 36);
+      if (random.nextInt(3) == 0) {
+        TestCase.assertEquals(expected.remove(key), trie.remove(key));
+      } else {
+        TestCase.assertEquals(expected.put(key, key), trie.put(key, key));
+      }
+      
+      if (i % 500 == 0) {
+        trie.publish();
+        TestCase.assertEquals(
+            new ArrayList<String>(expected.keySet()),
+            new ArrayList<String>(trie.keySet()));
+      }
+    }
+    
+    trie.publish();
+    TestCase.assertEquals(expected.size(), trie.size());
+    TestCase.assertEquals(
+        new ArrayList<String>(expected.keySet()),
+        new ArrayList<String>(trie.keySet()));
+  }
+}